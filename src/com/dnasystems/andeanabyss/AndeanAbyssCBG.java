@@ -17,17 +17,43 @@
 package com.dnasystems.andeanabyss;
 
 import android.app.Activity;
+import java.io.File;
+
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.opengl.GLSurfaceView;
 import android.os.Bundle;
 import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.MotionEvent;
 import android.view.ScaleGestureDetector;
+import android.view.VelocityTracker;
+import android.view.View;
+import android.view.ViewConfiguration;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+
+import com.dnasystems.andeanabyss.game.GameState;
 
 public class AndeanAbyssCBG extends Activity {
 
 	public static final String TAG = "AndeanAbyssCBG";
-    private GLSurfaceView mGLView;
+    private static final int MENU_UNDO = 1;
+    private static final int MENU_REDO = 2;
+    private static final int MENU_METRICS = 3;
+    private static final int MENU_DUMP_METRICS = 4;
+    private static final int MENU_END_TURN = 5;
+    // One per faction, in GameState faction order
+    private static final int MENU_BOT = 10;
+    private static final int[] BOT_TITLES = {
+        R.string.bot_gov, R.string.bot_farc, R.string.bot_auc, R.string.bot_cartels,
+    };
+    private static final String SAVE_FILE = "game.sav";
+    private static final String METRICS_FILE = "metrics.csv";
+    private MyGLSurfaceView mGLView;
+    private TextView mMetricsOverlay;
+    private final boolean[] mBotPlays = new boolean[GameState.FACTIONS];
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -36,7 +62,65 @@ public class AndeanAbyssCBG extends Activity {
         // Create a GLSurfaceView instance and set it
         // as the ContentView for this Activity
         mGLView = new MyGLSurfaceView(this);
-        setContentView(mGLView);
+        mGLView.load(new File(getFilesDir(), SAVE_FILE));
+        // Frame metrics drawn by the view system over the board, hidden
+        // until asked for
+        mMetricsOverlay = new TextView(this);
+        mMetricsOverlay.setTextColor(0xffffff00);
+        mMetricsOverlay.setBackgroundColor(0x80000000);
+        mMetricsOverlay.setVisibility(View.GONE);
+        FrameLayout layout = new FrameLayout(this);
+        layout.addView(mGLView);
+        layout.addView(mMetricsOverlay);
+        setContentView(layout);
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        menu.add(Menu.NONE, MENU_UNDO, 0, R.string.undo)
+                .setShowAsAction(MenuItem.SHOW_AS_ACTION_IF_ROOM);
+        menu.add(Menu.NONE, MENU_REDO, 1, R.string.redo)
+                .setShowAsAction(MenuItem.SHOW_AS_ACTION_IF_ROOM);
+        menu.add(Menu.NONE, MENU_END_TURN, 2, R.string.end_turn)
+                .setShowAsAction(MenuItem.SHOW_AS_ACTION_IF_ROOM);
+        for (int f = 0; f < GameState.FACTIONS; f++) {
+            menu.add(Menu.NONE, MENU_BOT + f, 3, BOT_TITLES[f]).setCheckable(true)
+                    .setChecked(mBotPlays[f]);
+        }
+        menu.add(Menu.NONE, MENU_METRICS, 4, R.string.metrics);
+        menu.add(Menu.NONE, MENU_DUMP_METRICS, 5, R.string.dump_metrics);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        int faction = item.getItemId() - MENU_BOT;
+        if (faction >= 0 && faction < GameState.FACTIONS) {
+            mBotPlays[faction] = !mBotPlays[faction];
+            item.setChecked(mBotPlays[faction]);
+            mGLView.setBotPlays(faction, mBotPlays[faction]);
+            return true;
+        }
+        switch (item.getItemId()) {
+        case MENU_UNDO:
+            mGLView.undo();
+            return true;
+        case MENU_REDO:
+            mGLView.redo();
+            return true;
+        case MENU_END_TURN:
+            mGLView.endTurn();
+            return true;
+        case MENU_METRICS:
+            boolean show = mMetricsOverlay.getVisibility() != View.VISIBLE;
+            mMetricsOverlay.setVisibility(show ? View.VISIBLE : View.GONE);
+            mGLView.setMetricsOverlay(show ? mMetricsOverlay : null);
+            return true;
+        case MENU_DUMP_METRICS:
+            mGLView.dumpMetrics(new File(getFilesDir(), METRICS_FILE));
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
     }
 
     @Override
@@ -47,6 +131,8 @@ public class AndeanAbyssCBG extends Activity {
         // you should consider de-allocating objects that
         // consume significant memory here.
         mGLView.onPause();
+        // Checkpoint the game, the process may not come back
+        mGLView.save(new File(getFilesDir(), SAVE_FILE));
     }
 
     @Override
@@ -57,13 +143,33 @@ public class AndeanAbyssCBG extends Activity {
         // this is a good place to re-allocate them.
         mGLView.onResume();
     }
+
+    @Override
+    protected void onDestroy() {
+        mGLView.release();
+        super.onDestroy();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // Deep in the background, a context loss would mean decoding again
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            mGLView.trimTextureCache();
+        }
+    }
 }
 
 class MyGLSurfaceView extends GLSurfaceView {
 
 	private static final String TAG = AndeanAbyssCBG.TAG;
     private final MyGLRenderer mRenderer;
+    private final InputQueue mInput;
     private ScaleGestureDetector mScaleDetector;
+    // Finger speed on lifting, flings the board when fast enough
+    private VelocityTracker mVelocityTracker;
+    private final int mMinFlingVelocity;
+    private final int mMaxFlingVelocity;
 
     public MyGLSurfaceView(Context context) {
         super(context);
@@ -73,15 +179,122 @@ class MyGLSurfaceView extends GLSurfaceView {
 
         // Set the Renderer for drawing on the GLSurfaceView
         mRenderer = new MyGLRenderer(context, this);
+        mInput = mRenderer.getInputQueue();
+        // Keep the textures across pause and resume where the device can,
+        // otherwise the TextureManager restores them from its cache
+        setPreserveEGLContextOnPause(true);
         setRenderer(mRenderer);
 
         // Create our ScaleGestureDetector
         mScaleDetector = new ScaleGestureDetector(context, new ScaleListener());
+        ViewConfiguration config = ViewConfiguration.get(context);
+        mMinFlingVelocity = config.getScaledMinimumFlingVelocity();
+        mMaxFlingVelocity = config.getScaledMaximumFlingVelocity();
 
-        // Render the view only when there is a change in the drawing data
+        // Render the view only when there is a change in the drawing data,
+        // running animations ask for their frames themselves
         setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
     }
 
+    /**
+     * Save the game, only while the GL thread is paused.
+     */
+    public void save(File file) {
+        mRenderer.save(file);
+    }
+
+    /**
+     * Resume a saved game, before the view is attached.
+     */
+    public boolean load(File file) {
+        return mRenderer.load(file);
+    }
+
+    public void setMetricsOverlay(TextView overlay) {
+        mRenderer.setOverlay(overlay);
+        requestRender();
+    }
+
+    /**
+     * Write the frame metrics on the GL thread, which records them.
+     */
+    public void dumpMetrics(final File file) {
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                mRenderer.dumpMetrics(file);
+            }
+        });
+    }
+
+    /**
+     * Delete the GL objects on the GL thread before the view goes away.
+     */
+    public void release() {
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                mRenderer.release();
+            }
+        });
+    }
+
+    /**
+     * Drop the texture data kept for restoring the textures, they are
+     * decoded again after the next context loss.
+     */
+    public void trimTextureCache() {
+        mRenderer.getTextures().getCache().trim(0);
+    }
+
+    /**
+     * Hand faction to the bot or back to the player on the GL thread.
+     */
+    public void setBotPlays(final int faction, final boolean bot) {
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                mRenderer.setBotPlays(faction, bot);
+            }
+        });
+    }
+
+    public void endTurn() {
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                if (mRenderer.endTurn()) {
+                    requestRender();
+                }
+            }
+        });
+    }
+
+    /**
+     * Take back the last move on the GL thread, which owns the game state.
+     */
+    public void undo() {
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                if (mRenderer.undo()) {
+                    requestRender();
+                }
+            }
+        });
+    }
+
+    public void redo() {
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                if (mRenderer.redo()) {
+                    requestRender();
+                }
+            }
+        });
+    }
+
     //private final float TOUCH_SCALE_FACTOR = 180.0f / 320;
     private float mLastTouchX;
     private float mLastTouchY;
@@ -91,7 +304,11 @@ class MyGLSurfaceView extends GLSurfaceView {
     public boolean onTouchEvent(MotionEvent ev) {
         // Let the ScaleGestureDetector inspect all events.
         mScaleDetector.onTouchEvent(ev);
-        
+        if (mVelocityTracker == null) {
+            mVelocityTracker = VelocityTracker.obtain();
+        }
+        mVelocityTracker.addMovement(ev);
+
         final int action = ev.getAction();
         switch (action & MotionEvent.ACTION_MASK) {
         case MotionEvent.ACTION_DOWN: {
@@ -101,7 +318,8 @@ class MyGLSurfaceView extends GLSurfaceView {
             mLastTouchX = x;
             mLastTouchY = y;
             mActivePointerId = ev.getPointerId(0);
-            mRenderer.onDown(mActivePointerId, x,  y);
+            // Nothing to draw yet, the next event will wake the GL thread
+            mInput.offer(InputQueue.DOWN, mActivePointerId, x, y);
             break;
         }
 
@@ -115,9 +333,8 @@ class MyGLSurfaceView extends GLSurfaceView {
                 final float dx = x - mLastTouchX;
                 final float dy = y - mLastTouchY;
 
-                if (mRenderer.onMove(mActivePointerId, dx,  dy)) {
-                    requestRender();
-                }
+                mInput.offer(InputQueue.MOVE, mActivePointerId, dx, dy);
+                requestRender();
             }
 
             mLastTouchX = x;
@@ -127,14 +344,26 @@ class MyGLSurfaceView extends GLSurfaceView {
         }
 
         case MotionEvent.ACTION_UP: {
-            if (mRenderer.onUp(mActivePointerId, ev.getX(),  ev.getY())) {
-                requestRender();
+            // The fling goes ahead of the up, which ends the drag it belongs to
+            mVelocityTracker.computeCurrentVelocity(1000, mMaxFlingVelocity);
+            final float vx = mVelocityTracker.getXVelocity(mActivePointerId);
+            final float vy = mVelocityTracker.getYVelocity(mActivePointerId);
+            if (!mScaleDetector.isInProgress()
+                    && Math.hypot(vx, vy) > mMinFlingVelocity) {
+                mInput.offer(InputQueue.FLING, mActivePointerId, vx, vy);
             }
+            recycleVelocityTracker();
+            mInput.offer(InputQueue.UP, mActivePointerId, ev.getX(), ev.getY());
+            requestRender();
             mActivePointerId = MotionEvent.INVALID_POINTER_ID;
             break;
         }
 
         case MotionEvent.ACTION_CANCEL: {
+            recycleVelocityTracker();
+            // The board puts a held piece back where it came from
+            mInput.offer(InputQueue.CANCEL, mActivePointerId, 0, 0);
+            requestRender();
             mActivePointerId = MotionEvent.INVALID_POINTER_ID;
             break;
         }
@@ -144,10 +373,9 @@ class MyGLSurfaceView extends GLSurfaceView {
                     >> MotionEvent.ACTION_POINTER_INDEX_SHIFT;
             final int pointerId = ev.getPointerId(pointerIndex);
             if (pointerId == mActivePointerId) {
-                if (mRenderer.onUp(mActivePointerId, ev.getX(pointerIndex),
-                        ev.getY(pointerIndex))) {
-                    requestRender();
-                }
+                mInput.offer(InputQueue.UP, mActivePointerId, ev.getX(pointerIndex),
+                        ev.getY(pointerIndex));
+                requestRender();
                 // This was our active pointer going up. Choose a new
                 // active pointer and adjust accordingly.
                 final int newPointerIndex = pointerIndex == 0 ? 1 : 0;
@@ -162,13 +390,20 @@ class MyGLSurfaceView extends GLSurfaceView {
         return true;
     }
 
+    private void recycleVelocityTracker() {
+        if (mVelocityTracker != null) {
+            mVelocityTracker.recycle();
+            mVelocityTracker = null;
+        }
+    }
+
     private class ScaleListener extends ScaleGestureDetector.SimpleOnScaleGestureListener {
         @Override
         public boolean onScale(ScaleGestureDetector detector) {
 
-            if (mRenderer.onZoom(detector.getScaleFactor())) {
-                requestRender();
-            }
+            mInput.offerZoom(detector.getScaleFactor(), detector.getFocusX(),
+                    detector.getFocusY());
+            requestRender();
 
             return true;
         }
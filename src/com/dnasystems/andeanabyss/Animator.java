@@ -0,0 +1,219 @@
+package com.dnasystems.andeanabyss;
+
+import java.util.Arrays;
+
+/**
+ * Frame paced animations of the board: fling inertia after a pan, smooth
+ * zoom towards a target around a focus point, and pieces sliding into the
+ * place the layout gives them. The owner calls {@link #beginFrame(long)}
+ * once per frame and steps each running animation with the returned time;
+ * frames only need to be requested while {@link #isActive()}.
+ *
+ * Keeps all state in flat arrays indexed like the board objects and
+ * allocates nothing once built.
+ */
+public class Animator {
+
+    // Fling velocity decays by e every FLING_TAU seconds and the fling
+    // ends below FLING_MIN_VELOCITY pixels per second
+    private static final float FLING_TAU = 0.3f;
+    private static final float FLING_MIN_VELOCITY = 20f;
+    // Zoom closes in on its target by e every ZOOM_TAU seconds
+    private static final float ZOOM_TAU = 0.05f;
+    private static final float ZOOM_EPSILON = 0.001f;
+    private static final float SNAP_SECONDS = 0.2f;
+    // Longest step, a frame that comes late must not make things jump
+    private static final float MAX_STEP = 0.05f;
+
+    private long mLastFrame;
+
+    private float mVelocityX;
+    private float mVelocityY;
+    private boolean mFlinging;
+
+    private float mZoomTarget;
+    private float mFocusX;
+    private float mFocusY;
+    private boolean mZooming;
+
+    // Per object: start and end of the slide and its progress, negative
+    // when the object is not sliding
+    private final float[] mFromX;
+    private final float[] mFromY;
+    private final float[] mToX;
+    private final float[] mToY;
+    private final float[] mProgress;
+    private int mSnaps;
+
+    /**
+     * @param objects number of objects that can slide
+     */
+    public Animator(int objects) {
+        mFromX = new float[objects];
+        mFromY = new float[objects];
+        mToX = new float[objects];
+        mToY = new float[objects];
+        mProgress = new float[objects];
+        Arrays.fill(mProgress, -1);
+    }
+
+    /**
+     * Start a frame at now, in System.nanoTime() units.
+     *
+     * @return seconds to step the animations by, 0 on the first frame
+     *         after being idle
+     */
+    public float beginFrame(long now) {
+        float dt = mLastFrame != 0 ? Math.min((now - mLastFrame) / 1e9f, MAX_STEP) : 0;
+        mLastFrame = isActive() ? now : 0;
+        return dt;
+    }
+
+    public boolean isActive() {
+        return mFlinging || mZooming || mSnaps > 0;
+    }
+
+    /**
+     * Keep panning with the velocity of the finger, in pixels per second.
+     */
+    public void fling(float vx, float vy) {
+        mVelocityX = vx;
+        mVelocityY = vy;
+        mFlinging = Math.hypot(vx, vy) >= FLING_MIN_VELOCITY;
+    }
+
+    public void stopFling() {
+        mFlinging = false;
+    }
+
+    public boolean isFlinging() {
+        return mFlinging;
+    }
+
+    /**
+     * Advance the fling by dt seconds and put the pan in delta.
+     */
+    public void stepFling(float dt, float[] delta) {
+        // Exact integral of the exponentially decaying velocity
+        float decay = (float)Math.exp(-dt / FLING_TAU);
+        delta[0] = mVelocityX * FLING_TAU * (1 - decay);
+        delta[1] = mVelocityY * FLING_TAU * (1 - decay);
+        mVelocityX *= decay;
+        mVelocityY *= decay;
+        if (Math.hypot(mVelocityX, mVelocityY) < FLING_MIN_VELOCITY) {
+            mFlinging = false;
+        }
+    }
+
+    /**
+     * Drop the velocity along the axes the pan ran into the board edge.
+     */
+    public void hitEdge(boolean x, boolean y) {
+        if (x) {
+            mVelocityX = 0;
+        }
+        if (y) {
+            mVelocityY = 0;
+        }
+        if (mVelocityX == 0 && mVelocityY == 0) {
+            mFlinging = false;
+        }
+    }
+
+    /**
+     * Zoom smoothly to target, keeping the board point under the screen
+     * point focusX, focusY in place.
+     */
+    public void zoomTo(float target, float focusX, float focusY) {
+        mZoomTarget = target;
+        mFocusX = focusX;
+        mFocusY = focusY;
+        mZooming = true;
+    }
+
+    public boolean isZooming() {
+        return mZooming;
+    }
+
+    /**
+     * Zoom the animation is heading for, or zoom if there is none.
+     */
+    public float getZoomTarget(float zoom) {
+        return mZooming ? mZoomTarget : zoom;
+    }
+
+    public float getFocusX() {
+        return mFocusX;
+    }
+
+    public float getFocusY() {
+        return mFocusY;
+    }
+
+    /**
+     * Advance the zoom by dt seconds from zoom.
+     *
+     * @return the new zoom
+     */
+    public float stepZoom(float zoom, float dt) {
+        zoom += (mZoomTarget - zoom) * (1 - (float)Math.exp(-dt / ZOOM_TAU));
+        if (Math.abs(zoom / mZoomTarget - 1) < ZOOM_EPSILON) {
+            zoom = mZoomTarget;
+            mZooming = false;
+        }
+        return zoom;
+    }
+
+    /**
+     * Slide object index from where it is to where it belongs. A slide
+     * already running is restarted from fromX, fromY.
+     */
+    public void snap(int index, float fromX, float fromY, float toX, float toY) {
+        if (mProgress[index] < 0) {
+            mSnaps++;
+        }
+        mFromX[index] = fromX;
+        mFromY[index] = fromY;
+        mToX[index] = toX;
+        mToY[index] = toY;
+        mProgress[index] = 0;
+    }
+
+    /**
+     * Stop the slide of object index where it is, for a piece picked up
+     * while it moves.
+     */
+    public void cancelSnap(int index) {
+        if (mProgress[index] >= 0) {
+            mProgress[index] = -1;
+            mSnaps--;
+        }
+    }
+
+    public boolean isSnapping(int index) {
+        return mProgress[index] >= 0;
+    }
+
+    public int getSnapCount() {
+        return mSnaps;
+    }
+
+    /**
+     * Advance the slide of object index by dt seconds and put its position
+     * in pos.
+     */
+    public void stepSnap(int index, float dt, float[] pos) {
+        float t = Math.min(1, mProgress[index] + dt / SNAP_SECONDS);
+        // Ease out, fast start and a soft landing
+        float u = 1 - t;
+        float e = 1 - u * u * u;
+        pos[0] = mFromX[index] + (mToX[index] - mFromX[index]) * e;
+        pos[1] = mFromY[index] + (mToY[index] - mFromY[index]) * e;
+        if (t >= 1) {
+            mProgress[index] = -1;
+            mSnaps--;
+        } else {
+            mProgress[index] = t;
+        }
+    }
+}
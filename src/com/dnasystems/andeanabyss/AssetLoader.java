@@ -0,0 +1,140 @@
+package com.dnasystems.andeanabyss;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.opengl.GLSurfaceView;
+import android.util.Log;
+
+/**
+ * Loads assets in two steps: decoding and file IO run on a small worker
+ * pool, the GL upload of finished jobs runs on the render thread within a
+ * time budget per frame. A frame is requested whenever a job finishes, so
+ * the board fills in as assets become ready instead of all at once.
+ */
+public class AssetLoader {
+
+    private static final String TAG = AndeanAbyssCBG.TAG;
+
+    /**
+     * One asset. load() runs on a worker thread and must not touch GL,
+     * upload() runs afterwards on the GL thread. If load() throws,
+     * failed() runs on the GL thread instead of upload().
+     */
+    public interface Job {
+        void load() throws IOException;
+        void upload();
+        void failed(Exception e);
+    }
+
+    private static class Done {
+        final Job job;
+        final int generation;
+        // Thrown by load(), or null
+        final Exception error;
+
+        Done(Job job, int generation, Exception error) {
+            this.job = job;
+            this.generation = generation;
+            this.error = error;
+        }
+    }
+
+    private final GLSurfaceView mView;
+    private final ExecutorService mExecutor;
+    private final ConcurrentLinkedQueue<Done> mDone = new ConcurrentLinkedQueue<Done>();
+    private final AtomicInteger mInFlight = new AtomicInteger();
+    // Bumped on context loss, jobs from an older generation are dropped
+    private volatile int mGeneration = 0;
+
+    public AssetLoader(GLSurfaceView view, int threads) {
+        mView = view;
+        mExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private int mCount = 0;
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "AssetLoader-" + mCount++);
+                t.setDaemon(true);
+                t.setPriority(Thread.NORM_PRIORITY - 1);
+                return t;
+            }
+        });
+    }
+
+    public void submit(final Job job) {
+        final int generation = mGeneration;
+        mInFlight.incrementAndGet();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (generation == mGeneration) {
+                        job.load();
+                        mDone.add(new Done(job, generation, null));
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "" + e);
+                    mDone.add(new Done(job, generation, e));
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Asset job failed", e);
+                    mDone.add(new Done(job, generation, e));
+                } finally {
+                    mInFlight.decrementAndGet();
+                    mView.requestRender();
+                }
+            }
+        });
+    }
+
+    /**
+     * Upload finished jobs until budgetNanos have passed; at least one job
+     * is uploaded per call so progress is made even with a tiny budget.
+     * Call on the GL thread.
+     *
+     * @return true if finished jobs are left for the next frame
+     */
+    public boolean uploadPending(long budgetNanos) {
+        long start = System.nanoTime();
+        Done done;
+        while ((done = mDone.poll()) != null) {
+            if (done.generation != mGeneration) {
+                continue;
+            }
+            if (done.error != null) {
+                done.job.failed(done.error);
+            } else {
+                done.job.upload();
+            }
+            if (System.nanoTime() - start >= budgetNanos) {
+                break;
+            }
+        }
+        return !mDone.isEmpty();
+    }
+
+    /**
+     * True when no job is loading or waiting for its upload.
+     */
+    public boolean isIdle() {
+        return mInFlight.get() == 0 && mDone.isEmpty();
+    }
+
+    /**
+     * Drop all queued and running jobs, e.g. because the GL context they
+     * would upload into is gone.
+     */
+    public void cancelAll() {
+        mGeneration++;
+        mDone.clear();
+    }
+
+    public void shutdown() {
+        cancelAll();
+        mExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,286 @@
+package com.dnasystems.andeanabyss;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.opengl.ETC1;
+import android.opengl.GLES20;
+import android.util.Log;
+
+import com.dnasystems.andeanabyss.game.CardDeck;
+
+/**
+ * Textures of the event and Propaganda cards, one per card, loaded as the
+ * deck reaches them. {@link #update(int, int, int)} is told the current and the
+ * next card every frame; the next card is read and decoded on an
+ * AssetLoader worker while the current one is shown, so its texture is in
+ * by the time the card is flipped. Cards that were shown before are kept
+ * until the texture memory goes over budget, the least recently shown go
+ * first; the current and the next card and the one on the board are
+ * never evicted.
+ *
+ * Cards are ETC1 images in assets/cards/cardNN.pkm, written by the
+ * CardPacker tool, about 45 KB each. A card without one is decoded from
+ * assets/cards/cardNN.png to RGB 565 instead; a card without either, or
+ * whose image cannot be read, is missing and the board shows a
+ * placeholder. The payloads go into the
+ * TextureManager's cache, so cards flipped back to after an eviction or a
+ * context loss are uploaded without reading them again.
+ *
+ * GL thread only.
+ */
+public class CardTextures {
+
+    private static final String TAG = AndeanAbyssCBG.TAG;
+
+    private final Context mContext;
+    private final AssetLoader mLoader;
+    private final TextureManager mTextures;
+    private final int mCardW;
+    private final int mCardH;
+
+    // Per card number, 0 is CardDeck.NONE
+    private final int[] mCardTextures = new int[CardDeck.CARDS + 1];
+    private final int[] mCardBytes = new int[CardDeck.CARDS + 1];
+    private final int[] mLastUsed = new int[CardDeck.CARDS + 1];
+    private final boolean[] mRequested = new boolean[CardDeck.CARDS + 1];
+    private final boolean[] mMissing = new boolean[CardDeck.CARDS + 1];
+    // Texture coordinates of the card's w x h part of its texture
+    private final float[] mU = new float[CardDeck.CARDS + 1];
+    private final float[] mV = new float[CardDeck.CARDS + 1];
+    private int mResidentBytes;
+    private int mBudgetBytes;
+
+    private int mFrame;
+    private int mCurrent = CardDeck.NONE;
+    private int mNext = CardDeck.NONE;
+    private int mShown = CardDeck.NONE;
+    private int mHits;
+    private int mMisses;
+
+    /**
+     * @param cardW width of the cards in pixels
+     * @param cardH height of the cards in pixels
+     * @param budgetBytes texture memory the cards may use, the current and
+     *        the next card are loaded even if they do not fit
+     */
+    public CardTextures(Context context, AssetLoader loader, TextureManager textures,
+            int cardW, int cardH, int budgetBytes) {
+        mContext = context;
+        mLoader = loader;
+        mTextures = textures;
+        mCardW = cardW;
+        mCardH = cardH;
+        mBudgetBytes = budgetBytes;
+    }
+
+    /**
+     * Load current and next, either may be NONE, and keep shown, the card
+     * on the board while current is loading. Counts a hit when the current
+     * card was flipped to and its texture is ready, a miss when it has to
+     * be waited for.
+     */
+    public void update(int current, int next, int shown) {
+        mFrame++;
+        if (current != mCurrent && mCurrent != CardDeck.NONE && current != CardDeck.NONE) {
+            if (isReady(current)) {
+                mHits++;
+            } else {
+                mMisses++;
+                Log.i(TAG, "Card " + current + " flipped before it was loaded");
+            }
+        }
+        mCurrent = current;
+        mNext = next;
+        mShown = shown;
+        request(current);
+        request(next);
+    }
+
+    private void request(final int card) {
+        if (card == CardDeck.NONE) {
+            return;
+        }
+        mLastUsed[card] = mFrame;
+        if (mCardTextures[card] != 0 || mMissing[card] || mRequested[card]) {
+            return;
+        }
+        mRequested[card] = true;
+        mLoader.submit(new AssetLoader.Job() {
+            private PayloadCache.Payload mPayload;
+
+            @Override
+            public void load() throws IOException {
+                String key = "cards/" + CardDeck.name(card);
+                PayloadCache cache = mTextures.getCache();
+                mPayload = cache.get(key);
+                if (mPayload == null) {
+                    mPayload = read(key);
+                    if (mPayload != null) {
+                        cache.put(key, mPayload);
+                    }
+                }
+            }
+
+            @Override
+            public void upload() {
+                mRequested[card] = false;
+                if (mPayload == null) {
+                    Log.w(TAG, "No image for card " + card);
+                    mMissing[card] = true;
+                    return;
+                }
+                uploadCard(card, mPayload);
+                evict();
+            }
+
+            @Override
+            public void failed(Exception e) {
+                // A damaged image is not read again, the card gets the
+                // placeholder
+                mRequested[card] = false;
+                mMissing[card] = true;
+            }
+        });
+    }
+
+    // Worker thread: the PKM image of a card, else its PNG decoded, else
+    // null
+    private PayloadCache.Payload read(String key) throws IOException {
+        try {
+            ByteBuffer file = MappedAssets.map(mContext, key + ".pkm");
+            PkmFile pkm = PkmFile.parse(file, 0);
+            PkmFile.prefault(pkm.data);
+            return new PayloadCache.Payload(pkm.width, pkm.height, ETC1.ETC1_RGB8_OES, 0,
+                    pkm.data);
+        } catch (FileNotFoundException e) {
+            // Not packed, try the image
+        }
+        InputStream in;
+        try {
+            in = mContext.getAssets().open(key + ".png");
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inScaled = false;
+        // Cards are opaque, 565 is as small as 4444 and keeps more color
+        opts.inPreferredConfig = Bitmap.Config.RGB_565;
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeStream(in, null, opts);
+        } finally {
+            in.close();
+        }
+        if (bitmap == null) {
+            throw new IOException("Cannot decode " + key);
+        }
+        PayloadCache.Payload p = TextureManager.toPayload(bitmap);
+        bitmap.recycle();
+        return p;
+    }
+
+    private void uploadCard(int card, PayloadCache.Payload p) {
+        // Cards are not a power of two wide, which needs clamping and no
+        // mipmaps
+        int id = mTextures.createTexture(GLES20.GL_LINEAR, GLES20.GL_CLAMP_TO_EDGE);
+        mTextures.upload(id, p);
+        mCardTextures[card] = id;
+        mCardBytes[card] = p.getBytes();
+        mResidentBytes += p.getBytes();
+        // ETC1 images are padded to a multiple of four pixels
+        mU[card] = Math.min(1.0f, mCardW / (float)p.width);
+        mV[card] = Math.min(1.0f, mCardH / (float)p.height);
+    }
+
+    // Delete least recently shown cards until the budget is met
+    private void evict() {
+        while (mResidentBytes > mBudgetBytes) {
+            int victim = CardDeck.NONE;
+            for (int c = 1; c <= CardDeck.CARDS; c++) {
+                if (mCardTextures[c] != 0 && c != mCurrent && c != mNext && c != mShown
+                        && (victim == CardDeck.NONE || mLastUsed[c] < mLastUsed[victim])) {
+                    victim = c;
+                }
+            }
+            if (victim == CardDeck.NONE) {
+                return;
+            }
+            release(victim);
+        }
+    }
+
+    private void release(int card) {
+        mTextures.deleteTexture(mCardTextures[card]);
+        mCardTextures[card] = 0;
+        mResidentBytes -= mCardBytes[card];
+        mCardBytes[card] = 0;
+    }
+
+    /**
+     * Delete all card textures.
+     */
+    public void release() {
+        for (int c = 1; c <= CardDeck.CARDS; c++) {
+            if (mCardTextures[c] != 0) {
+                release(c);
+            }
+        }
+    }
+
+    /**
+     * True when card can be shown: its texture is in, or it has no image
+     * and a placeholder is shown.
+     */
+    public boolean isReady(int card) {
+        return mCardTextures[card] != 0 || mMissing[card];
+    }
+
+    public boolean isMissing(int card) {
+        return mMissing[card];
+    }
+
+    /** The texture of card, 0 if it is not loaded. */
+    public int getTexture(int card) {
+        return mCardTextures[card];
+    }
+
+    /**
+     * Fill texCoords with the triangle strip texture coordinates of card,
+     * in the order of TextureAtlas.getTexCoords().
+     */
+    public void getTexCoords(int card, float[] texCoords) {
+        texCoords[0] = 0;
+        texCoords[1] = 0;
+        texCoords[2] = 0;
+        texCoords[3] = mV[card];
+        texCoords[4] = mU[card];
+        texCoords[5] = 0;
+        texCoords[6] = mU[card];
+        texCoords[7] = mV[card];
+    }
+
+    public void setBudget(int bytes) {
+        mBudgetBytes = bytes;
+        evict();
+    }
+
+    public int getResidentBytes() {
+        return mResidentBytes;
+    }
+
+    /** Flips that found the new card's texture loaded. */
+    public int getHits() {
+        return mHits;
+    }
+
+    /** Flips that had to wait for the new card. */
+    public int getMisses() {
+        return mMisses;
+    }
+}
@@ -0,0 +1,260 @@
+package com.dnasystems.andeanabyss;
+
+import java.util.Arrays;
+
+/**
+ * A frame's textured quads and the draw commands that submit them, in flat
+ * arrays and without any GL calls, so it can be recorded on any thread and
+ * on a plain JVM. SpriteBatch replays it on the GL thread.
+ *
+ * Quads are recorded into layers. Each layer has a 2D transform, a
+ * translation and a scale applied on top of the current matrix when it is
+ * replayed. A sorted layer is ordered by program and texture, keeping the
+ * submit order within a texture. Each run of equal state becomes one
+ * command. Layers are drawn in the order they were recorded.
+ */
+public class CommandBuffer {
+
+    // x, y, z, u, v
+    public static final int FLOATS_PER_VERTEX = 5;
+    public static final int FLOATS_PER_SPRITE = 4 * FLOATS_PER_VERTEX;
+    private static final int SEQ_BITS = 20;
+
+    // Quads as recorded, and the same quads in draw order once their
+    // layer is closed
+    private float[] mSprites;
+    private float[] mOrdered;
+    private int[] mPrograms;
+    private int[] mTextures;
+    private long[] mSortKeys;
+    private long[] mSortTemp;
+    private int mCount;
+    private int mLayerStart;
+
+    // Translation and scale per layer
+    private float[] mTransforms = new float[4 * 4];
+    private int mLayers;
+
+    private int[] mCmdProgram;
+    private int[] mCmdTexture;
+    private int[] mCmdLayer;
+    private int[] mCmdFirst;
+    private int[] mCmdCount;
+    private int mCommands;
+
+    /**
+     * @param quads quads per frame to make room for, the buffer grows
+     *        beyond that if it has to
+     */
+    public CommandBuffer(int quads) {
+        quads = Math.max(quads, 1);
+        mSprites = new float[quads * FLOATS_PER_SPRITE];
+        mOrdered = new float[quads * FLOATS_PER_SPRITE];
+        mPrograms = new int[quads];
+        mTextures = new int[quads];
+        mSortKeys = new long[quads];
+        mSortTemp = new long[quads];
+        mCmdProgram = new int[quads];
+        mCmdTexture = new int[quads];
+        mCmdLayer = new int[quads];
+        mCmdFirst = new int[quads];
+        mCmdCount = new int[quads];
+    }
+
+    /**
+     * Drop everything recorded, for the next frame.
+     */
+    public void reset() {
+        mCount = 0;
+        mLayerStart = 0;
+        mLayers = 0;
+        mCommands = 0;
+    }
+
+    /**
+     * Start a layer whose quads are moved by (tx, ty) after being scaled by
+     * (sx, sy).
+     */
+    public void beginLayer(float tx, float ty, float sx, float sy) {
+        if (mLayers * 4 == mTransforms.length) {
+            mTransforms = Arrays.copyOf(mTransforms, mTransforms.length * 2);
+        }
+        mTransforms[mLayers * 4] = tx;
+        mTransforms[mLayers * 4 + 1] = ty;
+        mTransforms[mLayers * 4 + 2] = sx;
+        mTransforms[mLayers * 4 + 3] = sy;
+        mLayers++;
+        mLayerStart = mCount;
+    }
+
+    /**
+     * Add one quad to the open layer. vertices holds four (x, y, z) corners
+     * and texCoords, from tcOffset, the matching four (u, v) pairs in
+     * triangle strip order; the quad is moved by (dx, dy) before it is
+     * stored.
+     */
+    public void quad(int program, int texture, float[] vertices, float[] texCoords,
+            int tcOffset, float dx, float dy) {
+        if (mCount == mPrograms.length) {
+            grow();
+        }
+        int dst = mCount * FLOATS_PER_SPRITE;
+        for (int i = 0; i < 4; i++) {
+            mSprites[dst++] = vertices[i*3] + dx;
+            mSprites[dst++] = vertices[i*3 + 1] + dy;
+            mSprites[dst++] = vertices[i*3 + 2];
+            mSprites[dst++] = texCoords[tcOffset + i*2];
+            mSprites[dst++] = texCoords[tcOffset + i*2 + 1];
+        }
+        mPrograms[mCount] = program;
+        mTextures[mCount] = texture;
+        mCount++;
+    }
+
+    /**
+     * Close the open layer and turn its quads into commands, sorted by
+     * program and texture if sort is set.
+     */
+    public void endLayer(boolean sort) {
+        int from = mLayerStart;
+        int n = mCount - from;
+        if (n == 0) {
+            return;
+        }
+        // Sort on (program, texture) while keeping the submit order within a
+        // run, by packing the sequence number into the low bits of the key.
+        for (int i = 0; i < n; i++) {
+            int q = from + i;
+            mSortKeys[i] = sort ? ((long)(mPrograms[q] & 0xfff) << 44)
+                    | ((long)(mTextures[q] & 0xffffff) << SEQ_BITS) | i : i;
+        }
+        if (sort) {
+            sortKeys(n);
+        }
+        int layer = mLayers - 1;
+        for (int i = 0; i < n; i++) {
+            int q = from + (int)(mSortKeys[i] & ((1 << SEQ_BITS) - 1));
+            System.arraycopy(mSprites, q * FLOATS_PER_SPRITE,
+                    mOrdered, (from + i) * FLOATS_PER_SPRITE, FLOATS_PER_SPRITE);
+            int last = mCommands - 1;
+            if (i > 0 && mCmdProgram[last] == mPrograms[q] && mCmdTexture[last] == mTextures[q]) {
+                mCmdCount[last]++;
+            } else {
+                mCmdProgram[mCommands] = mPrograms[q];
+                mCmdTexture[mCommands] = mTextures[q];
+                mCmdLayer[mCommands] = layer;
+                mCmdFirst[mCommands] = from + i;
+                mCmdCount[mCommands] = 1;
+                mCommands++;
+            }
+        }
+        mLayerStart = mCount;
+    }
+
+    public int getCommandCount() {
+        return mCommands;
+    }
+
+    public int getProgram(int command) {
+        return mCmdProgram[command];
+    }
+
+    public int getTexture(int command) {
+        return mCmdTexture[command];
+    }
+
+    public int getLayer(int command) {
+        return mCmdLayer[command];
+    }
+
+    /**
+     * First quad of command, in units of FLOATS_PER_SPRITE in getVertices().
+     */
+    public int getFirst(int command) {
+        return mCmdFirst[command];
+    }
+
+    public int getQuadCount(int command) {
+        return mCmdCount[command];
+    }
+
+    /**
+     * Quads in draw order, FLOATS_PER_SPRITE floats each.
+     */
+    public float[] getVertices() {
+        return mOrdered;
+    }
+
+    /**
+     * Translation and scale of each layer, four floats per layer.
+     */
+    public float[] getTransforms() {
+        return mTransforms;
+    }
+
+    public int getLayerCount() {
+        return mLayers;
+    }
+
+    /** Quads recorded since the last reset. */
+    public int getQuadCount() {
+        return mCount;
+    }
+
+    // Bottom up merge sort of the first n keys into the preallocated
+    // mSortTemp. Arrays.sort may allocate a work array for larger inputs,
+    // and a layer is sorted every frame.
+    private void sortKeys(int n) {
+        long[] src = mSortKeys;
+        long[] dst = mSortTemp;
+        for (int i = 1; i < n; i++) {
+            // Most frames are already sorted, insertion sort runs of 8 first
+            long key = src[i];
+            int j = i - 1;
+            while (j >= 0 && (j & ~7) == (i & ~7) && src[j] > key) {
+                src[j + 1] = src[j];
+                j--;
+            }
+            src[j + 1] = key;
+        }
+        for (int width = 8; width < n; width *= 2) {
+            for (int lo = 0; lo < n; lo += 2 * width) {
+                int mid = Math.min(lo + width, n);
+                int hi = Math.min(lo + 2 * width, n);
+                int a = lo;
+                int b = mid;
+                for (int k = lo; k < hi; k++) {
+                    if (a < mid && (b >= hi || src[a] <= src[b])) {
+                        dst[k] = src[a++];
+                    } else {
+                        dst[k] = src[b++];
+                    }
+                }
+            }
+            long[] t = src;
+            src = dst;
+            dst = t;
+        }
+        if (src != mSortKeys) {
+            System.arraycopy(src, 0, mSortKeys, 0, n);
+        }
+    }
+
+    private void grow() {
+        int size = mPrograms.length * 2;
+        if (size > (1 << SEQ_BITS)) {
+            throw new IllegalStateException("CommandBuffer full: " + mPrograms.length);
+        }
+        mSprites = Arrays.copyOf(mSprites, size * FLOATS_PER_SPRITE);
+        mOrdered = Arrays.copyOf(mOrdered, size * FLOATS_PER_SPRITE);
+        mPrograms = Arrays.copyOf(mPrograms, size);
+        mTextures = Arrays.copyOf(mTextures, size);
+        mSortKeys = Arrays.copyOf(mSortKeys, size);
+        mSortTemp = new long[size];
+        mCmdProgram = Arrays.copyOf(mCmdProgram, size);
+        mCmdTexture = Arrays.copyOf(mCmdTexture, size);
+        mCmdLayer = Arrays.copyOf(mCmdLayer, size);
+        mCmdFirst = Arrays.copyOf(mCmdFirst, size);
+        mCmdCount = Arrays.copyOf(mCmdCount, size);
+    }
+}
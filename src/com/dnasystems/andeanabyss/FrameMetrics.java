@@ -0,0 +1,134 @@
+package com.dnasystems.andeanabyss;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Ring buffer of per frame measurements: CPU time of the frame on the GL
+ * thread, draw calls, texture binds, objects drawn and culled, bytes
+ * uploaded and garbage collections. Recording a frame writes a few array
+ * slots and allocates nothing; summaries and the CSV dump are for the
+ * overlay and for offline analysis.
+ *
+ * There is no cheap GC counter on Android without allocation counting, so
+ * a collection is counted whenever the used heap shrinks between two
+ * frames.
+ */
+public class FrameMetrics {
+
+    public static final String CSV_HEADER =
+            "frame,cpu_us,draw_calls,texture_binds,drawn,culled,upload_bytes,gcs";
+
+    private final long[] mCpuNanos;
+    private final int[] mDraws;
+    private final int[] mBinds;
+    private final int[] mDrawn;
+    private final int[] mCulled;
+    private final int[] mUploaded;
+    private final int[] mGcs;
+    private final long[] mSorted;
+    private final Runtime mRuntime = Runtime.getRuntime();
+    private long mFrames;
+    private long mStart;
+    private long mLastUsed;
+    private long mTotalGcs;
+
+    /**
+     * @param frames frames kept, older ones are overwritten
+     */
+    public FrameMetrics(int frames) {
+        mCpuNanos = new long[frames];
+        mDraws = new int[frames];
+        mBinds = new int[frames];
+        mDrawn = new int[frames];
+        mCulled = new int[frames];
+        mUploaded = new int[frames];
+        mGcs = new int[frames];
+        mSorted = new long[frames];
+    }
+
+    public void beginFrame() {
+        mStart = System.nanoTime();
+    }
+
+    /**
+     * Record the frame started by beginFrame() with its counts.
+     */
+    public void endFrame(int draws, int binds, int drawn, int culled, int uploaded) {
+        long cpu = System.nanoTime() - mStart;
+        long used = mRuntime.totalMemory() - mRuntime.freeMemory();
+        int gcs = used < mLastUsed ? 1 : 0;
+        mLastUsed = used;
+        mTotalGcs += gcs;
+        int i = (int)(mFrames++ % mCpuNanos.length);
+        mCpuNanos[i] = cpu;
+        mDraws[i] = draws;
+        mBinds[i] = binds;
+        mDrawn[i] = drawn;
+        mCulled[i] = culled;
+        mUploaded[i] = uploaded;
+        mGcs[i] = gcs;
+    }
+
+    public long getFrames() {
+        return mFrames;
+    }
+
+    /** Frames recorded and still in the buffer. */
+    public int size() {
+        return (int)Math.min(mFrames, mCpuNanos.length);
+    }
+
+    public long getTotalGcs() {
+        return mTotalGcs;
+    }
+
+    /**
+     * Frame CPU time in nanoseconds below which the fraction p of the
+     * buffered frames fall, 0 if there are none.
+     */
+    public long cpuPercentile(double p) {
+        int n = size();
+        if (n == 0) {
+            return 0;
+        }
+        System.arraycopy(mCpuNanos, 0, mSorted, 0, n);
+        // Sorts a copy, only called for summaries
+        Arrays.sort(mSorted, 0, n);
+        return mSorted[Math.min(n - 1, (int)(p * n))];
+    }
+
+    /**
+     * Summary of the buffered frames for the overlay: CPU time percentiles
+     * and the counts of the latest frame, on three lines.
+     */
+    public void summary(StringBuilder out) {
+        int last = (int)((mFrames + mCpuNanos.length - 1) % mCpuNanos.length);
+        out.append("cpu p50 ").append(cpuPercentile(0.5) / 10000 / 100f)
+                .append(" p95 ").append(cpuPercentile(0.95) / 10000 / 100f)
+                .append(" p99 ").append(cpuPercentile(0.99) / 10000 / 100f).append(" ms\n");
+        if (mFrames == 0) {
+            return;
+        }
+        out.append(mDraws[last]).append(" draws, ").append(mBinds[last]).append(" binds, ")
+                .append(mDrawn[last]).append(" drawn, ").append(mCulled[last])
+                .append(" culled\n").append(mUploaded[last] / 1024).append(" KB up, ")
+                .append(mTotalGcs).append(" GCs in ").append(mFrames).append(" frames");
+    }
+
+    /**
+     * Write the buffered frames, oldest first, as CSV with CSV_HEADER.
+     */
+    public void writeCsv(Writer out) throws IOException {
+        out.write(CSV_HEADER);
+        out.write('\n');
+        int n = size();
+        long first = mFrames - n;
+        for (long f = first; f < mFrames; f++) {
+            int i = (int)(f % mCpuNanos.length);
+            out.write(f + "," + mCpuNanos[i] / 1000 + "," + mDraws[i] + "," + mBinds[i] + ","
+                    + mDrawn[i] + "," + mCulled[i] + "," + mUploaded[i] + "," + mGcs[i] + "\n");
+        }
+    }
+}
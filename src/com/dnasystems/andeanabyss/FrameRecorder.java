@@ -0,0 +1,185 @@
+package com.dnasystems.andeanabyss;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Turns a FrameSnapshot into the CommandBuffer of the pieces: culls the
+ * objects against the visible board rectangle, records the visible ones
+ * into a layer sorted by texture, and the active object into a layer of
+ * its own on top. Needs nothing but the snapshot and the images of the
+ * PieceStore, which do not change, so it runs on a worker thread while
+ * the GL thread draws the map, and on a plain JVM.
+ *
+ * {@link #start(FrameSnapshot)} hands a snapshot to the worker and
+ * {@link #finish()} waits for its commands. Without a worker thread
+ * finish() records inline.
+ */
+public class FrameRecorder {
+
+    private final PieceStore mPieces;
+    private final int mProgram;
+    private final float[] mQuad = new float[12];
+    private final CommandBuffer mBuffer;
+    private int mDrawn;
+    private int mCulled;
+
+    private final Thread mThread;
+    // Frames started and recorded, the threads park until the other one
+    // moves them on. Semaphores would allocate a queue node whenever a
+    // thread has to wait, which is nearly every frame.
+    private volatile int mStarted;
+    private volatile int mRecorded;
+    private volatile Thread mCaller;
+    // Handed over through the counters, which order the accesses
+    private FrameSnapshot mFrame;
+    private RuntimeException mError;
+    private volatile boolean mQuit;
+
+    /**
+     * @param threaded record on a worker thread of its own
+     */
+    public FrameRecorder(PieceStore pieces, int program, boolean threaded) {
+        mPieces = pieces;
+        mProgram = program;
+        mBuffer = new CommandBuffer(pieces.size());
+        if (threaded) {
+            mThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    loop();
+                }
+            }, "FrameRecorder");
+            mThread.setDaemon(true);
+            mThread.start();
+        } else {
+            mThread = null;
+        }
+    }
+
+    /**
+     * Start recording the pieces of f. f must stay unchanged until
+     * finish() returns.
+     */
+    public void start(FrameSnapshot f) {
+        mFrame = f;
+        if (mThread != null) {
+            mCaller = Thread.currentThread();
+            mStarted++;
+            LockSupport.unpark(mThread);
+        }
+    }
+
+    /**
+     * Wait for the commands of the snapshot given to start(). They are
+     * valid until the next start().
+     */
+    public CommandBuffer finish() {
+        if (mThread == null) {
+            record(mFrame);
+        } else {
+            while (mRecorded != mStarted) {
+                LockSupport.park(this);
+            }
+            if (mError != null) {
+                RuntimeException e = mError;
+                mError = null;
+                throw e;
+            }
+        }
+        mFrame = null;
+        return mBuffer;
+    }
+
+    /**
+     * Stop the worker thread. The recorder cannot be used after this.
+     */
+    public void quit() {
+        mQuit = true;
+        if (mThread != null) {
+            LockSupport.unpark(mThread);
+        }
+    }
+
+    private void loop() {
+        int frame = 0;
+        while (true) {
+            while (mStarted == frame && !mQuit) {
+                LockSupport.park(this);
+            }
+            if (mQuit) {
+                return;
+            }
+            frame = mStarted;
+            try {
+                record(mFrame);
+            } catch (RuntimeException e) {
+                mError = e;
+            }
+            mRecorded = frame;
+            LockSupport.unpark(mCaller);
+        }
+    }
+
+    /**
+     * Record the pieces of f on the calling thread.
+     */
+    public CommandBuffer record(FrameSnapshot f) {
+        // Visible part of the board in board pixels
+        float x0 = -f.mPosX / f.mZoom;
+        float y0 = -f.mPosY / f.mZoom;
+        float x1 = (f.mWidth - f.mPosX) / f.mZoom;
+        float y1 = (f.mHeight - f.mPosY) / f.mZoom;
+        mDrawn = 0;
+        mCulled = 0;
+        mBuffer.reset();
+        // The active object is drawn last so a dragged piece stays on top
+        // of the pieces it passes over
+        mBuffer.beginLayer(f.mPosX, f.mPosY, -f.mZoom, -f.mZoom);
+        for (int i = 0; i < mPieces.size(); i++) {
+            if (i != f.mActive) {
+                add(f, i, x0, y0, x1, y1);
+            }
+        }
+        mBuffer.endLayer(true);
+        if (f.mActive >= 0) {
+            mBuffer.beginLayer(f.mPosX, f.mPosY, -f.mZoom, -f.mZoom);
+            add(f, f.mActive, x0, y0, x1, y1);
+            mBuffer.endLayer(false);
+        }
+        return mBuffer;
+    }
+
+    private void add(FrameSnapshot f, int i, float x0, float y0, float x1, float y1) {
+        float x = f.mX[i];
+        float y = f.mY[i];
+        int image = f.mImage[i];
+        float w = mPieces.getImageWidth(image);
+        float h = mPieces.getImageHeight(image);
+        if (x >= x1 || x + w <= x0 || y >= y1 || y + h <= y0) {
+            mCulled++;
+            return;
+        }
+        mDrawn++;
+        // Same corners as Object2D
+        mQuad[4] = -h;
+        mQuad[6] = -w;
+        mQuad[9] = -w;
+        mQuad[10] = -h;
+        mBuffer.quad(mProgram, mPieces.getTexture(image), mQuad, mPieces.getTexCoords(),
+                image * 8, -x, -y);
+    }
+
+    /**
+     * Objects recorded by the last frame.
+     */
+    public int getDrawnCount() {
+        return mDrawn;
+    }
+
+    /**
+     * Objects left out of the last frame because they were off screen.
+     */
+    public int getCulledCount() {
+        return mCulled;
+    }
+}
@@ -0,0 +1,30 @@
+package com.dnasystems.andeanabyss;
+
+/**
+ * Everything GameBoard.draw() needs to know about one frame: the camera
+ * and the board position and image of every object, in flat arrays
+ * indexed like the PieceStore. Filled by the simulation side, then published through a
+ * SnapshotBuffer and only read from there on.
+ */
+public class FrameSnapshot {
+
+    public float mPosX;
+    public float mPosY;
+    public float mZoom;
+    public int mWidth;
+    public int mHeight;
+    // Object drawn on top, -1 for none
+    public int mActive = -1;
+    public final float[] mX;
+    public final float[] mY;
+    // PieceStore image per object, guerrillas change sides
+    public final int[] mImage;
+    // Counts the snapshots published, for checking a frame is fresh
+    public long mSequence;
+
+    public FrameSnapshot(int objects) {
+        mX = new float[objects];
+        mY = new float[objects];
+        mImage = new int[objects];
+    }
+}
@@ -0,0 +1,359 @@
+package com.dnasystems.andeanabyss;
+
+import java.util.HashMap;
+
+import android.opengl.GLES20;
+
+/**
+ * Thin layer over GLES20 that remembers the state it has set and skips
+ * calls that would not change anything. Uniform and attribute locations are
+ * resolved once per program. All methods must be called on the GL thread,
+ * and all binds and enables have to go through this class or the cache will
+ * be out of sync; call {@link #reset()} whenever a new EGL context is
+ * created.
+ *
+ * glGetError forces a pipeline sync, so {@link #checkError(String)} only
+ * does something when validation is enabled.
+ */
+public final class GLState {
+
+    private static final int MAX_TEXTURE_UNITS = 8;
+    private static final int MAX_ATTRIBS = 8;
+    private static final int MAX_UNIFORMS = 16;
+
+    private static boolean sValidate = false;
+
+    private static int sProgram;
+    private static int sActiveUnit;
+    private static final int[] sTextures = new int[MAX_TEXTURE_UNITS];
+    private static int sArrayBuffer;
+    private static int sElementBuffer;
+    private static int sFramebuffer;
+    private static final boolean[] sAttribEnabled = new boolean[MAX_ATTRIBS];
+    // buffer, size, stride, offset of the last glVertexAttribPointer per index
+    private static final int[] sAttribPointers = new int[MAX_ATTRIBS * 4];
+
+    private static final HashMap<Integer, Program> sPrograms = new HashMap<Integer, Program>();
+    private static Program sCurrent;
+
+    private static int sIssued;
+    private static int sSkipped;
+    private static int sDraws;
+    private static int sBinds;
+    private static int sUploaded;
+    private static int sFrameIssued;
+    private static int sFrameSkipped;
+    private static int sFrameDraws;
+    private static int sFrameBinds;
+    private static int sFrameUploaded;
+
+    private static class Program {
+        final int id;
+        final HashMap<String, Integer> uniforms = new HashMap<String, Integer>();
+        final HashMap<String, Integer> attribs = new HashMap<String, Integer>();
+        final int[] uniformInts = new int[MAX_UNIFORMS];
+
+        Program(int id) {
+            this.id = id;
+            for (int i = 0; i < MAX_UNIFORMS; i++) {
+                uniformInts[i] = Integer.MIN_VALUE;
+            }
+        }
+    }
+
+    private GLState() {
+    }
+
+    /**
+     * Forget all cached state. Needed after the EGL context was recreated,
+     * since every GL object and binding is gone then.
+     */
+    public static void reset() {
+        sProgram = 0;
+        sActiveUnit = GLES20.GL_TEXTURE0;
+        for (int i = 0; i < MAX_TEXTURE_UNITS; i++) {
+            sTextures[i] = 0;
+        }
+        sArrayBuffer = 0;
+        sElementBuffer = 0;
+        sFramebuffer = 0;
+        for (int i = 0; i < MAX_ATTRIBS; i++) {
+            sAttribEnabled[i] = false;
+        }
+        invalidateAttribPointers();
+        sPrograms.clear();
+        sCurrent = null;
+    }
+
+    public static void setValidation(boolean enable) {
+        sValidate = enable;
+    }
+
+    public static boolean isValidating() {
+        return sValidate;
+    }
+
+    /**
+     * Check for GL errors after glOperation, only in validation mode.
+     */
+    public static void checkError(String glOperation) {
+        if (sValidate) {
+            MyGLRenderer.checkGlError(glOperation);
+        }
+    }
+
+    /**
+     * End the frame: its counts become available from the getters below and
+     * counting starts over, so work between frames goes to the next one.
+     */
+    public static void endFrame() {
+        sFrameIssued = sIssued;
+        sFrameSkipped = sSkipped;
+        sFrameDraws = sDraws;
+        sFrameBinds = sBinds;
+        sFrameUploaded = sUploaded;
+        sIssued = 0;
+        sSkipped = 0;
+        sDraws = 0;
+        sBinds = 0;
+        sUploaded = 0;
+    }
+
+    /** GL calls issued during the last frame. */
+    public static int getIssuedCalls() {
+        return sFrameIssued;
+    }
+
+    /** GL calls skipped during the last frame because state was unchanged. */
+    public static int getSkippedCalls() {
+        return sFrameSkipped;
+    }
+
+    /** Draw calls during the last frame. */
+    public static int getDrawCalls() {
+        return sFrameDraws;
+    }
+
+    /** Texture binds that reached GL during the last frame. */
+    public static int getTextureBinds() {
+        return sFrameBinds;
+    }
+
+    /** Texture and buffer bytes uploaded during the last frame. */
+    public static int getUploadedBytes() {
+        return sFrameUploaded;
+    }
+
+    /** Count a GL call made directly. */
+    public static void countCall() {
+        sIssued++;
+    }
+
+    /** Count a glDrawArrays or glDrawElements call. */
+    public static void countDraw() {
+        sIssued++;
+        sDraws++;
+    }
+
+    /** Count bytes sent to GL by a texture or buffer upload. */
+    public static void countUpload(int bytes) {
+        sUploaded += bytes;
+    }
+
+    public static void countCall(int calls) {
+        sIssued += calls;
+    }
+
+    public static void useProgram(int program) {
+        if (program == sProgram) {
+            sSkipped++;
+            return;
+        }
+        GLES20.glUseProgram(program);
+        sProgram = program;
+        sCurrent = program(program);
+        sIssued++;
+    }
+
+    public static void activeTexture(int unit) {
+        if (unit == sActiveUnit) {
+            sSkipped++;
+            return;
+        }
+        GLES20.glActiveTexture(unit);
+        sActiveUnit = unit;
+        sIssued++;
+    }
+
+    public static void bindTexture(int texture) {
+        int unit = sActiveUnit - GLES20.GL_TEXTURE0;
+        if (sTextures[unit] == texture) {
+            sSkipped++;
+            return;
+        }
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+        sTextures[unit] = texture;
+        sIssued++;
+        sBinds++;
+    }
+
+    /**
+     * Forget a texture that is about to be deleted, so a new texture that
+     * gets the same name is bound again.
+     */
+    public static void forgetTexture(int texture) {
+        for (int i = 0; i < MAX_TEXTURE_UNITS; i++) {
+            if (sTextures[i] == texture) {
+                sTextures[i] = 0;
+            }
+        }
+    }
+
+    public static void bindBuffer(int target, int buffer) {
+        if (target == GLES20.GL_ELEMENT_ARRAY_BUFFER) {
+            if (buffer == sElementBuffer) {
+                sSkipped++;
+                return;
+            }
+            sElementBuffer = buffer;
+        } else {
+            if (buffer == sArrayBuffer) {
+                sSkipped++;
+                return;
+            }
+            sArrayBuffer = buffer;
+        }
+        GLES20.glBindBuffer(target, buffer);
+        sIssued++;
+    }
+
+    /**
+     * Forget a buffer that is about to be deleted, see
+     * {@link #forgetTexture(int)}.
+     */
+    public static void forgetBuffer(int buffer) {
+        if (sArrayBuffer == buffer) {
+            sArrayBuffer = 0;
+        }
+        if (sElementBuffer == buffer) {
+            sElementBuffer = 0;
+        }
+        invalidateAttribPointers();
+    }
+
+    /**
+     * Render into framebuffer, 0 for the window surface.
+     */
+    public static void bindFramebuffer(int framebuffer) {
+        if (framebuffer == sFramebuffer) {
+            sSkipped++;
+            return;
+        }
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebuffer);
+        sFramebuffer = framebuffer;
+        sIssued++;
+    }
+
+    public static void enableVertexAttribArray(int index) {
+        if (sAttribEnabled[index]) {
+            sSkipped++;
+            return;
+        }
+        GLES20.glEnableVertexAttribArray(index);
+        sAttribEnabled[index] = true;
+        sIssued++;
+    }
+
+    public static void disableVertexAttribArray(int index) {
+        if (!sAttribEnabled[index]) {
+            sSkipped++;
+            return;
+        }
+        GLES20.glDisableVertexAttribArray(index);
+        sAttribEnabled[index] = false;
+        sIssued++;
+    }
+
+    /**
+     * glVertexAttribPointer for float data in the currently bound array
+     * buffer. Skipped when the same buffer and layout are already set.
+     */
+    public static void vertexAttribPointer(int index, int size, int stride, int offset) {
+        int i = index * 4;
+        if (sAttribPointers[i] == sArrayBuffer && sAttribPointers[i + 1] == size
+                && sAttribPointers[i + 2] == stride && sAttribPointers[i + 3] == offset) {
+            sSkipped++;
+            return;
+        }
+        GLES20.glVertexAttribPointer(index, size, GLES20.GL_FLOAT, false, stride, offset);
+        sAttribPointers[i] = sArrayBuffer;
+        sAttribPointers[i + 1] = size;
+        sAttribPointers[i + 2] = stride;
+        sAttribPointers[i + 3] = offset;
+        sIssued++;
+    }
+
+    private static void invalidateAttribPointers() {
+        for (int i = 0; i < sAttribPointers.length; i++) {
+            sAttribPointers[i] = -1;
+        }
+    }
+
+    /**
+     * Location of a uniform in the current program, looked up in GL only the
+     * first time.
+     */
+    public static int uniformLocation(String name) {
+        Integer loc = sCurrent.uniforms.get(name);
+        if (loc == null) {
+            loc = GLES20.glGetUniformLocation(sCurrent.id, name);
+            sCurrent.uniforms.put(name, loc);
+            sIssued++;
+        }
+        return loc;
+    }
+
+    /**
+     * Location of an attribute in the current program, looked up in GL only
+     * the first time.
+     */
+    public static int attribLocation(String name) {
+        Integer loc = sCurrent.attribs.get(name);
+        if (loc == null) {
+            loc = GLES20.glGetAttribLocation(sCurrent.id, name);
+            sCurrent.attribs.put(name, loc);
+            sIssued++;
+        }
+        return loc;
+    }
+
+    /**
+     * glUniform1i on the current program, skipped if the uniform already
+     * holds value.
+     */
+    public static void uniform1i(int location, int value) {
+        if (location >= 0 && location < MAX_UNIFORMS) {
+            if (sCurrent.uniformInts[location] == value) {
+                sSkipped++;
+                return;
+            }
+            sCurrent.uniformInts[location] = value;
+        }
+        GLES20.glUniform1i(location, value);
+        sIssued++;
+    }
+
+    public static void uniformMatrix4fv(int location, float[] matrix, int offset) {
+        GLES20.glUniformMatrix4fv(location, 1, false, matrix, offset);
+        sIssued++;
+    }
+
+    private static Program program(int id) {
+        Program p = sPrograms.get(id);
+        if (p == null) {
+            p = new Program(id);
+            sPrograms.put(id, p);
+        }
+        return p;
+    }
+}
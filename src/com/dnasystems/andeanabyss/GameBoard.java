@@ -21,9 +21,7 @@ import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.ListIterator;
+import java.util.Arrays;
 
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
@@ -34,9 +32,17 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 
+import com.dnasystems.andeanabyss.game.CardDeck;
+import com.dnasystems.andeanabyss.game.GameState;
+import com.dnasystems.andeanabyss.game.Move;
+import com.dnasystems.andeanabyss.game.Rules;
+import com.dnasystems.andeanabyss.game.Spaces;
+
 public class GameBoard implements OnInput{
 
     private String TAG = AndeanAbyssCBG.TAG;
+    // Logging of every touch and zoom step, off in builds
+    private static final boolean VERBOSE = false;
     private final String vertexShaderCode =
         // This matrix member variable provides a hook to manipulate
         // the coordinates of the objects that use this vertex shader
@@ -62,105 +68,185 @@ public class GameBoard implements OnInput{
         "  gl_FragColor = texture2D(uSampler, vTexPos);" +
         "}";
 
+    // Piece images and sizes per GameState piece type. Active guerrillas
+    // are underground pieces turned over, they have no objects of their own.
+    private static final String[] IMAGES = {
+        "cube_dkblue", "cube_ltblue", "disc_blue",
+        "cylinder_red", null, "disc_red",
+        "cylinder_yellow", null, "disc_yellow",
+        "cylinder_green", null, "disc_green",
+    };
+    private static final String[] ACTIVE_IMAGES = {
+        null, null, null,
+        "cylinder_red", "cylinder_red_active", null,
+        "cylinder_yellow", "cylinder_yellow", null,
+        "cylinder_green", "cylinder_green", null,
+    };
+    private static final int[] SIZES = {
+        34, 39, 34, 39, 50, 51,
+        30, 47, 0, 0, 50, 51,
+        30, 47, 0, 0, 50, 51,
+        30, 47, 0, 0, 50, 51,
+    };
+    private static final int NOT_A_PIECE = -1;
+    private static final int CARD_W = 254;
+    private static final int CARD_H = 356;
+    // Texture memory for the cards, about eleven ETC1 cards
+    private static final int CARD_TEXTURE_BUDGET = 512 * 1024;
+    // A touch on the card that moves less than this, in screen pixels,
+    // flips it
+    private static final float TAP_SLOP = 12.0f;
+
+    // x, y, z, u, v per corner of the image quads
+    private static final int QUAD_STRIDE = 5 * 4;
+
     private int mProgram;
-    private ArrayList<Object2D> mObjectsList;
-    private Object2D mActiveObject = null;
-    private int mGameBoardIndex;
+    private GameBoardObject mBoard;
+    // The card and the pieces, indices are also hit-test grid ids
+    private PieceStore mPieces;
+    // Sprite being dragged, or -1
+    private int mActiveIndex = -1;
+    // The map is being dragged
+    private boolean mPanning;
     private int mCardIndex;
-    private int mGovBasesIndex;
-    private int mGovTroopsIndex;
-    private int mGovPoliceIndex;
-    private int mFarcBasesIndex;
-    private int mFarcGuerrillasIndex;
-    private int mCartelBasesIndex;
-    private int mCartelGuerrillasIndex;
-    private int mAucBasesIndex;
-    private int mAucGuerrillasIndex;
-
-    // Declare as volatile because we are updating it from another thread
-    public volatile float mZoom = 1.0f;
-    public volatile float mPosX = 0.0f;
-    public volatile float mPosY = 0.0f;
+    private int mCardImage;
+    // The deck card the card image shows, and the atlas placeholder shown
+    // for cards without an image
+    private final CardDeck mDeck;
+    private CardTextures mCards;
+    private int mCardShown = CardDeck.NONE;
+    private int mPlaceholderTexture;
+    private final float[] mPlaceholderCoords = new float[8];
+    private final float[] mCardCoords = new float[8];
+    private float mTouchTravel;
+    // One static quad per image, only for drawing without batching
+    private int[] mImageBuffers;
+
+    // The pieces are a view of mState: sprite indices of the first piece
+    // of each type, the image each type shows, and the type, space and
+    // slot in the space or force pool each piece sprite shows. A sprite
+    // keeps them until its piece leaves, so layout() only moves the
+    // sprites whose pieces moved.
+    private final GameState mState;
+    private final int[] mForceIndex = new int[GameState.PIECE_TYPES];
+    private final int[] mTypeImage = new int[GameState.PIECE_TYPES];
+    private int[] mPieceType;
+    private int[] mPieceSpace;
+    private int[] mPieceSlot;
+    // layout() scratch: pieces of each space and type without a sprite,
+    // the sprites without a piece, and the slots taken in each space and
+    // force pool
+    private final int[] mNeed = new int[(Spaces.COUNT + 1) * GameState.PIECE_TYPES];
+    private int[] mFree;
+    private final int[] mFreeCount = new int[GameState.PIECE_TYPES];
+    private boolean[] mSlotUsed;
+    private int mMaxSlots;
+    private final float[] mPos = new float[2];
+    // Reject drops no legal move explains
+    private boolean mRulesCheck = false;
+    private final int[] mMoves = new int[Rules.MAX_MOVES];
+    private TextureAtlas mAtlas;
+    private SpriteBatch mSpriteBatch;
+    // Records the pieces of a frame while the GL thread draws the map
+    private FrameRecorder mRecorder;
+    private SpatialGrid mGrid;
+    // Everything but the dragged piece, while a piece is dragged
+    private LayerCache mLayerCache;
+    private boolean mLayerCaching = true;
+
+    // Visible board rectangle of the current frame and the culling result
+    private float mVisX0;
+    private float mVisY0;
+    private float mVisX1;
+    private float mVisY1;
+    private int mDrawnCount;
+    private int mCulledCount;
+    private boolean mBatching = true;
+
+    // GL thread only, touch input arrives through the renderer's InputQueue
+    public float mZoom = 1.0f;
+    public float mPosX = 0.0f;
+    public float mPosY = 0.0f;
+    private int mWidth;
+    private int mHeight;
+    // What draw() sees, published once the frame's changes are done
+    private SnapshotBuffer mSnapshots;
+    // Fling, zoom and piece slides, stepped by animate() once per frame
+    private Animator mAnimator;
+    private final float[] mDelta = new float[2];
+    // Pieces jump into place on the first layout and slide after that
+    private boolean mLaidOut;
 
     private GLSurfaceView mView;
+    private final TextureManager mTextures;
 
-    public GameBoard(Context context, GLSurfaceView view) {
+    public GameBoard(Context context, GLSurfaceView view, AssetLoader loader,
+            TextureManager textures, GameState state, CardDeck deck) {
         long texStart = System.nanoTime();
-        Object2D obj;
         mView = view;
+        mTextures = textures;
+        mState = state;
+        mDeck = deck;
         initShaders();
-        mObjectsList = new ArrayList<Object2D>();
-        obj = new GameBoardObject(context);
-        obj.setShader(mProgram);
-        mGameBoardIndex = mObjectsList.size();
-        mObjectsList.add(obj);
-        obj = new Object2D(context, R.raw.card01, 254, 356);
-        obj.setShader(mProgram);
-        obj.setPos(200, 800);
-        mCardIndex = mObjectsList.size();
-        mObjectsList.add(obj);
-        obj = new Object2D(context, R.raw.disc_blue, 50, 51);
-        obj.setShader(mProgram);
-        obj.setPos(360, 461);
-        mGovBasesIndex = mObjectsList.size();
-        mObjectsList.add(obj);
-        for (int i=1;i<3;i++) {
-            Object2D tmp = new Object2D(obj);
-            tmp.setPos(360 + i*76, 461);
-            mObjectsList.add(tmp);
-        }
-        obj = new Object2D(context, R.raw.cube_dkblue, 34, 39);
-        obj.setShader(mProgram);
-        obj.setPos(100, 200);
-        mGovTroopsIndex = mObjectsList.size();
-        mObjectsList.add(obj);
-        for (int i=1;i<10;i++) {
-            Object2D tmp = new Object2D(obj);
-            tmp.setPos(100, 200 + i*25);
-            mObjectsList.add(tmp);
-        }
-        obj = new Object2D(context, R.raw.disc_red, 50, 51);
-        obj.setShader(mProgram);
-        obj.setPos(554, 2849);
-        mFarcBasesIndex = mObjectsList.size();
-        mObjectsList.add(obj);
-        for (int i=1;i<9;i++) {
-            Object2D tmp = new Object2D(obj);
-            tmp.setPos(554 + i*77, 2849);
-            mObjectsList.add(tmp);
-        }
-        obj = new Object2D(context, R.raw.cylinder_red, 30, 47);
-        obj.setShader(mProgram);
-        obj.setPos(1543, 154);
-        mFarcGuerrillasIndex = mObjectsList.size();
-        mObjectsList.add(obj);
-        for (int i=0;i<10;i++) {
-            Object2D tmp = new Object2D(obj);
-            tmp.setPos(1543 + (i%5)*35, 154 + (i/5)*50);
-            mObjectsList.add(tmp);
-        }
-        obj = new Object2D(context, R.raw.disc_green, 50, 51);
-        obj.setShader(mProgram);
-        obj.setPos(1705, 2629);
-        mCartelBasesIndex = mObjectsList.size();
-        mObjectsList.add(obj);
-        for (int i=1;i<15;i++) {
-            Object2D tmp = new Object2D(obj);
-            tmp.setPos(1705 + (i/5)*80, 2629 + (i%5)*77);
-            mObjectsList.add(tmp);
-        }
-        obj = new Object2D(context, R.raw.disc_yellow, 50, 51);
-        obj.setShader(mProgram);
-        obj.setPos(555, 2962);
-        mAucBasesIndex = mObjectsList.size();
-        mObjectsList.add(obj);
-        for (int i=1;i<6;i++) {
-            Object2D tmp = new Object2D(obj);
-            tmp.setPos(555 + i*76, 2962);
-            mObjectsList.add(tmp);
+        mBoard = new GameBoardObject(context, loader, textures);
+        mBoard.setShader(mProgram);
+        mAtlas = new TextureAtlas(context, "atlas/pieces", loader, textures);
+        int sprites = 1;
+        for (int type = 0; type < GameState.PIECE_TYPES; type++) {
+            if (IMAGES[type] != null) {
+                sprites += GameState.FORCE_POOL[type];
+            }
         }
+        mPieces = new PieceStore(sprites);
+        // The card shows the atlas card until the deck's card is in
+        mCardImage = addImage("card01", CARD_W, CARD_H);
+        mPlaceholderTexture = mPieces.getTexture(mCardImage);
+        System.arraycopy(mPieces.getTexCoords(), mCardImage * 8, mPlaceholderCoords, 0, 8);
+        mCardIndex = mPieces.add(mCardImage);
+        mPieces.setPos(mCardIndex, 200, 800);
+        mCards = new CardTextures(context, loader, textures, CARD_W, CARD_H,
+                CARD_TEXTURE_BUDGET);
+        // One sprite per piece in the game, the layout puts them where the
+        // game state has them
+        for (int type = 0; type < GameState.PIECE_TYPES; type++) {
+            mForceIndex[type] = mPieces.size();
+            if (IMAGES[type] == null) {
+                continue;
+            }
+            int image = addImage(IMAGES[type], SIZES[type * 2], SIZES[type * 2 + 1]);
+            for (int i = 0; i < GameState.FORCE_POOL[type]; i++) {
+                mPieces.add(image);
+            }
+        }
+        for (int type = 0; type < GameState.PIECE_TYPES; type++) {
+            // Active guerrillas use the sprites of the underground type
+            int pool = IMAGES[type] != null ? type : type - 1;
+            mTypeImage[type] = addImage(ACTIVE_IMAGES[type] != null
+                    ? ACTIVE_IMAGES[type] : IMAGES[type], SIZES[pool * 2], SIZES[pool * 2 + 1]);
+        }
+        initImageBuffers(textures);
+        mPieceType = new int[mPieces.size()];
+        mPieceSpace = new int[mPieces.size()];
+        mPieceSlot = new int[mPieces.size()];
+        Arrays.fill(mPieceType, NOT_A_PIECE);
+        mFree = new int[mPieces.size()];
+        mMaxSlots = mPieces.size();
+        mSlotUsed = new boolean[(Spaces.COUNT + GameState.PIECE_TYPES) * mMaxSlots];
+        mSnapshots = new SnapshotBuffer(mPieces.size());
+        mAnimator = new Animator(mPieces.size());
+        mSpriteBatch = new SpriteBatch(textures, 256);
+        mLayerCache = new LayerCache(textures, mPieces.size());
+        // A worker thread only pays off with a core to run it on
+        mRecorder = new FrameRecorder(mPieces, mProgram,
+                Runtime.getRuntime().availableProcessors() > 1);
+        // Every sprite goes into the hit-test grid, the map is the fallback
+        // when no piece is hit
+        mGrid = new SpatialGrid(2048, 2048 + 1116, 128);
+        mPieces.setGrid(mGrid);
+        layout();
+        mLaidOut = true;
         double texS = (System.nanoTime() - texStart) / 1e9;
-        Log.i(TAG, texS + " total tex load");
+        Log.i(TAG, texS + " board setup, textures loading in background");
         //mTextureID = MyGLRenderer.loadTexture(context, R.raw.map);
     }
 
@@ -182,9 +268,51 @@ public class GameBoard implements OnInput{
 
     }
 
+    private int addImage(String name, float w, float h) {
+        float[] texCoords = new float[8];
+        mAtlas.getTexCoords(name, w, h, texCoords);
+        return mPieces.addImage(name, mAtlas.getTextureId(name), texCoords, w, h);
+    }
+
+    // A quad of each image's size and texture coordinates in a static
+    // buffer, in the corner order of Object2D
+    private void initImageBuffers(TextureManager textures) {
+        int images = mPieces.getImageCount();
+        mImageBuffers = new int[images];
+        for (int image = 0; image < images; image++) {
+            mImageBuffers[image] = textures.createBuffer();
+            fillImageBuffer(image);
+        }
+    }
+
+    private void fillImageBuffer(int image) {
+        FloatBuffer data = ByteBuffer.allocateDirect(4 * QUAD_STRIDE)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        float[] texCoords = mPieces.getTexCoords();
+        float w = mPieces.getImageWidth(image);
+        float h = mPieces.getImageHeight(image);
+        data.put(0).put(0).put(0).put(texCoords[image * 8]).put(texCoords[image * 8 + 1]);
+        data.put(0).put(-h).put(0).put(texCoords[image * 8 + 2]).put(texCoords[image * 8 + 3]);
+        data.put(-w).put(0).put(0).put(texCoords[image * 8 + 4]).put(texCoords[image * 8 + 5]);
+        data.put(-w).put(-h).put(0).put(texCoords[image * 8 + 6]).put(texCoords[image * 8 + 7]);
+        data.flip();
+        mTextures.bufferData(GLES20.GL_ARRAY_BUFFER, mImageBuffers[image], 4 * QUAD_STRIDE,
+                data, GLES20.GL_STATIC_DRAW);
+    }
+
+    /**
+     * Size of the surface, from onSurfaceChanged on the GL thread.
+     */
+    public void setViewport(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        mLayerCache.setSize(width, height);
+        updateGBParams();
+    }
+
     private void updateGBParams() {
-        float max_ofs_x = mView.getWidth() - 2048*mZoom;
-        float max_ofs_y = mView.getHeight() - (2048 + 1116)*mZoom;
+        float max_ofs_x = mWidth - 2048*mZoom;
+        float max_ofs_y = mHeight - (2048 + 1116)*mZoom;
 
         if (mPosX < max_ofs_x) {
             mPosX = max_ofs_x;
@@ -198,32 +326,230 @@ public class GameBoard implements OnInput{
         if (mPosY > 0) {
             mPosY = (max_ofs_y > 0)?max_ofs_y/2:0;
         }
-        Log.v(TAG, "max_ofs_x=" + max_ofs_x + " max_ofs_y=" + max_ofs_y);
-        Log.v(TAG, "mPosX=" + mPosX + " mPosY=" + mPosY);
+        if (VERBOSE) {
+            Log.v(TAG, "max_ofs_x=" + max_ofs_x + " max_ofs_y=" + max_ofs_y);
+            Log.v(TAG, "mPosX=" + mPosX + " mPosY=" + mPosY);
+        }
+
+    }
+
+    /**
+     * Put every piece object where mState has its piece: pieces on the
+     * map around their space, the rest in the force pools. Sprites whose
+     * piece is still where they show it stay in their slot; the others
+     * take the free slots where pieces are missing and slide there over
+     * the next frames.
+     */
+    public void layout() {
+        Arrays.fill(mSlotUsed, false);
+        for (int s = 0; s < Spaces.COUNT; s++) {
+            for (int type = 0; type < GameState.PIECE_TYPES; type++) {
+                mNeed[s * GameState.PIECE_TYPES + type] = mState.count(s, type);
+            }
+        }
+        for (int type = 0; type < GameState.PIECE_TYPES; type++) {
+            mNeed[Spaces.COUNT * GameState.PIECE_TYPES + type] = mState.available(type);
+        }
+
+        // Sprites that still show a piece keep it, guerrillas flipped in
+        // their space only change image. The slots of all kept sprites are
+        // taken before any sprite gets a new one, spaces are shared.
+        for (int pool = 0; pool < GameState.PIECE_TYPES; pool++) {
+            if (IMAGES[pool] == null) {
+                continue;
+            }
+            int first = mForceIndex[pool];
+            int free = 0;
+            for (int i = first; i < first + GameState.FORCE_POOL[pool]; i++) {
+                int type = mPieceType[i];
+                if (type == NOT_A_PIECE) {
+                    mFree[first + free++] = i;
+                    continue;
+                }
+                int space = mPieceSpace[i];
+                int flipped = type == pool ? activeType(pool) : pool;
+                if (mNeed[need(space, type)] == 0 && flipped != NOT_A_PIECE
+                        && mNeed[need(space, flipped)] > 0) {
+                    type = flipped;
+                    mPieceType[i] = type;
+                }
+                if (mNeed[need(space, type)] > 0) {
+                    mNeed[need(space, type)]--;
+                    if (mPieceSlot[i] >= 0) {
+                        mSlotUsed[slot(space, pool, mPieceSlot[i])] = true;
+                    }
+                } else {
+                    mPieceType[i] = NOT_A_PIECE;
+                    mFree[first + free++] = i;
+                }
+            }
+            mFreeCount[pool] = free;
+        }
+
+        // The rest go where pieces are missing
+        for (int pool = 0; pool < GameState.PIECE_TYPES; pool++) {
+            if (IMAGES[pool] == null) {
+                continue;
+            }
+            int first = mForceIndex[pool];
+            for (int i = first; i < first + GameState.FORCE_POOL[pool]; i++) {
+                if (mPieceType[i] != NOT_A_PIECE && mPieceSlot[i] < 0) {
+                    mPieceSlot[i] = takeSlot(mPieceSpace[i], pool);
+                }
+            }
+            int free = mFreeCount[pool];
+            int active = activeType(pool);
+            for (int c = 0; c <= Spaces.COUNT && free > 0; c++) {
+                int space = c < Spaces.COUNT ? c : GameState.AVAILABLE;
+                for (int k = 0; k < 2 && free > 0; k++) {
+                    int type = k == 0 ? pool : active;
+                    if (type == NOT_A_PIECE) {
+                        continue;
+                    }
+                    while (mNeed[need(space, type)] > 0 && free > 0) {
+                        mNeed[need(space, type)]--;
+                        int i = mFree[first + --free];
+                        mPieceType[i] = type;
+                        mPieceSpace[i] = space;
+                        mPieceSlot[i] = takeSlot(space, pool);
+                    }
+                }
+            }
+        }
+
+        for (int pool = 0; pool < GameState.PIECE_TYPES; pool++) {
+            if (IMAGES[pool] == null) {
+                continue;
+            }
+            int first = mForceIndex[pool];
+            for (int i = first; i < first + GameState.FORCE_POOL[pool]; i++) {
+                if (mPieceType[i] != NOT_A_PIECE) {
+                    show(i, pool);
+                }
+            }
+        }
+    }
+
+    // The active type sharing the sprites of pool, or NOT_A_PIECE
+    private static int activeType(int pool) {
+        return pool + 1 < GameState.PIECE_TYPES && IMAGES[pool + 1] == null
+                ? pool + 1 : NOT_A_PIECE;
+    }
+
+    private static int need(int space, int type) {
+        return (space == GameState.AVAILABLE ? Spaces.COUNT : space) * GameState.PIECE_TYPES
+                + type;
+    }
+
+    // Slots on the map are shared by all pieces in the space, each force
+    // pool has its own
+    private int slot(int space, int pool, int n) {
+        return (space == GameState.AVAILABLE ? Spaces.COUNT + pool : space) * mMaxSlots + n;
+    }
+
+    private int takeSlot(int space, int pool) {
+        int n = 0;
+        while (mSlotUsed[slot(space, pool, n)]) {
+            n++;
+        }
+        mSlotUsed[slot(space, pool, n)] = true;
+        return n;
+    }
+
+    private void show(int index, int pool) {
+        int type = mPieceType[index];
+        if (mPieces.getImage(index) != mTypeImage[type]) {
+            mPieces.setImage(index, mTypeImage[type]);
+        }
+        int space = mPieceSpace[index];
+        if (space == GameState.AVAILABLE) {
+            PieceLayout.poolPosition(pool, mPieceSlot[index], mPos);
+        } else {
+            PieceLayout.spacePosition(space, mPieceSlot[index], SIZES[pool * 2],
+                    SIZES[pool * 2 + 1], mPos);
+        }
+        float x = mPieces.getX(index);
+        float y = mPieces.getY(index);
+        if (!mLaidOut) {
+            mPieces.setPos(index, mPos[0], mPos[1]);
+        } else if (x != mPos[0] || y != mPos[1]) {
+            mAnimator.snap(index, x, y, mPos[0], mPos[1]);
+        } else {
+            mAnimator.cancelSnap(index);
+        }
+    }
 
+    public GameState getState() {
+        return mState;
+    }
+
+    /**
+     * Only accept drops that a legal Operation or Special Activity
+     * explains, see Rules.findDrop. Off by default, the board is also used
+     * for free setup.
+     */
+    public void setRulesCheck(boolean enable) {
+        mRulesCheck = enable;
     }
 
     public boolean onUp(int id, float x, float y) {
-        mActiveObject = null;
-        return false;
+        boolean update = false;
+        if (mActiveIndex == mCardIndex && mTouchTravel < TAP_SLOP) {
+            update = flipCard();
+        } else if (mActiveIndex >= 0 && mPieceType[mActiveIndex] != NOT_A_PIECE) {
+            // Dropped pieces go to the space under their center, or back to
+            // the pool off the map
+            int i = mActiveIndex;
+            int type = mPieceType[i];
+            int from = mPieceSpace[i];
+            int to = PieceLayout.spaceAt(mPieces.getX(i) + mPieces.getWidth(i) / 2,
+                    mPieces.getY(i) + mPieces.getHeight(i) / 2);
+            if (to != from) {
+                int move = mRulesCheck ? Rules.findDrop(mState, type, from, to, mMoves) : 0;
+                if (move >= 0) {
+                    if (VERBOSE && mRulesCheck) {
+                        Log.v(TAG, "onUp: " + Move.toString(move));
+                    }
+                    mState.move(type, from, to, 1);
+                    // The dropped sprite takes the piece that moved, and
+                    // a slot at its new space
+                    mPieceSpace[i] = to;
+                    mPieceSlot[i] = -1;
+                    if (mState.getHistory() != null) {
+                        mState.getHistory().commit();
+                    }
+                } else if (VERBOSE) {
+                    Log.v(TAG, "onUp: no legal move takes type " + type + " to " + to);
+                }
+            }
+            layout();
+            update = true;
+        }
+        mActiveIndex = -1;
+        mPanning = false;
+        return update;
     }
 
     public boolean onDown(int id, float x, float y) {
+        // A touch catches the board and any piece under the finger
+        mAnimator.stopFling();
+        mTouchTravel = 0;
         // Convert x,y to Gameboard coordinates
         x -= mPosX;
         y -= mPosY;
-        Log.v(TAG, "onDown: x=" + x + " y=" + y);
-        // Select object on screen (iterate backwards)
-        for(ListIterator<Object2D> iterator = mObjectsList.listIterator(mObjectsList.size());
-        		iterator.hasPrevious();) {
-            Object2D obj = iterator.previous();
-            if (obj != null) {
-                if (obj.getAt(x, y, mZoom)) {
-                    mActiveObject = obj;
-                    Log.v(TAG, "onDown: obj index " + mObjectsList.lastIndexOf(obj));
-                    break;
-                }
+        if (VERBOSE) {
+            Log.v(TAG, "onDown: x=" + x + " y=" + y);
+        }
+        // Select the topmost sprite on screen, grid ids are store indices
+        int index = mGrid.topmostAt(x / mZoom, y / mZoom);
+        if (index >= 0) {
+            mActiveIndex = index;
+            mAnimator.cancelSnap(index);
+            if (VERBOSE) {
+                Log.v(TAG, "onDown: sprite index " + index);
             }
+        } else {
+            mPanning = mBoard.getAt(x, y, mZoom);
         }
 
         return false;
@@ -231,93 +557,360 @@ public class GameBoard implements OnInput{
 
     public boolean onMove(int id, float dx, float dy) {
         boolean update = false;
-        if (mActiveObject == mObjectsList.get(mGameBoardIndex)) {
+        if (mPanning) {
             mPosX += dx;
             mPosY += dy;
             updateGBParams();
             update = true; 
-        } else if (mActiveObject != null) {
-            mActiveObject.onMove(id, dx/mZoom, dy/mZoom);
+        } else if (mActiveIndex >= 0) {
+            mPieces.move(mActiveIndex, dx/mZoom, dy/mZoom);
+            mTouchTravel += Math.abs(dx) + Math.abs(dy);
             update = true;
         }
         return update;
     }
 
-    public boolean onZoom(float scalefactor) {
-    	mZoom *= scalefactor;
+    public boolean onZoom(float scalefactor, float focusX, float focusY) {
+        // Pinches add up on the zoom being animated to
+        float zoom = mAnimator.getZoomTarget(mZoom) * scalefactor;
         // Don't let the object get too small or too large.
-        mZoom = Math.max((float)mView.getHeight()/(2048 + 1116), Math.min(mZoom, 1.0f));
-        Log.v(TAG, "mZoom=" + mZoom);
-        updateGBParams();
+        zoom = Math.max((float)mHeight/(2048 + 1116), Math.min(zoom, 1.0f));
+        if (VERBOSE) {
+            Log.v(TAG, "zoom to " + zoom + " around " + focusX + "," + focusY);
+        }
+        mAnimator.zoomTo(zoom, focusX, focusY);
         return true;
     }
 
-    public void draw(float[] mvpMatrix) {
-    	float[] mvpMatrixLocal = mvpMatrix.clone();
-        // Add program to OpenGL environment
-        GLES20.glUseProgram(mProgram);
-
-        Matrix.translateM(mvpMatrixLocal, 0, mPosX, mPosY, 0.0f);
+    /**
+     * The gesture was cancelled: a held piece goes back to its space
+     * instead of being dropped, the card stays where it is.
+     */
+    public boolean onCancel(int id) {
+        boolean update = false;
+        if (mActiveIndex >= 0 && mPieceType[mActiveIndex] != NOT_A_PIECE) {
+            layout();
+            update = true;
+        }
+        mActiveIndex = -1;
+        mPanning = false;
+        return update;
+    }
 
-        Matrix.scaleM(mvpMatrixLocal, 0, -mZoom, -mZoom, 0.0f);
+    public boolean onFling(int id, float vx, float vy) {
+        // Only the board keeps moving, the up that follows drops a piece
+        if (mPanning) {
+            mAnimator.fling(vx, vy);
+            return true;
+        }
+        return false;
+    }
 
-        for(Iterator<Object2D> iterator = mObjectsList.iterator(); iterator.hasNext();) {
-            Object2D obj = iterator.next();
-            if (obj != null) {
-                obj.draw(mvpMatrixLocal);
+    /**
+     * Step the fling, zoom and piece slides to now, in System.nanoTime()
+     * units. Call once per frame before publish().
+     *
+     * @return true while animations are running and need more frames
+     */
+    public boolean animate(long now) {
+        float dt = mAnimator.beginFrame(now);
+        if (mAnimator.isFlinging()) {
+            mAnimator.stepFling(dt, mDelta);
+            float x = mPosX + mDelta[0];
+            float y = mPosY + mDelta[1];
+            mPosX = x;
+            mPosY = y;
+            updateGBParams();
+            mAnimator.hitEdge(mPosX != x, mPosY != y);
+        }
+        if (mAnimator.isZooming()) {
+            // Keep the board point under the focus where it is
+            float fx = mAnimator.getFocusX();
+            float fy = mAnimator.getFocusY();
+            float zoom = mAnimator.stepZoom(mZoom, dt);
+            mPosX = fx - (fx - mPosX) * zoom / mZoom;
+            mPosY = fy - (fy - mPosY) * zoom / mZoom;
+            mZoom = zoom;
+            updateGBParams();
+        }
+        if (mAnimator.getSnapCount() > 0) {
+            for (int i = 0; i < mPieces.size(); i++) {
+                if (mAnimator.isSnapping(i)) {
+                    mAnimator.stepSnap(i, dt, mDelta);
+                    mPieces.setPos(i, mDelta[0], mDelta[1]);
+                }
             }
         }
+        return mAnimator.isActive();
     }
 
-}
+    /**
+     * Select between one draw call per object and the sprite batch, which
+     * groups all pieces sharing a texture into a single draw call.
+     */
+    public void setBatching(boolean enable) {
+        mBatching = enable;
+    }
 
-class GameBoardObject extends Object2D {
+    public SpriteBatch getSpriteBatch() {
+        return mSpriteBatch;
+    }
 
-    Object2D mChild;
+    /**
+     * Draw the board under a dragged piece from the LayerCache, which is
+     * rendered again only when something but the dragged piece changes.
+     */
+    public void setLayerCaching(boolean enable) {
+        mLayerCaching = enable;
+        mLayerCache.invalidate();
+    }
 
-    public GameBoardObject(Context context) {
-        super(context, "map.pkm", 2048, 2048, 2048, 2048);
-        mChild = new Object2D(context, "map2.pkm", 2048, 1116, 2048, 2048);
-        mH = 2048 + 1116;
+    public LayerCache getLayerCache() {
+        return mLayerCache;
     }
 
-    @Override
-    public void draw(float[] mvpMatrix) {
-        float[] mvpMatrixLocal = mvpMatrix.clone();
-        Matrix.translateM(mvpMatrixLocal, 0, -mX, -mY, 0.0f);
+    /**
+     * Play the next card of the deck, also done by tapping the card. The
+     * next card was loaded while the current one was up, so the card shows
+     * it from the next frame on.
+     *
+     * @return false if the deck is used up
+     */
+    public boolean flipCard() {
+        if (mDeck.next() == CardDeck.NONE) {
+            return false;
+        }
+        mDeck.flip();
+        return true;
+    }
 
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureID);
-        int uSamp = GLES20.glGetAttribLocation(mProgram, "uSampler");
-        GLES20.glUniform1i(uSamp, 0);
+    public CardTextures getCardTextures() {
+        return mCards;
+    }
 
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferPointer);
-        GLES20.glEnableVertexAttribArray(0);
-        GLES20.glVertexAttribPointer(0, 3, GLES20.GL_FLOAT, false, 0, 0);
+    // Show the deck's current card once its texture is in, the card before
+    // it stays up until then
+    private void updateCard() {
+        int card = mDeck.current();
+        mCards.update(card, mDeck.next(), mCardShown);
+        if (card == mCardShown || card == CardDeck.NONE || !mCards.isReady(card)) {
+            return;
+        }
+        if (mCards.isMissing(card)) {
+            mPieces.setTexture(mCardImage, mPlaceholderTexture, mPlaceholderCoords);
+        } else {
+            mCards.getTexCoords(card, mCardCoords);
+            mPieces.setTexture(mCardImage, mCards.getTexture(card), mCardCoords);
+        }
+        fillImageBuffer(mCardImage);
+        mLayerCache.invalidate();
+        mCardShown = card;
+    }
 
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, textureBufferPointer);
-        GLES20.glEnableVertexAttribArray(1);
-        GLES20.glVertexAttribPointer(1, 2, GLES20.GL_FLOAT, false, 0, 0);
+    /**
+     * Publish the camera and the object positions for the next draw().
+     * Call once the input and moves of the frame have been applied.
+     */
+    public void publish() {
+        updateCard();
+        FrameSnapshot f = mSnapshots.back();
+        f.mPosX = mPosX;
+        f.mPosY = mPosY;
+        f.mZoom = mZoom;
+        f.mWidth = mWidth;
+        f.mHeight = mHeight;
+        f.mActive = mActiveIndex;
+        mPieces.copyTo(f.mX, f.mY, f.mImage);
+        mSnapshots.publish();
+    }
 
-        // get handle to shape's transformation matrix
-        mMVPMatrixHandle = GLES20.glGetUniformLocation(mProgram, "uMVPMatrix");
-        MyGLRenderer.checkGlError("glGetUniformLocation");
+    /**
+     * Draw the last published snapshot. Reads no other state that input or
+     * moves change. With batching the pieces are recorded into a
+     * CommandBuffer off the GL thread while the map is drawn, then
+     * replayed. While a piece is dragged everything else is drawn from the
+     * LayerCache.
+     */
+    public void draw(MatrixStack stack) {
+        FrameSnapshot f = mSnapshots.acquire();
+        boolean pieces = mAtlas.isLoaded();
+
+        // Visible part of the board in board pixels
+        mVisX0 = -f.mPosX / f.mZoom;
+        mVisY0 = -f.mPosY / f.mZoom;
+        mVisX1 = (f.mWidth - f.mPosX) / f.mZoom;
+        mVisY1 = (f.mHeight - f.mPosY) / f.mZoom;
+        mDrawnCount = 0;
+        mCulledCount = 0;
+        mSpriteBatch.resetCounts();
+        boolean loading = mBoard.setVisibleRect(mVisX0, mVisY0, mVisX1, mVisY1, f.mZoom);
+
+        // Only a complete board goes into the cache, the tiles still
+        // loading would be missing from it
+        boolean cache = mLayerCaching && f.mActive >= 0 && pieces && !loading;
+        if (cache && mLayerCache.matches(f)) {
+            mLayerCache.draw(stack, mProgram);
+            mDrawnCount++;
+            drawActive(stack, f);
+            return;
+        }
 
-        // Apply the projection and view transformation
-        GLES20.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, mvpMatrixLocal, 0);
-        MyGLRenderer.checkGlError("glUniformMatrix4fv");
+        boolean record = mBatching && pieces;
+        if (record) {
+            mRecorder.start(f);
+        }
+        cache = cache && mLayerCache.begin();
+        // Add program to OpenGL environment
+        GLState.useProgram(mProgram);
+
+        stack.push();
+        stack.translate(f.mPosX, f.mPosY, 0.0f);
+        stack.scale(-f.mZoom, -f.mZoom, 0.0f);
+
+        // The map tiles are drawn directly, they are loaded on the way. The
+        // pieces wait for the atlas.
+        mBoard.draw(stack);
+        mDrawnCount++;
+        if (pieces && !mBatching) {
+            for (int i = 0; i < mPieces.size(); i++) {
+                if (i != f.mActive && isVisible(i, f)) {
+                    drawSprite(stack, f, i);
+                }
+            }
+        }
+        stack.pop();
+        CommandBuffer commands = null;
+        if (record) {
+            // The layers carry the camera transform themselves. Layer 0
+            // has the pieces, layer 1 the active one.
+            commands = mRecorder.finish();
+            mSpriteBatch.submit(commands, stack, 0, 1);
+            mDrawnCount += mRecorder.getDrawnCount();
+            mCulledCount += mRecorder.getCulledCount();
+        }
+        if (cache) {
+            mLayerCache.end(f);
+            mLayerCache.draw(stack, mProgram);
+        }
+        if (record) {
+            mSpriteBatch.submit(commands, stack, 1, commands.getLayerCount());
+        } else if (pieces) {
+            drawActive(stack, f);
+        }
+    }
+
+    private void drawActive(MatrixStack stack, FrameSnapshot f) {
+        if (f.mActive >= 0 && isVisible(f.mActive, f)) {
+            stack.push();
+            stack.translate(f.mPosX, f.mPosY, 0.0f);
+            stack.scale(-f.mZoom, -f.mZoom, 0.0f);
+            drawSprite(stack, f, f.mActive);
+            stack.pop();
+        }
+    }
+
+    /**
+     * Stop the worker threads of this board, for when the GL context is
+     * gone and a new board takes over.
+     */
+    public void release() {
+        mRecorder.quit();
+    }
+
+    // One draw call for sprite i with the static quad of its image
+    private void drawSprite(MatrixStack stack, FrameSnapshot f, int i) {
+        int image = f.mImage[i];
+        stack.push();
+        stack.translate(-f.mX[i], -f.mY[i], 0.0f);
+
+        GLState.activeTexture(GLES20.GL_TEXTURE0);
+        GLState.bindTexture(mPieces.getTexture(image));
+        GLState.uniform1i(GLState.uniformLocation("uSampler"), 0);
+        GLState.bindBuffer(GLES20.GL_ARRAY_BUFFER, mImageBuffers[image]);
+        GLState.enableVertexAttribArray(0);
+        GLState.vertexAttribPointer(0, 3, QUAD_STRIDE, 0);
+        GLState.enableVertexAttribArray(1);
+        GLState.vertexAttribPointer(1, 2, QUAD_STRIDE, 3 * 4);
+        GLState.uniformMatrix4fv(GLState.uniformLocation("uMVPMatrix"), stack.getArray(),
+                stack.getOffset());
 
-        // Draw the square
         GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
-        /*GLES20.glDrawElements(GLES20.GL_TRIANGLES, drawOrder.length,
-                              GLES20.GL_UNSIGNED_SHORT, drawListBuffer);*/
-        Matrix.translateM(mvpMatrixLocal, 0, 0, -2048, 0.0f);
-        mChild.draw(mvpMatrixLocal);
+        GLState.countDraw();
+        stack.pop();
+    }
+
+    // Cull sprites outside the visible board rectangle, counting both
+    private boolean isVisible(int i, FrameSnapshot f) {
+        float x = f.mX[i];
+        float y = f.mY[i];
+        int image = f.mImage[i];
+        if (x < mVisX1 && x + mPieces.getImageWidth(image) > mVisX0
+                && y < mVisY1 && y + mPieces.getImageHeight(image) > mVisY0) {
+            mDrawnCount++;
+            return true;
+        }
+        mCulledCount++;
+        return false;
+    }
+
+    /**
+     * Objects drawn in the last frame, the map and the layer cache count
+     * as one.
+     */
+    public int getDrawnCount() {
+        return mDrawnCount;
+    }
+
+    /**
+     * Objects skipped in the last frame because they were off screen.
+     */
+    public int getCulledCount() {
+        return mCulledCount;
+    }
+
+    public MapTiles getMapTiles() {
+        return mBoard.getTiles();
     }
-    
+
+}
+
+class GameBoardObject extends Object2D {
+
+    // Texture memory for the map tiles, the whole board at full resolution
+    // is about 3.3 MB
+    private static final int MAP_TEXTURE_BUDGET = 2 * 1024 * 1024;
+
+    private MapTiles mTiles;
+
+    public GameBoardObject(Context context, AssetLoader loader, TextureManager textures) {
+        super(2048, 2048 + 1116);
+        mTiles = new MapTiles(context, "maptiles/board.tiles", MAP_TEXTURE_BUDGET, loader,
+                textures);
+    }
+
+    public MapTiles getTiles() {
+        return mTiles;
+    }
+
+    /**
+     * Load the map tiles for the visible part of the board.
+     *
+     * @return true if tiles are still loading
+     */
+    public boolean setVisibleRect(float x0, float y0, float x1, float y1, float zoom) {
+        return mTiles.update(x0 + mX, y0 + mY, x1 + mX, y1 + mY, zoom);
+    }
+
     @Override
-    public void setShader(int program) {
-        mProgram = program;
-        mChild.setShader(program);
+    public void draw(MatrixStack stack, float x, float y) {
+        stack.push();
+        stack.translate(-x, -y, 0.0f);
+        mTiles.draw(stack, mProgram);
+        stack.pop();
     }
-}
\ No newline at end of file
+
+    @Override
+    public void batch(SpriteBatch batch, float x, float y) {
+        // Drawn through its own tile batch
+    }
+}
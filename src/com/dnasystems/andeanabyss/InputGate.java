@@ -0,0 +1,55 @@
+package com.dnasystems.andeanabyss;
+
+/**
+ * Passes input on to the board, except while the game must not change:
+ * with the gate closed a dropped piece is cancelled instead and slides back
+ * where it came from, so the state stays the one the bot search started
+ * from. Panning, zooming and picking pieces up go on as usual.
+ *
+ * GL thread only.
+ */
+public class InputGate implements OnInput {
+
+    private OnInput mTarget;
+    private boolean mClosed;
+
+    /**
+     * Hand the input to target from now on, the board is rebuilt with
+     * every GL context.
+     */
+    public void setTarget(OnInput target) {
+        mTarget = target;
+    }
+
+    public void setClosed(boolean closed) {
+        mClosed = closed;
+    }
+
+    public boolean isClosed() {
+        return mClosed;
+    }
+
+    public boolean onUp(int id, float x, float y) {
+        return mClosed ? mTarget.onCancel(id) : mTarget.onUp(id, x, y);
+    }
+
+    public boolean onDown(int id, float x, float y) {
+        return mTarget.onDown(id, x, y);
+    }
+
+    public boolean onMove(int id, float dx, float dy) {
+        return mTarget.onMove(id, dx, dy);
+    }
+
+    public boolean onZoom(float scalefactor, float focusX, float focusY) {
+        return mTarget.onZoom(scalefactor, focusX, focusY);
+    }
+
+    public boolean onFling(int id, float vx, float vy) {
+        return mTarget.onFling(id, vx, vy);
+    }
+
+    public boolean onCancel(int id) {
+        return mTarget.onCancel(id);
+    }
+}
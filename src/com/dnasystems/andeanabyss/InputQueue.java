@@ -0,0 +1,225 @@
+package com.dnasystems.andeanabyss;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single producer, single consumer ring buffer of input events, from the
+ * UI thread to the GL thread. The UI thread offers events as they come;
+ * the GL thread drains them once per frame into an OnInput, so the board
+ * is only ever changed on the GL thread. Consecutive moves of a pointer
+ * and consecutive zooms are merged into one call each.
+ *
+ * DOWN, UP and CANCEL are never dropped for the other events: a part of
+ * the ring is kept for them, so a drag always ends. A MOVE or ZOOM that
+ * finds the rest full is held back on the UI thread, merged with the
+ * following ones and queued ahead of the next event that fits, so no
+ * delta is lost. Only a FLING or a held back event can be dropped.
+ *
+ * No locks and no allocation: the events live in preallocated arrays and
+ * the two indices are published with ordered writes.
+ */
+public class InputQueue {
+
+    public static final int DOWN = 0;
+    public static final int MOVE = 1;
+    public static final int UP = 2;
+    public static final int ZOOM = 3;
+    public static final int FLING = 4;
+    public static final int CANCEL = 5;
+
+    private final int[] mKind;
+    private final int[] mId;
+    private final float[] mX;
+    private final float[] mY;
+    private final float[] mScale;
+    private final int mMask;
+    // Slots only DOWN, UP and CANCEL may take, and a held event queued
+    // ahead of them
+    private final int mReserved;
+    // Next event to read, written by the consumer only
+    private final AtomicLong mHead = new AtomicLong();
+    // Next event to write, written by the producer only
+    private final AtomicLong mTail = new AtomicLong();
+    // Written by the producer only, read by the overlay
+    private final AtomicLong mDropped = new AtomicLong();
+    private int mMerged;
+    // A MOVE or ZOOM held back on a full queue, UI thread only
+    private int mHeldKind = -1;
+    private int mHeldId;
+    private float mHeldX;
+    private float mHeldY;
+    private float mHeldScale;
+
+    /**
+     * @param capacity events, rounded up to a power of two of at least 4
+     */
+    public InputQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity - 1, 2)) << 1;
+        mKind = new int[size];
+        mId = new int[size];
+        mX = new float[size];
+        mY = new float[size];
+        mScale = new float[size];
+        mMask = size - 1;
+        mReserved = Math.max(2, size / 8);
+    }
+
+    /**
+     * Queue an event, UI thread only. For MOVE x and y are the deltas, for
+     * FLING the velocity in pixels per second.
+     *
+     * @return false if the event was dropped, DOWN, UP and CANCEL only
+     *         are once the reserved slots are full too
+     */
+    public boolean offer(int kind, int id, float x, float y) {
+        return offer(kind, id, x, y, 1);
+    }
+
+    /**
+     * Queue a ZOOM by scale around the screen point focusX, focusY.
+     */
+    public boolean offerZoom(float scale, float focusX, float focusY) {
+        return offer(ZOOM, 0, focusX, focusY, scale);
+    }
+
+    private boolean offer(int kind, int id, float x, float y, float scale) {
+        boolean gesture = kind == DOWN || kind == UP || kind == CANCEL;
+        if (mHeldKind >= 0) {
+            if (kind == mHeldKind && id == mHeldId) {
+                // Goes out as one event with the held one
+                if (kind == MOVE) {
+                    x += mHeldX;
+                    y += mHeldY;
+                } else {
+                    scale *= mHeldScale;
+                }
+                mHeldKind = -1;
+            } else if (put(mHeldKind, mHeldId, mHeldX, mHeldY, mHeldScale,
+                    gesture ? 1 : mReserved)) {
+                mHeldKind = -1;
+            } else if (gesture) {
+                // The end of the gesture matters more than its last steps,
+                // the held event leaves it a slot or is dropped
+                mHeldKind = -1;
+                drop();
+            } else {
+                // Nothing may overtake the held event
+                drop();
+                return false;
+            }
+        }
+        if (put(kind, id, x, y, scale, gesture ? 0 : mReserved)) {
+            return true;
+        }
+        if (kind == MOVE || kind == ZOOM) {
+            mHeldKind = kind;
+            mHeldId = id;
+            mHeldX = x;
+            mHeldY = y;
+            mHeldScale = scale;
+            return true;
+        }
+        drop();
+        return false;
+    }
+
+    // Queue the event if more than keep slots are free
+    private boolean put(int kind, int id, float x, float y, float scale, int keep) {
+        long tail = mTail.get();
+        int free = mMask + 1 - (int)(tail - mHead.get());
+        if (free <= keep) {
+            return false;
+        }
+        int i = (int)tail & mMask;
+        mKind[i] = kind;
+        mId[i] = id;
+        mX[i] = x;
+        mY[i] = y;
+        mScale[i] = scale;
+        // Publish the slot after it is written
+        mTail.lazySet(tail + 1);
+        return true;
+    }
+
+    private void drop() {
+        mDropped.lazySet(mDropped.get() + 1);
+    }
+
+    /**
+     * Hand all queued events to target, GL thread only. The handlers'
+     * results are not needed, the events are drained in the frame that
+     * draws what they changed.
+     */
+    public void drain(OnInput target) {
+        long head = mHead.get();
+        long tail = mTail.get();
+        mMerged = 0;
+        while (head < tail) {
+            int i = (int)head & mMask;
+            int kind = mKind[i];
+            int id = mId[i];
+            float x = mX[i];
+            float y = mY[i];
+            float scale = mScale[i];
+            head++;
+            // Fold the following moves of the same pointer, or zooms
+            // around the latest focus
+            while (head < tail && (kind == MOVE || kind == ZOOM)) {
+                int j = (int)head & mMask;
+                if (mKind[j] != kind || mId[j] != id) {
+                    break;
+                }
+                if (kind == MOVE) {
+                    x += mX[j];
+                    y += mY[j];
+                } else {
+                    x = mX[j];
+                    y = mY[j];
+                    scale *= mScale[j];
+                }
+                head++;
+                mMerged++;
+            }
+            switch (kind) {
+            case DOWN:
+                target.onDown(id, x, y);
+                break;
+            case MOVE:
+                target.onMove(id, x, y);
+                break;
+            case UP:
+                target.onUp(id, x, y);
+                break;
+            case ZOOM:
+                target.onZoom(scale, x, y);
+                break;
+            case FLING:
+                target.onFling(id, x, y);
+                break;
+            case CANCEL:
+                target.onCancel(id);
+                break;
+            }
+        }
+        // Hand the slots back to the producer
+        mHead.lazySet(head);
+    }
+
+    public boolean isEmpty() {
+        return mHead.get() == mTail.get();
+    }
+
+    /**
+     * Events merged into others by the last drain.
+     */
+    public int getMerged() {
+        return mMerged;
+    }
+
+    /**
+     * Events dropped on a full queue, on any thread.
+     */
+    public long getDropped() {
+        return mDropped.get();
+    }
+}
@@ -0,0 +1,200 @@
+package com.dnasystems.andeanabyss;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+/**
+ * The static part of a frame, the map and every piece but the active one,
+ * rendered into a texture the size of the surface. While a piece is
+ * dragged nothing else moves, so GameBoard draws this texture as one quad
+ * and the dragged piece on top of it, instead of the map tiles and all
+ * other pieces. The texture is kept as long as the camera, the active
+ * piece and the positions and images of all other pieces are those of
+ * the snapshot it was rendered from.
+ *
+ * Takes four bytes per pixel of the surface, 4 MB at 1280x800. GL thread
+ * only; the framebuffer goes with the GL context, like the board that
+ * owns it.
+ */
+public class LayerCache {
+
+    private static final String TAG = AndeanAbyssCBG.TAG;
+    // x, y, z, u, v per corner
+    private static final int STRIDE = 5 * 4;
+
+    private final TextureManager mTextures;
+    private int mWidth;
+    private int mHeight;
+    private int mTextureW;
+    private int mTextureH;
+    private int mFramebuffer;
+    private int mTexture;
+    private int mQuadBuffer;
+    private boolean mFailed;
+
+    // The snapshot the texture shows, if mValid
+    private final FrameSnapshot mKey;
+    private boolean mValid;
+    private int mRenders;
+    private int mHits;
+
+    /**
+     * @param objects objects in the snapshots
+     */
+    public LayerCache(TextureManager textures, int objects) {
+        mTextures = textures;
+        mKey = new FrameSnapshot(objects);
+    }
+
+    /**
+     * Size of the surface, the texture follows it on the next render.
+     */
+    public void setSize(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        mValid = false;
+    }
+
+    public void invalidate() {
+        mValid = false;
+    }
+
+    /**
+     * Whether the texture shows the static part of f.
+     */
+    public boolean matches(FrameSnapshot f) {
+        FrameSnapshot k = mKey;
+        if (!mValid || f.mPosX != k.mPosX || f.mPosY != k.mPosY || f.mZoom != k.mZoom
+                || f.mWidth != k.mWidth || f.mHeight != k.mHeight || f.mActive != k.mActive) {
+            return false;
+        }
+        for (int i = 0; i < f.mX.length; i++) {
+            if (i != f.mActive && (f.mX[i] != k.mX[i] || f.mY[i] != k.mY[i]
+                    || f.mImage[i] != k.mImage[i])) {
+                return false;
+            }
+        }
+        mHits++;
+        return true;
+    }
+
+    /**
+     * Render into the cleared texture from here on, until
+     * {@link #end(FrameSnapshot)}.
+     *
+     * @return false if the framebuffer is not supported, render to the
+     *         screen then
+     */
+    public boolean begin() {
+        if (mFailed || mWidth == 0) {
+            return false;
+        }
+        if ((mTextureW != mWidth || mTextureH != mHeight) && !allocate()) {
+            return false;
+        }
+        mValid = false;
+        GLState.bindFramebuffer(mFramebuffer);
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        GLState.countCall();
+        return true;
+    }
+
+    /**
+     * Render to the screen again. The texture now shows the static part of f.
+     */
+    public void end(FrameSnapshot f) {
+        GLState.bindFramebuffer(0);
+        mKey.mPosX = f.mPosX;
+        mKey.mPosY = f.mPosY;
+        mKey.mZoom = f.mZoom;
+        mKey.mWidth = f.mWidth;
+        mKey.mHeight = f.mHeight;
+        mKey.mActive = f.mActive;
+        System.arraycopy(f.mX, 0, mKey.mX, 0, f.mX.length);
+        System.arraycopy(f.mY, 0, mKey.mY, 0, f.mY.length);
+        System.arraycopy(f.mImage, 0, mKey.mImage, 0, f.mImage.length);
+        mValid = true;
+        mRenders++;
+    }
+
+    /**
+     * Draw the texture over the whole surface. stack maps surface pixels,
+     * as it comes from the renderer.
+     */
+    public void draw(MatrixStack stack, int program) {
+        stack.push();
+        stack.scale(mWidth, mHeight, 1.0f);
+
+        GLState.useProgram(program);
+        GLState.activeTexture(GLES20.GL_TEXTURE0);
+        GLState.bindTexture(mTexture);
+        GLState.uniform1i(GLState.uniformLocation("uSampler"), 0);
+        GLState.bindBuffer(GLES20.GL_ARRAY_BUFFER, mQuadBuffer);
+        GLState.enableVertexAttribArray(0);
+        GLState.vertexAttribPointer(0, 3, STRIDE, 0);
+        GLState.enableVertexAttribArray(1);
+        GLState.vertexAttribPointer(1, 2, STRIDE, 3 * 4);
+        GLState.uniformMatrix4fv(GLState.uniformLocation("uMVPMatrix"), stack.getArray(),
+                stack.getOffset());
+
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+        GLState.countDraw();
+        stack.pop();
+    }
+
+    /** Times the texture was rendered. */
+    public int getRenderCount() {
+        return mRenders;
+    }
+
+    /** Frames drawn from the texture without rendering it. */
+    public int getHitCount() {
+        return mHits;
+    }
+
+    // Create the framebuffer on first use and size its texture to the
+    // surface
+    private boolean allocate() {
+        if (mFramebuffer == 0) {
+            mFramebuffer = mTextures.createFramebuffer();
+            // Drawn one texel per pixel; the surface is rarely a power of
+            // two, which GLES 2.0 only allows with clamping and without
+            // mipmaps
+            mTexture = mTextures.createTexture(GLES20.GL_NEAREST, GLES20.GL_CLAMP_TO_EDGE);
+            mQuadBuffer = mTextures.createBuffer();
+
+            // The unit square, stretched to the surface by draw(). The
+            // texture's first row is the bottom of the surface.
+            FloatBuffer quad = ByteBuffer.allocateDirect(4 * STRIDE)
+                    .order(ByteOrder.nativeOrder()).asFloatBuffer();
+            quad.put(0).put(0).put(0).put(0).put(1);
+            quad.put(0).put(1).put(0).put(0).put(0);
+            quad.put(1).put(0).put(0).put(1).put(1);
+            quad.put(1).put(1).put(0).put(1).put(0);
+            quad.flip();
+            mTextures.bufferData(GLES20.GL_ARRAY_BUFFER, mQuadBuffer, 4 * STRIDE, quad,
+                    GLES20.GL_STATIC_DRAW);
+        }
+        mTextures.allocate(mTexture, mWidth, mHeight);
+        mTextureW = mWidth;
+        mTextureH = mHeight;
+
+        GLState.bindFramebuffer(mFramebuffer);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D, mTexture, 0);
+        int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+        GLState.countCall(2);
+        GLState.bindFramebuffer(0);
+        if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+            Log.w(TAG, "No layer cache, framebuffer status " + status);
+            mFailed = true;
+            return false;
+        }
+        Log.i(TAG, "Layer cache " + mWidth + "x" + mHeight);
+        return true;
+    }
+}
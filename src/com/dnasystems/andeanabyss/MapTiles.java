@@ -0,0 +1,376 @@
+package com.dnasystems.andeanabyss;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import android.content.Context;
+import android.opengl.ETC1;
+import android.opengl.GLES20;
+import android.util.Log;
+
+/**
+ * Streams the board from the ETC1 tile pyramid written by the MapTiler tool
+ * (see tools/). Only the tiles that intersect the visible part of the board
+ * are resident, at the level matching the zoom; the least recently used
+ * tiles are deleted when the texture memory goes over budget. The coarsest
+ * level is always kept and drawn underneath while finer tiles are loading.
+ *
+ * The tile file is memory mapped and every tile is handed to
+ * glCompressedTexImage2D as a slice of the mapping, without copies. Mapping
+ * and paging tiles in happens on the AssetLoader workers, only the texture
+ * uploads run on the GL thread. Nothing is drawn until the coarsest level
+ * is in. The coarsest level is kept in the TextureManager's cache, so a
+ * board made for a new GL context has it without paging it in again.
+ */
+public class MapTiles {
+
+    private static final String TAG = AndeanAbyssCBG.TAG;
+    private static final int MAGIC = 0x4d544c31; // "MTL1"
+
+    private int mTileSize;
+    private int mBoardW;
+    private int mBoardH;
+    private int mLevels;
+    private int[] mLevelW;
+    private int[] mLevelH;
+    private int[] mLevelCols;
+    private int[] mLevelRows;
+    private int[] mLevelFirst;
+
+    private int[] mOffsets;
+    private int[] mLengths;
+    private int[] mTileTextures;
+    private int[] mLastUsed;
+    private boolean[] mRequested;
+    // Tiles that could not be read, the coarsest level shows through
+    private boolean[] mFailed;
+    private int mResidentBytes = 0;
+    private int mBudgetBytes;
+    private float mLodBias = 0.0f;
+    private volatile boolean mReady = false;
+    // The index or the coarsest level could not be read, nothing is drawn
+    private boolean mUnavailable = false;
+
+    private int mFrame = 0;
+    private int mLevel = 0;
+    private int[] mVisible;
+    private int mVisibleCount = 0;
+    private boolean mPending = false;
+    private boolean mHoles = false;
+
+    private final AssetLoader mLoader;
+    private final TextureManager mTextures;
+    private ByteBuffer mFile;
+    private final SpriteBatch mBatch;
+    private final float[] mQuad = new float[12];
+    private final float[] mTexCoords = new float[8];
+
+    /**
+     * @param asset tile file in the assets folder
+     * @param budgetBytes texture memory the tiles may use, the coarsest
+     *        level is always loaded even if it does not fit
+     */
+    public MapTiles(final Context context, final String asset, int budgetBytes,
+            AssetLoader loader, final TextureManager textures) {
+        mBudgetBytes = budgetBytes;
+        mLoader = loader;
+        mTextures = textures;
+        mBatch = new SpriteBatch(textures, 64);
+        loader.submit(new AssetLoader.Job() {
+            private PayloadCache.Payload[] mCoarse;
+
+            @Override
+            public void load() throws IOException {
+                mFile = MappedAssets.map(context, asset);
+                readIndex();
+                PayloadCache cache = textures.getCache();
+                int first = mLevelFirst[mLevels - 1];
+                mCoarse = new PayloadCache.Payload[mOffsets.length - first];
+                for (int t = first; t < mOffsets.length; t++) {
+                    String key = asset + "#" + t;
+                    PayloadCache.Payload p = cache.get(key);
+                    if (p == null) {
+                        p = readTile(t);
+                        cache.put(key, p);
+                    }
+                    mCoarse[t - first] = p;
+                }
+            }
+
+            @Override
+            public void upload() {
+                int first = mLevelFirst[mLevels - 1];
+                for (int t = first; t < mOffsets.length; t++) {
+                    uploadTile(t, mCoarse[t - first]);
+                }
+                mReady = true;
+            }
+
+            @Override
+            public void failed(Exception e) {
+                Log.e(TAG, "No map tiles from " + asset);
+                mUnavailable = true;
+            }
+        });
+    }
+
+    private void readIndex() throws IOException {
+        // The index is big endian, read it through a private view
+        ByteBuffer header = mFile.duplicate();
+        header.order(ByteOrder.BIG_ENDIAN);
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Bad map tiles magic");
+        }
+        mTileSize = header.getShort();
+        mBoardW = header.getShort();
+        mBoardH = header.getShort();
+        mLevels = header.get();
+
+        mLevelW = new int[mLevels];
+        mLevelH = new int[mLevels];
+        mLevelCols = new int[mLevels];
+        mLevelRows = new int[mLevels];
+        mLevelFirst = new int[mLevels];
+        int tiles = 0;
+        int maxVisible = 0;
+        for (int l = 0; l < mLevels; l++) {
+            mLevelW[l] = header.getShort();
+            mLevelH[l] = header.getShort();
+            mLevelCols[l] = header.getShort();
+            mLevelRows[l] = header.getShort();
+            mLevelFirst[l] = tiles;
+            tiles += mLevelCols[l] * mLevelRows[l];
+            maxVisible = Math.max(maxVisible, mLevelCols[l] * mLevelRows[l]);
+        }
+
+        mOffsets = new int[tiles];
+        mLengths = new int[tiles];
+        for (int t = 0; t < tiles; t++) {
+            mOffsets[t] = header.getInt();
+            mLengths[t] = header.getInt();
+        }
+        mTileTextures = new int[tiles];
+        mLastUsed = new int[tiles];
+        mRequested = new boolean[tiles];
+        mFailed = new boolean[tiles];
+        mVisible = new int[maxVisible];
+    }
+
+    public void setBudget(int bytes) {
+        mBudgetBytes = bytes;
+    }
+
+    /**
+     * Positive values pick coarser levels earlier, negative sharper ones.
+     */
+    public void setLodBias(float bias) {
+        mLodBias = bias;
+    }
+
+    public int getResidentBytes() {
+        return mResidentBytes;
+    }
+
+    public int getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * Tiles drawn in the last frame.
+     */
+    public int getVisibleTiles() {
+        return mVisibleCount;
+    }
+
+    /**
+     * Tiles of the current level skipped in the last frame because they
+     * are outside the visible rectangle.
+     */
+    public int getCulledTiles() {
+        return mReady ? mLevelCols[mLevel] * mLevelRows[mLevel] - mVisibleCount : 0;
+    }
+
+    /**
+     * Select and load the tiles for the visible board rectangle (in board
+     * pixels) at the given zoom. Must be called on the GL thread before
+     * {@link #draw(MatrixStack, int)}.
+     *
+     * @return true if visible tiles are still loading; the AssetLoader
+     *         requests a new frame when they are in
+     */
+    public boolean update(float x0, float y0, float x1, float y1, float zoom) {
+        if (!mReady) {
+            return !mUnavailable;
+        }
+        mFrame++;
+        // One level down for every halving of the zoom
+        double lod = Math.log(1.0 / zoom) / Math.log(2) + mLodBias;
+        mLevel = Math.max(0, Math.min((int)Math.floor(lod), mLevels - 1));
+        int scale = 1 << mLevel;
+        int span = mTileSize * scale;
+        int c0 = Math.max(0, (int)Math.floor(x0 / span));
+        int r0 = Math.max(0, (int)Math.floor(y0 / span));
+        int c1 = Math.min(mLevelCols[mLevel] - 1, (int)Math.floor(x1 / span));
+        int r1 = Math.min(mLevelRows[mLevel] - 1, (int)Math.floor(y1 / span));
+
+        mVisibleCount = 0;
+        mPending = false;
+        mHoles = false;
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                final int t = mLevelFirst[mLevel] + r * mLevelCols[mLevel] + c;
+                if (mTileTextures[t] == 0 && mFailed[t]) {
+                    mHoles = true;
+                    continue;
+                }
+                if (mTileTextures[t] == 0) {
+                    // The loader requests a frame when the tile is in
+                    if (!mRequested[t]) {
+                        mRequested[t] = true;
+                        mLoader.submit(new AssetLoader.Job() {
+                            private PayloadCache.Payload mData;
+
+                            @Override
+                            public void load() throws IOException {
+                                mData = readTile(t);
+                            }
+
+                            @Override
+                            public void upload() {
+                                uploadTile(t, mData);
+                                mRequested[t] = false;
+                            }
+
+                            @Override
+                            public void failed(Exception e) {
+                                // Not read again, the coarser tile is
+                                // drawn in its place
+                                mRequested[t] = false;
+                                mFailed[t] = true;
+                            }
+                        });
+                    }
+                    mPending = true;
+                    continue;
+                }
+                mLastUsed[t] = mFrame;
+                mVisible[mVisibleCount++] = t;
+            }
+        }
+        evict();
+        return mPending;
+    }
+
+    // Worker thread: parse the PKM header of a tile and page its data in
+    private PayloadCache.Payload readTile(int t) throws IOException {
+        PkmFile pkm = PkmFile.parse(mFile, mOffsets[t]);
+        if (pkm.width != mTileSize || pkm.height != mTileSize) {
+            throw new IOException("Tile " + t + " is " + pkm.width + "x" + pkm.height);
+        }
+        PkmFile.prefault(pkm.data);
+        return new PayloadCache.Payload(mTileSize, mTileSize, ETC1.ETC1_RGB8_OES, 0, pkm.data);
+    }
+
+    private void uploadTile(int t, PayloadCache.Payload data) {
+        int id = mTextures.createTexture(GLES20.GL_LINEAR, GLES20.GL_CLAMP_TO_EDGE);
+        mTextures.upload(id, data);
+        mTileTextures[t] = id;
+        mResidentBytes += data.getBytes();
+    }
+
+    // Delete least recently used tiles of the finer levels until the budget
+    // is met. Tiles used in this frame are never evicted.
+    private void evict() {
+        int coarsest = mLevelFirst[mLevels - 1];
+        while (mResidentBytes > mBudgetBytes) {
+            int victim = -1;
+            for (int t = 0; t < coarsest; t++) {
+                if (mTileTextures[t] != 0 && mLastUsed[t] != mFrame
+                        && (victim < 0 || mLastUsed[t] < mLastUsed[victim])) {
+                    victim = t;
+                }
+            }
+            if (victim < 0) {
+                return;
+            }
+            release(victim);
+        }
+    }
+
+    private void release(int t) {
+        mTextures.deleteTexture(mTileTextures[t]);
+        mTileTextures[t] = 0;
+        mResidentBytes -= mLengths[t] - PkmFile.HEADER_SIZE;
+    }
+
+    /**
+     * Delete all tile textures and drop the tile file mapping.
+     */
+    public void release() {
+        if (mTileTextures != null) {
+            for (int t = 0; t < mTileTextures.length; t++) {
+                if (mTileTextures[t] != 0) {
+                    release(t);
+                }
+            }
+        }
+        // Unmapped by the GC once the last slice is gone
+        mFile = null;
+    }
+
+    /**
+     * Draw the tiles selected by the last {@link #update} with the current
+     * matrix, which maps board pixels the way Object2D does.
+     */
+    public void draw(MatrixStack stack, int program) {
+        if (!mReady) {
+            return;
+        }
+        if (mPending || mHoles) {
+            int coarsest = mLevels - 1;
+            mBatch.begin(stack);
+            for (int t = mLevelFirst[coarsest]; t < mOffsets.length; t++) {
+                addTile(program, coarsest, t);
+            }
+            mBatch.end();
+        }
+        mBatch.begin(stack);
+        for (int i = 0; i < mVisibleCount; i++) {
+            addTile(program, mLevel, mVisible[i]);
+        }
+        mBatch.end();
+    }
+
+    private void addTile(int program, int level, int t) {
+        int index = t - mLevelFirst[level];
+        int col = index % mLevelCols[level];
+        int row = index / mLevelCols[level];
+        int scale = 1 << level;
+        // Edge tiles are only partly covered by the board
+        int tw = Math.min(mTileSize, mLevelW[level] - col * mTileSize);
+        int th = Math.min(mTileSize, mLevelH[level] - row * mTileSize);
+        float w = tw * scale;
+        float h = th * scale;
+        mQuad[4] = -h;
+        mQuad[6] = -w;
+        mQuad[9] = -w;
+        mQuad[10] = -h;
+        float u = tw / (float)mTileSize;
+        float v = th / (float)mTileSize;
+        mTexCoords[3] = v;
+        mTexCoords[4] = u;
+        mTexCoords[6] = u;
+        mTexCoords[7] = v;
+        mBatch.add(program, mTileTextures[t], mQuad, mTexCoords,
+                -col * mTileSize * scale, -row * mTileSize * scale);
+    }
+
+    public int getBoardWidth() {
+        return mBoardW;
+    }
+
+    public int getBoardHeight() {
+        return mBoardH;
+    }
+}
@@ -0,0 +1,111 @@
+package com.dnasystems.andeanabyss;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+
+/**
+ * Memory maps files from the assets folder. Assets stored uncompressed in
+ * the APK are mapped in place; custom_rules.xml keeps aapt from compressing
+ * the .pkm and .tiles files for this. Compressed ones are extracted to the
+ * cache directory once per installed version of the app and the copy is
+ * mapped, so an update with new art at the same image sizes is not served
+ * the old copy.
+ */
+public final class MappedAssets {
+
+    private static final String TAG = AndeanAbyssCBG.TAG;
+
+    // Install or update time of the package, names the extracted copies
+    private static volatile long sVersion;
+
+    private MappedAssets() {
+    }
+
+    public static ByteBuffer map(Context context, String asset) throws IOException {
+        try {
+            AssetFileDescriptor fd = context.getAssets().openFd(asset);
+            try {
+                return fd.createInputStream().getChannel().map(FileChannel.MapMode.READ_ONLY,
+                        fd.getStartOffset(), fd.getLength());
+            } finally {
+                fd.close();
+            }
+        } catch (FileNotFoundException e) {
+            // Compressed in the APK
+            Log.v(TAG, asset + " is compressed, mapping a cached copy");
+        }
+        return PkmFile.map(extract(context, asset));
+    }
+
+    private static File extract(Context context, String asset) throws IOException {
+        String name = asset.replace('/', '_');
+        File dir = context.getCacheDir();
+        File file = new File(dir, name + "." + version(context));
+        // Only ever renamed into place complete
+        if (file.exists()) {
+            return file;
+        }
+        // Copies of earlier versions of the app, and unversioned ones
+        File[] old = dir.listFiles();
+        if (old != null) {
+            for (File f : old) {
+                String n = f.getName();
+                if ((n.equals(name) || n.startsWith(name + ".")) && !n.endsWith(".tmp")) {
+                    f.delete();
+                }
+            }
+        }
+        InputStream in = context.getAssets().open(asset);
+        try {
+            // Write to a temporary name so a partial copy is never mapped
+            File tmp = File.createTempFile(name + ".", ".tmp", dir);
+            OutputStream out = new FileOutputStream(tmp);
+            boolean copied = false;
+            try {
+                byte[] buf = new byte[64 * 1024];
+                int n;
+                while ((n = in.read(buf)) > 0) {
+                    out.write(buf, 0, n);
+                }
+                copied = true;
+            } finally {
+                out.close();
+                if (!copied) {
+                    tmp.delete();
+                }
+            }
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                throw new IOException("Cannot rename " + tmp);
+            }
+        } finally {
+            in.close();
+        }
+        return file;
+    }
+
+    private static long version(Context context) throws IOException {
+        long version = sVersion;
+        if (version == 0) {
+            try {
+                version = context.getPackageManager()
+                        .getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+            } catch (PackageManager.NameNotFoundException e) {
+                throw new IOException("Cannot find own package", e);
+            }
+            sVersion = version;
+        }
+        return version;
+    }
+}
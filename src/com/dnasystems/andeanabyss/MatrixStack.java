@@ -0,0 +1,87 @@
+package com.dnasystems.andeanabyss;
+
+/**
+ * Preallocated stack of 4x4 matrices, so the draw path can apply per object
+ * transforms without cloning a float[16] for every object. All matrices live
+ * in one array; the current matrix is at {@link #getOffset()} in
+ * {@link #getArray()}, which is the form glUniformMatrix4fv takes. The
+ * matrices are column major like android.opengl.Matrix, which translate and
+ * scale match; the stack uses no Android classes so the JVM tools can run
+ * the draw path with it.
+ */
+public class MatrixStack {
+
+    private final float[] mStack;
+    private final int mDepth;
+    private int mTop = 0;
+
+    public MatrixStack(int depth) {
+        mDepth = depth;
+        mStack = new float[depth * 16];
+        for (int i = 0; i < 16; i += 5) {
+            mStack[i] = 1.0f;
+        }
+    }
+
+    /**
+     * Drop everything and make m the only matrix on the stack.
+     */
+    public void load(float[] m) {
+        mTop = 0;
+        System.arraycopy(m, 0, mStack, 0, 16);
+    }
+
+    /**
+     * Push a copy of the current matrix.
+     */
+    public void push() {
+        if (mTop + 1 >= mDepth) {
+            throw new IllegalStateException("MatrixStack overflow");
+        }
+        System.arraycopy(mStack, mTop * 16, mStack, (mTop + 1) * 16, 16);
+        mTop++;
+    }
+
+    public void pop() {
+        if (mTop == 0) {
+            throw new IllegalStateException("MatrixStack underflow");
+        }
+        mTop--;
+    }
+
+    public void translate(float x, float y, float z) {
+        int m = mTop * 16;
+        for (int i = 0; i < 4; i++) {
+            mStack[m + 12 + i] += mStack[m + i] * x + mStack[m + 4 + i] * y
+                    + mStack[m + 8 + i] * z;
+        }
+    }
+
+    public void scale(float x, float y, float z) {
+        int m = mTop * 16;
+        for (int i = 0; i < 4; i++) {
+            mStack[m + i] *= x;
+            mStack[m + 4 + i] *= y;
+            mStack[m + 8 + i] *= z;
+        }
+    }
+
+    /**
+     * Copy the current matrix into dst.
+     */
+    public void get(float[] dst) {
+        System.arraycopy(mStack, mTop * 16, dst, 0, 16);
+    }
+
+    public float[] getArray() {
+        return mStack;
+    }
+
+    public int getOffset() {
+        return mTop * 16;
+    }
+
+    public int getDepth() {
+        return mTop;
+    }
+}
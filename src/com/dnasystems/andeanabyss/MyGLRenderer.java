@@ -16,33 +16,102 @@
 
 package com.dnasystems.andeanabyss;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
 import android.opengl.Matrix;
+import android.os.Debug;
 import android.util.Log;
+import android.widget.TextView;
 import android.content.Context;
 
+import com.dnasystems.andeanabyss.game.CardDeck;
+import com.dnasystems.andeanabyss.game.GameState;
+import com.dnasystems.andeanabyss.game.History;
+import com.dnasystems.andeanabyss.game.Mcts;
+import com.dnasystems.andeanabyss.game.Move;
+import com.dnasystems.andeanabyss.game.Rules;
+import com.dnasystems.andeanabyss.game.SaveFile;
+import com.dnasystems.andeanabyss.game.TranspositionTable;
+
 public class MyGLRenderer implements GLSurfaceView.Renderer, OnInput {
 
     private static final String TAG = AndeanAbyssCBG.TAG;
     private GameBoard mGameBoard;
+    // Outlives the GameBoard, which is rebuilt with every GL context
+    private final GameState mState = new GameState();
+    private final History mHistory = new History(mState);
+    private final SaveFile mSaveFile = new SaveFile();
 
     private final float[] mMVPMatrix = new float[16];
     private final float[] mProjMatrix = new float[16];
     private final float[] mVMatrix = new float[16];
+    private final MatrixStack mMatrixStack = new MatrixStack(8);
     //private final float[] mRotationMatrix = new float[16];
     
     private Context mContext;
     private GLSurfaceView mView;
+    // Touch input from the UI thread, applied at the start of each frame
+    private static final int INPUT_EVENTS = 256;
+    private final InputQueue mInput = new InputQueue(INPUT_EVENTS);
+    // Closed while the bot thinks, drops are cancelled then
+    private final InputGate mBoardInput = new InputGate();
 
     private float mRatio;
 
+    // GL thread time per frame for uploading decoded assets
+    private static final long UPLOAD_BUDGET_NS = 4000000;
+    private final AssetLoader mLoader;
+    private boolean mLoading;
+    // Owns the GL objects and keeps the texture data for the next context,
+    // the atlas page and the coarse map tiles take about 1 MB, the rest
+    // holds recently shown cards
+    private static final int TEXTURE_CACHE_BYTES = 4 * 1024 * 1024;
+    private final TextureManager mTextures = new TextureManager(TEXTURE_CACHE_BYTES);
+
+    // Thinking time of the bot per move, the search runs off the GL thread
+    private static final long BOT_BUDGET_NS = 2000000000L;
+    private static final int BOT_TABLE_ENTRIES = 1 << 16;
+    private Mcts mBot;
+    private Future<Integer> mBotMove;
+    // The position and faction the running search is for
+    private long mBotHash;
+    private int mBotFaction;
+    private final int[] mMoves = new int[Rules.MAX_MOVES];
+    // Factions the bot plays, and the faction to move, which is saved with
+    // the game; turns go round in the fixed order the search plays them in
+    private final boolean[] mBotPlays = new boolean[GameState.FACTIONS];
+    private int mToMove = GameState.GOV;
+    private final Random mRandom = new Random();
+    private final CardDeck mDeck = new CardDeck(mRandom);
+
+    // Ten seconds of frames at 60 fps, dumped as CSV on request
+    private static final int METRICS_FRAMES = 600;
+    private static final long OVERLAY_INTERVAL_NS = 500000000L;
+    private final FrameMetrics mMetrics = new FrameMetrics(METRICS_FRAMES);
+    private final StringBuilder mOverlayText = new StringBuilder();
+    private volatile TextView mOverlay;
+    private long mOverlayUpdated;
+
+    // Frames to skip before the allocation check starts complaining
+    private static final int ALLOC_WARMUP_FRAMES = 30;
+    private boolean mAllocCheck = false;
+    private int mFrames = 0;
+
     public MyGLRenderer(Context context, GLSurfaceView view) {
         mContext = context;
         mView = view;
+        mLoader = new AssetLoader(view, 2);
         /*mTriangleVertices = ByteBuffer.allocateDirect(mTriangleVerticesData.length
                 * FLOAT_SIZE_BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
         mTriangleVertices.put(mTriangleVerticesData).position(0);*/
@@ -56,12 +125,50 @@ public class MyGLRenderer implements GLSurfaceView.Renderer, OnInput {
         GLES20.glBlendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
         GLES20.glEnable(GLES20.GL_BLEND);
 
-        mGameBoard = new GameBoard(mContext, mView);
+        // New context, nothing we cached about the old one is valid
+        GLState.reset();
+        mTextures.onSurfaceCreated();
+        mLoader.cancelAll();
+        mLoading = true;
+        if (mGameBoard != null) {
+            mGameBoard.release();
+        }
+        mGameBoard = new GameBoard(mContext, mView, mLoader, mTextures, mState, mDeck);
+        mBoardInput.setTarget(mGameBoard);
     }
 
     @Override
     public void onDrawFrame(GL10 unused) {
 
+        mMetrics.beginFrame();
+        mFrames++;
+        if (mAllocCheck) {
+            Debug.resetThreadAllocCount();
+            Debug.startAllocCounting();
+        }
+
+        mInput.drain(this);
+        if (mLoader.uploadPending(UPLOAD_BUDGET_NS)) {
+            mView.requestRender();
+        }
+        if (mBotMove != null && mBotMove.isDone()) {
+            playBotMove();
+        }
+        if (mBotMove == null && mBotPlays[mToMove]) {
+            playBot(mToMove);
+        }
+        // Animations pace themselves by asking for the next frame, without
+        // them the view only draws when something changes
+        if (mGameBoard.animate(System.nanoTime())) {
+            mView.requestRender();
+        }
+        if (mLoading && mLoader.isIdle()) {
+            mLoading = false;
+            mTextures.endRestore();
+        }
+        // The frame's changes are done, draw() only sees the snapshot
+        mGameBoard.publish();
+
         // Draw background color
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
 
@@ -80,7 +187,106 @@ public class MyGLRenderer implements GLSurfaceView.Renderer, OnInput {
         //Matrix.multiplyMM(mMVPMatrix, 0, mRotationMatrix, 0, mMVPMatrix, 0);
 
         // Draw GameBoard
-        mGameBoard.draw(mMVPMatrix);
+        mMatrixStack.load(mMVPMatrix);
+        mGameBoard.draw(mMatrixStack);
+
+        GLState.endFrame();
+        mMetrics.endFrame(GLState.getDrawCalls(), GLState.getTextureBinds(),
+                mGameBoard.getDrawnCount(), mGameBoard.getCulledCount(),
+                GLState.getUploadedBytes());
+
+        if (mAllocCheck) {
+            Debug.stopAllocCounting();
+            int allocs = Debug.getThreadAllocCount();
+            if (mFrames > ALLOC_WARMUP_FRAMES && allocs > 0) {
+                Log.w(TAG, "frame " + mFrames + " allocated " + allocs + " objects");
+            }
+        }
+        updateOverlay();
+    }
+
+    // Post the metrics summary to the overlay every OVERLAY_INTERVAL_NS
+    private void updateOverlay() {
+        final TextView overlay = mOverlay;
+        long now = System.nanoTime();
+        if (overlay == null || now - mOverlayUpdated < OVERLAY_INTERVAL_NS) {
+            return;
+        }
+        mOverlayUpdated = now;
+        mOverlayText.setLength(0);
+        mMetrics.summary(mOverlayText);
+        mOverlayText.append('\n');
+        mTextures.summary(mOverlayText);
+        CardTextures cards = mGameBoard.getCardTextures();
+        mOverlayText.append(", cards ").append(cards.getResidentBytes() / 1024).append(" KB, ")
+                .append(cards.getMisses()).append(" slow flips, ")
+                .append(mInput.getDropped()).append(" input events dropped");
+        final String text = mOverlayText.toString();
+        overlay.post(new Runnable() {
+            @Override
+            public void run() {
+                overlay.setText(text);
+            }
+        });
+    }
+
+    /**
+     * Show the frame metrics in overlay, updated twice a second while
+     * frames are drawn, or stop with null.
+     */
+    public void setOverlay(TextView overlay) {
+        mOverlay = overlay;
+        mOverlayUpdated = 0;
+    }
+
+    public TextureManager getTextures() {
+        return mTextures;
+    }
+
+    /**
+     * Delete every GL object now, when the view is going away. Call on the
+     * GL thread.
+     */
+    public void release() {
+        if (mGameBoard != null) {
+            mGameBoard.release();
+        }
+        mLoader.cancelAll();
+        mTextures.release();
+    }
+
+    public FrameMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Write the buffered frame metrics to file as CSV. Call on the GL
+     * thread, which records them.
+     */
+    public void dumpMetrics(File file) {
+        try {
+            Writer out = new FileWriter(file);
+            try {
+                mMetrics.writeCsv(out);
+            } finally {
+                out.close();
+            }
+            Log.i(TAG, "Wrote " + mMetrics.size() + " frames to " + file);
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot write " + file, e);
+        }
+    }
+
+    /**
+     * Count the objects allocated on the GL thread by every frame and log a
+     * warning for each frame after warm-up that allocates anything. The draw
+     * path is meant to be allocation free, the AllocationCheck tool checks
+     * its batching and recording on the JVM; this covers the GL calls and
+     * the rest of the frame on a device. Allocation counting slows the
+     * frame down, so this is for debugging only.
+     */
+    public void setAllocationCheck(boolean enable) {
+        mAllocCheck = enable;
     }
 
     @Override
@@ -88,6 +294,7 @@ public class MyGLRenderer implements GLSurfaceView.Renderer, OnInput {
         // Adjust the viewport based on geometry changes,
         // such as screen rotation
         GLES20.glViewport(0, 0, width, height);
+        mGameBoard.setViewport(width, height);
 
         mRatio = (float) width / height;
 
@@ -118,20 +325,220 @@ public class MyGLRenderer implements GLSurfaceView.Renderer, OnInput {
         return shader;
     }
 
+    /**
+     * Draw calls the sprite batch saved in the last frame.
+     */
+    public int getDrawCallsSaved() {
+        return mGameBoard.getSpriteBatch().getDrawCallsSaved();
+    }
+
+    /**
+     * Let the bot make the next move for faction. The move is played on
+     * the GL thread once the search is done.
+     */
+    public void playBot(int faction) {
+        if (mBotMove != null) {
+            return;
+        }
+        if (mBot == null) {
+            int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+            mBot = new Mcts(threads, Mcts.DEFAULT_NODES);
+            // 1 MB, kept across moves since entries are keyed by state
+            mBot.setTable(new TranspositionTable(BOT_TABLE_ENTRIES));
+        }
+        mBotHash = mState.hash();
+        mBotFaction = faction;
+        mBotMove = mBot.think(mState, faction, BOT_BUDGET_NS, new Runnable() {
+            @Override
+            public void run() {
+                mView.requestRender();
+            }
+        });
+        mBoardInput.setClosed(true);
+    }
+
+    // The search ran on a copy of the state; its move is only played on
+    // that same position and if it is still legal there
+    private void playBotMove() {
+        try {
+            int move = mBotMove.get();
+            Log.i(TAG, "bot: " + Move.toString(move) + ", "
+                    + (int)mBot.getLastPlayoutsPerSecond() + " playouts/s, table hit rate "
+                    + (int)(mBot.getTable().getHitRate() * 100) + "%");
+            if (mState.hash() != mBotHash) {
+                // Searched again on the next frame if the faction is
+                // still to move
+                Log.w(TAG, "bot: position changed during the search, move dropped");
+            } else if (!isLegal(move)) {
+                Log.e(TAG, "bot: " + Move.toString(move) + " is not legal, turn passed");
+                nextTurn();
+            } else {
+                Rules.apply(mState, move, mRandom);
+                mHistory.commit();
+                mGameBoard.layout();
+                nextTurn();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Bot search failed", e.getCause());
+        } catch (IllegalStateException e) {
+            // Whatever the move changed before it failed can be undone
+            Log.e(TAG, "Bot move failed", e);
+            mHistory.commit();
+            mGameBoard.layout();
+            nextTurn();
+        }
+        mBotMove = null;
+        mBoardInput.setClosed(false);
+    }
+
+    /**
+     * Let the bot play faction from its next turn on, or hand it back.
+     * Call on the GL thread.
+     */
+    public void setBotPlays(int faction, boolean bot) {
+        mBotPlays[faction] = bot;
+        mView.requestRender();
+    }
+
+    public boolean isBotPlaying(int faction) {
+        return mBotPlays[faction];
+    }
+
+    public int getToMove() {
+        return mToMove;
+    }
+
+    /**
+     * The player is done moving the pieces of the faction to move, the
+     * next faction is up; the bot moves for it if it plays it. Not while
+     * the bot is thinking. Call on the GL thread.
+     */
+    public boolean endTurn() {
+        if (mBotMove != null || mBotPlays[mToMove]) {
+            return false;
+        }
+        nextTurn();
+        return true;
+    }
+
+    private void nextTurn() {
+        mToMove = (mToMove + 1) % GameState.FACTIONS;
+        mView.requestRender();
+    }
+
+    private boolean isLegal(int move) {
+        int n = Rules.generate(mState, mBotFaction, mMoves);
+        for (int i = 0; i < n; i++) {
+            if (mMoves[i] == move) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Queue for the touch input of the view, drained on the GL thread.
+     */
+    public InputQueue getInputQueue() {
+        return mInput;
+    }
+
+    public GameState getState() {
+        return mState;
+    }
+
+    /**
+     * Take back the last piece drop or bot move, not while the bot is
+     * thinking. Call on the GL thread.
+     */
+    public boolean undo() {
+        if (mBotMove != null || !mHistory.undo()) {
+            return false;
+        }
+        mGameBoard.layout();
+        return true;
+    }
+
+    public boolean redo() {
+        if (mBotMove != null || !mHistory.redo()) {
+            return false;
+        }
+        mGameBoard.layout();
+        return true;
+    }
+
+    public History getHistory() {
+        return mHistory;
+    }
+
+    /**
+     * Save the game to file. Call on the UI thread with the GL thread
+     * paused, the bot may still be thinking.
+     */
+    public void save(File file) {
+        long start = System.nanoTime();
+        try {
+            mSaveFile.write(mState, mToMove, mDeck, file);
+            Log.i(TAG, "Saved in " + (System.nanoTime() - start) / 1000 + " us");
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot save " + file, e);
+        }
+    }
+
+    /**
+     * Resume the game saved in file, before the GL surface is created.
+     *
+     * @return false if there is no usable save, the game is unchanged then
+     */
+    public boolean load(File file) {
+        if (!file.exists()) {
+            return false;
+        }
+        long start = System.nanoTime();
+        try {
+            mToMove = mSaveFile.read(file, mState, mDeck);
+            Log.i(TAG, "Loaded in " + (System.nanoTime() - start) / 1000 + " us");
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot load " + file, e);
+            return false;
+        }
+    }
+
+    public int getDrawnCount() {
+        return mGameBoard.getDrawnCount();
+    }
+
+    public int getCulledCount() {
+        return mGameBoard.getCulledCount();
+    }
+
+    // The queued input goes to the board through the gate, the state is
+    // not changed under a running search
     public boolean onUp(int id, float x, float y) {
-        return mGameBoard.onUp(id, x, y);
+        return mBoardInput.onUp(id, x, y);
     }
 
     public boolean onDown(int id, float x, float y) {
-        return mGameBoard.onDown(id, x, y);
+        return mBoardInput.onDown(id, x, y);
     }
 
     public boolean onMove(int id, float dx, float dy) {
-        return mGameBoard.onMove(id, dx, dy);
+        return mBoardInput.onMove(id, dx, dy);
+    }
+
+    public boolean onZoom(float scalefactor, float focusX, float focusY) {
+        return mBoardInput.onZoom(scalefactor, focusX, focusY);
+    }
+
+    public boolean onFling(int id, float vx, float vy) {
+        return mBoardInput.onFling(id, vx, vy);
     }
 
-    public boolean onZoom(float scalefactor) {
-        return mGameBoard.onZoom(scalefactor);
+    public boolean onCancel(int id) {
+        return mBoardInput.onCancel(id);
     }
 
     /**
@@ -22,6 +22,7 @@ import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.util.ListIterator;
 
+import android.opengl.ETC1;
 import android.opengl.ETC1Util;
 import android.opengl.GLES20;
 import android.opengl.GLUtils;
@@ -62,8 +63,13 @@ public class Object2D implements OnInput {
     protected int mProgram;
     protected int mMVPMatrixHandle;
 
+    protected SpatialGrid mGrid;
+    protected int mGridId = -1;
+
     protected int vertexBufferPointer;
     protected int textureBufferPointer;
+    private boolean mTexCoordsDirty = false;
+    private FloatBuffer mTexCoordsBuffer;
 
     public Object2D(Context context, String image, float w, float h, int img_w, int img_h) {
         // initialize vertex byte buffer for shape coordinates
@@ -89,6 +95,28 @@ public class Object2D implements OnInput {
         initBuffers();
     }
 
+    /**
+     * Object without a texture of its own, for subclasses that draw
+     * themselves.
+     */
+    protected Object2D(float w, float h) {
+        mW = w;
+        mH = h;
+    }
+
+    public Object2D(TextureAtlas atlas, String image, float w, float h) {
+        // initialize vertex byte buffer for shape coordinates
+        mW = w;
+        mH = h;
+        mVertices[4] = -h;
+        mVertices[6] = -w;
+        mVertices[9] = -w;
+        mVertices[10] = -h;
+        mTextureID = atlas.getTextureId(image);
+        atlas.getTexCoords(image, w, h, mTextureCoords);
+        initBuffers();
+    }
+
     public Object2D(Object2D obj) {
         // Copy object (reuse texture)
         for (int i=0;i<12;i++) {
@@ -104,44 +132,136 @@ public class Object2D implements OnInput {
         initBuffers();
     }
 
+    /**
+     * Show another atlas image of the same size, e.g. the active side of a
+     * guerrilla. The texture coordinate buffer is refreshed on the next
+     * draw, so this may be called off the GL thread.
+     */
+    public void setImage(TextureAtlas atlas, String image) {
+        mTextureID = atlas.getTextureId(image);
+        atlas.getTexCoords(image, mW, mH, mTextureCoords);
+        mTexCoordsDirty = true;
+    }
+
+    public int getTextureId() {
+        return mTextureID;
+    }
+
+    /**
+     * Texture coordinates of the four corners in triangle strip order, not
+     * to be changed.
+     */
+    public float[] getTexCoords() {
+        return mTextureCoords;
+    }
+
+    public float getX() {
+        return mX;
+    }
+
+    public float getY() {
+        return mY;
+    }
+
+    public float getWidth() {
+        return mW;
+    }
+
+    public float getHeight() {
+        return mH;
+    }
+
     public void setPos(float x, float y) {
         mX = x;
         mY = y;
+        updateGrid();
     }
 
-    public void setShader(int program) {
-        mProgram = program;
+    /**
+     * Register this object in a hit-test grid under id, which is also its z
+     * order. The grid is kept up to date when the object moves.
+     */
+    public void setGrid(SpatialGrid grid, int id) {
+        mGrid = grid;
+        mGridId = id;
+        updateGrid();
     }
 
-    public void draw(float[] mvpMatrix) {
-        float[] mvpMatrixLocal = mvpMatrix.clone();
-        Matrix.translateM(mvpMatrixLocal, 0, -mX, -mY, 0.0f);
+    protected void updateGrid() {
+        if (mGrid != null) {
+            mGrid.update(mGridId, mX, mY, mW, mH);
+        }
+    }
 
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureID);
-        int uSamp = GLES20.glGetAttribLocation(mProgram, "uSampler");
-        GLES20.glUniform1i(uSamp, 0);
+    public void setShader(int program) {
+        mProgram = program;
+    }
 
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferPointer);
-        GLES20.glEnableVertexAttribArray(0);
-        GLES20.glVertexAttribPointer(0, 3, GLES20.GL_FLOAT, false, 0, 0);
+    public void draw(MatrixStack stack) {
+        draw(stack, mX, mY);
+    }
 
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, textureBufferPointer);
-        GLES20.glEnableVertexAttribArray(1);
-        GLES20.glVertexAttribPointer(1, 2, GLES20.GL_FLOAT, false, 0, 0);
+    /**
+     * Draw the object at board position x, y instead of its own, for
+     * drawing from a FrameSnapshot.
+     */
+    public void draw(MatrixStack stack, float x, float y) {
+        stack.push();
+        stack.translate(-x, -y, 0.0f);
+
+        GLState.useProgram(mProgram);
+        GLState.activeTexture(GLES20.GL_TEXTURE0);
+        GLState.bindTexture(mTextureID);
+        GLState.uniform1i(GLState.uniformLocation("uSampler"), 0);
+
+        GLState.bindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferPointer);
+        GLState.enableVertexAttribArray(0);
+        GLState.vertexAttribPointer(0, 3, 0, 0);
+
+        GLState.bindBuffer(GLES20.GL_ARRAY_BUFFER, textureBufferPointer);
+        if (mTexCoordsDirty) {
+            updateTexCoords();
+        }
+        GLState.enableVertexAttribArray(1);
+        GLState.vertexAttribPointer(1, 2, 0, 0);
 
         // get handle to shape's transformation matrix
-        mMVPMatrixHandle = GLES20.glGetUniformLocation(mProgram, "uMVPMatrix");
-        MyGLRenderer.checkGlError("glGetUniformLocation");
+        mMVPMatrixHandle = GLState.uniformLocation("uMVPMatrix");
 
         // Apply the projection and view transformation
-        GLES20.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, mvpMatrixLocal, 0);
-        MyGLRenderer.checkGlError("glUniformMatrix4fv");
+        GLState.uniformMatrix4fv(mMVPMatrixHandle, stack.getArray(), stack.getOffset());
+        GLState.checkError("glUniformMatrix4fv");
 
         // Draw the square
         GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
-        /*GLES20.glDrawElements(GLES20.GL_TRIANGLES, drawOrder.length,
-                              GLES20.GL_UNSIGNED_SHORT, drawListBuffer);*/
+        GLState.countDraw();
+        stack.pop();
+    }
+
+    /**
+     * Queue this object in a SpriteBatch instead of drawing it directly.
+     */
+    public void batch(SpriteBatch batch) {
+        batch(batch, mX, mY);
+    }
+
+    public void batch(SpriteBatch batch, float x, float y) {
+        batch.add(mProgram, mTextureID, mVertices, mTextureCoords, -x, -y);
+    }
+
+    /**
+     * True if any part of the object lies inside the board rectangle
+     * (x0, y0) - (x1, y1).
+     */
+    public boolean intersects(float x0, float y0, float x1, float y1) {
+        return intersects(mX, mY, x0, y0, x1, y1);
+    }
+
+    /**
+     * Same as intersects(x0, y0, x1, y1) with the object at x, y.
+     */
+    public boolean intersects(float x, float y, float x0, float y0, float x1, float y1) {
+        return x < x1 && x + mW > x0 && y < y1 && y + mH > y0;
     }
 
     public boolean getAt(float x, float y, float scale) {
@@ -163,10 +283,19 @@ public class Object2D implements OnInput {
     public boolean onMove(int id, float dx, float dy) {
         mX += dx;
         mY += dy;
+        updateGrid();
         return true;
     }
 
-    public boolean onZoom(float scalefactor) {
+    public boolean onZoom(float scalefactor, float focusX, float focusY) {
+        return false;
+    }
+
+    public boolean onFling(int id, float vx, float vy) {
+        return false;
+    }
+
+    public boolean onCancel(int id) {
         return false;
     }
 
@@ -178,8 +307,8 @@ public class Object2D implements OnInput {
         GLES20.glGenTextures(1, temp, 0);
         int id = temp[0];
 
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, id);
+        GLState.activeTexture(GLES20.GL_TEXTURE0);
+        GLState.bindTexture(id);
 
         // Set all of our texture parameters:
         GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, GLES20.GL_TRUE);
@@ -192,13 +321,12 @@ public class Object2D implements OnInput {
             Log.v(TAG, "ETC info: ");
             try {
                 Log.i(TAG, "supports etc: " + ETC1Util.isETC1Supported());
-                // In a real app, you should read the texture on a bg thread with createTexture()
-                // and then only do the upload of the result on the render thread. You probably
-                // also want to put all mipmaps into a single file.
-                //String name = String.format("map.pkm");
-                ETC1Util.loadTexture(GLES20.GL_TEXTURE_2D, 0, 0,
-                        GLES20.GL_RGB, GLES20.GL_UNSIGNED_SHORT_5_6_5,
-                        context.getAssets().open(name));
+                // Map the PKM and hand the blocks to GL without copying
+                // them through the Java heap
+                PkmFile pkm = PkmFile.parse(MappedAssets.map(context, name), 0);
+                GLES20.glCompressedTexImage2D(GLES20.GL_TEXTURE_2D, 0, ETC1.ETC1_RGB8_OES,
+                        pkm.width, pkm.height, 0, pkm.data.remaining(), pkm.data);
+                MyGLRenderer.checkGlError("glCompressedTexImage2D");
             } catch (NotFoundException e) {
                 Log.e(TAG, "" + e);
             } catch (IOException e) {
@@ -236,11 +364,25 @@ public class Object2D implements OnInput {
         textureBufferPointer = initFloatBuffer(mTextureCoords);
     }
 
+    private void updateTexCoords() {
+        mTexCoordsDirty = false;
+        if (mTexCoordsBuffer == null) {
+            mTexCoordsBuffer = ByteBuffer.allocateDirect(mTextureCoords.length * 4)
+                    .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        }
+        mTexCoordsBuffer.clear();
+        mTexCoordsBuffer.put(mTextureCoords);
+        mTexCoordsBuffer.flip();
+        GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, 0, mTextureCoords.length * 4,
+                mTexCoordsBuffer);
+        GLState.countUpload(mTextureCoords.length * 4);
+    }
+
     protected int initFloatBuffer(float[] data) {
         int[] buffer = new int[1];
         GLES20.glGenBuffers(1, buffer, 0);
         int pointer = buffer[0];
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, pointer);
+        GLState.bindBuffer(GLES20.GL_ARRAY_BUFFER, pointer);
         ByteBuffer byteBuffer = ByteBuffer.allocateDirect(data.length * 4); //one float size is 4 bytes
         byteBuffer.order(ByteOrder.nativeOrder()); //byte order must be native
         FloatBuffer floatBuffer = byteBuffer.asFloatBuffer();
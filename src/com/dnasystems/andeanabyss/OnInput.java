@@ -7,5 +7,8 @@ public interface OnInput {
     public boolean onUp(int id, float x, float y);
     public boolean onDown(int id, float x, float y);
     public boolean onMove(int id, float dx, float dy);
-    public boolean onZoom(float scalefactor);
+    public boolean onZoom(float scalefactor, float focusX, float focusY);
+    public boolean onFling(int id, float vx, float vy);
+    // The gesture was taken away, undo what its down started
+    public boolean onCancel(int id);
 }
@@ -0,0 +1,144 @@
+package com.dnasystems.andeanabyss;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Texture data ready for upload, decoded pixels or compressed blocks, kept
+ * by asset name so a texture can be uploaded again after the GL context
+ * was lost without decoding its asset again. Holds at most a given number
+ * of bytes; the least recently used payloads go first when a new one does
+ * not fit, and a payload larger than the whole budget is not kept.
+ *
+ * Thread safe, the AssetLoader workers fill it while the GL thread reads.
+ * Plain Java, so it can be checked on a JVM.
+ */
+public class PayloadCache {
+
+    /**
+     * One texture level. Decoded pixels carry the format and type of
+     * glTexImage2D, compressed blocks the internal format of
+     * glCompressedTexImage2D and a type of 0.
+     */
+    public static class Payload {
+
+        public final int width;
+        public final int height;
+        public final int format;
+        public final int type;
+        // Read through duplicate(), the position belongs to nobody
+        private final ByteBuffer mData;
+
+        public Payload(int width, int height, int format, int type, ByteBuffer data) {
+            this.width = width;
+            this.height = height;
+            this.format = format;
+            this.type = type;
+            mData = data;
+        }
+
+        public boolean isCompressed() {
+            return type == 0;
+        }
+
+        /**
+         * The data, in a buffer of its own for every caller.
+         */
+        public ByteBuffer getData() {
+            return mData.duplicate();
+        }
+
+        public int getBytes() {
+            return mData.remaining();
+        }
+    }
+
+    // Access ordered, the eldest entry is the least recently used
+    private final LinkedHashMap<String, Payload> mPayloads =
+            new LinkedHashMap<String, Payload>(16, 0.75f, true);
+    private int mBudget;
+    private int mBytes;
+    private int mHits;
+    private int mMisses;
+    private int mEvictions;
+
+    public PayloadCache(int budgetBytes) {
+        mBudget = budgetBytes;
+    }
+
+    /**
+     * The payload stored under key, or null.
+     */
+    public synchronized Payload get(String key) {
+        Payload p = mPayloads.get(key);
+        if (p != null) {
+            mHits++;
+        } else {
+            mMisses++;
+        }
+        return p;
+    }
+
+    /**
+     * Keep p under key, replacing what was there, and make room for it.
+     *
+     * @return false if p is larger than the budget and was not kept
+     */
+    public synchronized boolean put(String key, Payload p) {
+        Payload old = mPayloads.remove(key);
+        if (old != null) {
+            mBytes -= old.getBytes();
+        }
+        if (p.getBytes() > mBudget) {
+            return false;
+        }
+        trim(mBudget - p.getBytes());
+        mPayloads.put(key, p);
+        mBytes += p.getBytes();
+        return true;
+    }
+
+    /**
+     * Drop least recently used payloads until at most bytes are left, 0
+     * empties the cache.
+     */
+    public synchronized void trim(int bytes) {
+        Iterator<Map.Entry<String, Payload>> it = mPayloads.entrySet().iterator();
+        while (mBytes > bytes && it.hasNext()) {
+            mBytes -= it.next().getValue().getBytes();
+            it.remove();
+            mEvictions++;
+        }
+    }
+
+    public synchronized void setBudget(int bytes) {
+        mBudget = bytes;
+        trim(bytes);
+    }
+
+    public synchronized int getBudget() {
+        return mBudget;
+    }
+
+    public synchronized int getBytes() {
+        return mBytes;
+    }
+
+    public synchronized int size() {
+        return mPayloads.size();
+    }
+
+    public synchronized int getHits() {
+        return mHits;
+    }
+
+    public synchronized int getMisses() {
+        return mMisses;
+    }
+
+    public synchronized int getEvictions() {
+        return mEvictions;
+    }
+}
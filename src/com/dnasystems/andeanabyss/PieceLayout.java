@@ -0,0 +1,115 @@
+package com.dnasystems.andeanabyss;
+
+import com.dnasystems.andeanabyss.game.GameState;
+import com.dnasystems.andeanabyss.game.Spaces;
+
+/**
+ * Where the pieces of a GameState go on the board image, in board pixels:
+ * an anchor per space around which its pieces are laid out in rows, and
+ * the force pool boxes for available pieces. Also maps a drop position
+ * back to a space. Plain Java.
+ */
+public final class PieceLayout {
+
+    // Space centers on the board, Spaces order
+    private static final short[] SPACE_X = {
+        850, 620, 636, 1176, 1040, 636, 630, 936, 484, 734, 340,
+        994, 800, 820, 460, 1020, 1370, 1660, 1210, 890, 540, 260, 1210, 1750, 840, 1450, 1350,
+        726, 636, 924, 796, 1082, 964, 1234, 698, 632, 774, 1100, 536, 456, 760, 1024, 428, 182,
+        660,
+    };
+    private static final short[] SPACE_Y = {
+        520, 636, 880, 1070, 1214, 1314, 1580, 1664, 1860, 1916, 2210,
+        620, 760, 1080, 1260, 1400, 1360, 1580, 1710, 1880, 2000, 2020, 2020, 1940, 2240, 2230, 2580,
+        580, 760, 744, 864, 880, 1030, 1212, 1086, 1448, 1518, 1584, 1690, 1752, 1754, 1824, 2016,
+        2192, 2104,
+    };
+
+    // Drop radius around the anchor, LoCs are narrow
+    private static final int CITY_RADIUS = 110;
+    private static final int DEPARTMENT_RADIUS = 160;
+    private static final int LOC_RADIUS = 60;
+
+    // Slot grid around a space anchor
+    private static final int SLOT_COLUMNS = 4;
+    private static final int SLOT_W = 52;
+    private static final int SLOT_H = 54;
+
+    // Force pool boxes per piece type: x, y, pieces per row, dx, dy.
+    // Active guerrillas have no pool, available guerrillas are underground.
+    private static final short[][] POOL = {
+        {40, 140, 6, 36, 42},        // Troops
+        {40, 420, 6, 36, 42},        // Police
+        {360, 461, 3, 76, 0},        // Government bases
+        {1530, 120, 10, 40, 55},     // FARC guerrillas
+        null,
+        {554, 2849, 9, 77, 0},       // FARC bases
+        {40, 2870, 9, 45, 60},       // AUC guerrillas
+        null,
+        {555, 2962, 6, 76, 0},       // AUC bases
+        {1700, 2400, 6, 42, 60},     // Cartels guerrillas
+        null,
+        {1705, 2629, 5, 77, 80},     // Cartels bases, in columns
+    };
+
+    private PieceLayout() {
+    }
+
+    /**
+     * Top left corner of the n-th available piece of type.
+     */
+    public static void poolPosition(int type, int n, float[] out) {
+        short[] box = POOL[type];
+        int col = n % box[2];
+        int row = n / box[2];
+        if (type == GameState.CARTELS_BASE) {
+            // The cartel base track counts down the columns
+            out[0] = box[0] + row * box[4];
+            out[1] = box[1] + col * box[3];
+        } else {
+            out[0] = box[0] + col * box[3];
+            out[1] = box[1] + row * box[4];
+        }
+    }
+
+    /**
+     * Top left corner of a w x h piece in the slot-th place of space.
+     */
+    public static void spacePosition(int space, int slot, float w, float h, float[] out) {
+        int col = slot % SLOT_COLUMNS;
+        int row = slot / SLOT_COLUMNS;
+        // Rows are centered on the anchor, later rows go below
+        out[0] = SPACE_X[space] + (col - SLOT_COLUMNS / 2) * SLOT_W + (SLOT_W - w) / 2;
+        out[1] = SPACE_Y[space] - SLOT_H / 2 + row * SLOT_H + (SLOT_H - h) / 2;
+    }
+
+    /**
+     * The space whose anchor is closest to (x, y) within its drop radius,
+     * or GameState.AVAILABLE.
+     */
+    public static int spaceAt(float x, float y) {
+        int best = GameState.AVAILABLE;
+        float bestDist = Float.MAX_VALUE;
+        for (int s = 0; s < Spaces.COUNT; s++) {
+            float dx = x - SPACE_X[s];
+            float dy = y - SPACE_Y[s];
+            float dist = dx * dx + dy * dy;
+            int r;
+            switch (Spaces.type(s)) {
+            case Spaces.CITY:
+                r = CITY_RADIUS;
+                break;
+            case Spaces.DEPARTMENT:
+                r = DEPARTMENT_RADIUS;
+                break;
+            default:
+                r = LOC_RADIUS;
+            }
+            if (dist < r * r && dist < bestDist) {
+                best = s;
+                bestDist = dist;
+            }
+        }
+        return best;
+    }
+}
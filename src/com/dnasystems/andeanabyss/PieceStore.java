@@ -0,0 +1,192 @@
+package com.dnasystems.andeanabyss;
+
+import java.util.Arrays;
+
+/**
+ * The card and the pieces on the board as structure of arrays: the
+ * position and image of every sprite in parallel primitive arrays, and per
+ * image its texture, texture coordinates and size. All sprites showing the
+ * same image share its entry, so a piece costs two floats and an int
+ * instead of an object with its own geometry and GL buffers.
+ *
+ * Images are added while setting up the board. Only the texture of the
+ * card image changes after that, on the GL thread between frames, so the
+ * FrameRecorder may read them while a frame is drawn. Sprite indices are
+ * also the ids in the hit-test grid.
+ */
+public class PieceStore {
+
+    private final float[] mX;
+    private final float[] mY;
+    private final int[] mImage;
+    private int mCount;
+
+    private String[] mNames = new String[8];
+    private int[] mTexture = new int[8];
+    // Four (u, v) pairs per image in triangle strip order
+    private float[] mTexCoords = new float[8 * 8];
+    private float[] mImageW = new float[8];
+    private float[] mImageH = new float[8];
+    private int mImages;
+
+    private SpatialGrid mGrid;
+
+    /**
+     * @param capacity sprites the store can hold
+     */
+    public PieceStore(int capacity) {
+        mX = new float[capacity];
+        mY = new float[capacity];
+        mImage = new int[capacity];
+    }
+
+    /**
+     * Add a w x h image with the given texture and four (u, v) pairs, or
+     * find the one added under name before.
+     *
+     * @return the image index
+     */
+    public int addImage(String name, int texture, float[] texCoords, float w, float h) {
+        int image = findImage(name);
+        if (image >= 0) {
+            return image;
+        }
+        if (mImages == mNames.length) {
+            int size = mImages * 2;
+            mNames = Arrays.copyOf(mNames, size);
+            mTexture = Arrays.copyOf(mTexture, size);
+            mTexCoords = Arrays.copyOf(mTexCoords, size * 8);
+            mImageW = Arrays.copyOf(mImageW, size);
+            mImageH = Arrays.copyOf(mImageH, size);
+        }
+        mNames[mImages] = name;
+        mTexture[mImages] = texture;
+        System.arraycopy(texCoords, 0, mTexCoords, mImages * 8, 8);
+        mImageW[mImages] = w;
+        mImageH[mImages] = h;
+        return mImages++;
+    }
+
+    /**
+     * Show image with another texture, e.g. the card that was flipped to.
+     * Not while a frame is drawn.
+     */
+    public void setTexture(int image, int texture, float[] texCoords) {
+        mTexture[image] = texture;
+        System.arraycopy(texCoords, 0, mTexCoords, image * 8, 8);
+    }
+
+    public int findImage(String name) {
+        for (int i = 0; i < mImages; i++) {
+            if (mNames[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Add a sprite showing image at 0, 0.
+     *
+     * @return the sprite index
+     */
+    public int add(int image) {
+        if (mCount == mX.length) {
+            throw new IllegalStateException("PieceStore full: " + mCount);
+        }
+        mImage[mCount] = image;
+        return mCount++;
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    public int getImageCount() {
+        return mImages;
+    }
+
+    public float getX(int i) {
+        return mX[i];
+    }
+
+    public float getY(int i) {
+        return mY[i];
+    }
+
+    public int getImage(int i) {
+        return mImage[i];
+    }
+
+    public float getWidth(int i) {
+        return mImageW[mImage[i]];
+    }
+
+    public float getHeight(int i) {
+        return mImageH[mImage[i]];
+    }
+
+    /**
+     * Show another image, e.g. the active side of a guerrilla.
+     */
+    public void setImage(int i, int image) {
+        mImage[i] = image;
+        updateGrid(i);
+    }
+
+    public void setPos(int i, float x, float y) {
+        mX[i] = x;
+        mY[i] = y;
+        updateGrid(i);
+    }
+
+    public void move(int i, float dx, float dy) {
+        setPos(i, mX[i] + dx, mY[i] + dy);
+    }
+
+    /**
+     * Keep every sprite in grid under its index as it moves, later
+     * sprites are on top.
+     */
+    public void setGrid(SpatialGrid grid) {
+        mGrid = grid;
+        for (int i = 0; i < mCount; i++) {
+            updateGrid(i);
+        }
+    }
+
+    private void updateGrid(int i) {
+        if (mGrid != null) {
+            mGrid.update(i, mX[i], mY[i], mImageW[mImage[i]], mImageH[mImage[i]]);
+        }
+    }
+
+    public int getTexture(int image) {
+        return mTexture[image];
+    }
+
+    public float getImageWidth(int image) {
+        return mImageW[image];
+    }
+
+    public float getImageHeight(int image) {
+        return mImageH[image];
+    }
+
+    /**
+     * Texture coordinates of all images, eight floats per image starting
+     * at image * 8. Not to be changed.
+     */
+    public float[] getTexCoords() {
+        return mTexCoords;
+    }
+
+    /**
+     * Copy the positions and images of all sprites, for a FrameSnapshot.
+     */
+    public void copyTo(float[] x, float[] y, int[] image) {
+        System.arraycopy(mX, 0, x, 0, mCount);
+        System.arraycopy(mY, 0, y, 0, mCount);
+        System.arraycopy(mImage, 0, image, 0, mCount);
+    }
+}
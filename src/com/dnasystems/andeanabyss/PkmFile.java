@@ -0,0 +1,121 @@
+package com.dnasystems.andeanabyss;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * ETC1 image in the PKM container: a 16 byte big endian header followed by
+ * the compressed blocks.
+ *
+ * <pre>
+ * char[6] "PKM 10"
+ * short   format, 0 = ETC1_RGB_NO_MIPMAPS
+ * short   extended width, short extended height (multiples of 4)
+ * short   original width, short original height</pre>
+ *
+ * {@link #parse(ByteBuffer, int)} reads the header in place and returns the
+ * blocks as a slice of the same buffer, so a memory mapped file goes to
+ * glCompressedTexImage2D without being copied. Plain Java, so the parser
+ * and mapping can be checked on a JVM.
+ */
+public class PkmFile {
+
+    public static final int HEADER_SIZE = 16;
+    public static final int ETC1_RGB_NO_MIPMAPS = 0;
+
+    public final int format;
+    public final int width;
+    public final int height;
+    public final int originalWidth;
+    public final int originalHeight;
+    /** The ETC1 blocks, a view into the parsed buffer. */
+    public final ByteBuffer data;
+
+    private PkmFile(int format, int width, int height, int originalWidth,
+            int originalHeight, ByteBuffer data) {
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        this.originalWidth = originalWidth;
+        this.originalHeight = originalHeight;
+        this.data = data;
+    }
+
+    /**
+     * Size in bytes of the ETC1 blocks of a width x height image.
+     */
+    public static int dataSize(int width, int height) {
+        return ((width + 3) / 4) * ((height + 3) / 4) * 8;
+    }
+
+    /**
+     * Parse the PKM image starting at offset in buf. buf's position, limit
+     * and byte order are left alone.
+     */
+    public static PkmFile parse(ByteBuffer buf, int offset) throws IOException {
+        if (buf.limit() - offset < HEADER_SIZE) {
+            throw new IOException("PKM header truncated");
+        }
+        if (buf.get(offset) != 'P' || buf.get(offset + 1) != 'K' || buf.get(offset + 2) != 'M'
+                || buf.get(offset + 3) != ' ' || buf.get(offset + 4) != '1'
+                || buf.get(offset + 5) != '0') {
+            throw new IOException("Not a PKM 10 image");
+        }
+        int format = readShort(buf, offset + 6);
+        int width = readShort(buf, offset + 8);
+        int height = readShort(buf, offset + 10);
+        int originalWidth = readShort(buf, offset + 12);
+        int originalHeight = readShort(buf, offset + 14);
+        if (format != ETC1_RGB_NO_MIPMAPS) {
+            throw new IOException("Unsupported PKM format " + format);
+        }
+        if (width % 4 != 0 || height % 4 != 0 || originalWidth > width || originalHeight > height) {
+            throw new IOException("Bad PKM size " + width + "x" + height);
+        }
+        int size = dataSize(width, height);
+        if (buf.limit() - offset - HEADER_SIZE < size) {
+            throw new IOException("PKM data truncated, " + size + " bytes expected");
+        }
+        ByteBuffer data = buf.duplicate();
+        data.limit(offset + HEADER_SIZE + size);
+        data.position(offset + HEADER_SIZE);
+        return new PkmFile(format, width, height, originalWidth, originalHeight, data.slice());
+    }
+
+    private static int readShort(ByteBuffer buf, int offset) {
+        return (buf.get(offset) & 0xff) << 8 | (buf.get(offset + 1) & 0xff);
+    }
+
+    /**
+     * Map length bytes of file starting at offset read only.
+     */
+    public static MappedByteBuffer map(File file, long offset, long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            // The mapping stays valid after the channel is closed
+            return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, offset, length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    public static MappedByteBuffer map(File file) throws IOException {
+        return map(file, 0, file.length());
+    }
+
+    /**
+     * Touch every page of data so the page faults happen on the calling
+     * thread instead of inside the GL upload.
+     */
+    public static int prefault(ByteBuffer data) {
+        int sum = 0;
+        for (int i = 0; i < data.limit(); i += 4096) {
+            sum += data.get(i);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,55 @@
+package com.dnasystems.andeanabyss;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Triple buffer of FrameSnapshots between one writer and one reader. The
+ * writer fills {@link #back()} and publishes it with {@link #publish()};
+ * the reader takes the latest published snapshot with {@link #acquire()}.
+ * Each side owns one buffer and the third is handed over with a single
+ * atomic swap, so neither side ever waits or sees a half written frame.
+ */
+public class SnapshotBuffer {
+
+    // Set in mMiddle when it holds a snapshot the reader has not taken
+    private static final int FRESH = 4;
+
+    private final FrameSnapshot[] mBuffers = new FrameSnapshot[3];
+    private final AtomicInteger mMiddle = new AtomicInteger(2);
+    private int mBack = 0;
+    private int mFront = 1;
+    private long mSequence;
+
+    public SnapshotBuffer(int objects) {
+        for (int i = 0; i < mBuffers.length; i++) {
+            mBuffers[i] = new FrameSnapshot(objects);
+        }
+    }
+
+    /**
+     * Snapshot to fill, writer only. Its contents are stale, every field
+     * has to be written before publishing.
+     */
+    public FrameSnapshot back() {
+        return mBuffers[mBack];
+    }
+
+    /**
+     * Hand the back snapshot to the reader, writer only.
+     */
+    public void publish() {
+        mBuffers[mBack].mSequence = ++mSequence;
+        mBack = mMiddle.getAndSet(mBack | FRESH) & ~FRESH;
+    }
+
+    /**
+     * The latest published snapshot, reader only. Stays valid and unchanged
+     * until the next call.
+     */
+    public FrameSnapshot acquire() {
+        if ((mMiddle.get() & FRESH) != 0) {
+            mFront = mMiddle.getAndSet(mFront) & ~FRESH;
+        }
+        return mBuffers[mFront];
+    }
+}
@@ -0,0 +1,235 @@
+package com.dnasystems.andeanabyss;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over the board for hit-testing. Each item is a rectangle in
+ * board coordinates identified by a small non negative id; the id doubles as
+ * the z order, a higher id is drawn later and so lies on top. Items are
+ * registered in every cell their rectangle touches, so a point query only
+ * looks at the few items in one cell.
+ *
+ * Plain Java without Android dependencies so it can be benchmarked on a JVM.
+ */
+public class SpatialGrid {
+
+    private final float mCellSize;
+    private final int mCols;
+    private final int mRows;
+    private final int[][] mCells;
+    private final int[] mCellCounts;
+
+    // Per id: x, y, w, h and the cell range it is registered in
+    private float[] mRects = new float[0];
+    private int[] mRanges = new int[0];
+    private boolean[] mPresent = new boolean[0];
+    private int[] mStamps = new int[0];
+    private int mStamp = 0;
+    private int mSize = 0;
+
+    public SpatialGrid(float width, float height, float cellSize) {
+        mCellSize = cellSize;
+        mCols = Math.max(1, (int)Math.ceil(width / cellSize));
+        mRows = Math.max(1, (int)Math.ceil(height / cellSize));
+        mCells = new int[mCols * mRows][];
+        mCellCounts = new int[mCols * mRows];
+        for (int i = 0; i < mCells.length; i++) {
+            mCells[i] = new int[4];
+        }
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean contains(int id) {
+        return id < mPresent.length && mPresent[id];
+    }
+
+    public void insert(int id, float x, float y, float w, float h) {
+        ensureCapacity(id + 1);
+        if (mPresent[id]) {
+            update(id, x, y, w, h);
+            return;
+        }
+        setRect(id, x, y, w, h);
+        computeRange(id);
+        addToCells(id);
+        mPresent[id] = true;
+        mSize++;
+    }
+
+    /**
+     * Move or resize an item. Only touches the cells when the item crosses a
+     * cell border.
+     */
+    public void update(int id, float x, float y, float w, float h) {
+        if (!contains(id)) {
+            insert(id, x, y, w, h);
+            return;
+        }
+        int r = id * 4;
+        int c0 = mRanges[r];
+        int r0 = mRanges[r + 1];
+        int c1 = mRanges[r + 2];
+        int r1 = mRanges[r + 3];
+        setRect(id, x, y, w, h);
+        computeRange(id);
+        if (c0 != mRanges[r] || r0 != mRanges[r + 1]
+                || c1 != mRanges[r + 2] || r1 != mRanges[r + 3]) {
+            removeFromCells(id, c0, r0, c1, r1);
+            addToCells(id);
+        }
+    }
+
+    public void remove(int id) {
+        if (!contains(id)) {
+            return;
+        }
+        int r = id * 4;
+        removeFromCells(id, mRanges[r], mRanges[r + 1], mRanges[r + 2], mRanges[r + 3]);
+        mPresent[id] = false;
+        mSize--;
+    }
+
+    public void clear() {
+        Arrays.fill(mCellCounts, 0);
+        Arrays.fill(mPresent, false);
+        mSize = 0;
+    }
+
+    /**
+     * Id of the topmost item containing (x, y), or -1. The edges are not
+     * part of an item, the same as Object2D.getAt.
+     */
+    public int topmostAt(float x, float y) {
+        int col = (int)Math.floor(x / mCellSize);
+        int row = (int)Math.floor(y / mCellSize);
+        if (col < 0 || row < 0 || col >= mCols || row >= mRows) {
+            // Items are clamped into the grid, so search the border cell
+            col = Math.max(0, Math.min(col, mCols - 1));
+            row = Math.max(0, Math.min(row, mRows - 1));
+        }
+        int cell = row * mCols + col;
+        int[] items = mCells[cell];
+        int best = -1;
+        for (int i = mCellCounts[cell] - 1; i >= 0; i--) {
+            int id = items[i];
+            if (id > best && hit(id, x, y)) {
+                best = id;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Collect the ids of all items overlapping the rectangle into out, in no
+     * particular order. Returns the number of ids found, which may be more
+     * than out can hold; only the first out.length are stored.
+     */
+    public int queryRect(float x0, float y0, float x1, float y1, int[] out) {
+        if (++mStamp == 0) {
+            Arrays.fill(mStamps, 0);
+            mStamp = 1;
+        }
+        int c0 = clampCol(x0);
+        int c1 = clampCol(x1);
+        int r0 = clampRow(y0);
+        int r1 = clampRow(y1);
+        int found = 0;
+        for (int row = r0; row <= r1; row++) {
+            for (int col = c0; col <= c1; col++) {
+                int cell = row * mCols + col;
+                int[] items = mCells[cell];
+                for (int i = 0; i < mCellCounts[cell]; i++) {
+                    int id = items[i];
+                    if (mStamps[id] == mStamp) {
+                        continue;
+                    }
+                    mStamps[id] = mStamp;
+                    int r = id * 4;
+                    if (mRects[r] < x1 && mRects[r] + mRects[r + 2] > x0
+                            && mRects[r + 1] < y1 && mRects[r + 1] + mRects[r + 3] > y0) {
+                        if (found < out.length) {
+                            out[found] = id;
+                        }
+                        found++;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    private boolean hit(int id, float x, float y) {
+        int r = id * 4;
+        return x > mRects[r] && x < mRects[r] + mRects[r + 2]
+                && y > mRects[r + 1] && y < mRects[r + 1] + mRects[r + 3];
+    }
+
+    private void setRect(int id, float x, float y, float w, float h) {
+        int r = id * 4;
+        mRects[r] = x;
+        mRects[r + 1] = y;
+        mRects[r + 2] = w;
+        mRects[r + 3] = h;
+    }
+
+    private void computeRange(int id) {
+        int r = id * 4;
+        mRanges[r] = clampCol(mRects[r]);
+        mRanges[r + 1] = clampRow(mRects[r + 1]);
+        mRanges[r + 2] = clampCol(mRects[r] + mRects[r + 2]);
+        mRanges[r + 3] = clampRow(mRects[r + 1] + mRects[r + 3]);
+    }
+
+    private int clampCol(float x) {
+        return Math.max(0, Math.min((int)Math.floor(x / mCellSize), mCols - 1));
+    }
+
+    private int clampRow(float y) {
+        return Math.max(0, Math.min((int)Math.floor(y / mCellSize), mRows - 1));
+    }
+
+    private void addToCells(int id) {
+        int r = id * 4;
+        for (int row = mRanges[r + 1]; row <= mRanges[r + 3]; row++) {
+            for (int col = mRanges[r]; col <= mRanges[r + 2]; col++) {
+                int cell = row * mCols + col;
+                if (mCellCounts[cell] == mCells[cell].length) {
+                    mCells[cell] = Arrays.copyOf(mCells[cell], mCells[cell].length * 2);
+                }
+                mCells[cell][mCellCounts[cell]++] = id;
+            }
+        }
+    }
+
+    private void removeFromCells(int id, int c0, int r0, int c1, int r1) {
+        for (int row = r0; row <= r1; row++) {
+            for (int col = c0; col <= c1; col++) {
+                int cell = row * mCols + col;
+                int[] items = mCells[cell];
+                int n = mCellCounts[cell];
+                for (int i = 0; i < n; i++) {
+                    if (items[i] == id) {
+                        // Order within a cell does not matter, ids carry the z order
+                        items[i] = items[n - 1];
+                        mCellCounts[cell] = n - 1;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private void ensureCapacity(int ids) {
+        if (ids <= mPresent.length) {
+            return;
+        }
+        int size = Math.max(ids, mPresent.length * 2);
+        mRects = Arrays.copyOf(mRects, size * 4);
+        mRanges = Arrays.copyOf(mRanges, size * 4);
+        mPresent = Arrays.copyOf(mPresent, size);
+        mStamps = Arrays.copyOf(mStamps, size);
+    }
+}
@@ -0,0 +1,198 @@
+package com.dnasystems.andeanabyss;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+import android.opengl.GLES20;
+
+/**
+ * Draws CommandBuffers: each command's quads go into one streaming vertex
+ * buffer and are sent with a single glDrawElements call. For quads drawn
+ * straight from the GL thread there is also an immediate mode: quads
+ * added between begin() and end() are recorded into a sorted buffer of
+ * the batch's own and submitted at end().
+ */
+public class SpriteBatch {
+
+    private static final String TAG = AndeanAbyssCBG.TAG;
+
+    private static final int FLOATS_PER_SPRITE = CommandBuffer.FLOATS_PER_SPRITE;
+    private static final int STRIDE = CommandBuffer.FLOATS_PER_VERTEX * 4;
+    // Largest quad count addressable with unsigned short indices
+    private static final int MAX_QUADS_PER_DRAW = 65536 / 4;
+
+    private final int mQuadsPerDraw;
+
+    private final CommandBuffer mBuffer;
+    private MatrixStack mStack;
+
+    private final FloatBuffer mVertexData;
+    private int mVertexBuffer;
+    private int mIndexBuffer;
+
+    private int mDrawCalls;
+    private int mSpritesDrawn;
+
+    public SpriteBatch(TextureManager textures, int quadsPerDraw) {
+        mQuadsPerDraw = Math.min(quadsPerDraw, MAX_QUADS_PER_DRAW);
+        mBuffer = new CommandBuffer(mQuadsPerDraw);
+        mVertexData = ByteBuffer.allocateDirect(mQuadsPerDraw * FLOATS_PER_SPRITE * 4)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        initBuffers(textures);
+    }
+
+    private void initBuffers(TextureManager textures) {
+        mVertexBuffer = textures.createBuffer();
+        mIndexBuffer = textures.createBuffer();
+
+        // Two triangles per quad, matching the triangle strip order of Object2D
+        ShortBuffer indices = ByteBuffer.allocateDirect(mQuadsPerDraw * 6 * 2)
+                .order(ByteOrder.nativeOrder()).asShortBuffer();
+        for (int i = 0; i < mQuadsPerDraw; i++) {
+            short v = (short)(i * 4);
+            indices.put(v).put((short)(v + 1)).put((short)(v + 2));
+            indices.put((short)(v + 2)).put((short)(v + 1)).put((short)(v + 3));
+        }
+        indices.flip();
+        textures.bufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, mIndexBuffer, mQuadsPerDraw * 6 * 2,
+                indices, GLES20.GL_STATIC_DRAW);
+        textures.bufferData(GLES20.GL_ARRAY_BUFFER, mVertexBuffer,
+                mQuadsPerDraw * FLOATS_PER_SPRITE * 4, null, GLES20.GL_STREAM_DRAW);
+    }
+
+    /**
+     * Start a new frame. All quads added until {@link #end()} are transformed
+     * with the current matrix of stack.
+     */
+    public void begin(MatrixStack stack) {
+        mStack = stack;
+        mBuffer.reset();
+        mBuffer.beginLayer(0, 0, 1, 1);
+    }
+
+    /**
+     * Add one quad. vertices holds four (x, y, z) corners and texCoords the
+     * matching four (u, v) pairs in triangle strip order; the quad is moved by
+     * (dx, dy) before it is stored.
+     */
+    public void add(int program, int textureId, float[] vertices, float[] texCoords,
+            float dx, float dy) {
+        mBuffer.quad(program, textureId, vertices, texCoords, 0, dx, dy);
+    }
+
+    /**
+     * Sort the quads added since {@link #begin(MatrixStack)} and draw them.
+     */
+    public void end() {
+        mBuffer.endLayer(true);
+        submit(mBuffer, mStack);
+        mStack = null;
+    }
+
+    /**
+     * Draw the commands of buffer, each layer with its transform applied
+     * on top of the current matrix of stack. GL thread only.
+     */
+    public void submit(CommandBuffer buffer, MatrixStack stack) {
+        resetCounts();
+        submit(buffer, stack, 0, buffer.getLayerCount());
+    }
+
+    /**
+     * Draw the commands of the layers from firstLayer up to endLayer of
+     * buffer, for drawing something else between layers. The counts add up
+     * until {@link #resetCounts()}.
+     */
+    public void submit(CommandBuffer buffer, MatrixStack stack, int firstLayer, int endLayer) {
+        int c = 0;
+        int commands = buffer.getCommandCount();
+        while (c < commands && buffer.getLayer(c) < firstLayer) {
+            c++;
+        }
+        while (commands > c && buffer.getLayer(commands - 1) >= endLayer) {
+            commands--;
+        }
+        if (c == commands) {
+            return;
+        }
+        GLState.bindBuffer(GLES20.GL_ARRAY_BUFFER, mVertexBuffer);
+        GLState.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mIndexBuffer);
+        GLState.enableVertexAttribArray(0);
+        GLState.vertexAttribPointer(0, 3, STRIDE, 0);
+        GLState.enableVertexAttribArray(1);
+        GLState.vertexAttribPointer(1, 2, STRIDE, 3 * 4);
+
+        float[] transforms = buffer.getTransforms();
+        int layer = -1;
+        for (; c < commands; c++) {
+            if (buffer.getLayer(c) != layer) {
+                if (layer >= 0) {
+                    stack.pop();
+                }
+                layer = buffer.getLayer(c);
+                stack.push();
+                stack.translate(transforms[layer * 4], transforms[layer * 4 + 1], 0.0f);
+                stack.scale(transforms[layer * 4 + 2], transforms[layer * 4 + 3], 1.0f);
+            }
+            // Runs longer than the vertex buffer go in several calls
+            int first = buffer.getFirst(c);
+            int end = first + buffer.getQuadCount(c);
+            for (int from = first; from < end; from += mQuadsPerDraw) {
+                flush(buffer, c, stack, from, Math.min(end, from + mQuadsPerDraw));
+            }
+        }
+        stack.pop();
+        GLState.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+    }
+
+    private void flush(CommandBuffer buffer, int command, MatrixStack stack, int from, int to) {
+        int quads = to - from;
+        mVertexData.clear();
+        mVertexData.put(buffer.getVertices(), from * FLOATS_PER_SPRITE, quads * FLOATS_PER_SPRITE);
+        mVertexData.flip();
+
+        GLState.useProgram(buffer.getProgram(command));
+        GLState.activeTexture(GLES20.GL_TEXTURE0);
+        GLState.bindTexture(buffer.getTexture(command));
+        GLState.uniform1i(GLState.uniformLocation("uSampler"), 0);
+        GLState.uniformMatrix4fv(GLState.uniformLocation("uMVPMatrix"), stack.getArray(),
+                stack.getOffset());
+
+        // Orphan the previous contents so the driver does not have to wait
+        // for the last draw to finish before we overwrite the buffer.
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, mVertexData.capacity() * 4,
+                null, GLES20.GL_STREAM_DRAW);
+        GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, 0, quads * FLOATS_PER_SPRITE * 4,
+                mVertexData);
+        GLES20.glDrawElements(GLES20.GL_TRIANGLES, quads * 6, GLES20.GL_UNSIGNED_SHORT, 0);
+        GLState.countCall(2);
+        GLState.countDraw();
+        GLState.countUpload(quads * FLOATS_PER_SPRITE * 4);
+        GLState.checkError("glDrawElements");
+
+        mDrawCalls++;
+        mSpritesDrawn += quads;
+    }
+
+    public void resetCounts() {
+        mDrawCalls = 0;
+        mSpritesDrawn = 0;
+    }
+
+    /** Number of quads drawn by the last submit. */
+    public int getSpriteCount() {
+        return mSpritesDrawn;
+    }
+
+    /** Number of draw calls issued by the last submit. */
+    public int getDrawCalls() {
+        return mDrawCalls;
+    }
+
+    /** Draw calls the last submit saved compared to one call per quad. */
+    public int getDrawCallsSaved() {
+        return mSpritesDrawn - mDrawCalls;
+    }
+}
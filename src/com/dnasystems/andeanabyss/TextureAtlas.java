@@ -0,0 +1,174 @@
+package com.dnasystems.andeanabyss;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.opengl.GLES20;
+import android.util.Log;
+
+/**
+ * Texture atlas pages and UV table written by the AtlasPacker tool (see
+ * tools/). Every page is decoded and uploaded once, objects look up their
+ * texture and texture coordinates by image name. The UV table is read right
+ * away; the pages are decoded by an AssetLoader and the texture names are
+ * valid, but empty, until {@link #isLoaded()} returns true. Decoded pages
+ * go into the TextureManager's cache, an atlas made for a new GL context
+ * uploads them from there.
+ */
+public class TextureAtlas {
+
+    private static final String TAG = AndeanAbyssCBG.TAG;
+    private static final int MAGIC = 0x41555631; // "AUV1"
+
+    private int[] mPageTextures;
+    private int[] mPageW;
+    private int[] mPageH;
+    private volatile int mPagesLoaded = 0;
+    // name -> {page, x, y, w, h}
+    private final HashMap<String, int[]> mRegions = new HashMap<String, int[]>();
+    private final TextureManager mTextures;
+
+    /**
+     * Load an atlas from the assets folder, e.g. "atlas/pieces" loads
+     * atlas/pieces.uv and the pages listed in it.
+     */
+    public TextureAtlas(Context context, String path, AssetLoader loader,
+            TextureManager textures) {
+        mTextures = textures;
+        String dir = path.substring(0, path.lastIndexOf('/') + 1);
+        try {
+            DataInputStream in = new DataInputStream(context.getAssets().open(path + ".uv"));
+            try {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("Bad atlas magic in " + path);
+                }
+                int pages = in.readShort();
+                mPageTextures = new int[pages];
+                mPageW = new int[pages];
+                mPageH = new int[pages];
+                for (int p = 0; p < pages; p++) {
+                    String file = in.readUTF();
+                    mPageW[p] = in.readShort();
+                    mPageH[p] = in.readShort();
+                    mPageTextures[p] = textures.createTexture(GLES20.GL_NEAREST,
+                            GLES20.GL_CLAMP_TO_EDGE);
+                    loader.submit(new PageJob(context, dir + file, mPageTextures[p]));
+                }
+                int count = in.readShort();
+                for (int i = 0; i < count; i++) {
+                    String name = in.readUTF();
+                    int[] region = new int[5];
+                    region[0] = in.readByte();
+                    for (int j = 1; j < 5; j++) {
+                        region[j] = in.readShort();
+                    }
+                    mRegions.put(name, region);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "" + e);
+        }
+    }
+
+    private class PageJob implements AssetLoader.Job {
+        private final Context mContext;
+        private final String mFile;
+        private final int mTexture;
+        private PayloadCache.Payload mPayload;
+
+        PageJob(Context context, String file, int texture) {
+            mContext = context;
+            mFile = file;
+            mTexture = texture;
+        }
+
+        @Override
+        public void load() throws IOException {
+            PayloadCache cache = mTextures.getCache();
+            mPayload = cache.get(mFile);
+            if (mPayload != null) {
+                return;
+            }
+            BitmapFactory.Options opts = new BitmapFactory.Options();
+            opts.inScaled = false;
+            opts.inPreferredConfig = Bitmap.Config.ARGB_4444;
+            InputStream in = mContext.getAssets().open(mFile);
+            Bitmap bitmap;
+            try {
+                bitmap = BitmapFactory.decodeStream(in, null, opts);
+            } finally {
+                in.close();
+            }
+            if (bitmap == null) {
+                throw new IOException("Cannot decode " + mFile);
+            }
+            mPayload = TextureManager.toPayload(bitmap);
+            bitmap.recycle();
+            cache.put(mFile, mPayload);
+        }
+
+        @Override
+        public void upload() {
+            mTextures.upload(mTexture, mPayload);
+            mPayload = null;
+            mPagesLoaded++;
+        }
+
+        @Override
+        public void failed(Exception e) {
+            // The pieces on this page are not drawn, the loader logged why
+            Log.e(TAG, "Atlas page " + mFile + " not loaded");
+        }
+    }
+
+    /**
+     * True once every page has been uploaded.
+     */
+    public boolean isLoaded() {
+        return mPageTextures != null && mPagesLoaded == mPageTextures.length;
+    }
+
+    public boolean contains(String name) {
+        return mRegions.containsKey(name);
+    }
+
+    public int getTextureId(String name) {
+        int[] region = mRegions.get(name);
+        return region != null ? mPageTextures[region[0]] : 0;
+    }
+
+    /**
+     * Fill texCoords with the triangle strip texture coordinates of a w x h
+     * quad showing the named image, in the same order as
+     * Object2D.mTextureCoords.
+     */
+    public boolean getTexCoords(String name, float w, float h, float[] texCoords) {
+        int[] region = mRegions.get(name);
+        if (region == null) {
+            Log.e(TAG, "Image not in atlas: " + name);
+            return false;
+        }
+        float pw = mPageW[region[0]];
+        float ph = mPageH[region[0]];
+        float u0 = region[1] / pw;
+        float v0 = region[2] / ph;
+        float u1 = (region[1] + w) / pw;
+        float v1 = (region[2] + h) / ph;
+        texCoords[0] = u0;
+        texCoords[1] = v0;
+        texCoords[2] = u0;
+        texCoords[3] = v1;
+        texCoords[4] = u1;
+        texCoords[5] = v0;
+        texCoords[6] = u1;
+        texCoords[7] = v1;
+        return true;
+    }
+}
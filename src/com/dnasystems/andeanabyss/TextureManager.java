@@ -0,0 +1,320 @@
+package com.dnasystems.andeanabyss;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLContext;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+import android.util.Log;
+
+/**
+ * Creates and deletes every texture, buffer and framebuffer of the board
+ * and keeps count of the GPU memory behind them. Outlives the GL context
+ * along with the renderer, and holds a PayloadCache of the texture data
+ * uploaded so far: after a context loss the new board finds its atlas
+ * pages and coarse map tiles there and uploads them without reading and
+ * decoding the assets again.
+ *
+ * GL thread only, except for {@link #getCache()}.
+ */
+public class TextureManager {
+
+    private static final String TAG = AndeanAbyssCBG.TAG;
+
+    private final PayloadCache mCache;
+    // Live handles and the bytes each one holds
+    private final HashMap<Integer, Integer> mTextures = new HashMap<Integer, Integer>();
+    private final HashMap<Integer, Integer> mBuffers = new HashMap<Integer, Integer>();
+    private final HashSet<Integer> mFramebuffers = new HashSet<Integer>();
+    private int mTextureBytes;
+    private int mBufferBytes;
+    private final int[] mTemp = new int[1];
+
+    // The context the handles belong to
+    private EGLContext mContext;
+    private int mContexts;
+    private long mRestoreStart;
+    private long mRestoreNanos;
+    private boolean mRestoring;
+
+    /**
+     * @param cacheBytes memory the payload cache may hold
+     */
+    public TextureManager(int cacheBytes) {
+        mCache = new PayloadCache(cacheBytes);
+    }
+
+    /**
+     * Take the context that was just made current, from onSurfaceCreated
+     * before anything is created in it. Handles of a lost context are
+     * forgotten, they went with it; those of a context that is still
+     * current are deleted. Starts timing the restore.
+     */
+    public void onSurfaceCreated() {
+        EGLContext context = currentContext();
+        if (context.equals(mContext)) {
+            deleteAll();
+        } else {
+            if (mContext != null) {
+                Log.i(TAG, "GL context lost with " + mTextures.size() + " textures, "
+                        + mTextureBytes / 1024 + " KB");
+            }
+            forgetAll();
+        }
+        mContext = context;
+        mContexts++;
+        mRestoreStart = System.nanoTime();
+        mRestoring = true;
+    }
+
+    /**
+     * The assets of the new context are all in, from the first frame that
+     * finds the AssetLoader idle.
+     */
+    public void endRestore() {
+        if (!mRestoring) {
+            return;
+        }
+        mRestoring = false;
+        mRestoreNanos = System.nanoTime() - mRestoreStart;
+        Log.i(TAG, (mContexts == 1 ? "Loaded" : "Restored") + " in "
+                + mRestoreNanos / 1000000 + " ms: " + mTextures.size() + " textures, "
+                + mTextureBytes / 1024 + " KB, " + mBufferBytes / 1024 + " KB buffers, cache "
+                + mCache.getBytes() / 1024 + " KB, " + mCache.getHits() + " hits "
+                + mCache.getMisses() + " misses");
+    }
+
+    /**
+     * A texture with the given filter and wrap mode, empty until
+     * {@link #upload(int, PayloadCache.Payload)} or
+     * {@link #allocate(int, int, int)}. Leaves it bound to unit 0.
+     */
+    public int createTexture(int filter, int wrap) {
+        GLES20.glGenTextures(1, mTemp, 0);
+        int id = mTemp[0];
+        GLState.activeTexture(GLES20.GL_TEXTURE0);
+        GLState.bindTexture(id);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, filter);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, filter);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, wrap);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, wrap);
+        GLState.countCall(5);
+        mTextures.put(id, 0);
+        return id;
+    }
+
+    /**
+     * Upload p as the only level of texture.
+     */
+    public void upload(int texture, PayloadCache.Payload p) {
+        GLState.activeTexture(GLES20.GL_TEXTURE0);
+        GLState.bindTexture(texture);
+        if (p.isCompressed()) {
+            GLES20.glCompressedTexImage2D(GLES20.GL_TEXTURE_2D, 0, p.format, p.width, p.height,
+                    0, p.getBytes(), p.getData());
+            GLState.checkError("glCompressedTexImage2D");
+        } else {
+            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, p.format, p.width, p.height, 0,
+                    p.format, p.type, p.getData());
+            GLState.checkError("glTexImage2D");
+        }
+        GLState.countCall();
+        GLState.countUpload(p.getBytes());
+        setTextureBytes(texture, p.getBytes());
+    }
+
+    /**
+     * Give texture uninitialized RGBA storage, e.g. to render into.
+     */
+    public void allocate(int texture, int width, int height) {
+        GLState.activeTexture(GLES20.GL_TEXTURE0);
+        GLState.bindTexture(texture);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width, height, 0,
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+        GLState.countCall();
+        setTextureBytes(texture, width * height * 4);
+    }
+
+    private void setTextureBytes(int texture, int bytes) {
+        Integer old = mTextures.put(texture, bytes);
+        mTextureBytes += bytes - (old != null ? old : 0);
+    }
+
+    public void deleteTexture(int texture) {
+        Integer bytes = mTextures.remove(texture);
+        if (bytes == null) {
+            Log.w(TAG, "Deleting unknown texture " + texture);
+            return;
+        }
+        mTextureBytes -= bytes;
+        GLState.forgetTexture(texture);
+        mTemp[0] = texture;
+        GLES20.glDeleteTextures(1, mTemp, 0);
+        GLState.countCall();
+    }
+
+    public int createBuffer() {
+        GLES20.glGenBuffers(1, mTemp, 0);
+        mBuffers.put(mTemp[0], 0);
+        return mTemp[0];
+    }
+
+    /**
+     * Bind buffer to target and give it bytes of data, or of undefined
+     * contents if data is null.
+     */
+    public void bufferData(int target, int buffer, int bytes, Buffer data, int usage) {
+        GLState.bindBuffer(target, buffer);
+        GLES20.glBufferData(target, bytes, data, usage);
+        GLState.countCall();
+        if (data != null) {
+            GLState.countUpload(bytes);
+        }
+        Integer old = mBuffers.put(buffer, bytes);
+        mBufferBytes += bytes - (old != null ? old : 0);
+    }
+
+    public void deleteBuffer(int buffer) {
+        Integer bytes = mBuffers.remove(buffer);
+        if (bytes == null) {
+            Log.w(TAG, "Deleting unknown buffer " + buffer);
+            return;
+        }
+        mBufferBytes -= bytes;
+        GLState.forgetBuffer(buffer);
+        mTemp[0] = buffer;
+        GLES20.glDeleteBuffers(1, mTemp, 0);
+        GLState.countCall();
+    }
+
+    public int createFramebuffer() {
+        GLES20.glGenFramebuffers(1, mTemp, 0);
+        mFramebuffers.add(mTemp[0]);
+        return mTemp[0];
+    }
+
+    public void deleteFramebuffer(int framebuffer) {
+        if (!mFramebuffers.remove(framebuffer)) {
+            Log.w(TAG, "Deleting unknown framebuffer " + framebuffer);
+            return;
+        }
+        GLState.bindFramebuffer(0);
+        mTemp[0] = framebuffer;
+        GLES20.glDeleteFramebuffers(1, mTemp, 0);
+        GLState.countCall();
+    }
+
+    /**
+     * Delete every handle, freeing the GPU memory now rather than whenever
+     * the context goes. Handles of a context that is no longer current are
+     * only forgotten.
+     */
+    public void release() {
+        if (currentContext().equals(mContext)) {
+            deleteAll();
+        } else {
+            forgetAll();
+        }
+        mContext = null;
+    }
+
+    private static EGLContext currentContext() {
+        return ((EGL10)EGLContext.getEGL()).eglGetCurrentContext();
+    }
+
+    private void deleteAll() {
+        int textures = mTextures.size();
+        int bytes = mTextureBytes + mBufferBytes;
+        for (Integer id : mTextures.keySet().toArray(new Integer[textures])) {
+            deleteTexture(id);
+        }
+        for (Integer id : mBuffers.keySet().toArray(new Integer[mBuffers.size()])) {
+            deleteBuffer(id);
+        }
+        for (Integer id : mFramebuffers.toArray(new Integer[mFramebuffers.size()])) {
+            deleteFramebuffer(id);
+        }
+        Log.i(TAG, "Released " + textures + " textures, " + bytes / 1024 + " KB");
+    }
+
+    private void forgetAll() {
+        mTextures.clear();
+        mBuffers.clear();
+        mFramebuffers.clear();
+        mTextureBytes = 0;
+        mBufferBytes = 0;
+    }
+
+    /**
+     * The pixels of bitmap as a payload in the format GLUtils.texImage2D
+     * would upload them in. Any thread.
+     */
+    public static PayloadCache.Payload toPayload(Bitmap bitmap) {
+        int format = GLES20.GL_RGBA;
+        int type;
+        switch (bitmap.getConfig()) {
+        case ARGB_4444:
+            type = GLES20.GL_UNSIGNED_SHORT_4_4_4_4;
+            break;
+        case RGB_565:
+            format = GLES20.GL_RGB;
+            type = GLES20.GL_UNSIGNED_SHORT_5_6_5;
+            break;
+        default:
+            type = GLES20.GL_UNSIGNED_BYTE;
+            break;
+        }
+        ByteBuffer data = ByteBuffer.allocateDirect(bitmap.getByteCount())
+                .order(ByteOrder.nativeOrder());
+        bitmap.copyPixelsToBuffer(data);
+        data.flip();
+        return new PayloadCache.Payload(bitmap.getWidth(), bitmap.getHeight(), format, type,
+                data);
+    }
+
+    /**
+     * Texture data for the next context, may be used from any thread.
+     */
+    public PayloadCache getCache() {
+        return mCache;
+    }
+
+    /** Bytes of texture memory the live textures hold. */
+    public int getTextureBytes() {
+        return mTextureBytes;
+    }
+
+    /** Bytes of the live vertex and index buffers. */
+    public int getBufferBytes() {
+        return mBufferBytes;
+    }
+
+    public int getTextureCount() {
+        return mTextures.size();
+    }
+
+    /** Time from the last onSurfaceCreated to all assets being in. */
+    public long getRestoreNanos() {
+        return mRestoreNanos;
+    }
+
+    public boolean isRestoring() {
+        return mRestoring;
+    }
+
+    /**
+     * Print the memory in use, for the metrics overlay.
+     */
+    public void summary(StringBuilder out) {
+        out.append("tex ").append(mTextureBytes / 1024).append(" KB in ")
+                .append(mTextures.size()).append(", buf ").append(mBufferBytes / 1024)
+                .append(" KB, cache ").append(mCache.getBytes() / 1024).append(" KB, restore ")
+                .append(mRestoreNanos / 1000000).append(" ms");
+    }
+}
@@ -0,0 +1,185 @@
+package com.dnasystems.andeanabyss.game;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * The draw deck. Event cards are numbered 1 to 72 as printed, the four
+ * Propaganda cards 73 to 76. The deck is built as the rules prepare it:
+ * the events are shuffled and dealt into piles, the rest go back in the
+ * box unseen, one Propaganda card is shuffled into each pile and the piles
+ * are stacked.
+ *
+ * The current card is played, the next one is already face up, so the
+ * board knows which card to show after a flip before it happens.
+ */
+public class CardDeck {
+
+    public static final int EVENTS = 72;
+    public static final int PROPAGANDA = 4;
+    public static final int CARDS = EVENTS + PROPAGANDA;
+    public static final int FIRST_PROPAGANDA = EVENTS + 1;
+    public static final int NONE = 0;
+
+    // Full game: four piles of 15 events, 12 events unused
+    public static final int PILES = 4;
+    public static final int PILE_EVENTS = 15;
+
+    // The deck is mOrder[0] to mOrder[mSize - 1]
+    private final int[] mOrder = new int[CARDS];
+    private int mSize;
+    private int mPosition;
+
+    public CardDeck(Random rnd) {
+        this(rnd, PILES, PILE_EVENTS);
+    }
+
+    /**
+     * A deck of piles piles with pileEvents events and one Propaganda card
+     * each, for the shorter scenarios.
+     */
+    public CardDeck(Random rnd, int piles, int pileEvents) {
+        if (piles < 1 || piles > PROPAGANDA || piles * pileEvents > EVENTS) {
+            throw new IllegalArgumentException(piles + " piles of " + pileEvents);
+        }
+        int[] events = new int[EVENTS];
+        for (int i = 0; i < EVENTS; i++) {
+            events[i] = i + 1;
+        }
+        shuffle(events, events.length, rnd);
+        int[] propaganda = new int[PROPAGANDA];
+        for (int i = 0; i < PROPAGANDA; i++) {
+            propaganda[i] = FIRST_PROPAGANDA + i;
+        }
+        shuffle(propaganda, propaganda.length, rnd);
+
+        int pile = pileEvents + 1;
+        mSize = piles * pile;
+        int[] cards = new int[pile];
+        for (int p = 0; p < piles; p++) {
+            System.arraycopy(events, p * pileEvents, cards, 0, pileEvents);
+            cards[pileEvents] = propaganda[p];
+            shuffle(cards, pile, rnd);
+            System.arraycopy(cards, 0, mOrder, p * pile, pile);
+        }
+    }
+
+    private static void shuffle(int[] a, int n, Random rnd) {
+        for (int i = n - 1; i > 0; i--) {
+            int j = rnd.nextInt(i + 1);
+            int t = a[i];
+            a[i] = a[j];
+            a[j] = t;
+        }
+    }
+
+    public static boolean isPropaganda(int card) {
+        return card >= FIRST_PROPAGANDA;
+    }
+
+    /**
+     * Name of the card's image, "card01" to "card76".
+     */
+    public static String name(int card) {
+        return card < 10 ? "card0" + card : "card" + card;
+    }
+
+    /** Cards in the deck, played or not. */
+    public int size() {
+        return mSize;
+    }
+
+    /** Cards played before the current one. */
+    public int getPosition() {
+        return mPosition;
+    }
+
+    /**
+     * The card ahead cards after the current one, 0 being the current
+     * card, or NONE past the end of the deck.
+     */
+    public int peek(int ahead) {
+        int i = mPosition + ahead;
+        return i < mSize ? mOrder[i] : NONE;
+    }
+
+    /** The card being played, NONE once the deck is used up. */
+    public int current() {
+        return peek(0);
+    }
+
+    /** The face up card that is played next, or NONE. */
+    public int next() {
+        return peek(1);
+    }
+
+    /**
+     * Play the next card.
+     *
+     * @return the new current card, NONE if the deck is used up
+     */
+    public int flip() {
+        if (mPosition < mSize) {
+            mPosition++;
+        }
+        return current();
+    }
+
+    public void copyFrom(CardDeck other) {
+        System.arraycopy(other.mOrder, 0, mOrder, 0, CARDS);
+        mSize = other.mSize;
+        mPosition = other.mPosition;
+    }
+
+    /**
+     * Hash of the order and the position, for checking saved decks.
+     */
+    public long hash() {
+        long h = mSize * 31L + mPosition;
+        for (int i = 0; i < mSize; i++) {
+            h = h * 0x100000001b3L ^ mOrder[i];
+        }
+        return h;
+    }
+
+    // Size of write(): size and position, then every card slot, a byte each
+    static final int SAVED_BYTES = 2 + CARDS;
+
+    /**
+     * Write the order and the position to out, see SaveFile.
+     */
+    void write(ByteBuffer out) {
+        out.put((byte)mSize);
+        out.put((byte)mPosition);
+        for (int i = 0; i < CARDS; i++) {
+            out.put((byte)mOrder[i]);
+        }
+    }
+
+    /**
+     * Read what write() wrote.
+     *
+     * @throws IllegalArgumentException if it is not a deck, a card out of
+     *         range or dealt twice
+     */
+    void read(ByteBuffer in) {
+        int size = in.get();
+        int position = in.get();
+        if (size < 1 || size > CARDS || position < 0 || position > size) {
+            throw new IllegalArgumentException("deck of " + size + " at " + position);
+        }
+        boolean[] seen = new boolean[CARDS + 1];
+        for (int i = 0; i < CARDS; i++) {
+            int card = in.get();
+            if (i < size) {
+                if (card < 1 || card > CARDS || seen[card]) {
+                    throw new IllegalArgumentException("card " + card + " at " + i);
+                }
+                seen[card] = true;
+            }
+            mOrder[i] = i < size ? card : NONE;
+        }
+        mSize = size;
+        mPosition = position;
+    }
+}
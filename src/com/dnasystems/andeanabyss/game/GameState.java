@@ -0,0 +1,650 @@
+package com.dnasystems.andeanabyss.game;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Headless Andean Abyss game state: pieces per space, support, terror,
+ * sabotage, FARC zones and the faction tracks, held in a handful of
+ * primitive arrays and bit sets so a state is cheap to copy, compare and
+ * search. Pure Java, no Android dependencies.
+ *
+ * Pieces are counted per space and piece type. Guerrillas come in an
+ * underground and an active type; available guerrillas are always
+ * underground, so the available count of the active types stays 0.
+ *
+ * Every change goes through {@link #set}, which keeps the Zobrist hash of
+ * the state up to date, see {@link #hash()}, and records the change in the
+ * attached {@link History}, if any.
+ */
+public final class GameState {
+
+    public static final int GOV = 0;
+    public static final int FARC = 1;
+    public static final int AUC = 2;
+    public static final int CARTELS = 3;
+    public static final int FACTIONS = 4;
+    public static final int NO_FACTION = -1;
+
+    public static final int TROOPS = 0;
+    public static final int POLICE = 1;
+    public static final int GOV_BASE = 2;
+    public static final int FARC_UNDERGROUND = 3;
+    public static final int FARC_ACTIVE = 4;
+    public static final int FARC_BASE = 5;
+    public static final int AUC_UNDERGROUND = 6;
+    public static final int AUC_ACTIVE = 7;
+    public static final int AUC_BASE = 8;
+    public static final int CARTELS_UNDERGROUND = 9;
+    public static final int CARTELS_ACTIVE = 10;
+    public static final int CARTELS_BASE = 11;
+    public static final int PIECE_TYPES = 12;
+
+    /** Location of pieces that are not on the map. */
+    public static final int AVAILABLE = -1;
+
+    public static final int ACTIVE_OPPOSITION = -2;
+    public static final int PASSIVE_OPPOSITION = -1;
+    public static final int NEUTRAL = 0;
+    public static final int PASSIVE_SUPPORT = 1;
+    public static final int ACTIVE_SUPPORT = 2;
+
+    public static final int MAX_RESOURCES = 99;
+    public static final int SHIPMENTS = 4;
+
+    public static final int[] FACTION_OF = {
+        GOV, GOV, GOV, FARC, FARC, FARC, AUC, AUC, AUC, CARTELS, CARTELS, CARTELS,
+    };
+
+    /** Pieces each type has in the box, active guerrillas share the underground pool. */
+    public static final int[] FORCE_POOL = {
+        30, 30, 3, 30, 0, 9, 18, 0, 6, 12, 0, 15,
+    };
+
+    // Fields for set(), with the index they take
+    static final int FIELD_PIECES = 0;       // space * PIECE_TYPES + type
+    static final int FIELD_SUPPORT = 1;      // space
+    static final int FIELD_TERROR = 2;       // space
+    static final int FIELD_SABOTAGE = 3;     // LoC, value 0 or 1
+    static final int FIELD_FARC_ZONE = 4;    // space, value 0 or 1
+    static final int FIELD_RESOURCES = 5;    // faction
+    static final int FIELD_AID = 6;
+    static final int FIELD_PRESIDENT = 7;
+    static final int FIELD_ELIGIBLE = 8;     // value is the faction mask
+    static final int FIELD_SHIPMENT = 9;     // shipment, value see shipmentValue()
+    static final int FIELD_EVENT = 10;       // event, value 0 or 1
+
+    // Piece counts, index space * PIECE_TYPES + type
+    private final byte[] mPieces = new byte[Spaces.COUNT * PIECE_TYPES];
+    private final byte[] mAvailable = new byte[PIECE_TYPES];
+    private final byte[] mSupport = new byte[Spaces.COUNT];
+    private final byte[] mTerror = new byte[Spaces.COUNT];
+    private long mSabotage;
+    private long mFarcZones;
+
+    private final byte[] mResources = new byte[FACTIONS];
+    private int mAid;
+    private int mPresident;
+    private int mEligible;
+    // Space of each shipment and the faction holding it, AVAILABLE if unused
+    private final byte[] mShipmentSpace = new byte[SHIPMENTS];
+    private final byte[] mShipmentFaction = new byte[SHIPMENTS];
+    // Lasting events, one bit per capability or momentum card in play
+    private long mEvents;
+    private long mHash;
+    private History mHistory;
+
+    /**
+     * Empty map, every piece available, all factions eligible.
+     */
+    public GameState() {
+        clear();
+    }
+
+    public GameState(GameState other) {
+        copyFrom(other);
+    }
+
+    public void clear() {
+        Arrays.fill(mPieces, (byte)0);
+        for (int t = 0; t < PIECE_TYPES; t++) {
+            mAvailable[t] = (byte)FORCE_POOL[t];
+        }
+        Arrays.fill(mSupport, (byte)NEUTRAL);
+        Arrays.fill(mTerror, (byte)0);
+        mSabotage = 0;
+        mFarcZones = 0;
+        Arrays.fill(mResources, (byte)0);
+        mAid = 0;
+        mPresident = 0;
+        mEligible = (1 << FACTIONS) - 1;
+        Arrays.fill(mShipmentSpace, (byte)AVAILABLE);
+        Arrays.fill(mShipmentFaction, (byte)NO_FACTION);
+        mEvents = 0;
+        mHash = Zobrist.hash(this);
+        if (mHistory != null) {
+            mHistory.reset();
+        }
+    }
+
+    public void copyFrom(GameState other) {
+        System.arraycopy(other.mPieces, 0, mPieces, 0, mPieces.length);
+        System.arraycopy(other.mAvailable, 0, mAvailable, 0, mAvailable.length);
+        System.arraycopy(other.mSupport, 0, mSupport, 0, mSupport.length);
+        System.arraycopy(other.mTerror, 0, mTerror, 0, mTerror.length);
+        mSabotage = other.mSabotage;
+        mFarcZones = other.mFarcZones;
+        System.arraycopy(other.mResources, 0, mResources, 0, mResources.length);
+        mAid = other.mAid;
+        mPresident = other.mPresident;
+        mEligible = other.mEligible;
+        System.arraycopy(other.mShipmentSpace, 0, mShipmentSpace, 0, SHIPMENTS);
+        System.arraycopy(other.mShipmentFaction, 0, mShipmentFaction, 0, SHIPMENTS);
+        mEvents = other.mEvents;
+        mHash = other.mHash;
+        if (mHistory != null) {
+            mHistory.reset();
+        }
+    }
+
+    /**
+     * Zobrist hash of the state, kept up to date by every change in O(1).
+     */
+    public long hash() {
+        return mHash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof GameState)) {
+            return false;
+        }
+        GameState other = (GameState)o;
+        return mHash == other.mHash
+                && mSabotage == other.mSabotage && mFarcZones == other.mFarcZones
+                && mAid == other.mAid && mPresident == other.mPresident
+                && mEligible == other.mEligible && mEvents == other.mEvents
+                && Arrays.equals(mPieces, other.mPieces)
+                && Arrays.equals(mSupport, other.mSupport)
+                && Arrays.equals(mTerror, other.mTerror)
+                && Arrays.equals(mResources, other.mResources)
+                && Arrays.equals(mShipmentSpace, other.mShipmentSpace)
+                && Arrays.equals(mShipmentFaction, other.mShipmentFaction);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int)(mHash ^ mHash >>> 32);
+    }
+
+    /** Bytes write() puts into a buffer. */
+    static final int SAVED_BYTES = Spaces.COUNT * (PIECE_TYPES + 2) + 3 * 8 + FACTIONS + 3
+            + 2 * SHIPMENTS;
+
+    /**
+     * Put the whole state into out. The available pieces and the hash follow
+     * from the rest and are not written.
+     */
+    void write(ByteBuffer out) {
+        out.put(mPieces);
+        out.put(mSupport);
+        out.put(mTerror);
+        out.putLong(mSabotage);
+        out.putLong(mFarcZones);
+        out.putLong(mEvents);
+        out.put(mResources);
+        out.put((byte)mAid);
+        out.put((byte)mPresident);
+        out.put((byte)mEligible);
+        out.put(mShipmentSpace);
+        out.put(mShipmentFaction);
+    }
+
+    /**
+     * Replace the state by one written with write(). Not recorded in the
+     * history, the caller resets it.
+     */
+    void read(ByteBuffer in) {
+        in.get(mPieces);
+        in.get(mSupport);
+        in.get(mTerror);
+        mSabotage = in.getLong();
+        mFarcZones = in.getLong();
+        mEvents = in.getLong();
+        in.get(mResources);
+        mAid = in.get();
+        mPresident = in.get();
+        mEligible = in.get();
+        in.get(mShipmentSpace);
+        in.get(mShipmentFaction);
+        for (int t = 0; t < PIECE_TYPES; t++) {
+            mAvailable[t] = (byte)FORCE_POOL[t];
+        }
+        for (int i = 0; i < mPieces.length; i++) {
+            mAvailable[poolType(i % PIECE_TYPES)] -= mPieces[i];
+        }
+        mHash = Zobrist.hash(this);
+    }
+
+    /**
+     * History recording the changes to this state, or null.
+     */
+    public History getHistory() {
+        return mHistory;
+    }
+
+    void setHistory(History history) {
+        mHistory = history;
+    }
+
+    /**
+     * Set one field of the state to value, keeping the available pieces and
+     * the hash up to date and recording the change. Every public change
+     * ends up here; History replays its deltas through it.
+     */
+    void set(int field, int index, int value) {
+        int old;
+        switch (field) {
+        case FIELD_PIECES:
+            old = mPieces[index];
+            mHash ^= Zobrist.pieces(index, old) ^ Zobrist.pieces(index, value);
+            mPieces[index] = (byte)value;
+            mAvailable[poolType(index % PIECE_TYPES)] -= value - old;
+            break;
+        case FIELD_SUPPORT:
+            old = mSupport[index];
+            mHash ^= Zobrist.support(index, old) ^ Zobrist.support(index, value);
+            mSupport[index] = (byte)value;
+            break;
+        case FIELD_TERROR:
+            old = mTerror[index];
+            mHash ^= Zobrist.terror(index, old) ^ Zobrist.terror(index, value);
+            mTerror[index] = (byte)value;
+            break;
+        case FIELD_SABOTAGE:
+            old = (int)(mSabotage >>> index & 1);
+            if (old != value) {
+                mHash ^= Zobrist.sabotage(index);
+                mSabotage ^= 1L << index;
+            }
+            break;
+        case FIELD_FARC_ZONE:
+            old = (int)(mFarcZones >>> index & 1);
+            if (old != value) {
+                mHash ^= Zobrist.farcZone(index);
+                mFarcZones ^= 1L << index;
+            }
+            break;
+        case FIELD_RESOURCES:
+            old = mResources[index];
+            mHash ^= Zobrist.resources(index, old) ^ Zobrist.resources(index, value);
+            mResources[index] = (byte)value;
+            break;
+        case FIELD_AID:
+            old = mAid;
+            mHash ^= Zobrist.aid(old) ^ Zobrist.aid(value);
+            mAid = value;
+            break;
+        case FIELD_PRESIDENT:
+            old = mPresident;
+            mHash ^= Zobrist.president(old) ^ Zobrist.president(value);
+            mPresident = value;
+            break;
+        case FIELD_ELIGIBLE:
+            old = mEligible;
+            mHash ^= Zobrist.eligible(old) ^ Zobrist.eligible(value);
+            mEligible = value;
+            break;
+        case FIELD_SHIPMENT: {
+            old = shipmentValue(mShipmentSpace[index], mShipmentFaction[index]);
+            int space = (value & 0xff) - 1;
+            int faction = (value >> 8) - 1;
+            mHash ^= Zobrist.shipment(index, mShipmentSpace[index], mShipmentFaction[index])
+                    ^ Zobrist.shipment(index, space, faction);
+            mShipmentSpace[index] = (byte)space;
+            mShipmentFaction[index] = (byte)faction;
+            break;
+        }
+        case FIELD_EVENT:
+            old = (int)(mEvents >>> index & 1);
+            if (old != value) {
+                mHash ^= Zobrist.event(index);
+                mEvents ^= 1L << index;
+            }
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown field " + field);
+        }
+        if (mHistory != null && old != value) {
+            mHistory.record(field, index, old, value);
+        }
+    }
+
+    // Space and faction of a shipment as one value for set()
+    private static int shipmentValue(int space, int faction) {
+        return space + 1 | faction + 1 << 8;
+    }
+
+    // Change the count at index i of mPieces by n
+    private void add(int i, int n) {
+        set(FIELD_PIECES, i, mPieces[i] + n);
+    }
+
+    // Pieces
+
+    public int count(int space, int type) {
+        return mPieces[space * PIECE_TYPES + type];
+    }
+
+    public int available(int type) {
+        return mAvailable[type];
+    }
+
+    /**
+     * Pieces of a faction in a space, or available when space is
+     * AVAILABLE.
+     */
+    public int pieces(int space, int faction) {
+        int first = faction * 3;
+        if (space == AVAILABLE) {
+            return mAvailable[first] + mAvailable[first + 1] + mAvailable[first + 2];
+        }
+        int i = space * PIECE_TYPES + first;
+        return mPieces[i] + mPieces[i + 1] + mPieces[i + 2];
+    }
+
+    public int bases(int space, int faction) {
+        return mPieces[space * PIECE_TYPES + baseType(faction)];
+    }
+
+    /**
+     * Troops and Police for the Government, guerrillas for the others.
+     */
+    public int cubesOrGuerrillas(int space, int faction) {
+        int i = space * PIECE_TYPES + faction * 3;
+        return mPieces[i] + mPieces[i + 1];
+    }
+
+    public static int baseType(int faction) {
+        return faction * 3 + 2;
+    }
+
+    public static int undergroundType(int faction) {
+        return faction * 3;
+    }
+
+    public static int activeType(int faction) {
+        return faction * 3 + 1;
+    }
+
+    public static boolean isBase(int type) {
+        return type % 3 == 2;
+    }
+
+    public static boolean isGuerrilla(int type) {
+        return type >= FARC_UNDERGROUND && !isBase(type);
+    }
+
+    // Guerrillas always return to the pool underground
+    private static int poolType(int type) {
+        return isGuerrilla(type) ? type - type % 3 : type;
+    }
+
+    /**
+     * Place n pieces from available into space.
+     */
+    public void place(int type, int space, int n) {
+        int pool = poolType(type);
+        if (mAvailable[pool] < n) {
+            throw new IllegalStateException("Only " + mAvailable[pool] + " available of type " + pool);
+        }
+        add(space * PIECE_TYPES + type, n);
+    }
+
+    /**
+     * Remove n pieces from space to available.
+     */
+    public void remove(int type, int space, int n) {
+        int i = space * PIECE_TYPES + type;
+        if (mPieces[i] < n) {
+            throw new IllegalStateException("Only " + mPieces[i] + " of type " + type + " in "
+                    + Spaces.NAME[space]);
+        }
+        add(i, -n);
+    }
+
+    /**
+     * Move n pieces between locations, either of which may be AVAILABLE.
+     */
+    public void move(int type, int from, int to, int n) {
+        if (from == to) {
+            return;
+        }
+        if (from == AVAILABLE) {
+            place(type, to, n);
+        } else if (to == AVAILABLE) {
+            remove(type, from, n);
+        } else {
+            int i = from * PIECE_TYPES + type;
+            if (mPieces[i] < n) {
+                throw new IllegalStateException("Only " + mPieces[i] + " of type " + type
+                        + " in " + Spaces.NAME[from]);
+            }
+            add(i, -n);
+            add(to * PIECE_TYPES + type, n);
+        }
+    }
+
+    /**
+     * Turn n guerrillas of a faction in space from underground to active,
+     * or back when n is negative.
+     */
+    public void activate(int space, int faction, int n) {
+        int i = space * PIECE_TYPES + faction * 3;
+        if (mPieces[i] < n || mPieces[i + 1] < -n) {
+            throw new IllegalStateException("Cannot flip " + n + " guerrillas in "
+                    + Spaces.NAME[space]);
+        }
+        add(i, -n);
+        add(i + 1, n);
+    }
+
+    // Markers
+
+    public int support(int space) {
+        return mSupport[space];
+    }
+
+    public void setSupport(int space, int level) {
+        if (level != NEUTRAL && !Spaces.isPopulated(space)) {
+            throw new IllegalArgumentException(Spaces.NAME[space] + " has no population");
+        }
+        set(FIELD_SUPPORT, space, Math.max(ACTIVE_OPPOSITION, Math.min(level, ACTIVE_SUPPORT)));
+    }
+
+    public int terror(int space) {
+        return mTerror[space];
+    }
+
+    public void setTerror(int space, int n) {
+        set(FIELD_TERROR, space, n);
+    }
+
+    public boolean isSabotaged(int loc) {
+        return (mSabotage & 1L << loc) != 0;
+    }
+
+    public void setSabotage(int loc, boolean sabotaged) {
+        set(FIELD_SABOTAGE, loc, sabotaged ? 1 : 0);
+    }
+
+    public long getSabotage() {
+        return mSabotage;
+    }
+
+    public boolean isFarcZone(int space) {
+        return (mFarcZones & 1L << space) != 0;
+    }
+
+    public void setFarcZone(int space, boolean zone) {
+        set(FIELD_FARC_ZONE, space, zone ? 1 : 0);
+    }
+
+    public long getFarcZones() {
+        return mFarcZones;
+    }
+
+    // Tracks
+
+    public int resources(int faction) {
+        return mResources[faction];
+    }
+
+    public void setResources(int faction, int n) {
+        set(FIELD_RESOURCES, faction, Math.max(0, Math.min(n, MAX_RESOURCES)));
+    }
+
+    public void addResources(int faction, int n) {
+        setResources(faction, mResources[faction] + n);
+    }
+
+    public int getAid() {
+        return mAid;
+    }
+
+    public void setAid(int aid) {
+        set(FIELD_AID, 0, Math.max(0, Math.min(aid, MAX_RESOURCES)));
+    }
+
+    public int getPresident() {
+        return mPresident;
+    }
+
+    public void setPresident(int president) {
+        set(FIELD_PRESIDENT, 0, president);
+    }
+
+    public boolean isEligible(int faction) {
+        return (mEligible & 1 << faction) != 0;
+    }
+
+    public void setEligible(int faction, boolean eligible) {
+        set(FIELD_ELIGIBLE, 0, eligible ? mEligible | 1 << faction : mEligible & ~(1 << faction));
+    }
+
+    public int shipmentSpace(int shipment) {
+        return mShipmentSpace[shipment];
+    }
+
+    public int shipmentFaction(int shipment) {
+        return mShipmentFaction[shipment];
+    }
+
+    /**
+     * Give a shipment to a guerrilla of faction in space, or return it with
+     * space AVAILABLE.
+     */
+    public void setShipment(int shipment, int space, int faction) {
+        if (space == AVAILABLE) {
+            faction = NO_FACTION;
+        }
+        set(FIELD_SHIPMENT, shipment, shipmentValue(space, faction));
+    }
+
+    public boolean isEventInPlay(int event) {
+        return (mEvents & 1L << event) != 0;
+    }
+
+    public void setEventInPlay(int event, boolean inPlay) {
+        set(FIELD_EVENT, event, inPlay ? 1 : 0);
+    }
+
+    public long getEvents() {
+        return mEvents;
+    }
+
+    // Derived values
+
+    /**
+     * GOV if Government pieces outnumber all others in space, FARC if FARC
+     * pieces do, NO_FACTION otherwise.
+     */
+    public int control(int space) {
+        int i = space * PIECE_TYPES;
+        int gov = mPieces[i] + mPieces[i + 1] + mPieces[i + 2];
+        int farc = mPieces[i + 3] + mPieces[i + 4] + mPieces[i + 5];
+        int others = mPieces[i + 6] + mPieces[i + 7] + mPieces[i + 8]
+                + mPieces[i + 9] + mPieces[i + 10] + mPieces[i + 11];
+        if (gov > farc + others) {
+            return GOV;
+        }
+        if (farc > gov + others) {
+            return FARC;
+        }
+        return NO_FACTION;
+    }
+
+    /** Population times support level over all Supporting spaces. */
+    public int totalSupport() {
+        int total = 0;
+        for (int s = 0; s < Spaces.COUNT; s++) {
+            if (mSupport[s] > 0) {
+                total += mSupport[s] * Spaces.POP[s];
+            }
+        }
+        return total;
+    }
+
+    /** Population times opposition level over all Opposing spaces. */
+    public int totalOpposition() {
+        int total = 0;
+        for (int s = 0; s < Spaces.COUNT; s++) {
+            if (mSupport[s] < 0) {
+                total -= mSupport[s] * Spaces.POP[s];
+            }
+        }
+        return total;
+    }
+
+    /** Econ of all LoCs that are not sabotaged. */
+    public int totalEcon() {
+        int total = 0;
+        for (int s = 0; s < Spaces.COUNT; s++) {
+            if (Spaces.ECON[s] > 0 && !isSabotaged(s)) {
+                total += Spaces.ECON[s];
+            }
+        }
+        return total;
+    }
+
+    public int piecesOnMap(int faction) {
+        int total = 0;
+        for (int s = 0; s < Spaces.COUNT; s++) {
+            total += pieces(s, faction);
+        }
+        return total;
+    }
+
+    public int basesOnMap(int faction) {
+        return FORCE_POOL[baseType(faction)] - mAvailable[baseType(faction)];
+    }
+
+    /**
+     * Victory margin of a faction, positive if its victory condition is
+     * met: Total Support over 60 for the Government, Opposition plus bases
+     * over 25 for the FARC, more pieces than the FARC for the AUC and more
+     * than 10 bases and 40 resources for the Cartels.
+     */
+    public int victoryMargin(int faction) {
+        switch (faction) {
+        case GOV:
+            return totalSupport() - 60;
+        case FARC:
+            return totalOpposition() + basesOnMap(FARC) - 25;
+        case AUC:
+            return piecesOnMap(AUC) - piecesOnMap(FARC);
+        default:
+            return Math.min(basesOnMap(CARTELS) - 10, resources(CARTELS) - 40);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.dnasystems.andeanabyss.game;
+
+/**
+ * Undo and redo log of a GameState. Every change to the state is recorded
+ * as one delta, a long holding the field, index, old and new value, so
+ * undoing or redoing a move costs as much as the move itself. The deltas
+ * since the last {@link #commit} form the next entry, usually one piece drop
+ * or one bot move.
+ *
+ * The log has a fixed size. When it fills up, the oldest half of the
+ * entries are folded into a checkpoint, the state before the oldest entry
+ * that can still be undone, so a game of any length takes the same memory.
+ *
+ * Not thread safe, use it on the thread that changes the state.
+ */
+public final class History {
+
+    public static final int DEFAULT_DELTAS = 1 << 14;
+    public static final int DEFAULT_ENTRIES = 1 << 10;
+
+    private final GameState mState;
+    private final GameState mCheckpoint = new GameState();
+    private final long[] mDeltas;
+    // End of each entry in mDeltas
+    private final int[] mEnds;
+    private int mSize;
+    private int mEntries;
+    // Entries applied to the state, the ones after it can be redone
+    private int mCurrent;
+    private int mCompactions;
+    private boolean mReplaying;
+
+    public History(GameState state) {
+        this(state, DEFAULT_DELTAS, DEFAULT_ENTRIES);
+    }
+
+    /**
+     * Record the changes of state from now on; state keeps a reference
+     * to this history until another one is attached.
+     */
+    public History(GameState state, int deltas, int entries) {
+        mState = state;
+        mDeltas = new long[deltas];
+        mEnds = new int[entries];
+        state.setHistory(this);
+        reset();
+    }
+
+    /**
+     * Forget all entries and take the current state as the checkpoint.
+     * GameState.clear() and copyFrom() call it.
+     */
+    public void reset() {
+        mCheckpoint.copyFrom(mState);
+        mSize = 0;
+        mEntries = 0;
+        mCurrent = 0;
+    }
+
+    /**
+     * Close the deltas recorded since the last commit into one entry.
+     *
+     * @return false if nothing changed since the last commit
+     */
+    public boolean commit() {
+        if (mSize == start(mEntries)) {
+            return false;
+        }
+        mEnds[mEntries++] = mSize;
+        mCurrent = mEntries;
+        return true;
+    }
+
+    public boolean canUndo() {
+        return mCurrent > 0 || mSize > start(mEntries);
+    }
+
+    public boolean canRedo() {
+        return mCurrent < mEntries;
+    }
+
+    /**
+     * Take back the last entry, committing any open deltas first.
+     *
+     * @return false if there is nothing to undo
+     */
+    public boolean undo() {
+        commit();
+        if (mCurrent == 0) {
+            return false;
+        }
+        mReplaying = true;
+        for (int i = mEnds[mCurrent - 1] - 1; i >= start(mCurrent - 1); i--) {
+            long d = mDeltas[i];
+            mState.set(field(d), index(d), oldValue(d));
+        }
+        mReplaying = false;
+        mCurrent--;
+        return true;
+    }
+
+    /**
+     * Play the last undone entry again.
+     *
+     * @return false if there is nothing to redo
+     */
+    public boolean redo() {
+        if (mCurrent == mEntries) {
+            return false;
+        }
+        mReplaying = true;
+        for (int i = start(mCurrent); i < mEnds[mCurrent]; i++) {
+            long d = mDeltas[i];
+            mState.set(field(d), index(d), newValue(d));
+        }
+        mReplaying = false;
+        mCurrent++;
+        return true;
+    }
+
+    /**
+     * State before the oldest entry still in the log.
+     */
+    public GameState getCheckpoint() {
+        return mCheckpoint;
+    }
+
+    /**
+     * Entries that can be undone.
+     */
+    public int getUndoCount() {
+        return mCurrent;
+    }
+
+    public int getRedoCount() {
+        return mEntries - mCurrent;
+    }
+
+    public int getDeltaCount() {
+        return mSize;
+    }
+
+    public int getCompactions() {
+        return mCompactions;
+    }
+
+    public int getMemoryBytes() {
+        return mDeltas.length * 8 + mEnds.length * 4;
+    }
+
+    // Called by GameState.set() for every change
+    void record(int field, int index, int oldValue, int newValue) {
+        if (mReplaying) {
+            return;
+        }
+        // A new change drops the entries that could be redone
+        if (mCurrent < mEntries) {
+            mSize = start(mCurrent);
+            mEntries = mCurrent;
+        }
+        if (mSize == mDeltas.length || mEntries == mEnds.length) {
+            compact();
+        }
+        mDeltas[mSize++] = field | (long)index << 4 | (oldValue & 0xffffL) << 16
+                | (newValue & 0xffffL) << 32;
+    }
+
+    // Fold the oldest half of the entries into the checkpoint. With no
+    // committed entries the open ones go, so the log never overflows.
+    private void compact() {
+        int entries = mEntries > 1 ? mEntries / 2 : mEntries;
+        int deltas = entries > 0 ? mEnds[entries - 1] : mSize;
+        for (int i = 0; i < deltas; i++) {
+            long d = mDeltas[i];
+            mCheckpoint.set(field(d), index(d), newValue(d));
+        }
+        System.arraycopy(mDeltas, deltas, mDeltas, 0, mSize - deltas);
+        mSize -= deltas;
+        for (int e = entries; e < mEntries; e++) {
+            mEnds[e - entries] = mEnds[e] - deltas;
+        }
+        mEntries -= entries;
+        mCurrent -= entries;
+        mCompactions++;
+    }
+
+    // Start of entry e, the end of the one before
+    private int start(int e) {
+        return e > 0 ? mEnds[e - 1] : 0;
+    }
+
+    private static int field(long delta) {
+        return (int)delta & 0xf;
+    }
+
+    private static int index(long delta) {
+        return (int)(delta >>> 4) & 0xfff;
+    }
+
+    private static int oldValue(long delta) {
+        return (short)(delta >>> 16);
+    }
+
+    private static int newValue(long delta) {
+        return (short)(delta >>> 32);
+    }
+}
@@ -0,0 +1,341 @@
+package com.dnasystems.andeanabyss.game;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Monte Carlo tree search bot for any faction. The search is root
+ * parallel: every worker grows its own tree from the same position for
+ * the whole time budget, then the root visit counts are summed and the
+ * most visited move wins. Trees live in preallocated arrays that are
+ * reused by every search, so long searches make no garbage.
+ *
+ * The factions move in turn, Government, FARC, AUC, Cartels, one move each;
+ * playouts are cut off after a fixed depth and scored by the victory
+ * margins, so every faction plays for its own margin.
+ *
+ * With a {@link TranspositionTable} set, the workers share rollout results
+ * by state: every leaf still rolls out, the rollout is folded into the
+ * running mean rewards the table keeps for the leaf's state, and that mean
+ * is backed up instead of the single rollout.
+ *
+ * Use {@link #think} from the GL or UI thread, it returns at once.
+ */
+public class Mcts {
+
+    public static final int DEFAULT_NODES = 1 << 17;
+    private static final int ROLLOUT_DEPTH = 24;
+    private static final float EXPLORATION = 1.0f;
+
+    private final ExecutorService mWorkers;
+    private final ExecutorService mCoordinator;
+    private final Searcher[] mSearchers;
+    private final List<Callable<Void>> mTasks;
+    private volatile TranspositionTable mTable;
+    private volatile long mLastPlayouts;
+    private volatile long mLastNanos;
+    private volatile long mLastTableHits;
+
+    /**
+     * @param threads search threads
+     * @param nodes tree nodes per thread, the tree stops growing when they
+     *        run out and the search goes on with playouts only
+     */
+    public Mcts(int threads, int nodes) {
+        ThreadFactory factory = new ThreadFactory() {
+            private int mCount = 0;
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Mcts-" + mCount++);
+                t.setDaemon(true);
+                t.setPriority(Thread.NORM_PRIORITY - 1);
+                return t;
+            }
+        };
+        mWorkers = Executors.newFixedThreadPool(threads, factory);
+        mCoordinator = Executors.newSingleThreadExecutor(factory);
+        mSearchers = new Searcher[threads];
+        mTasks = new ArrayList<Callable<Void>>(threads);
+        for (int i = 0; i < threads; i++) {
+            // The root always has room for all its children
+            mSearchers[i] = new Searcher(Math.max(nodes, Rules.MAX_MOVES + 1), i);
+            mTasks.add(mSearchers[i]);
+        }
+    }
+
+    /**
+     * Share rollout results through table from the next search on, or stop
+     * sharing if null. The table may be shared with other bots.
+     */
+    public void setTable(TranspositionTable table) {
+        mTable = table;
+    }
+
+    public TranspositionTable getTable() {
+        return mTable;
+    }
+
+    /**
+     * Start a search in the background. root is copied, the caller may
+     * change it right away.
+     *
+     * @param done run on the search thread when the move is ready, may be
+     *        null
+     */
+    public Future<Integer> think(GameState root, final int faction, final long budgetNanos,
+            final Runnable done) {
+        final GameState copy = new GameState(root);
+        return mCoordinator.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                try {
+                    return search(copy, faction, budgetNanos);
+                } finally {
+                    if (done != null) {
+                        done.run();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Search for budgetNanos on all threads and return the best move of
+     * faction. Blocks, so never call it on the GL thread.
+     */
+    public int search(GameState root, int faction, long budgetNanos) throws InterruptedException {
+        long start = System.nanoTime();
+        long deadline = start + budgetNanos;
+        for (Searcher searcher : mSearchers) {
+            searcher.prepare(root, faction, deadline, mTable);
+        }
+        try {
+            for (Future<Void> f : mWorkers.invokeAll(mTasks)) {
+                f.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+
+        // All trees expanded the same root moves in the same order
+        Searcher first = mSearchers[0];
+        int children = first.mChildCount[0];
+        int best = 0;
+        long bestVisits = -1;
+        long playouts = 0;
+        for (int c = 0; c < children; c++) {
+            long visits = 0;
+            for (Searcher searcher : mSearchers) {
+                visits += searcher.mVisits[searcher.mFirstChild[0] + c];
+            }
+            if (visits > bestVisits) {
+                bestVisits = visits;
+                best = c;
+            }
+        }
+        long tableHits = 0;
+        for (Searcher searcher : mSearchers) {
+            playouts += searcher.mPlayouts;
+            tableHits += searcher.mTableHits;
+        }
+        mLastPlayouts = playouts;
+        mLastTableHits = tableHits;
+        mLastNanos = System.nanoTime() - start;
+        return first.mMove[first.mFirstChild[0] + best];
+    }
+
+    public long getLastPlayouts() {
+        return mLastPlayouts;
+    }
+
+    /**
+     * Playouts of the last search whose leaf state already had rollouts in
+     * the table. Every playout rolls out, hits only mean the backed up
+     * rewards were averaged with earlier rollouts.
+     */
+    public long getLastTableHits() {
+        return mLastTableHits;
+    }
+
+    public double getLastPlayoutsPerSecond() {
+        return mLastNanos > 0 ? mLastPlayouts * 1e9 / mLastNanos : 0;
+    }
+
+    public void shutdown() {
+        mCoordinator.shutdownNow();
+        mWorkers.shutdownNow();
+    }
+
+    /**
+     * Score of a position for a faction in [0, 1], 0.5 at a victory
+     * margin of 0.
+     */
+    static float reward(GameState s, int faction) {
+        float margin = s.victoryMargin(faction);
+        return 0.5f + 0.5f * margin / (Math.abs(margin) + 10.0f);
+    }
+
+    // One tree. Node i's children are mChildCount[i] consecutive nodes
+    // starting at mFirstChild[i], -1 until the node is expanded.
+    private static final class Searcher implements Callable<Void> {
+        final int[] mMove;
+        final int[] mParent;
+        final int[] mFirstChild;
+        final int[] mChildCount;
+        final int[] mVisits;
+        final float[] mWins;
+        int mSize;
+        long mPlayouts;
+        long mTableHits;
+
+        private final Random mRandom;
+        private final GameState mState = new GameState();
+        private final int[] mMoves = new int[Rules.MAX_MOVES];
+        private final float[] mReward = new float[GameState.FACTIONS];
+        private GameState mRoot;
+        private int mFaction;
+        private long mDeadline;
+        private TranspositionTable mTable;
+
+        Searcher(int nodes, int seed) {
+            mMove = new int[nodes];
+            mParent = new int[nodes];
+            mFirstChild = new int[nodes];
+            mChildCount = new int[nodes];
+            mVisits = new int[nodes];
+            mWins = new float[nodes];
+            mRandom = new Random(seed);
+        }
+
+        void prepare(GameState root, int faction, long deadline, TranspositionTable table) {
+            mRoot = root;
+            mFaction = faction;
+            mDeadline = deadline;
+            mTable = table;
+        }
+
+        @Override
+        public Void call() {
+            mSize = 1;
+            mPlayouts = 0;
+            mTableHits = 0;
+            mParent[0] = -1;
+            mFirstChild[0] = -1;
+            mVisits[0] = 0;
+            mState.copyFrom(mRoot);
+            expand(0, mFaction);
+            do {
+                // Check the clock every few playouts only
+                for (int i = 0; i < 16; i++) {
+                    playout();
+                }
+            } while (System.nanoTime() < mDeadline);
+            return null;
+        }
+
+        private void playout() {
+            GameState s = mState;
+            s.copyFrom(mRoot);
+            int node = 0;
+            int toMove = mFaction;
+            // Select
+            while (mFirstChild[node] >= 0 && mChildCount[node] > 0) {
+                node = select(node);
+                Rules.apply(s, mMove[node], mRandom);
+                toMove = (toMove + 1) % GameState.FACTIONS;
+            }
+            // Expand once a leaf has been visited
+            if (mVisits[node] > 0 && expand(node, toMove)) {
+                node = mFirstChild[node] + mRandom.nextInt(mChildCount[node]);
+                Rules.apply(s, mMove[node], mRandom);
+                toMove = (toMove + 1) % GameState.FACTIONS;
+            }
+            // The rollout plays on in s, hash the leaf first
+            long hash = mTable != null ? s.hash() ^ Zobrist.toMove(toMove) : 0;
+            rollout(s, toMove);
+            if (mTable != null) {
+                // Fold this rollout into the running means of the state and
+                // back up the means. Concurrent stores to one entry may lose
+                // a rollout, which only weakens the mean a little.
+                long data = mTable.probe(hash);
+                int count = TranspositionTable.count(data);
+                if (count > 0) {
+                    mTableHits++;
+                }
+                for (int f = 0; f < GameState.FACTIONS; f++) {
+                    float mean = count > 0 ? TranspositionTable.reward(data, f) : 0;
+                    mReward[f] = (mean * count + mReward[f]) / (count + 1);
+                }
+                mTable.store(hash, TranspositionTable.pack(count + 1, mReward));
+            }
+            // Every node scores for the faction that made its move
+            for (; node >= 0; node = mParent[node]) {
+                mVisits[node]++;
+                if (node > 0) {
+                    mWins[node] += mReward[Move.faction(mMove[node])];
+                }
+            }
+            mPlayouts++;
+        }
+
+        // Play random moves from s and score the result into mReward
+        private void rollout(GameState s, int toMove) {
+            for (int d = 0; d < ROLLOUT_DEPTH; d++) {
+                int n = Rules.generate(s, toMove, mMoves);
+                Rules.apply(s, mMoves[mRandom.nextInt(n)], mRandom);
+                toMove = (toMove + 1) % GameState.FACTIONS;
+            }
+            for (int f = 0; f < GameState.FACTIONS; f++) {
+                mReward[f] = reward(s, f);
+            }
+        }
+
+        private int select(int node) {
+            int first = mFirstChild[node];
+            int end = first + mChildCount[node];
+            double logParent = Math.log(mVisits[node] + 1);
+            int best = first;
+            double bestScore = -1;
+            for (int c = first; c < end; c++) {
+                int v = mVisits[c];
+                if (v == 0) {
+                    return c;
+                }
+                double score = mWins[c] / v + EXPLORATION * Math.sqrt(logParent / v);
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = c;
+                }
+            }
+            return best;
+        }
+
+        // Add the children of node for the moves of faction in mState
+        private boolean expand(int node, int faction) {
+            int n = Rules.generate(mState, faction, mMoves);
+            if (mSize + n > mMove.length) {
+                return false;
+            }
+            mFirstChild[node] = mSize;
+            mChildCount[node] = n;
+            for (int i = 0; i < n; i++) {
+                int c = mSize++;
+                mMove[c] = mMoves[i];
+                mParent[c] = node;
+                mFirstChild[c] = -1;
+                mChildCount[c] = 0;
+                mVisits[c] = 0;
+                mWins[c] = 0;
+            }
+            return true;
+        }
+    }
+}
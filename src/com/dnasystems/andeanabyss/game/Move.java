@@ -0,0 +1,108 @@
+package com.dnasystems.andeanabyss.game;
+
+/**
+ * Moves packed into an int so move lists are plain int arrays:
+ *
+ * <pre>
+ * bits  0-4   kind, an Operation or Special Activity
+ * bits  5-6   faction
+ * bits  7-12  target space
+ * bits 13-18  source space for movement, NONE otherwise
+ * bits 19-22  piece type moved or placed
+ * bits 23-27  piece count</pre>
+ *
+ * Every move is one Operation or Special Activity in one space; a turn
+ * selecting several spaces is a sequence of moves.
+ */
+public final class Move {
+
+    public static final int PASS = 0;
+    // Government Operations
+    public static final int TRAIN = 1;
+    public static final int TRAIN_BASE = 2;
+    public static final int CIVIC_ACTION = 3;
+    public static final int PATROL = 4;
+    public static final int SWEEP = 5;
+    public static final int ASSAULT = 6;
+    // Insurgent Operations
+    public static final int RALLY = 7;
+    public static final int RALLY_BASE = 8;
+    public static final int RALLY_FLIP = 9;
+    public static final int MARCH = 10;
+    public static final int ATTACK = 11;
+    public static final int TERROR = 12;
+    // Special Activities
+    public static final int AIR_LIFT = 13;
+    public static final int AIR_STRIKE = 14;
+    public static final int ERADICATE = 15;
+    public static final int EXTORT = 16;
+    public static final int AMBUSH = 17;
+    public static final int ASSASSINATE = 18;
+    public static final int CULTIVATE = 19;
+    public static final int PROCESS = 20;
+    public static final int BRIBE = 21;
+    public static final int KINDS = 22;
+
+    /** No source space. */
+    public static final int NONE = 63;
+
+    public static final String[] KIND_NAME = {
+        "Pass", "Train", "Train base", "Civic Action", "Patrol", "Sweep", "Assault",
+        "Rally", "Rally base", "Rally flip", "March", "Attack", "Terror",
+        "Air Lift", "Air Strike", "Eradicate", "Extort", "Ambush", "Assassinate",
+        "Cultivate", "Process", "Bribe",
+    };
+
+    private Move() {
+    }
+
+    public static int encode(int kind, int faction, int space, int from, int type, int count) {
+        return kind | faction << 5 | space << 7 | from << 13 | type << 19 | count << 23;
+    }
+
+    public static int pass(int faction) {
+        return encode(PASS, faction, NONE, NONE, 0, 0);
+    }
+
+    public static int kind(int move) {
+        return move & 0x1f;
+    }
+
+    public static int faction(int move) {
+        return move >>> 5 & 0x3;
+    }
+
+    public static int space(int move) {
+        return move >>> 7 & 0x3f;
+    }
+
+    public static int from(int move) {
+        return move >>> 13 & 0x3f;
+    }
+
+    public static int type(int move) {
+        return move >>> 19 & 0xf;
+    }
+
+    public static int count(int move) {
+        return move >>> 23 & 0x1f;
+    }
+
+    public static boolean isSpecialActivity(int move) {
+        return kind(move) >= AIR_LIFT;
+    }
+
+    public static String toString(int move) {
+        StringBuilder sb = new StringBuilder(KIND_NAME[kind(move)]);
+        if (space(move) != NONE) {
+            sb.append(' ').append(Spaces.NAME[space(move)]);
+        }
+        if (from(move) != NONE) {
+            sb.append(" from ").append(Spaces.NAME[from(move)]);
+        }
+        if (count(move) > 0) {
+            sb.append(", ").append(count(move)).append(" of type ").append(type(move));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,573 @@
+package com.dnasystems.andeanabyss.game;
+
+import java.util.Random;
+
+/**
+ * Legal move generation and move execution for the four factions.
+ *
+ * {@link #generate} writes the legal moves of a faction into a caller
+ * supplied int array and allocates nothing, so it can run inside search
+ * loops and on every drag. Every Operation and Special Activity is
+ * generated per space with one canonical choice of pieces, e.g. Train
+ * places as many cubes as allowed and March moves every guerrilla of the
+ * source space; a player can always do less by hand.
+ *
+ * The rules are the core Operations and Special Activities of Andean
+ * Abyss without events, capabilities and the Propaganda round.
+ */
+public final class Rules {
+
+    /** Upper bound of the moves generate() returns. */
+    public static final int MAX_MOVES = 4096;
+
+    public static final int GOV_COST = 3;
+    public static final int INSURGENT_COST = 1;
+    public static final int MAX_BASES = 2;
+    public static final int TRAIN_CUBES = 6;
+    public static final int AIR_LIFT_TROOPS = 3;
+
+    // Enemy factions in the order their pieces are removed
+    private static final int[][] TARGETS = {
+        {GameState.FARC, GameState.AUC, GameState.CARTELS},
+        {GameState.GOV, GameState.AUC, GameState.CARTELS},
+        {GameState.FARC, GameState.CARTELS, GameState.GOV},
+        {GameState.GOV, GameState.FARC, GameState.AUC},
+    };
+
+    private static final long CITIES_AND_LOCS = Spaces.CITIES | Spaces.LOCS;
+
+    private Rules() {
+    }
+
+    /**
+     * Write the legal moves of faction into moves, which must hold
+     * MAX_MOVES entries. Passing is always legal and comes first.
+     *
+     * @return the number of moves
+     */
+    public static int generate(GameState s, int faction, int[] moves) {
+        int n = 0;
+        moves[n++] = Move.pass(faction);
+        if (faction == GameState.GOV) {
+            n = generateGov(s, moves, n);
+        } else {
+            n = generateInsurgent(s, faction, moves, n);
+        }
+        return n;
+    }
+
+    private static int generateGov(GameState s, int[] moves, int n) {
+        final int f = GameState.GOV;
+        boolean pay = s.resources(f) >= GOV_COST;
+        for (int sp = 0; sp < Spaces.COUNT; sp++) {
+            int type = Spaces.type(sp);
+            boolean zone = s.isFarcZone(sp);
+            int troops = s.count(sp, GameState.TROOPS);
+            int police = s.count(sp, GameState.POLICE);
+            if (pay && type != Spaces.LOC) {
+                if (type == Spaces.CITY || s.bases(sp, f) > 0) {
+                    for (int cube = GameState.TROOPS; cube <= GameState.POLICE; cube++) {
+                        int avail = s.available(cube);
+                        if (avail > 0) {
+                            moves[n++] = Move.encode(Move.TRAIN, f, sp, Move.NONE, cube,
+                                    Math.min(TRAIN_CUBES, avail));
+                        }
+                    }
+                }
+                if (!zone && s.control(sp) == f && troops + police >= 3
+                        && totalBases(s, sp) < MAX_BASES && s.available(GameState.GOV_BASE) > 0) {
+                    moves[n++] = Move.encode(Move.TRAIN_BASE, f, sp, Move.NONE,
+                            GameState.GOV_BASE, 1);
+                }
+                if (s.control(sp) == f && troops > 0 && police > 0 && Spaces.isPopulated(sp)
+                        && (s.terror(sp) > 0 || s.support(sp) < GameState.ACTIVE_SUPPORT)) {
+                    moves[n++] = Move.encode(Move.CIVIC_ACTION, f, sp, Move.NONE, 0, 0);
+                }
+            }
+            if (pay && type != Spaces.DEPARTMENT) {
+                // Patrol cubes along LoCs and into Cities
+                for (long m = Spaces.ADJACENT[sp] & CITIES_AND_LOCS; m != 0; m &= m - 1) {
+                    int from = Long.numberOfTrailingZeros(m);
+                    for (int cube = GameState.TROOPS; cube <= GameState.POLICE; cube++) {
+                        int c = s.count(from, cube);
+                        if (c > 0) {
+                            moves[n++] = Move.encode(Move.PATROL, f, sp, from, cube, c);
+                        }
+                    }
+                }
+            }
+            if (pay && type != Spaces.LOC && !zone) {
+                if (troops + police > 0 && undergroundEnemies(s, f, sp) > 0) {
+                    moves[n++] = Move.encode(Move.SWEEP, f, sp, Move.NONE, GameState.TROOPS, 0);
+                }
+                for (long m = Spaces.ADJACENT[sp]; m != 0; m &= m - 1) {
+                    int from = Long.numberOfTrailingZeros(m);
+                    int c = s.count(from, GameState.TROOPS);
+                    if (c > 0) {
+                        moves[n++] = Move.encode(Move.SWEEP, f, sp, from, GameState.TROOPS, c);
+                    }
+                }
+            }
+            if (pay && !zone && assaultDamage(s, sp) > 0 && canRemove(s, f, sp, false)) {
+                moves[n++] = Move.encode(Move.ASSAULT, f, sp, Move.NONE, 0, 0);
+            }
+            // Special Activities are free
+            if (troops > 0) {
+                int c = Math.min(AIR_LIFT_TROOPS, troops);
+                for (int to = 0; to < Spaces.COUNT; to++) {
+                    if (to != sp) {
+                        moves[n++] = Move.encode(Move.AIR_LIFT, f, to, sp, GameState.TROOPS, c);
+                    }
+                }
+            }
+            if (!zone && type != Spaces.CITY && activeEnemies(s, f, sp) > 0) {
+                moves[n++] = Move.encode(Move.AIR_STRIKE, f, sp, Move.NONE, 0, 0);
+            }
+            if (type == Spaces.DEPARTMENT && troops > 0
+                    && s.bases(sp, GameState.CARTELS) > 0) {
+                moves[n++] = Move.encode(Move.ERADICATE, f, sp, Move.NONE,
+                        GameState.CARTELS_BASE, 1);
+            }
+        }
+        return n;
+    }
+
+    private static int generateInsurgent(GameState s, int f, int[] moves, int n) {
+        int ug = GameState.undergroundType(f);
+        int act = GameState.activeType(f);
+        int baseType = GameState.baseType(f);
+        boolean pay = s.resources(f) >= INSURGENT_COST;
+        for (int sp = 0; sp < Spaces.COUNT; sp++) {
+            int type = Spaces.type(sp);
+            int u = s.count(sp, ug);
+            int a = s.count(sp, act);
+            int bases = s.count(sp, baseType);
+            int enemies = enemyPieces(s, f, sp);
+            if (pay && type != Spaces.LOC && canRally(s, f, sp)) {
+                int avail = s.available(ug);
+                if (avail > 0) {
+                    int c = bases > 0 ? Spaces.POP[sp] + bases : 1;
+                    moves[n++] = Move.encode(Move.RALLY, f, sp, Move.NONE, ug, Math.min(c, avail));
+                }
+                if (bases > 0 && a > 0) {
+                    moves[n++] = Move.encode(Move.RALLY_FLIP, f, sp, Move.NONE, ug, a);
+                }
+                if (u + a >= 2 && totalBases(s, sp) < MAX_BASES && s.available(baseType) > 0) {
+                    moves[n++] = Move.encode(Move.RALLY_BASE, f, sp, Move.NONE, baseType, 1);
+                }
+            }
+            if (pay || type == Spaces.LOC) {
+                for (long m = Spaces.ADJACENT[sp]; m != 0; m &= m - 1) {
+                    int from = Long.numberOfTrailingZeros(m);
+                    int c = s.count(from, ug) + s.count(from, act);
+                    if (c > 0) {
+                        moves[n++] = Move.encode(Move.MARCH, f, sp, from, ug, c);
+                    }
+                }
+            }
+            if (pay && u + a > 0 && enemies > 0 && canRemove(s, f, sp, false)) {
+                moves[n++] = Move.encode(Move.ATTACK, f, sp, Move.NONE, 0, 0);
+            }
+            if ((pay || type == Spaces.LOC) && u > 0
+                    && (type == Spaces.LOC ? !s.isSabotaged(sp) : Spaces.isPopulated(sp))) {
+                moves[n++] = Move.encode(Move.TERROR, f, sp, Move.NONE, 0, 0);
+            }
+            // Special Activities
+            switch (f) {
+            case GameState.FARC:
+            case GameState.AUC:
+                if (u > 0 && type != Spaces.LOC && dominates(s, f, sp)) {
+                    moves[n++] = Move.encode(Move.EXTORT, f, sp, Move.NONE, 0, 0);
+                }
+                if (u > 0 && enemies > 0 && canRemove(s, f, sp, false)) {
+                    moves[n++] = Move.encode(Move.AMBUSH, f, sp, Move.NONE, 0, 0);
+                }
+                if (f == GameState.AUC && u > 0 && enemies > 0
+                        && u + a > s.count(sp, GameState.POLICE)) {
+                    moves[n++] = Move.encode(Move.ASSASSINATE, f, sp, Move.NONE, 0, 0);
+                }
+                break;
+            default:
+                if (type != Spaces.LOC && u + a > s.count(sp, GameState.POLICE)
+                        && totalBases(s, sp) < MAX_BASES && s.available(baseType) > 0) {
+                    moves[n++] = Move.encode(Move.CULTIVATE, f, sp, Move.NONE, baseType, 1);
+                }
+                if (bases > 0) {
+                    moves[n++] = Move.encode(Move.PROCESS, f, sp, Move.NONE, baseType, 1);
+                }
+                if (s.resources(f) >= GOV_COST && enemies > 0 && canRemove(s, f, sp, true)) {
+                    moves[n++] = Move.encode(Move.BRIBE, f, sp, Move.NONE, 0, 0);
+                }
+                break;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Play a legal move. Attack rolls its die with rnd.
+     */
+    public static void apply(GameState s, int move, Random rnd) {
+        int f = Move.faction(move);
+        int sp = Move.space(move);
+        int from = Move.from(move);
+        int type = Move.type(move);
+        int count = Move.count(move);
+        int ug = GameState.undergroundType(f);
+        switch (Move.kind(move)) {
+        case Move.PASS:
+            s.addResources(f, f == GameState.GOV ? GOV_COST : INSURGENT_COST);
+            break;
+        case Move.TRAIN:
+            s.addResources(f, -GOV_COST);
+            s.place(type, sp, count);
+            break;
+        case Move.TRAIN_BASE: {
+            s.addResources(f, -GOV_COST);
+            int police = Math.min(3, s.count(sp, GameState.POLICE));
+            s.remove(GameState.POLICE, sp, police);
+            s.remove(GameState.TROOPS, sp, 3 - police);
+            s.place(GameState.GOV_BASE, sp, 1);
+            break;
+        }
+        case Move.CIVIC_ACTION:
+            s.addResources(f, -GOV_COST);
+            if (s.terror(sp) > 0) {
+                s.setTerror(sp, s.terror(sp) - 1);
+            } else {
+                s.setSupport(sp, s.support(sp) + 1);
+            }
+            break;
+        case Move.PATROL:
+            s.addResources(f, -GOV_COST);
+            s.move(type, from, sp, count);
+            if (Spaces.type(sp) == Spaces.LOC) {
+                activate(s, f, sp, s.cubesOrGuerrillas(sp, f));
+            }
+            break;
+        case Move.SWEEP: {
+            s.addResources(f, -GOV_COST);
+            if (from != Move.NONE) {
+                s.move(type, from, sp, count);
+            }
+            int cubes = s.cubesOrGuerrillas(sp, f);
+            activate(s, f, sp, Spaces.TERRAIN[sp] == Spaces.FOREST ? cubes / 2 : cubes);
+            break;
+        }
+        case Move.ASSAULT:
+            s.addResources(f, -GOV_COST);
+            removeEnemies(s, f, sp, assaultDamage(s, sp), false);
+            break;
+        case Move.AIR_LIFT:
+            s.move(type, from, sp, count);
+            break;
+        case Move.AIR_STRIKE:
+            removeEnemies(s, f, sp, 1, false);
+            break;
+        case Move.ERADICATE:
+            s.remove(GameState.CARTELS_BASE, sp, 1);
+            s.setAid(s.getAid() + 4);
+            if (Spaces.isPopulated(sp)) {
+                s.setSupport(sp, s.support(sp) - 1);
+            }
+            break;
+        case Move.RALLY:
+            s.addResources(f, -INSURGENT_COST);
+            s.place(ug, sp, count);
+            break;
+        case Move.RALLY_FLIP:
+            s.addResources(f, -INSURGENT_COST);
+            s.activate(sp, f, -s.count(sp, ug + 1));
+            break;
+        case Move.RALLY_BASE: {
+            s.addResources(f, -INSURGENT_COST);
+            int active = Math.min(2, s.count(sp, ug + 1));
+            s.remove(ug + 1, sp, active);
+            s.remove(ug, sp, 2 - active);
+            s.place(type, sp, 1);
+            break;
+        }
+        case Move.MARCH: {
+            if (Spaces.type(sp) != Spaces.LOC) {
+                s.addResources(f, -INSURGENT_COST);
+            }
+            int u = Math.min(count, s.count(from, ug));
+            s.move(ug, from, sp, u);
+            s.move(ug + 1, from, sp, count - u);
+            // Large groups marching into LoCs or Supporting spaces show up
+            if ((Spaces.type(sp) == Spaces.LOC || s.support(sp) > 0)
+                    && count + s.cubesOrGuerrillas(sp, GameState.GOV) > 3) {
+                s.activate(sp, f, u);
+            }
+            break;
+        }
+        case Move.ATTACK: {
+            s.addResources(f, -INSURGENT_COST);
+            s.activate(sp, f, s.count(sp, ug));
+            int die = 1 + rnd.nextInt(6);
+            if (die <= s.count(sp, ug + 1)) {
+                removeEnemies(s, f, sp, 2, false);
+                if (die == 1 && s.available(ug) > 0) {
+                    s.place(ug, sp, 1);
+                }
+            }
+            break;
+        }
+        case Move.TERROR:
+            if (Spaces.type(sp) == Spaces.LOC) {
+                s.setSabotage(sp, true);
+            } else {
+                s.addResources(f, -INSURGENT_COST);
+                s.setTerror(sp, s.terror(sp) + 1);
+                int support = s.support(sp);
+                if (f == GameState.FARC) {
+                    s.setSupport(sp, support - 1);
+                } else if (support != GameState.NEUTRAL) {
+                    // AUC and Cartels Terror shifts toward Neutral
+                    s.setSupport(sp, support > 0 ? support - 1 : support + 1);
+                }
+            }
+            s.activate(sp, f, 1);
+            break;
+        case Move.EXTORT:
+            s.activate(sp, f, 1);
+            s.addResources(f, 1);
+            break;
+        case Move.AMBUSH:
+            s.activate(sp, f, 1);
+            removeEnemies(s, f, sp, 2, false);
+            break;
+        case Move.ASSASSINATE:
+            s.activate(sp, f, 1);
+            removeAny(s, f, sp);
+            break;
+        case Move.CULTIVATE:
+            s.place(type, sp, 1);
+            break;
+        case Move.PROCESS:
+            s.remove(type, sp, 1);
+            s.addResources(f, 3);
+            break;
+        case Move.BRIBE:
+            s.addResources(f, -GOV_COST);
+            removeEnemies(s, f, sp, 2, true);
+            break;
+        default:
+            throw new IllegalArgumentException("Bad move " + move);
+        }
+    }
+
+    /**
+     * Find a legal move that explains dragging a piece of type from one
+     * location to another, either of which may be GameState.AVAILABLE.
+     * Placing and moving must be a move of the piece's own faction,
+     * removing one may be any faction's move in that space.
+     *
+     * @param scratch MAX_MOVES ints for the move lists
+     * @return the move, or -1 if no legal move does it
+     */
+    public static int findDrop(GameState s, int type, int from, int to, int[] scratch) {
+        if (from == to) {
+            return -1;
+        }
+        int owner = GameState.FACTION_OF[type];
+        for (int f = 0; f < GameState.FACTIONS; f++) {
+            if (to != GameState.AVAILABLE && f != owner) {
+                continue;
+            }
+            int n = generate(s, f, scratch);
+            for (int i = 1; i < n; i++) {
+                int move = scratch[i];
+                if (explains(s, move, type, from, to)) {
+                    return move;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static boolean explains(GameState s, int move, int type, int from, int to) {
+        int kind = Move.kind(move);
+        int sp = Move.space(move);
+        int owner = GameState.FACTION_OF[type];
+        boolean own = Move.faction(move) == owner;
+        if (from == GameState.AVAILABLE) {
+            // Placing: new guerrillas are underground
+            return own && sp == to && Move.type(move) == type && Move.from(move) == Move.NONE
+                    && (kind == Move.TRAIN || kind == Move.TRAIN_BASE || kind == Move.RALLY
+                    || kind == Move.RALLY_BASE || kind == Move.CULTIVATE);
+        }
+        if (to != GameState.AVAILABLE) {
+            // Moving, March moves active and underground guerrillas alike
+            int moved = Move.type(move);
+            if (kind == Move.MARCH) {
+                moved = type - type % 3;
+                return own && sp == to && Move.from(move) == from
+                        && GameState.isGuerrilla(type) && Move.type(move) == moved;
+            }
+            return own && sp == to && Move.from(move) == from && moved == type
+                    && (kind == Move.PATROL || kind == Move.SWEEP || kind == Move.AIR_LIFT);
+        }
+        // Removing
+        if (sp != from) {
+            return false;
+        }
+        switch (kind) {
+        case Move.TRAIN_BASE:
+        case Move.RALLY_BASE:
+            // Pieces replaced by a base
+            return own && !GameState.isBase(type);
+        case Move.PROCESS:
+        case Move.ERADICATE:
+            return type == GameState.CARTELS_BASE;
+        case Move.ASSAULT:
+        case Move.ATTACK:
+        case Move.AMBUSH:
+        case Move.AIR_STRIKE:
+        case Move.ASSASSINATE:
+        case Move.BRIBE:
+            return !own;
+        default:
+            return false;
+        }
+    }
+
+    private static boolean canRally(GameState s, int f, int sp) {
+        // FARC cannot Rally where there is Support, the AUC not where
+        // there is Opposition
+        switch (f) {
+        case GameState.FARC:
+            return s.support(sp) <= GameState.NEUTRAL;
+        case GameState.AUC:
+            return s.support(sp) >= GameState.NEUTRAL;
+        default:
+            return true;
+        }
+    }
+
+    // Own pieces outnumber all others
+    private static boolean dominates(GameState s, int f, int sp) {
+        int own = s.pieces(sp, f);
+        return own > enemyPieces(s, f, sp);
+    }
+
+    public static int totalBases(GameState s, int sp) {
+        return s.count(sp, GameState.GOV_BASE) + s.count(sp, GameState.FARC_BASE)
+                + s.count(sp, GameState.AUC_BASE) + s.count(sp, GameState.CARTELS_BASE);
+    }
+
+    public static int enemyPieces(GameState s, int f, int sp) {
+        int n = 0;
+        for (int e = 0; e < GameState.FACTIONS; e++) {
+            if (e != f) {
+                n += s.pieces(sp, e);
+            }
+        }
+        return n;
+    }
+
+    private static int undergroundEnemies(GameState s, int f, int sp) {
+        int n = 0;
+        for (int e = GameState.FARC; e < GameState.FACTIONS; e++) {
+            if (e != f) {
+                n += s.count(sp, GameState.undergroundType(e));
+            }
+        }
+        return n;
+    }
+
+    private static int activeEnemies(GameState s, int f, int sp) {
+        int n = 0;
+        for (int e = GameState.FARC; e < GameState.FACTIONS; e++) {
+            if (e != f) {
+                n += s.count(sp, GameState.activeType(e));
+            }
+        }
+        return n;
+    }
+
+    // Troops remove one piece each, in Mountains one per two; Police join
+    // in Cities and on LoCs
+    private static int assaultDamage(GameState s, int sp) {
+        int troops = s.count(sp, GameState.TROOPS);
+        int damage = Spaces.TERRAIN[sp] == Spaces.MOUNTAIN ? troops / 2 : troops;
+        if (Spaces.type(sp) != Spaces.DEPARTMENT) {
+            damage += s.count(sp, GameState.POLICE);
+        }
+        return damage;
+    }
+
+    // Turn up to n underground guerrillas of the enemies of f active
+    private static void activate(GameState s, int f, int sp, int n) {
+        for (int e = GameState.FARC; e < GameState.FACTIONS && n > 0; e++) {
+            if (e != f) {
+                int c = Math.min(n, s.count(sp, GameState.undergroundType(e)));
+                s.activate(sp, e, c);
+                n -= c;
+            }
+        }
+    }
+
+    // True if removeEnemies would remove at least one piece
+    private static boolean canRemove(GameState s, int f, int sp, boolean underground) {
+        for (int e : TARGETS[f]) {
+            int first = e * 3;
+            int exposed = e == GameState.GOV ? s.count(sp, first) + s.count(sp, first + 1)
+                    : s.count(sp, first + 1) + (underground ? s.count(sp, first) : 0);
+            if (exposed > 0 || s.count(sp, first + 2) > 0 && s.cubesOrGuerrillas(sp, e) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Remove up to n enemy pieces of f from space, enemy by enemy. Cubes
+     * and active guerrillas go first, underground guerrillas only if
+     * underground is set, and bases only once their faction has no cubes
+     * or guerrillas left there.
+     *
+     * @return the number of pieces removed
+     */
+    static int removeEnemies(GameState s, int f, int sp, int n, boolean underground) {
+        int removed = 0;
+        for (int e : TARGETS[f]) {
+            int first = e * 3;
+            if (e == GameState.GOV) {
+                removed += take(s, sp, GameState.TROOPS, n - removed);
+                removed += take(s, sp, GameState.POLICE, n - removed);
+            } else {
+                removed += take(s, sp, first + 1, n - removed);
+                if (underground) {
+                    removed += take(s, sp, first, n - removed);
+                }
+            }
+            if (s.cubesOrGuerrillas(sp, e) == 0) {
+                removed += take(s, sp, first + 2, n - removed);
+            }
+            if (removed == n) {
+                break;
+            }
+        }
+        return removed;
+    }
+
+    // Assassinate takes any single enemy piece, bases first
+    private static void removeAny(GameState s, int f, int sp) {
+        for (int e : TARGETS[f]) {
+            for (int t = e * 3 + 2; t >= e * 3; t--) {
+                if (take(s, sp, t, 1) > 0) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static int take(GameState s, int sp, int type, int n) {
+        int c = Math.min(n, s.count(sp, type));
+        if (c > 0) {
+            s.remove(type, sp, c);
+        }
+        return c;
+    }
+}
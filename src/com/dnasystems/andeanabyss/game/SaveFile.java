@@ -0,0 +1,160 @@
+package com.dnasystems.andeanabyss.game;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+/**
+ * Binary save file of a GameState and the CardDeck, under a kilobyte.
+ * Layout, little endian:
+ *
+ * <pre>
+ * int   magic "AASV"
+ * short version
+ * short state bytes
+ * ...   GameState.write()
+ * long  Zobrist hash of the state
+ * ...   CardDeck.write(), order and position
+ * long  CardDeck.hash()
+ * byte  faction to move</pre>
+ *
+ * Files are written to a temporary file that replaces the old one, so a
+ * save cut short leaves the last good one in place. The hashes catch
+ * truncated or damaged files on load. Both directions go through one
+ * direct buffer, which this object keeps, with a single channel write or
+ * read; use one SaveFile per thread.
+ */
+public final class SaveFile {
+
+    // 2 added the deck, 3 the faction to move
+    public static final int VERSION = 3;
+    private static final int MAGIC = 0x56534141;
+    private static final int HEADER_BYTES = 8;
+    /** Bytes in a save file. */
+    public static final int SIZE = size(VERSION);
+
+    private final ByteBuffer mBuffer = ByteBuffer.allocateDirect(SIZE)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    private final GameState mScratch = new GameState();
+    private final CardDeck mScratchDeck = new CardDeck(new Random(0));
+
+    /**
+     * Write s, the faction to move in it and the deck it is played with to
+     * file.
+     */
+    public void write(GameState s, int toMove, CardDeck deck, File file) throws IOException {
+        ByteBuffer b = mBuffer;
+        b.clear();
+        b.putInt(MAGIC);
+        b.putShort((short)VERSION);
+        b.putShort((short)GameState.SAVED_BYTES);
+        s.write(b);
+        b.putLong(s.hash());
+        deck.write(b);
+        b.putLong(deck.hash());
+        b.put((byte)toMove);
+        b.flip();
+
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            FileChannel channel = out.getChannel();
+            while (b.hasRemaining()) {
+                channel.write(b);
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Cannot replace " + file);
+        }
+    }
+
+    /**
+     * Replace s and deck by the ones saved in file. Both are left as they
+     * were if the file cannot be read. Files of earlier versions are read
+     * too, what they do not have is left as it was: deck for version 1.
+     *
+     * @return the faction to move, Government for files before version 3
+     *         which did not save it
+     */
+    public int read(File file, GameState s, CardDeck deck) throws IOException {
+        ByteBuffer b = mBuffer;
+        b.clear();
+        FileInputStream in = new FileInputStream(file);
+        int length;
+        try {
+            // Files are smaller than the buffer, one read takes all
+            length = in.getChannel().read(b);
+        } finally {
+            in.close();
+        }
+        b.flip();
+        if (length < HEADER_BYTES || b.getInt() != MAGIC) {
+            throw new IOException(file + ": not a save file");
+        }
+        int version = b.getShort();
+        if (version < 1 || version > VERSION || b.getShort() != GameState.SAVED_BYTES) {
+            throw new IOException(file + ": unsupported save version " + version);
+        }
+        if (length != size(version)) {
+            throw new IOException(file + ": not a save file of " + size(version) + " bytes");
+        }
+        GameState state = mScratch;
+        try {
+            state.read(b);
+        } catch (IndexOutOfBoundsException e) {
+            // Values off the hash tables
+            throw new IOException(file + ": damaged save file", e);
+        }
+        if (state.hash() != b.getLong()) {
+            throw new IOException(file + ": damaged save file");
+        }
+        for (int t = 0; t < GameState.PIECE_TYPES; t++) {
+            if (state.available(t) < 0) {
+                throw new IOException(file + ": too many pieces of type " + t);
+            }
+        }
+        CardDeck cards = null;
+        if (version >= 2) {
+            cards = mScratchDeck;
+            try {
+                cards.read(b);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(file + ": damaged deck", e);
+            }
+            if (cards.hash() != b.getLong()) {
+                throw new IOException(file + ": damaged deck");
+            }
+        }
+        int toMove = GameState.GOV;
+        if (version >= 3) {
+            toMove = b.get();
+            if (toMove < 0 || toMove >= GameState.FACTIONS) {
+                throw new IOException(file + ": faction to move " + toMove);
+            }
+        }
+        s.copyFrom(state);
+        if (cards != null) {
+            deck.copyFrom(cards);
+        }
+        return toMove;
+    }
+
+    // Bytes in a file of version
+    private static int size(int version) {
+        int size = HEADER_BYTES + GameState.SAVED_BYTES + 8;
+        if (version >= 2) {
+            size += CardDeck.SAVED_BYTES + 8;
+        }
+        if (version >= 3) {
+            size++;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,200 @@
+package com.dnasystems.andeanabyss.game;
+
+/**
+ * The spaces of the Andean Abyss map: Cities, Departments and Lines of
+ * Communication, as read off the board. Spaces are identified by their
+ * index; adjacency is a bit mask over the indices, which is why there may
+ * be at most 64 spaces.
+ */
+public final class Spaces {
+
+    public static final int CITY = 0;
+    public static final int DEPARTMENT = 1;
+    public static final int LOC = 2;
+
+    public static final int NO_TERRAIN = 0;
+    public static final int MOUNTAIN = 1;
+    public static final int GRASSLAND = 2;
+    public static final int FOREST = 3;
+
+    // Cities
+    public static final int SANTA_MARTA = 0;
+    public static final int CARTAGENA = 1;
+    public static final int SINCELEJO = 2;
+    public static final int CUCUTA = 3;
+    public static final int BUCARAMANGA = 4;
+    public static final int MEDELLIN = 5;
+    public static final int IBAGUE = 6;
+    public static final int BOGOTA = 7;
+    public static final int CALI = 8;
+    public static final int NEIVA = 9;
+    public static final int PASTO = 10;
+    // Departments
+    public static final int CESAR = 11;
+    public static final int ATLANTICO = 12;
+    public static final int ANTIOQUIA = 13;
+    public static final int CHOCO = 14;
+    public static final int SANTANDER = 15;
+    public static final int ARAUCA = 16;
+    public static final int VICHADA = 17;
+    public static final int META_EAST = 18;
+    public static final int META_WEST = 19;
+    public static final int HUILA = 20;
+    public static final int NARINO = 21;
+    public static final int GUAVIARE = 22;
+    public static final int GUAINIA = 23;
+    public static final int PUTUMAYO = 24;
+    public static final int VAUPES = 25;
+    public static final int AMAZONAS = 26;
+    // Lines of Communication
+    public static final int CARTAGENA_SANTA_MARTA = 27;
+    public static final int CARTAGENA_SINCELEJO = 28;
+    public static final int SANTA_MARTA_AYACUCHO = 29;
+    public static final int SINCELEJO_AYACUCHO = 30;
+    public static final int AYACUCHO_CUCUTA = 31;
+    public static final int AYACUCHO_BUCARAMANGA = 32;
+    public static final int CUCUTA_ARAUCA = 33;
+    public static final int SINCELEJO_MEDELLIN = 34;
+    public static final int MEDELLIN_IBAGUE = 35;
+    public static final int BUCARAMANGA_IBAGUE = 36;
+    public static final int BOGOTA_YOPAL = 37;
+    public static final int IBAGUE_CALI = 38;
+    public static final int CALI_BUENAVENTURA = 39;
+    public static final int BOGOTA_NEIVA = 40;
+    public static final int BOGOTA_SAN_JOSE = 41;
+    public static final int CALI_PASTO = 42;
+    public static final int PASTO_TUMACO = 43;
+    public static final int NEIVA_PASTO = 44;
+
+    public static final int COUNT = 45;
+
+    public static final long CITIES = mask(SANTA_MARTA, PASTO);
+    public static final long DEPARTMENTS = mask(CESAR, AMAZONAS);
+    public static final long LOCS = mask(CARTAGENA_SANTA_MARTA, NEIVA_PASTO);
+
+    public static final String[] NAME = {
+        "Santa Marta", "Cartagena", "Sincelejo", "Cucuta", "Bucaramanga", "Medellin",
+        "Ibague", "Bogota", "Cali", "Neiva", "Pasto",
+        "Cesar", "Atlantico", "Antioquia", "Choco", "Santander", "Arauca", "Vichada",
+        "Meta East", "Meta West", "Huila", "Narino", "Guaviare", "Guainia", "Putumayo",
+        "Vaupes", "Amazonas",
+        "Cartagena-Santa Marta", "Cartagena-Sincelejo", "Santa Marta-Ayacucho",
+        "Sincelejo-Ayacucho", "Ayacucho-Cucuta", "Ayacucho-Bucaramanga", "Cucuta-Arauca",
+        "Sincelejo-Medellin", "Medellin-Ibague", "Bucaramanga-Ibague", "Bogota-Yopal",
+        "Ibague-Cali", "Cali-Buenaventura", "Bogota-Neiva", "Bogota-San Jose",
+        "Cali-Pasto", "Pasto-Tumaco", "Neiva-Pasto",
+    };
+
+    /** Population of Cities and Departments, 0 for LoCs. */
+    public static final byte[] POP = {
+        2, 1, 1, 1, 2, 3, 2, 8, 3, 1, 1,
+        1, 1, 2, 1, 2, 1, 0, 1, 1, 2, 1, 1, 0, 1, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+    };
+
+    /** Economic value of LoCs, 0 for the other spaces. */
+    public static final byte[] ECON = {
+        0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+        1, 1, 2, 3, 3, 2, 3, 2, 1, 2, 2, 1, 1, 2, 1, 1, 1, 1,
+    };
+
+    /** Terrain of Departments. */
+    public static final byte[] TERRAIN = {
+        0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+        MOUNTAIN, FOREST, MOUNTAIN, FOREST, MOUNTAIN, GRASSLAND, GRASSLAND, GRASSLAND,
+        FOREST, MOUNTAIN, FOREST, FOREST, FOREST, FOREST, FOREST, FOREST,
+        0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+    };
+
+    /** Bit i of ADJACENT[s] is set if space i is adjacent to s. */
+    public static final long[] ADJACENT = new long[COUNT];
+
+    static {
+        // Departments
+        adjacent(CESAR, ATLANTICO, ANTIOQUIA, SANTANDER);
+        adjacent(ATLANTICO, ANTIOQUIA, CHOCO);
+        adjacent(ANTIOQUIA, CHOCO, SANTANDER, HUILA);
+        adjacent(CHOCO, HUILA, NARINO);
+        adjacent(SANTANDER, ARAUCA, META_EAST, HUILA);
+        adjacent(ARAUCA, VICHADA, META_EAST);
+        adjacent(VICHADA, META_EAST, GUAINIA);
+        adjacent(META_EAST, META_WEST, GUAVIARE, GUAINIA);
+        adjacent(META_WEST, HUILA, GUAVIARE, PUTUMAYO);
+        adjacent(HUILA, NARINO, PUTUMAYO);
+        adjacent(NARINO, PUTUMAYO);
+        adjacent(GUAVIARE, GUAINIA, VAUPES, PUTUMAYO);
+        adjacent(GUAINIA, VAUPES);
+        adjacent(PUTUMAYO, VAUPES, AMAZONAS);
+        adjacent(VAUPES, AMAZONAS);
+        // Cities and the Departments around them
+        adjacent(SANTA_MARTA, ATLANTICO, CESAR);
+        adjacent(CARTAGENA, ATLANTICO);
+        adjacent(SINCELEJO, ATLANTICO, CHOCO, ANTIOQUIA);
+        adjacent(CUCUTA, CESAR, SANTANDER);
+        adjacent(BUCARAMANGA, SANTANDER, ANTIOQUIA);
+        adjacent(MEDELLIN, ANTIOQUIA, CHOCO);
+        adjacent(IBAGUE, ANTIOQUIA, HUILA, CHOCO);
+        adjacent(BOGOTA, SANTANDER, HUILA, META_EAST, META_WEST);
+        adjacent(CALI, CHOCO, HUILA, NARINO);
+        adjacent(NEIVA, HUILA, META_WEST);
+        adjacent(PASTO, NARINO, HUILA, PUTUMAYO);
+        // LoCs, their end points and the Departments they run through
+        adjacent(CARTAGENA_SANTA_MARTA, CARTAGENA, SANTA_MARTA, ATLANTICO);
+        adjacent(CARTAGENA_SINCELEJO, CARTAGENA, SINCELEJO, ATLANTICO);
+        adjacent(SANTA_MARTA_AYACUCHO, SANTA_MARTA, ATLANTICO, CESAR);
+        adjacent(SINCELEJO_AYACUCHO, SINCELEJO, ATLANTICO, ANTIOQUIA);
+        adjacent(AYACUCHO_CUCUTA, CUCUTA, CESAR, SANTANDER);
+        adjacent(AYACUCHO_BUCARAMANGA, BUCARAMANGA, ANTIOQUIA, SANTANDER);
+        adjacent(CUCUTA_ARAUCA, CUCUTA, SANTANDER, ARAUCA);
+        adjacent(SINCELEJO_MEDELLIN, SINCELEJO, MEDELLIN, CHOCO, ANTIOQUIA);
+        adjacent(MEDELLIN_IBAGUE, MEDELLIN, IBAGUE, CHOCO, ANTIOQUIA);
+        adjacent(BUCARAMANGA_IBAGUE, BUCARAMANGA, IBAGUE, BOGOTA, ANTIOQUIA, SANTANDER, HUILA);
+        adjacent(BOGOTA_YOPAL, BOGOTA, SANTANDER, META_EAST);
+        adjacent(IBAGUE_CALI, IBAGUE, CALI, CHOCO, HUILA);
+        adjacent(CALI_BUENAVENTURA, CALI, CHOCO);
+        adjacent(BOGOTA_NEIVA, BOGOTA, NEIVA, HUILA, META_WEST);
+        adjacent(BOGOTA_SAN_JOSE, BOGOTA, META_WEST, META_EAST, GUAVIARE);
+        adjacent(CALI_PASTO, CALI, PASTO, NARINO, HUILA);
+        adjacent(PASTO_TUMACO, PASTO, NARINO);
+        adjacent(NEIVA_PASTO, NEIVA, PASTO, HUILA, PUTUMAYO);
+        // LoCs meeting in the town of Ayacucho
+        adjacent(SANTA_MARTA_AYACUCHO, SINCELEJO_AYACUCHO, AYACUCHO_CUCUTA,
+                AYACUCHO_BUCARAMANGA);
+        adjacent(SINCELEJO_AYACUCHO, AYACUCHO_CUCUTA, AYACUCHO_BUCARAMANGA);
+        adjacent(AYACUCHO_CUCUTA, AYACUCHO_BUCARAMANGA);
+    }
+
+    private Spaces() {
+    }
+
+    private static void adjacent(int space, int... others) {
+        for (int other : others) {
+            ADJACENT[space] |= 1L << other;
+            ADJACENT[other] |= 1L << space;
+        }
+    }
+
+    private static long mask(int first, int last) {
+        return (-1L >>> (63 - last)) & (-1L << first);
+    }
+
+    public static int type(int space) {
+        if (space < CESAR) {
+            return CITY;
+        }
+        return space < CARTAGENA_SANTA_MARTA ? DEPARTMENT : LOC;
+    }
+
+    public static boolean isAdjacent(int a, int b) {
+        return (ADJACENT[a] & (1L << b)) != 0;
+    }
+
+    /**
+     * Cities and Departments with population can carry Support or
+     * Opposition.
+     */
+    public static boolean isPopulated(int space) {
+        return POP[space] > 0;
+    }
+}
@@ -0,0 +1,131 @@
+package com.dnasystems.andeanabyss.game;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size hash table from GameState hashes to search results, shared by
+ * any number of search threads without locks. Every slot holds two longs,
+ * the key xor the data and the data; a reader that sees halves of two
+ * different writes gets a key that does not match and treats it as a miss,
+ * so torn slots are never returned.
+ *
+ * A result packs a playout count and the mean reward of every faction, see
+ * {@link #pack} and {@link #reward}. Hit rate and collisions are counted
+ * for tuning the table size.
+ */
+public final class TranspositionTable {
+
+    public static final long MISS = 0;
+    public static final int MAX_COUNT = 0xffff;
+    private static final int REWARD_BITS = 12;
+    private static final int REWARD_MAX = (1 << REWARD_BITS) - 1;
+
+    private final AtomicLongArray mSlots;
+    private final int mMask;
+    private final AtomicLong mProbes = new AtomicLong();
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mStores = new AtomicLong();
+    private final AtomicLong mOverwrites = new AtomicLong();
+
+    /**
+     * @param entries slots, rounded up to a power of two
+     */
+    public TranspositionTable(int entries) {
+        int size = Integer.highestOneBit(Math.max(entries - 1, 1)) << 1;
+        mSlots = new AtomicLongArray(2 * size);
+        mMask = size - 1;
+    }
+
+    public int size() {
+        return mMask + 1;
+    }
+
+    /**
+     * Data stored for hash, or MISS.
+     */
+    public long probe(long hash) {
+        mProbes.incrementAndGet();
+        int i = index(hash);
+        long data = mSlots.get(i + 1);
+        if (data == MISS || (mSlots.get(i) ^ data) != hash) {
+            return MISS;
+        }
+        mHits.incrementAndGet();
+        return data;
+    }
+
+    /**
+     * Store data for hash, replacing whatever the slot held. data must not
+     * be MISS.
+     */
+    public void store(long hash, long data) {
+        mStores.incrementAndGet();
+        int i = index(hash);
+        long old = mSlots.get(i + 1);
+        if (old != MISS && (mSlots.get(i) ^ old) != hash) {
+            mOverwrites.incrementAndGet();
+        }
+        mSlots.set(i, hash ^ data);
+        mSlots.set(i + 1, data);
+    }
+
+    public void clear() {
+        for (int i = 0; i < mSlots.length(); i++) {
+            mSlots.set(i, 0);
+        }
+        mProbes.set(0);
+        mHits.set(0);
+        mStores.set(0);
+        mOverwrites.set(0);
+    }
+
+    public long getProbes() {
+        return mProbes.get();
+    }
+
+    public long getHits() {
+        return mHits.get();
+    }
+
+    public long getStores() {
+        return mStores.get();
+    }
+
+    /**
+     * Stores that replaced the result of a different state.
+     */
+    public long getOverwrites() {
+        return mOverwrites.get();
+    }
+
+    public double getHitRate() {
+        long probes = mProbes.get();
+        return probes > 0 ? mHits.get() / (double)probes : 0;
+    }
+
+    /**
+     * Pack a playout count, capped at MAX_COUNT, and one mean reward in
+     * [0, 1] per faction.
+     */
+    public static long pack(int count, float[] rewards) {
+        long data = Math.min(count, MAX_COUNT);
+        for (int f = 0; f < GameState.FACTIONS; f++) {
+            long r = Math.round(Math.max(0, Math.min(rewards[f], 1)) * REWARD_MAX);
+            data |= r << 16 + f * REWARD_BITS;
+        }
+        return data;
+    }
+
+    public static int count(long data) {
+        return (int)(data & MAX_COUNT);
+    }
+
+    public static float reward(long data, int faction) {
+        return (data >>> 16 + faction * REWARD_BITS & REWARD_MAX) / (float)REWARD_MAX;
+    }
+
+    private int index(long hash) {
+        return ((int)(hash ^ hash >>> 32) & mMask) << 1;
+    }
+}
@@ -0,0 +1,151 @@
+package com.dnasystems.andeanabyss.game;
+
+/**
+ * Random keys for Zobrist hashing of a GameState. The hash is the xor of
+ * one key per space, piece type and piece count plus one key per marker
+ * value, so a changed count or marker updates it with two xors. Keys come
+ * from a fixed seed and are the same on every run.
+ */
+public final class Zobrist {
+
+    private static final int MAX_COUNT = 32;
+    private static final int TERROR_LEVELS = 64;
+    private static final int RESOURCE_LEVELS = GameState.MAX_RESOURCES + 1;
+    private static final int PRESIDENTS = 8;
+    private static final int SHIPMENT_SPACES = Spaces.COUNT + 1;
+
+    private static final long[] PIECES = new long[Spaces.COUNT * GameState.PIECE_TYPES * MAX_COUNT];
+    private static final long[] SUPPORT = new long[Spaces.COUNT * 5];
+    private static final long[] TERROR = new long[Spaces.COUNT * TERROR_LEVELS];
+    private static final long[] SABOTAGE = new long[Spaces.COUNT];
+    private static final long[] FARC_ZONE = new long[Spaces.COUNT];
+    private static final long[] RESOURCES = new long[GameState.FACTIONS * RESOURCE_LEVELS];
+    private static final long[] AID = new long[RESOURCE_LEVELS];
+    private static final long[] PRESIDENT = new long[PRESIDENTS];
+    private static final long[] ELIGIBLE = new long[1 << GameState.FACTIONS];
+    private static final long[] SHIPMENT = new long[GameState.SHIPMENTS * SHIPMENT_SPACES
+            * (GameState.FACTIONS + 1)];
+    private static final long[] EVENT = new long[64];
+    private static final long[] TO_MOVE = new long[GameState.FACTIONS];
+
+    static {
+        long seed = 0x416e6465616e4162L;
+        long[][] tables = {PIECES, SUPPORT, TERROR, SABOTAGE, FARC_ZONE, RESOURCES, AID,
+                PRESIDENT, ELIGIBLE, SHIPMENT, EVENT, TO_MOVE};
+        for (long[] table : tables) {
+            for (int i = 0; i < table.length; i++) {
+                // SplitMix64
+                seed += 0x9e3779b97f4a7c15L;
+                long z = seed;
+                z = (z ^ z >>> 30) * 0xbf58476d1ce4e5b9L;
+                z = (z ^ z >>> 27) * 0x94d049bb133111ebL;
+                table[i] = z ^ z >>> 31;
+            }
+        }
+        // Zero counts and default markers hash to nothing, so the empty
+        // map only hashes its tracks
+        for (int i = 0; i < PIECES.length; i += MAX_COUNT) {
+            PIECES[i] = 0;
+        }
+        for (int s = 0; s < Spaces.COUNT; s++) {
+            SUPPORT[s * 5 + 2] = 0;
+            TERROR[s * TERROR_LEVELS] = 0;
+        }
+    }
+
+    private Zobrist() {
+    }
+
+    static long pieces(int index, int count) {
+        return PIECES[index * MAX_COUNT + count];
+    }
+
+    static long support(int space, int level) {
+        return SUPPORT[space * 5 + level + 2];
+    }
+
+    static long terror(int space, int n) {
+        return TERROR[space * TERROR_LEVELS + (n & TERROR_LEVELS - 1)];
+    }
+
+    static long sabotage(int space) {
+        return SABOTAGE[space];
+    }
+
+    static long farcZone(int space) {
+        return FARC_ZONE[space];
+    }
+
+    static long resources(int faction, int n) {
+        return RESOURCES[faction * RESOURCE_LEVELS + n];
+    }
+
+    static long aid(int n) {
+        return AID[n];
+    }
+
+    static long president(int president) {
+        return PRESIDENT[president & PRESIDENTS - 1];
+    }
+
+    static long eligible(int mask) {
+        return ELIGIBLE[mask];
+    }
+
+    static long shipment(int shipment, int space, int faction) {
+        // AVAILABLE and NO_FACTION are -1
+        return SHIPMENT[(shipment * SHIPMENT_SPACES + space + 1) * (GameState.FACTIONS + 1)
+                + faction + 1];
+    }
+
+    static long event(int event) {
+        return EVENT[event];
+    }
+
+    /**
+     * Key for the faction to move, not part of GameState.hash(); searches
+     * xor it in when the same state may come up with different factions
+     * to move.
+     */
+    public static long toMove(int faction) {
+        return TO_MOVE[faction];
+    }
+
+    /**
+     * Hash of s computed from scratch; GameState.hash() keeps the same
+     * value up to date incrementally.
+     */
+    public static long hash(GameState s) {
+        long h = 0;
+        for (int sp = 0; sp < Spaces.COUNT; sp++) {
+            for (int t = 0; t < GameState.PIECE_TYPES; t++) {
+                h ^= pieces(sp * GameState.PIECE_TYPES + t, s.count(sp, t));
+            }
+            h ^= support(sp, s.support(sp));
+            h ^= terror(sp, s.terror(sp));
+            if (s.isSabotaged(sp)) {
+                h ^= sabotage(sp);
+            }
+            if (s.isFarcZone(sp)) {
+                h ^= farcZone(sp);
+            }
+        }
+        int eligible = 0;
+        for (int f = 0; f < GameState.FACTIONS; f++) {
+            h ^= resources(f, s.resources(f));
+            if (s.isEligible(f)) {
+                eligible |= 1 << f;
+            }
+        }
+        h ^= aid(s.getAid()) ^ president(s.getPresident()) ^ eligible(eligible);
+        for (int i = 0; i < GameState.SHIPMENTS; i++) {
+            h ^= shipment(i, s.shipmentSpace(i), s.shipmentFaction(i));
+        }
+        for (int e = 0; e < 64; e++) {
+            if (s.isEventInPlay(e)) {
+                h ^= event(e);
+            }
+        }
+        return h;
+    }
+}
@@ -0,0 +1,240 @@
+package com.dnasystems.andeanabyss.tools;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import com.dnasystems.andeanabyss.CommandBuffer;
+import com.dnasystems.andeanabyss.FrameMetrics;
+import com.dnasystems.andeanabyss.FrameRecorder;
+import com.dnasystems.andeanabyss.FrameSnapshot;
+import com.dnasystems.andeanabyss.InputQueue;
+import com.dnasystems.andeanabyss.MatrixStack;
+import com.dnasystems.andeanabyss.OnInput;
+import com.dnasystems.andeanabyss.PieceStore;
+
+/**
+ * Runs the CPU side of a frame without GL the way MyGLRenderer and
+ * GameBoard.draw() do: input drained from an InputQueue, the pieces
+ * recorded into a CommandBuffer inline and on the FrameRecorder worker,
+ * the camera and layer transforms pushed on a MatrixStack, the commands
+ * copied into a vertex buffer the way SpriteBatch submits them, quads
+ * added in SpriteBatch's immediate mode and the frame counted in
+ * FrameMetrics. After a warm-up it fails if the frames allocated anything
+ * on the calling thread or on the recorder's worker, measured with
+ * ThreadMXBean.getThreadAllocatedBytes. Prints the bytes per frame as CSV.
+ *
+ * <pre>
+ * java com.dnasystems.andeanabyss.tools.AllocationCheck [frames] [objects]</pre>
+ */
+public class AllocationCheck {
+
+    private static final float BOARD_W = 2048;
+    private static final float BOARD_H = 2048 + 1116;
+    private static final int TEXTURES = 3;
+    private static final int WARMUP_FRAMES = 20000;
+
+    public static void main(String[] args) {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int objects = args.length > 1 ? Integer.parseInt(args[1]) : 160;
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            System.err.println("Thread allocation counting not supported by this JVM");
+            System.exit(2);
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        Random rnd = new Random(1);
+        PieceStore pieces = new PieceStore(objects);
+        float[] texCoords = new float[8];
+        for (int i = 0; i < objects; i++) {
+            pieces.add(pieces.addImage("image" + i, 1 + rnd.nextInt(TEXTURES), texCoords, 30, 47));
+        }
+        FrameSnapshot[] snapshots = new FrameSnapshot[64];
+        for (int s = 0; s < snapshots.length; s++) {
+            snapshots[s] = randomSnapshot(rnd, objects);
+        }
+        Frame inline = new Frame(pieces, false);
+        Frame worker = new Frame(pieces, true);
+
+        // The worker is the only thread of that name
+        long workerId = -1;
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.getName().equals("FrameRecorder")) {
+                workerId = t.getId();
+            }
+        }
+        long self = Thread.currentThread().getId();
+
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            inline.run(snapshots[i & 63], i);
+            worker.run(snapshots[i & 63], i);
+        }
+
+        System.out.println("recorder,frames,bytes_per_frame,worker_bytes_per_frame");
+        long inlineBytes = measure(threads, self, inline, snapshots, frames);
+        System.out.printf("inline,%d,%.3f,0%n", frames, inlineBytes / (double)frames);
+        long workerBytes = threads.getThreadAllocatedBytes(workerId);
+        long workerSelf = measure(threads, self, worker, snapshots, frames);
+        workerBytes = threads.getThreadAllocatedBytes(workerId) - workerBytes;
+        System.out.printf("worker,%d,%.3f,%.3f%n", frames, workerSelf / (double)frames,
+                workerBytes / (double)frames);
+        worker.quit();
+
+        if (inlineBytes != 0 || workerSelf != 0 || workerBytes != 0) {
+            throw new AssertionError("frames allocated " + inlineBytes + ", " + workerSelf
+                    + " and " + workerBytes + " worker bytes");
+        }
+    }
+
+    // Bytes the calling thread allocated over frames frames, less what
+    // reading the counter costs
+    private static long measure(com.sun.management.ThreadMXBean threads, long self, Frame frame,
+            FrameSnapshot[] snapshots, int frames) {
+        long a = threads.getThreadAllocatedBytes(self);
+        long b = threads.getThreadAllocatedBytes(self);
+        for (int i = 0; i < frames; i++) {
+            frame.run(snapshots[i & 63], i);
+        }
+        long c = threads.getThreadAllocatedBytes(self);
+        return c - b - (b - a);
+    }
+
+    private static FrameSnapshot randomSnapshot(Random rnd, int objects) {
+        FrameSnapshot f = new FrameSnapshot(objects);
+        f.mZoom = 0.3f + rnd.nextFloat() * 0.7f;
+        f.mWidth = 1280;
+        f.mHeight = 800;
+        f.mPosX = -rnd.nextFloat() * (BOARD_W * f.mZoom - f.mWidth);
+        f.mPosY = -rnd.nextFloat() * (BOARD_H * f.mZoom - f.mHeight);
+        f.mActive = rnd.nextBoolean() ? rnd.nextInt(objects) : -1;
+        for (int i = 0; i < objects; i++) {
+            f.mX[i] = rnd.nextFloat() * BOARD_W;
+            f.mY[i] = rnd.nextFloat() * BOARD_H;
+            f.mImage[i] = i;
+        }
+        return f;
+    }
+
+    // Everything one frame touches, made once like the renderer's fields
+    private static final class Frame implements OnInput {
+        private final PieceStore mPieces;
+        private final FrameRecorder mRecorder;
+        private final InputQueue mInput = new InputQueue(256);
+        private final MatrixStack mStack = new MatrixStack(8);
+        private final float[] mProjection = new float[16];
+        private final CommandBuffer mImmediate = new CommandBuffer(64);
+        private final FloatBuffer mVertexData;
+        private final FrameMetrics mMetrics = new FrameMetrics(600);
+        private final float[] mVertices = {0, 0, 0, 0, 47, 0, 30, 0, 0, 30, 47, 0};
+        private final float[] mTexCoords = {0, 0, 0, 1, 1, 0, 1, 1};
+        private float mSink;
+
+        Frame(PieceStore pieces, boolean threaded) {
+            mPieces = pieces;
+            mRecorder = new FrameRecorder(pieces, 1, threaded);
+            mVertexData = ByteBuffer.allocateDirect(pieces.size() * CommandBuffer.FLOATS_PER_SPRITE * 4)
+                    .order(ByteOrder.nativeOrder()).asFloatBuffer();
+            for (int i = 0; i < 16; i += 5) {
+                mProjection[i] = 1.0f;
+            }
+        }
+
+        void run(FrameSnapshot f, int frame) {
+            mMetrics.beginFrame();
+            mInput.offer(InputQueue.DOWN, 0, frame, frame);
+            mInput.offer(InputQueue.MOVE, 0, 1, 1);
+            mInput.offer(InputQueue.MOVE, 0, 1, 1);
+            mInput.offerZoom(1.01f, 640, 400);
+            mInput.offer(InputQueue.UP, 0, frame, frame);
+            mInput.drain(this);
+
+            mStack.load(mProjection);
+            mRecorder.start(f);
+            // The map is drawn meanwhile, under the camera transform
+            mStack.push();
+            mStack.translate(f.mPosX, f.mPosY, 0.0f);
+            mStack.scale(-f.mZoom, -f.mZoom, 0.0f);
+            mSink += mStack.getArray()[mStack.getOffset() + 12];
+            mStack.pop();
+            CommandBuffer commands = mRecorder.finish();
+            submit(commands);
+
+            // A few quads in immediate mode, sorted at end()
+            mImmediate.reset();
+            mImmediate.beginLayer(0, 0, 1, 1);
+            for (int i = 0; i < 16; i++) {
+                mImmediate.quad(1, 1 + (i * 7) % TEXTURES, mVertices, mTexCoords, 0, i, i);
+            }
+            mImmediate.endLayer(true);
+            submit(mImmediate);
+            mMetrics.endFrame(commands.getCommandCount(), 0, commands.getQuadCount(), 0, 0);
+        }
+
+        // SpriteBatch.submit() without the GL calls
+        private void submit(CommandBuffer buffer) {
+            float[] transforms = buffer.getTransforms();
+            int layer = -1;
+            for (int c = 0; c < buffer.getCommandCount(); c++) {
+                if (buffer.getLayer(c) != layer) {
+                    if (layer >= 0) {
+                        mStack.pop();
+                    }
+                    layer = buffer.getLayer(c);
+                    mStack.push();
+                    mStack.translate(transforms[layer * 4], transforms[layer * 4 + 1], 0.0f);
+                    mStack.scale(transforms[layer * 4 + 2], transforms[layer * 4 + 3], 1.0f);
+                }
+                int first = buffer.getFirst(c);
+                int quads = buffer.getQuadCount(c);
+                mVertexData.clear();
+                mVertexData.put(buffer.getVertices(), first * CommandBuffer.FLOATS_PER_SPRITE,
+                        quads * CommandBuffer.FLOATS_PER_SPRITE);
+                mVertexData.flip();
+                mSink += mVertexData.get(0) + mPieces.getTexture(c % mPieces.size());
+            }
+            if (layer >= 0) {
+                mStack.pop();
+            }
+        }
+
+        void quit() {
+            mRecorder.quit();
+        }
+
+        @Override
+        public boolean onUp(int id, float x, float y) {
+            return true;
+        }
+
+        @Override
+        public boolean onDown(int id, float x, float y) {
+            return true;
+        }
+
+        @Override
+        public boolean onMove(int id, float dx, float dy) {
+            mSink += dx;
+            return true;
+        }
+
+        @Override
+        public boolean onZoom(float scalefactor, float focusX, float focusY) {
+            return true;
+        }
+
+        @Override
+        public boolean onFling(int id, float vx, float vy) {
+            return true;
+        }
+
+        @Override
+        public boolean onCancel(int id) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.dnasystems.andeanabyss.tools;
+
+import com.dnasystems.andeanabyss.Animator;
+
+/**
+ * Steps an Animator at a fixed frame rate the way GameBoard.animate() does
+ * and checks that a fling covers the distance its velocity promises, that
+ * a zoom settles exactly on its target and that slides land exactly where
+ * they were sent, each in a bounded number of frames. Prints the frames
+ * each animation kept the renderer busy as CSV.
+ *
+ * <pre>
+ * java com.dnasystems.andeanabyss.tools.AnimatorCheck [fps] [velocity]</pre>
+ */
+public class AnimatorCheck {
+
+    // Fling time constant of Animator, for the expected distance
+    private static final float FLING_TAU = 0.3f;
+
+    public static void main(String[] args) {
+        int fps = args.length > 0 ? Integer.parseInt(args[0]) : 60;
+        float velocity = args.length > 1 ? Float.parseFloat(args[1]) : 3000;
+        long frame = 1000000000L / fps;
+        float[] delta = new float[2];
+
+        Animator animator = new Animator(4);
+        long now = 1;
+        animator.fling(velocity, -velocity / 2);
+        float x = 0;
+        float y = 0;
+        int flingFrames = 0;
+        for (; animator.isActive(); now += frame) {
+            float dt = animator.beginFrame(now);
+            animator.stepFling(dt, delta);
+            x += delta[0];
+            y += delta[1];
+            flingFrames = check(flingFrames + 1, fps, "fling");
+        }
+        float expected = velocity * FLING_TAU;
+        if (Math.abs(x - expected) > expected * 0.02f || Math.abs(2 * y + x) > 1) {
+            throw new AssertionError("fling went " + x + "," + y + ", expected " + expected);
+        }
+
+        now += 10 * frame;
+        animator.beginFrame(now);
+        float zoom = 0.4f;
+        animator.zoomTo(1, 100, 100);
+        int zoomFrames = 0;
+        for (; animator.isActive(); now += frame) {
+            zoom = animator.stepZoom(zoom, animator.beginFrame(now));
+            zoomFrames = check(zoomFrames + 1, fps, "zoom");
+        }
+        if (zoom != 1) {
+            throw new AssertionError("zoom settled at " + zoom);
+        }
+
+        now += 10 * frame;
+        animator.beginFrame(now);
+        for (int i = 0; i < 4; i++) {
+            animator.snap(i, 0, 0, 100 * i, -50 * i);
+        }
+        // Picked up mid way, stays where it was caught
+        animator.cancelSnap(3);
+        int snapFrames = 0;
+        float[][] pos = new float[4][2];
+        for (; animator.isActive(); now += frame) {
+            float dt = animator.beginFrame(now);
+            for (int i = 0; i < 4; i++) {
+                if (animator.isSnapping(i)) {
+                    animator.stepSnap(i, dt, pos[i]);
+                }
+            }
+            snapFrames = check(snapFrames + 1, fps, "snap");
+        }
+        for (int i = 0; i < 3; i++) {
+            if (pos[i][0] != 100 * i || pos[i][1] != -50 * i) {
+                throw new AssertionError("slide " + i + " ended at " + pos[i][0] + "," + pos[i][1]);
+            }
+        }
+        if (animator.getSnapCount() != 0) {
+            throw new AssertionError(animator.getSnapCount() + " slides left");
+        }
+
+        System.out.println("fps,velocity,fling_px,fling_frames,zoom_frames,snap_frames");
+        System.out.printf("%d,%.0f,%.1f,%d,%d,%d%n", fps, velocity, x, flingFrames,
+                zoomFrames, snapFrames);
+    }
+
+    // Any animation must be over within three seconds of frames
+    private static int check(int frames, int fps, String what) {
+        if (frames > 3 * fps) {
+            throw new AssertionError(what + " still running after " + frames + " frames");
+        }
+        return frames;
+    }
+}
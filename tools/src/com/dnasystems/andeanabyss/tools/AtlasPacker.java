@@ -0,0 +1,352 @@
+package com.dnasystems.andeanabyss.tools;
+
+import java.awt.image.BufferedImage;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Build time texture atlas packer. Packs PNG images into one or more power of
+ * two atlas pages and writes a UV table that TextureAtlas loads on the device.
+ *
+ * <pre>
+ * java com.dnasystems.andeanabyss.tools.AtlasPacker [-max 1024] [-pad 2]
+ *         [-verify] outdir name image.png...</pre>
+ *
+ * Each image is trimmed to the bounding box of its non transparent pixels,
+ * measured from the top left corner since that is where Object2D expects the
+ * content to start. The pages are written as name_N.png and the table as
+ * name.uv:
+ *
+ * <pre>
+ * int   magic 'AUV1'
+ * short page count, then per page: UTF file name, short width, short height
+ * short entry count, then per entry: UTF image name, byte page,
+ *       short x, short y, short w, short h</pre>
+ */
+public class AtlasPacker {
+
+    public static final int MAGIC = 0x41555631; // "AUV1"
+
+    static class Entry {
+        String name;
+        BufferedImage image;
+        int w;
+        int h;
+        int page;
+        int x;
+        int y;
+    }
+
+    static class Page {
+        String file;
+        int w;
+        int h;
+        List<Entry> entries = new ArrayList<Entry>();
+    }
+
+    private final int mMaxSize;
+    private final int mPad;
+
+    public AtlasPacker(int maxSize, int pad) {
+        mMaxSize = maxSize;
+        mPad = pad;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int max = 1024;
+        int pad = 2;
+        boolean verify = false;
+        int i = 0;
+        for (; i < args.length && args[i].startsWith("-"); i++) {
+            if (args[i].equals("-max")) {
+                max = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-pad")) {
+                pad = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-verify")) {
+                verify = true;
+            } else {
+                usage();
+            }
+        }
+        if (args.length - i < 3) {
+            usage();
+        }
+        File outDir = new File(args[i++]);
+        String name = args[i++];
+        List<File> inputs = new ArrayList<File>();
+        for (; i < args.length; i++) {
+            inputs.add(new File(args[i]));
+        }
+
+        AtlasPacker packer = new AtlasPacker(max, pad);
+        List<Entry> entries = packer.load(inputs);
+        List<Page> pages = packer.pack(entries, name);
+        packer.write(outDir, name, pages);
+        for (Page page : pages) {
+            System.out.printf("%s %dx%d %d images, density %.1f%%%n", page.file,
+                    page.w, page.h, page.entries.size(), 100 * density(page));
+        }
+        if (verify) {
+            int errors = verify(outDir, name, inputs);
+            if (errors > 0) {
+                System.err.println(errors + " images do not match their atlas region");
+                System.exit(1);
+            }
+            System.out.println("verify ok");
+        }
+    }
+
+    private static void usage() {
+        System.err.println("usage: AtlasPacker [-max size] [-pad pixels] [-verify]"
+                + " outdir name image.png...");
+        System.exit(2);
+    }
+
+    List<Entry> load(List<File> files) throws IOException {
+        List<Entry> entries = new ArrayList<Entry>();
+        for (File f : files) {
+            BufferedImage img = ImageIO.read(f);
+            if (img == null) {
+                throw new IOException("Not an image: " + f);
+            }
+            Entry e = new Entry();
+            e.name = baseName(f);
+            e.image = img;
+            trim(e);
+            entries.add(e);
+        }
+        return entries;
+    }
+
+    private static String baseName(File f) {
+        String n = f.getName();
+        int dot = n.lastIndexOf('.');
+        return dot > 0 ? n.substring(0, dot) : n;
+    }
+
+    // Shrink w/h to the last column and row holding a visible pixel
+    private static void trim(Entry e) {
+        BufferedImage img = e.image;
+        int maxX = 0;
+        int maxY = 0;
+        for (int y = 0; y < img.getHeight(); y++) {
+            for (int x = 0; x < img.getWidth(); x++) {
+                if ((img.getRGB(x, y) >>> 24) != 0) {
+                    maxX = Math.max(maxX, x + 1);
+                    maxY = Math.max(maxY, y + 1);
+                }
+            }
+        }
+        e.w = Math.max(maxX, 1);
+        e.h = Math.max(maxY, 1);
+    }
+
+    /**
+     * Shelf packing of the entries sorted by decreasing height. Each page is
+     * the smallest power of two rectangle (up to the max size) that holds the
+     * remaining entries, or as many of them as fit.
+     */
+    List<Page> pack(List<Entry> entries, String name) {
+        List<Entry> todo = new ArrayList<Entry>(entries);
+        Collections.sort(todo, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                if (a.h != b.h) {
+                    return b.h - a.h;
+                }
+                return b.w - a.w;
+            }
+        });
+        for (Entry e : todo) {
+            if (e.w + mPad > mMaxSize || e.h + mPad > mMaxSize) {
+                throw new IllegalArgumentException(e.name + " does not fit in "
+                        + mMaxSize + "x" + mMaxSize);
+            }
+        }
+
+        List<Page> pages = new ArrayList<Page>();
+        while (!todo.isEmpty()) {
+            Page best = null;
+            for (int w = 1; w <= mMaxSize && best == null; w <<= 1) {
+                for (int h = Math.max(1, w / 2); h <= Math.min(mMaxSize, w * 2); h <<= 1) {
+                    Page p = shelfPack(todo, w, h, false);
+                    if (p.entries.size() == todo.size()
+                            && (best == null || w * h < best.w * best.h)) {
+                        best = p;
+                    }
+                }
+            }
+            if (best == null) {
+                // Not everything fits in one page, fill a max size page
+                best = shelfPack(todo, mMaxSize, mMaxSize, false);
+            }
+            best = shelfPack(best.entries, best.w, best.h, true);
+            best.file = name + "_" + pages.size() + ".png";
+            for (Entry e : best.entries) {
+                e.page = pages.size();
+            }
+            todo.removeAll(best.entries);
+            pages.add(best);
+        }
+        return pages;
+    }
+
+    private Page shelfPack(List<Entry> entries, int w, int h, boolean place) {
+        Page page = new Page();
+        page.w = w;
+        page.h = h;
+        int x = 0;
+        int y = 0;
+        int shelf = 0;
+        for (Entry e : entries) {
+            int ew = e.w + mPad;
+            int eh = e.h + mPad;
+            if (x + ew > w) {
+                x = 0;
+                y += shelf;
+                shelf = 0;
+            }
+            if (ew > w || y + eh > h) {
+                continue;
+            }
+            if (place) {
+                e.x = x;
+                e.y = y;
+            }
+            page.entries.add(e);
+            x += ew;
+            shelf = Math.max(shelf, eh);
+        }
+        return page;
+    }
+
+    static double density(Page page) {
+        long used = 0;
+        for (Entry e : page.entries) {
+            used += (long)e.w * e.h;
+        }
+        return used / (double)((long)page.w * page.h);
+    }
+
+    void write(File outDir, String name, List<Page> pages) throws IOException {
+        outDir.mkdirs();
+        int count = 0;
+        for (Page page : pages) {
+            BufferedImage img = new BufferedImage(page.w, page.h, BufferedImage.TYPE_INT_ARGB);
+            for (Entry e : page.entries) {
+                int[] row = new int[e.w];
+                for (int y = 0; y < e.h; y++) {
+                    e.image.getRGB(0, y, e.w, 1, row, 0, e.w);
+                    img.setRGB(e.x, e.y + y, e.w, 1, row, 0, e.w);
+                }
+            }
+            ImageIO.write(img, "png", new File(outDir, page.file));
+            count += page.entries.size();
+        }
+
+        DataOutputStream out = new DataOutputStream(
+                new FileOutputStream(new File(outDir, name + ".uv")));
+        try {
+            out.writeInt(MAGIC);
+            out.writeShort(pages.size());
+            for (Page page : pages) {
+                out.writeUTF(page.file);
+                out.writeShort(page.w);
+                out.writeShort(page.h);
+            }
+            out.writeShort(count);
+            for (Page page : pages) {
+                for (Entry e : page.entries) {
+                    out.writeUTF(e.name);
+                    out.writeByte(e.page);
+                    out.writeShort(e.x);
+                    out.writeShort(e.y);
+                    out.writeShort(e.w);
+                    out.writeShort(e.h);
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Read back the UV table and pages written by {@link #write} and compare
+     * every region pixel by pixel with its source image. Also checks that the
+     * regions stay inside their page and do not overlap.
+     *
+     * @return the number of images that failed
+     */
+    static int verify(File outDir, String name, List<File> sources) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new FileInputStream(new File(outDir, name + ".uv")));
+        int errors = 0;
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Bad UV table magic");
+            }
+            int pageCount = in.readShort();
+            BufferedImage[] pages = new BufferedImage[pageCount];
+            for (int p = 0; p < pageCount; p++) {
+                pages[p] = ImageIO.read(new File(outDir, in.readUTF()));
+                int w = in.readShort();
+                int h = in.readShort();
+                if (pages[p].getWidth() != w || pages[p].getHeight() != h
+                        || Integer.bitCount(w) != 1 || Integer.bitCount(h) != 1) {
+                    throw new IOException("Bad page size " + w + "x" + h);
+                }
+            }
+            int count = in.readShort();
+            int[][] rects = new int[count][];
+            for (int i = 0; i < count; i++) {
+                String entry = in.readUTF();
+                int page = in.readByte();
+                int x = in.readShort();
+                int y = in.readShort();
+                int w = in.readShort();
+                int h = in.readShort();
+                rects[i] = new int[] { page, x, y, w, h };
+                BufferedImage src = null;
+                for (File f : sources) {
+                    if (baseName(f).equals(entry)) {
+                        src = ImageIO.read(f);
+                    }
+                }
+                BufferedImage dst = pages[page];
+                boolean ok = src != null && x + w <= dst.getWidth() && y + h <= dst.getHeight();
+                for (int yy = 0; ok && yy < h; yy++) {
+                    for (int xx = 0; ok && xx < w; xx++) {
+                        ok = src.getRGB(xx, yy) == dst.getRGB(x + xx, y + yy)
+                                || ((src.getRGB(xx, yy) | dst.getRGB(x + xx, y + yy)) >>> 24) == 0;
+                    }
+                }
+                for (int j = 0; ok && j < i; j++) {
+                    int[] r = rects[j];
+                    ok = r[0] != page || x >= r[1] + r[3] || r[1] >= x + w
+                            || y >= r[2] + r[4] || r[2] >= y + h;
+                }
+                if (!ok) {
+                    System.err.println("mismatch: " + entry);
+                    errors++;
+                }
+            }
+            if (count != sources.size()) {
+                System.err.println("table has " + count + " entries, expected " + sources.size());
+                errors += Math.abs(sources.size() - count);
+            }
+        } finally {
+            in.close();
+        }
+        return errors;
+    }
+}
@@ -0,0 +1,112 @@
+package com.dnasystems.andeanabyss.tools;
+
+import java.util.Arrays;
+
+/**
+ * One benchmark of the Benchmarks suite. Subclasses prepare their inputs in
+ * {@link #setUp()} and do the measured work in {@link #run(int)};
+ * {@link #measure(int, long)} calibrates the operations per sample, warms
+ * the code up and times the samples.
+ */
+public abstract class Bench {
+
+    // Samples thrown away while the JIT settles
+    private static final int WARMUP_SAMPLES = 5;
+    // Two sided 99.9% quantile of the normal distribution, the same
+    // confidence JMH reports its error with
+    private static final double Z_999 = 3.29;
+
+    private final String mName;
+    // Results of run() end up here so the JIT cannot drop the work
+    private long mSink;
+
+    protected Bench(String name) {
+        mName = name;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Build the inputs, not timed.
+     */
+    protected void setUp() {
+    }
+
+    /**
+     * Do ops operations.
+     *
+     * @return any value computed from the results
+     */
+    protected abstract long run(int ops);
+
+    /**
+     * Time samples runs of about sampleNanos each.
+     */
+    public Result measure(int samples, long sampleNanos) {
+        setUp();
+        // Grow the sample until it takes long enough to time
+        int ops = 1;
+        while (true) {
+            long t = time(ops);
+            if (t >= sampleNanos / 4 || ops >= Integer.MAX_VALUE / 8) {
+                ops = (int)Math.max(1, Math.min(Integer.MAX_VALUE, ops * (double)sampleNanos / t));
+                break;
+            }
+            ops *= 4;
+        }
+        for (int i = 0; i < WARMUP_SAMPLES; i++) {
+            time(ops);
+        }
+        double[] nsPerOp = new double[samples];
+        for (int i = 0; i < samples; i++) {
+            nsPerOp[i] = time(ops) / (double)ops;
+        }
+        return new Result(mName, ops, nsPerOp, mSink);
+    }
+
+    private long time(int ops) {
+        long t0 = System.nanoTime();
+        mSink += run(ops);
+        return Math.max(1, System.nanoTime() - t0);
+    }
+
+    /**
+     * Time per operation over the samples of one benchmark.
+     */
+    public static class Result {
+
+        public final String name;
+        public final int ops;
+        public final int samples;
+        public final double mean;
+        // Half width of the 99.9% confidence interval of mean
+        public final double error;
+        public final double min;
+        public final double median;
+        final long sink;
+
+        Result(String name, int ops, double[] nsPerOp, long sink) {
+            this.name = name;
+            this.ops = ops;
+            this.samples = nsPerOp.length;
+            this.sink = sink;
+            double sum = 0;
+            for (double v : nsPerOp) {
+                sum += v;
+            }
+            mean = sum / samples;
+            double squares = 0;
+            for (double v : nsPerOp) {
+                squares += (v - mean) * (v - mean);
+            }
+            double sd = samples > 1 ? Math.sqrt(squares / (samples - 1)) : 0;
+            error = Z_999 * sd / Math.sqrt(samples);
+            double[] sorted = nsPerOp.clone();
+            Arrays.sort(sorted);
+            min = sorted[0];
+            median = sorted[samples / 2];
+        }
+    }
+}
@@ -0,0 +1,538 @@
+package com.dnasystems.andeanabyss.tools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.dnasystems.andeanabyss.FrameRecorder;
+import com.dnasystems.andeanabyss.FrameSnapshot;
+import com.dnasystems.andeanabyss.InputQueue;
+import com.dnasystems.andeanabyss.OnInput;
+import com.dnasystems.andeanabyss.PieceLayout;
+import com.dnasystems.andeanabyss.PieceStore;
+import com.dnasystems.andeanabyss.PkmFile;
+import com.dnasystems.andeanabyss.SnapshotBuffer;
+import com.dnasystems.andeanabyss.SpatialGrid;
+import com.dnasystems.andeanabyss.game.GameState;
+import com.dnasystems.andeanabyss.game.Rules;
+import com.dnasystems.andeanabyss.game.Spaces;
+import com.dnasystems.andeanabyss.game.Zobrist;
+
+/**
+ * Suite of micro benchmarks for the hot paths of the board and the game
+ * engine, timed with Bench. Prints one CSV line per benchmark with the
+ * mean time per operation and its 99.9% error. Given the CSV of an earlier
+ * run as baseline, every benchmark is compared with it and the exit status
+ * is 1 if any got slower by more than the threshold and the errors, so
+ * runs on two commits can be compared by a script.
+ *
+ * <pre>
+ * java com.dnasystems.andeanabyss.tools.Benchmarks [-samples n] [-ms sample ms]
+ *         [-baseline old.csv] [-threshold percent] [name ...]</pre>
+ *
+ * Names select the benchmarks whose name contains any of them.
+ */
+public class Benchmarks {
+
+    private static final String HEADER =
+            "benchmark,ops,samples,ns_per_op,error_ns,min_ns,median_ns,baseline_ns,change_pct,regressed";
+
+    private static final float BOARD_W = 2048;
+    private static final float BOARD_H = 2048 + 1116;
+    // Piece objects on the board, see GameBoard
+    private static final int OBJECTS = 160;
+    // Inputs cycled through by the benchmarks, a power of two
+    private static final int INPUTS = 4096;
+
+    public static void main(String[] args) throws IOException {
+        int samples = 20;
+        long sampleMs = 100;
+        File baselineFile = null;
+        double threshold = 10;
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-samples")) {
+                samples = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-ms")) {
+                sampleMs = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-baseline")) {
+                baselineFile = new File(args[++i]);
+            } else if (args[i].equals("-threshold")) {
+                threshold = Double.parseDouble(args[++i]);
+            } else {
+                names.add(args[i]);
+            }
+        }
+        Map<String, double[]> baseline = baselineFile != null
+                ? readBaseline(baselineFile) : new HashMap<String, double[]>();
+
+        System.out.println(HEADER);
+        int regressions = 0;
+        for (Bench bench : suite()) {
+            if (!selected(bench.getName(), names)) {
+                continue;
+            }
+            System.err.println("running " + bench.getName());
+            Bench.Result r = bench.measure(samples, sampleMs * 1000000L);
+            StringBuilder line = new StringBuilder();
+            line.append(String.format("%s,%d,%d,%.2f,%.2f,%.2f,%.2f", r.name, r.ops, r.samples,
+                    r.mean, r.error, r.min, r.median));
+            double[] base = baseline.get(r.name);
+            if (base != null) {
+                double change = (r.mean / base[0] - 1) * 100;
+                // Slower beyond the threshold and beyond both error bars
+                boolean regressed = change > threshold && r.mean - r.error > base[0] + base[1];
+                if (regressed) {
+                    regressions++;
+                }
+                line.append(String.format(",%.2f,%.1f,%s", base[0], change, regressed));
+            } else {
+                line.append(",,,");
+            }
+            System.out.println(line);
+        }
+        if (regressions > 0) {
+            System.err.println(regressions + " benchmarks regressed");
+            System.exit(1);
+        }
+    }
+
+    private static boolean selected(String name, List<String> names) {
+        if (names.isEmpty()) {
+            return true;
+        }
+        for (String n : names) {
+            if (name.contains(n)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Mean and error per benchmark of an earlier run
+    private static Map<String, double[]> readBaseline(File file) throws IOException {
+        Map<String, double[]> baseline = new HashMap<String, double[]>();
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        try {
+            String line = in.readLine();
+            if (line == null || !line.startsWith("benchmark,")) {
+                throw new IOException(file + " is not a Benchmarks CSV");
+            }
+            while ((line = in.readLine()) != null) {
+                String[] f = line.split(",");
+                baseline.put(f[0], new double[] {
+                    Double.parseDouble(f[3]), Double.parseDouble(f[4])
+                });
+            }
+        } finally {
+            in.close();
+        }
+        return baseline;
+    }
+
+    private static List<Bench> suite() {
+        List<Bench> suite = new ArrayList<Bench>();
+        suite.add(new HitTest());
+        suite.add(new DropSpace());
+        suite.add(new Layout());
+        suite.add(new Snapshot());
+        suite.add(new RecordFrame());
+        suite.add(new PkmHeader());
+        suite.add(new MoveGen());
+        suite.add(new ApplyMove());
+        suite.add(new ZobristHash());
+        suite.add(new InputDrain());
+        return suite;
+    }
+
+    // States of random games, the same on every run
+    private static GameState[] randomStates(int count) {
+        GameState[] states = new GameState[count];
+        int[] moves = new int[Rules.MAX_MOVES];
+        Random rnd = new Random(1);
+        GameState s = MoveGenBenchmark.start();
+        for (int i = 0; i < count; i++) {
+            if (i % 200 == 0) {
+                s = MoveGenBenchmark.start();
+            }
+            int n = Rules.generate(s, i % GameState.FACTIONS, moves);
+            Rules.apply(s, moves[rnd.nextInt(n)], rnd);
+            states[i] = new GameState(s);
+        }
+        return states;
+    }
+
+    /**
+     * GameBoard.onDown: the topmost piece under a touch.
+     */
+    static class HitTest extends Bench {
+        private final SpatialGrid mGrid = new SpatialGrid(BOARD_W, BOARD_H, 128);
+        private final float[] mPoints = new float[INPUTS * 2];
+
+        HitTest() {
+            super("hitTest");
+        }
+
+        @Override
+        protected void setUp() {
+            Random rnd = new Random(2);
+            float[] pos = new float[2];
+            for (int i = 0; i < OBJECTS; i++) {
+                PieceLayout.spacePosition(rnd.nextInt(Spaces.COUNT), rnd.nextInt(8), 30, 47, pos);
+                mGrid.insert(i, pos[0], pos[1], 30, 47);
+            }
+            for (int i = 0; i < mPoints.length; i++) {
+                mPoints[i] = rnd.nextFloat() * (i % 2 == 0 ? BOARD_W : BOARD_H);
+            }
+        }
+
+        @Override
+        protected long run(int ops) {
+            long sink = 0;
+            for (int i = 0; i < ops; i++) {
+                int p = (i & (INPUTS - 1)) * 2;
+                sink += mGrid.topmostAt(mPoints[p], mPoints[p + 1]);
+            }
+            return sink;
+        }
+    }
+
+    /**
+     * GameBoard.onUp: the space a piece is dropped on.
+     */
+    static class DropSpace extends Bench {
+        private final float[] mPoints = new float[INPUTS * 2];
+
+        DropSpace() {
+            super("dropSpace");
+        }
+
+        @Override
+        protected void setUp() {
+            Random rnd = new Random(3);
+            for (int i = 0; i < mPoints.length; i++) {
+                mPoints[i] = rnd.nextFloat() * (i % 2 == 0 ? BOARD_W : BOARD_H);
+            }
+        }
+
+        @Override
+        protected long run(int ops) {
+            long sink = 0;
+            for (int i = 0; i < ops; i++) {
+                int p = (i & (INPUTS - 1)) * 2;
+                sink += PieceLayout.spaceAt(mPoints[p], mPoints[p + 1]);
+            }
+            return sink;
+        }
+    }
+
+    /**
+     * GameBoard.layout: board positions of every piece of a game state,
+     * the positions the draw list is built from.
+     */
+    static class Layout extends Bench {
+        private GameState[] mStates;
+        private final int[] mSlots = new int[Spaces.COUNT];
+        private final float[] mPos = new float[2];
+
+        Layout() {
+            super("layout");
+        }
+
+        @Override
+        protected void setUp() {
+            mStates = randomStates(256);
+        }
+
+        @Override
+        protected long run(int ops) {
+            float sink = 0;
+            for (int i = 0; i < ops; i++) {
+                GameState s = mStates[i & 255];
+                for (int sp = 0; sp < Spaces.COUNT; sp++) {
+                    int slot = 0;
+                    for (int type = 0; type < GameState.PIECE_TYPES; type++) {
+                        for (int n = s.count(sp, type); n > 0; n--) {
+                            PieceLayout.spacePosition(sp, slot++, 30, 47, mPos);
+                            sink += mPos[0];
+                        }
+                    }
+                }
+                for (int type = 0; type < GameState.PIECE_TYPES; type++) {
+                    for (int n = 0; n < s.available(type); n++) {
+                        PieceLayout.poolPosition(type, n, mPos);
+                        sink += mPos[1];
+                    }
+                }
+            }
+            return (long)sink;
+        }
+    }
+
+    /**
+     * GameBoard.publish and draw: hand the frame's object positions to the
+     * draw side through the triple buffer.
+     */
+    static class Snapshot extends Bench {
+        private final SnapshotBuffer mBuffer = new SnapshotBuffer(OBJECTS);
+        private final float[] mX = new float[OBJECTS];
+        private final float[] mY = new float[OBJECTS];
+
+        Snapshot() {
+            super("snapshot");
+        }
+
+        @Override
+        protected void setUp() {
+            Random rnd = new Random(4);
+            for (int i = 0; i < OBJECTS; i++) {
+                mX[i] = rnd.nextFloat() * BOARD_W;
+                mY[i] = rnd.nextFloat() * BOARD_H;
+            }
+        }
+
+        @Override
+        protected long run(int ops) {
+            long sink = 0;
+            for (int i = 0; i < ops; i++) {
+                FrameSnapshot f = mBuffer.back();
+                f.mPosX = i;
+                for (int o = 0; o < OBJECTS; o++) {
+                    f.mX[o] = mX[o];
+                    f.mY[o] = mY[o];
+                }
+                mBuffer.publish();
+                sink += (long)mBuffer.acquire().mPosX;
+            }
+            return sink;
+        }
+    }
+
+    /**
+     * FrameRecorder.record: cull the pieces of a snapshot and record the
+     * visible ones into a sorted CommandBuffer.
+     */
+    static class RecordFrame extends Bench {
+        private final PieceStore mPieces = new PieceStore(OBJECTS);
+        private FrameRecorder mRecorder;
+        private final FrameSnapshot mFrame = new FrameSnapshot(OBJECTS);
+
+        RecordFrame() {
+            super("recordFrame");
+        }
+
+        @Override
+        protected void setUp() {
+            Random rnd = new Random(6);
+            mFrame.mZoom = 0.5f;
+            mFrame.mWidth = 1280;
+            mFrame.mHeight = 800;
+            mFrame.mActive = 1;
+            // Three piece images on three textures
+            float[] texCoords = new float[8];
+            for (int t = 0; t < 3; t++) {
+                mPieces.addImage("piece" + t, 1 + t, texCoords, 30, 47);
+            }
+            for (int i = 0; i < OBJECTS; i++) {
+                mPieces.add(rnd.nextInt(3));
+                mFrame.mX[i] = rnd.nextFloat() * BOARD_W;
+                mFrame.mY[i] = rnd.nextFloat() * BOARD_H;
+                mFrame.mImage[i] = mPieces.getImage(i);
+            }
+            mRecorder = new FrameRecorder(mPieces, 1, false);
+        }
+
+        @Override
+        protected long run(int ops) {
+            long sink = 0;
+            for (int i = 0; i < ops; i++) {
+                sink += mRecorder.record(mFrame).getCommandCount();
+            }
+            return sink;
+        }
+    }
+
+    /**
+     * PkmFile.parse of an image header, once per map tile and texture.
+     */
+    static class PkmHeader extends Bench {
+        private final ByteBuffer mImage = ByteBuffer.allocate(
+                PkmFile.HEADER_SIZE + PkmFile.dataSize(64, 64));
+
+        PkmHeader() {
+            super("pkmHeader");
+        }
+
+        @Override
+        protected void setUp() {
+            mImage.put("PKM 10".getBytes());
+            mImage.putShort((short)PkmFile.ETC1_RGB_NO_MIPMAPS);
+            mImage.putShort((short)64).putShort((short)64);
+            mImage.putShort((short)64).putShort((short)64);
+            mImage.clear();
+        }
+
+        @Override
+        protected long run(int ops) {
+            long sink = 0;
+            try {
+                for (int i = 0; i < ops; i++) {
+                    sink += PkmFile.parse(mImage, 0).width;
+                }
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            return sink;
+        }
+    }
+
+    /**
+     * Rules.generate, the legal moves of the faction to play.
+     */
+    static class MoveGen extends Bench {
+        private GameState[] mStates;
+        private final int[] mMoves = new int[Rules.MAX_MOVES];
+
+        MoveGen() {
+            super("moveGen");
+        }
+
+        @Override
+        protected void setUp() {
+            mStates = randomStates(1024);
+        }
+
+        @Override
+        protected long run(int ops) {
+            long sink = 0;
+            for (int i = 0; i < ops; i++) {
+                int s = i & 1023;
+                sink += Rules.generate(mStates[s], s % GameState.FACTIONS, mMoves);
+            }
+            return sink;
+        }
+    }
+
+    /**
+     * Rules.apply of a legal move to a copy of the state, as in a playout.
+     */
+    static class ApplyMove extends Bench {
+        private GameState[] mStates;
+        private final int[] mMove = new int[1024];
+        private final GameState mScratch = new GameState();
+        private final Random mRandom = new Random(5);
+
+        ApplyMove() {
+            super("applyMove");
+        }
+
+        @Override
+        protected void setUp() {
+            mStates = randomStates(1024);
+            int[] moves = new int[Rules.MAX_MOVES];
+            for (int i = 0; i < mMove.length; i++) {
+                int n = Rules.generate(mStates[i], i % GameState.FACTIONS, moves);
+                mMove[i] = moves[mRandom.nextInt(n)];
+            }
+        }
+
+        @Override
+        protected long run(int ops) {
+            long sink = 0;
+            for (int i = 0; i < ops; i++) {
+                int s = i & 1023;
+                mScratch.copyFrom(mStates[s]);
+                Rules.apply(mScratch, mMove[s], mRandom);
+                sink += mScratch.hash();
+            }
+            return sink;
+        }
+    }
+
+    /**
+     * Zobrist.hash, the full recompute the incremental hash is checked
+     * against.
+     */
+    static class ZobristHash extends Bench {
+        private GameState[] mStates;
+
+        ZobristHash() {
+            super("zobristHash");
+        }
+
+        @Override
+        protected void setUp() {
+            mStates = randomStates(256);
+        }
+
+        @Override
+        protected long run(int ops) {
+            long sink = 0;
+            for (int i = 0; i < ops; i++) {
+                sink += Zobrist.hash(mStates[i & 255]);
+            }
+            return sink;
+        }
+    }
+
+    /**
+     * A drag of 16 touch events through the InputQueue, offered and
+     * drained on one thread.
+     */
+    static class InputDrain extends Bench implements OnInput {
+        private final InputQueue mQueue = new InputQueue(256);
+        private long mCalls;
+
+        InputDrain() {
+            super("inputDrain");
+        }
+
+        @Override
+        protected long run(int ops) {
+            for (int i = 0; i < ops; i++) {
+                mQueue.offer(InputQueue.DOWN, 0, 10, 10);
+                for (int m = 0; m < 14; m++) {
+                    mQueue.offer(InputQueue.MOVE, 0, 1, 1);
+                }
+                mQueue.offer(InputQueue.UP, 0, 24, 24);
+                mQueue.drain(this);
+            }
+            return mCalls;
+        }
+
+        public boolean onUp(int id, float x, float y) {
+            mCalls++;
+            return true;
+        }
+
+        public boolean onDown(int id, float x, float y) {
+            mCalls++;
+            return false;
+        }
+
+        public boolean onMove(int id, float dx, float dy) {
+            mCalls += (long)dx;
+            return true;
+        }
+
+        public boolean onZoom(float scalefactor, float focusX, float focusY) {
+            return true;
+        }
+
+        public boolean onFling(int id, float vx, float vy) {
+            return true;
+        }
+
+        @Override
+        public boolean onCancel(int id) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.dnasystems.andeanabyss.tools;
+
+import java.util.Random;
+
+import com.dnasystems.andeanabyss.game.CardDeck;
+
+/**
+ * Builds game.CardDeck decks from many seeds and checks them against the
+ * deck preparation rules: every pile has its events and one Propaganda
+ * card, no card comes twice, and flipping through the deck shows each card
+ * once with the next card known ahead. Prints how often the Propaganda
+ * card is at each position of its pile as CSV, which should be flat.
+ *
+ * <pre>
+ * java com.dnasystems.andeanabyss.tools.CardDeckCheck [decks]</pre>
+ */
+public class CardDeckCheck {
+
+    public static void main(String[] args) {
+        int decks = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int pile = CardDeck.PILE_EVENTS + 1;
+        long[] positions = new long[pile];
+        Random rnd = new Random(1);
+        for (int d = 0; d < decks; d++) {
+            CardDeck deck = new CardDeck(rnd);
+            check(deck.size() == CardDeck.PILES * pile, "size " + deck.size());
+            boolean[] seen = new boolean[CardDeck.CARDS + 1];
+            for (int p = 0; p < CardDeck.PILES; p++) {
+                int propaganda = 0;
+                for (int i = 0; i < pile; i++) {
+                    int card = deck.current();
+                    check(card >= 1 && card <= CardDeck.CARDS, "card " + card);
+                    check(!seen[card], "card " + card + " twice");
+                    seen[card] = true;
+                    if (CardDeck.isPropaganda(card)) {
+                        propaganda++;
+                        positions[i]++;
+                    }
+                    int next = deck.next();
+                    check(deck.flip() == next, "flip did not show the next card");
+                }
+                check(propaganda == 1, "pile " + p + " has " + propaganda + " propaganda");
+            }
+            check(deck.current() == CardDeck.NONE && deck.flip() == CardDeck.NONE,
+                    "cards past the end");
+        }
+
+        // The short scenario deals fewer piles
+        CardDeck deck = new CardDeck(rnd, 3, 10);
+        check(deck.size() == 33, "short deck size " + deck.size());
+        check(CardDeck.name(7).equals("card07") && CardDeck.name(73).equals("card73"), "names");
+        try {
+            new CardDeck(rnd, 5, 10);
+            throw new AssertionError("five piles accepted");
+        } catch (IllegalArgumentException e) {
+            // Only four Propaganda cards
+        }
+
+        System.out.println("position,share");
+        for (int i = 0; i < pile; i++) {
+            System.out.println(i + "," + (float)positions[i] / (decks * CardDeck.PILES));
+        }
+    }
+
+    private static void check(boolean ok, String message) {
+        if (!ok) {
+            throw new AssertionError(message);
+        }
+    }
+}
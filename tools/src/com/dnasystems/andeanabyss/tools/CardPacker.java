@@ -0,0 +1,142 @@
+package com.dnasystems.andeanabyss.tools;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Encodes card images as ETC1 PKM files for CardTextures, e.g.
+ * res/raw/card01.png becomes assets/cards/card01.pkm. -crop keeps only the
+ * top left part of the images, the card images in res/raw are drawn from a
+ * power of two texture and have the card at 254x356 in a 256x512 image.
+ * ETC1 has no alpha, translucent pixels such as the rounded corners are
+ * flattened onto black. Images are padded to a multiple of four pixels by
+ * repeating the last row and column; the original size goes into the
+ * header.
+ *
+ * <pre>
+ * java com.dnasystems.andeanabyss.tools.CardPacker [-verify] [-crop 254x356]
+ *         outdir card.png...</pre>
+ *
+ * With -verify every card is decoded again and its PSNR against the source
+ * is printed with the sizes as CSV.
+ */
+public class CardPacker {
+
+    public static void main(String[] args) throws IOException {
+        boolean verify = false;
+        int cropW = 0;
+        int cropH = 0;
+        int i = 0;
+        for (; i < args.length && args[i].startsWith("-"); i++) {
+            if (args[i].equals("-verify")) {
+                verify = true;
+            } else if (args[i].equals("-crop") && i + 1 < args.length) {
+                String[] size = args[++i].split("x");
+                cropW = Integer.parseInt(size[0]);
+                cropH = Integer.parseInt(size[1]);
+            } else {
+                usage();
+            }
+        }
+        if (args.length - i < 2) {
+            usage();
+        }
+        File dir = new File(args[i++]);
+        dir.mkdirs();
+        if (verify) {
+            System.out.println("card,width,height,png_bytes,pkm_bytes,rgb565_bytes,psnr_db");
+        }
+        for (; i < args.length; i++) {
+            File src = new File(args[i]);
+            BufferedImage img = ImageIO.read(src);
+            if (img == null) {
+                throw new IOException("Cannot read " + src);
+            }
+            int w = cropW > 0 ? Math.min(cropW, img.getWidth()) : img.getWidth();
+            int h = cropH > 0 ? Math.min(cropH, img.getHeight()) : img.getHeight();
+            int[] image = img.getRGB(0, 0, w, h, null, 0, w);
+            flatten(image);
+            byte[] pkm = encode(image, w, h);
+            String name = src.getName().replaceFirst("\\.png$", "");
+            File out = new File(dir, name + ".pkm");
+            FileOutputStream os = new FileOutputStream(out);
+            try {
+                os.write(pkm);
+            } finally {
+                os.close();
+            }
+            if (verify) {
+                System.out.println(name + "," + w + "," + h + "," + src.length() + ","
+                        + pkm.length + "," + w * h * 2 + ","
+                        + String.format("%.2f", psnr(image, pkm, w, h)));
+            }
+        }
+    }
+
+    // Premultiply by alpha and drop it, the board blends premultiplied
+    private static void flatten(int[] image) {
+        for (int i = 0; i < image.length; i++) {
+            int a = image[i] >>> 24;
+            int r = ((image[i] >> 16) & 0xff) * a / 255;
+            int g = ((image[i] >> 8) & 0xff) * a / 255;
+            int b = (image[i] & 0xff) * a / 255;
+            image[i] = r << 16 | g << 8 | b;
+        }
+    }
+
+    private static void usage() {
+        System.err.println("usage: CardPacker [-verify] [-crop wxh] outdir card.png...");
+        System.exit(2);
+    }
+
+    static byte[] encode(int[] image, int w, int h) {
+        int bw = (w + 3) / 4;
+        int bh = (h + 3) / 4;
+        byte[] pkm = new byte[MapTiler.PKM_HEADER_SIZE + bw * bh * 8];
+        MapTiler.writePkmHeader(pkm, bw * 4, bh * 4);
+        // The header wants the original size last
+        MapTiler.writeShort(pkm, 12, w);
+        MapTiler.writeShort(pkm, 14, h);
+        int[] px = new int[16];
+        for (int by = 0; by < bh; by++) {
+            for (int bx = 0; bx < bw; bx++) {
+                for (int p = 0; p < 16; p++) {
+                    int x = Math.min(bx * 4 + p % 4, w - 1);
+                    int y = Math.min(by * 4 + p / 4, h - 1);
+                    px[p] = image[y * w + x];
+                }
+                Etc1.encodeBlock(px, pkm, MapTiler.PKM_HEADER_SIZE + (by * bw + bx) * 8);
+            }
+        }
+        return pkm;
+    }
+
+    private static double psnr(int[] image, byte[] pkm, int w, int h) {
+        int bw = (w + 3) / 4;
+        int[] px = new int[16];
+        double sum = 0;
+        for (int by = 0; by < (h + 3) / 4; by++) {
+            for (int bx = 0; bx < bw; bx++) {
+                Etc1.decodeBlock(pkm, MapTiler.PKM_HEADER_SIZE + (by * bw + bx) * 8, px);
+                for (int p = 0; p < 16; p++) {
+                    int x = bx * 4 + p % 4;
+                    int y = by * 4 + p / 4;
+                    if (x >= w || y >= h) {
+                        continue;
+                    }
+                    int a = image[y * w + x];
+                    for (int shift = 0; shift < 24; shift += 8) {
+                        int d = ((a >> shift) & 0xff) - ((px[p] >> shift) & 0xff);
+                        sum += d * d;
+                    }
+                }
+            }
+        }
+        double mse = sum / (w * h * 3.0);
+        return mse == 0 ? 99 : 10 * Math.log10(255 * 255 / mse);
+    }
+}
@@ -0,0 +1,206 @@
+package com.dnasystems.andeanabyss.tools;
+
+/**
+ * ETC1 block decoder and a simple brute force encoder. Blocks are 4x4 pixels
+ * stored as 8 big endian bytes; pixels are packed 0xRRGGBB ints.
+ */
+public class Etc1 {
+
+    private static final int[][] MODIFIERS = {
+        { 2, 8 }, { 5, 17 }, { 9, 29 }, { 13, 42 },
+        { 18, 60 }, { 24, 80 }, { 33, 106 }, { 47, 183 }
+    };
+
+    private Etc1() {
+    }
+
+    private static int clamp(int v) {
+        return v < 0 ? 0 : (v > 255 ? 255 : v);
+    }
+
+    // Pixel index table entry (msb, lsb) to modifier
+    private static int modifier(int table, int index) {
+        int m = MODIFIERS[table][index & 1];
+        return (index & 2) != 0 ? -m : m;
+    }
+
+    /**
+     * Decode one block at data[offset] into out[y * 4 + x].
+     */
+    public static void decodeBlock(byte[] data, int offset, int[] out) {
+        long block = 0;
+        for (int i = 0; i < 8; i++) {
+            block = (block << 8) | (data[offset + i] & 0xff);
+        }
+        int hi = (int)(block >>> 32);
+        int lo = (int)block;
+        boolean diff = (hi & 2) != 0;
+        boolean flip = (hi & 1) != 0;
+        int[] base1 = new int[3];
+        int[] base2 = new int[3];
+        for (int c = 0; c < 3; c++) {
+            int shift = 24 - c * 8;
+            if (diff) {
+                int b = (hi >>> (shift + 3)) & 0x1f;
+                int d = (hi >>> shift) & 0x7;
+                d = (d << 29) >> 29;
+                int b2 = b + d;
+                base1[c] = (b << 3) | (b >> 2);
+                base2[c] = (b2 << 3) | (b2 >> 2);
+            } else {
+                base1[c] = ((hi >>> (shift + 4)) & 0xf) * 17;
+                base2[c] = ((hi >>> shift) & 0xf) * 17;
+            }
+        }
+        int table1 = (hi >>> 5) & 7;
+        int table2 = (hi >>> 2) & 7;
+        for (int x = 0; x < 4; x++) {
+            for (int y = 0; y < 4; y++) {
+                int bit = x * 4 + y;
+                int index = ((lo >>> (bit + 16)) & 1) << 1 | ((lo >>> bit) & 1);
+                boolean second = flip ? y >= 2 : x >= 2;
+                int[] base = second ? base2 : base1;
+                int m = modifier(second ? table2 : table1, index);
+                out[y * 4 + x] = clamp(base[0] + m) << 16 | clamp(base[1] + m) << 8
+                        | clamp(base[2] + m);
+            }
+        }
+    }
+
+    /**
+     * Encode 16 pixels px[y * 4 + x] into 8 bytes at out[offset]. Tries both
+     * sub-block orientations in individual and differential mode with every
+     * modifier table and keeps the one with the lowest squared error.
+     */
+    public static void encodeBlock(int[] px, byte[] out, int offset) {
+        long best = 0;
+        long bestErr = Long.MAX_VALUE;
+        int[] avg1 = new int[3];
+        int[] avg2 = new int[3];
+        int[] sel = new int[2];
+        for (int flip = 0; flip < 2; flip++) {
+            average(px, flip, 0, avg1);
+            average(px, flip, 1, avg2);
+            for (int diff = 0; diff < 2; diff++) {
+                int[] q1 = new int[3];
+                int[] q2 = new int[3];
+                int[] e1 = new int[3];
+                int[] e2 = new int[3];
+                boolean ok = true;
+                for (int c = 0; c < 3; c++) {
+                    if (diff == 0) {
+                        q1[c] = Math.round(avg1[c] / 17f);
+                        q2[c] = Math.round(avg2[c] / 17f);
+                        e1[c] = q1[c] * 17;
+                        e2[c] = q2[c] * 17;
+                    } else {
+                        q1[c] = Math.round(avg1[c] * 31 / 255f);
+                        q2[c] = Math.round(avg2[c] * 31 / 255f);
+                        int d = q2[c] - q1[c];
+                        if (d < -4 || d > 3) {
+                            ok = false;
+                        }
+                        e1[c] = (q1[c] << 3) | (q1[c] >> 2);
+                        e2[c] = (q2[c] << 3) | (q2[c] >> 2);
+                    }
+                }
+                if (!ok) {
+                    continue;
+                }
+                long err = 0;
+                int[] t1 = bestTable(px, flip, 0, e1, sel);
+                err += sel[1];
+                int[] t2 = bestTable(px, flip, 1, e2, sel);
+                err += sel[1];
+                if (err >= bestErr) {
+                    continue;
+                }
+                bestErr = err;
+                int hi = 0;
+                for (int c = 0; c < 3; c++) {
+                    int shift = 24 - c * 8;
+                    if (diff == 0) {
+                        hi |= (q1[c] << 4 | q2[c]) << shift;
+                    } else {
+                        hi |= (q1[c] << 3 | ((q2[c] - q1[c]) & 7)) << shift;
+                    }
+                }
+                hi |= t1[0] << 5 | t2[0] << 2 | diff << 1 | flip;
+                int lo = 0;
+                for (int x = 0; x < 4; x++) {
+                    for (int y = 0; y < 4; y++) {
+                        boolean second = flip == 1 ? y >= 2 : x >= 2;
+                        int index = (second ? t2 : t1)[1 + y * 4 + x];
+                        int bit = x * 4 + y;
+                        lo |= ((index >> 1) & 1) << (bit + 16) | (index & 1) << bit;
+                    }
+                }
+                best = (long)hi << 32 | (lo & 0xffffffffL);
+            }
+        }
+        for (int i = 0; i < 8; i++) {
+            out[offset + i] = (byte)(best >>> (56 - i * 8));
+        }
+    }
+
+    private static boolean inSub(int x, int y, int flip, int sub) {
+        return (flip == 1 ? y >= 2 : x >= 2) == (sub == 1);
+    }
+
+    private static void average(int[] px, int flip, int sub, int[] avg) {
+        int r = 0;
+        int g = 0;
+        int b = 0;
+        for (int y = 0; y < 4; y++) {
+            for (int x = 0; x < 4; x++) {
+                if (inSub(x, y, flip, sub)) {
+                    int p = px[y * 4 + x];
+                    r += (p >> 16) & 0xff;
+                    g += (p >> 8) & 0xff;
+                    b += p & 0xff;
+                }
+            }
+        }
+        avg[0] = (r + 4) / 8;
+        avg[1] = (g + 4) / 8;
+        avg[2] = (b + 4) / 8;
+    }
+
+    // Returns {table, index per pixel...}; sel[1] receives the error
+    private static int[] bestTable(int[] px, int flip, int sub, int[] base, int[] sel) {
+        int[] result = new int[17];
+        int bestErr = Integer.MAX_VALUE;
+        int[] indices = new int[16];
+        for (int t = 0; t < 8; t++) {
+            int err = 0;
+            for (int y = 0; y < 4; y++) {
+                for (int x = 0; x < 4; x++) {
+                    if (!inSub(x, y, flip, sub)) {
+                        continue;
+                    }
+                    int p = px[y * 4 + x];
+                    int pe = Integer.MAX_VALUE;
+                    for (int i = 0; i < 4; i++) {
+                        int m = modifier(t, i);
+                        int dr = clamp(base[0] + m) - ((p >> 16) & 0xff);
+                        int dg = clamp(base[1] + m) - ((p >> 8) & 0xff);
+                        int db = clamp(base[2] + m) - (p & 0xff);
+                        int e = dr * dr + dg * dg + db * db;
+                        if (e < pe) {
+                            pe = e;
+                            indices[y * 4 + x] = i;
+                        }
+                    }
+                    err += pe;
+                }
+            }
+            if (err < bestErr) {
+                bestErr = err;
+                result[0] = t;
+                System.arraycopy(indices, 0, result, 1, 16);
+            }
+        }
+        sel[1] = bestErr;
+        return result;
+    }
+}
@@ -0,0 +1,49 @@
+package com.dnasystems.andeanabyss.tools;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import com.dnasystems.andeanabyss.FrameMetrics;
+
+/**
+ * Records frames into a FrameMetrics ring buffer the way the renderer does
+ * and measures what recording costs per frame, then the cost of the overlay
+ * summary and of the CSV dump. Prints the times as CSV and checks the dump
+ * holds one line per buffered frame.
+ *
+ * <pre>
+ * java com.dnasystems.andeanabyss.tools.FrameMetricsBenchmark [frames] [buffered]</pre>
+ */
+public class FrameMetricsBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int buffered = args.length > 1 ? Integer.parseInt(args[1]) : 600;
+
+        FrameMetrics metrics = new FrameMetrics(buffered);
+        long t0 = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            metrics.beginFrame();
+            metrics.endFrame(i & 31, i & 7, 160 - (i & 15), i & 15, i & 1023);
+        }
+        long record = System.nanoTime() - t0;
+
+        StringBuilder text = new StringBuilder();
+        t0 = System.nanoTime();
+        metrics.summary(text);
+        long summary = System.nanoTime() - t0;
+
+        StringWriter csv = new StringWriter();
+        t0 = System.nanoTime();
+        metrics.writeCsv(csv);
+        long dump = System.nanoTime() - t0;
+
+        int lines = csv.toString().split("\n").length;
+        if (lines != metrics.size() + 1) {
+            throw new AssertionError(lines + " lines for " + metrics.size() + " frames");
+        }
+        System.out.println("frames,buffered,record_ns_per_frame,summary_us,dump_us,gcs");
+        System.out.printf("%d,%d,%.1f,%.1f,%.1f,%d%n", frames, metrics.size(),
+                record / (double)frames, summary / 1e3, dump / 1e3, metrics.getTotalGcs());
+    }
+}
@@ -0,0 +1,109 @@
+package com.dnasystems.andeanabyss.tools;
+
+import java.util.Random;
+
+import com.dnasystems.andeanabyss.game.GameState;
+import com.dnasystems.andeanabyss.game.History;
+import com.dnasystems.andeanabyss.game.Rules;
+import com.dnasystems.andeanabyss.game.Spaces;
+
+/**
+ * Plays a long random game through a History and checks that undo and
+ * redo restore the exact states, including across compactions, then
+ * times undoing and redoing single moves. Prints CSV: moves played,
+ * deltas per move, ns per undo and redo, compactions and log memory.
+ *
+ * <pre>
+ * java com.dnasystems.andeanabyss.tools.HistoryBenchmark [moves] [log deltas]</pre>
+ */
+public class HistoryBenchmark {
+
+    // Undo this many moves back at each check
+    private static final int CHECK_DEPTH = 8;
+
+    public static void main(String[] args) {
+        int length = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int deltas = args.length > 1 ? Integer.parseInt(args[1]) : History.DEFAULT_DELTAS;
+
+        GameState s = start();
+        History history = new History(s, deltas, History.DEFAULT_ENTRIES);
+        GameState[] recent = new GameState[CHECK_DEPTH + 1];
+        for (int i = 0; i < recent.length; i++) {
+            recent[i] = new GameState();
+        }
+        int[] moves = new int[Rules.MAX_MOVES];
+        Random rnd = new Random(1);
+        // Moves that changed nothing make no entry
+        int entries = 0;
+        for (int i = 0; i < length; i++) {
+            int count = Rules.generate(s, i % GameState.FACTIONS, moves);
+            Rules.apply(s, moves[rnd.nextInt(count)], rnd);
+            if (history.commit()) {
+                recent[entries++ % recent.length].copyFrom(s);
+                if (entries % 1000 == 0) {
+                    check(s, history, recent, entries - 1);
+                }
+            }
+        }
+        // All the way back to the checkpoint and forward again
+        GameState end = new GameState(s);
+        while (history.undo()) {
+        }
+        expect(s.equals(history.getCheckpoint()), "undo to the checkpoint");
+        while (history.redo()) {
+        }
+        expect(s.equals(end), "redo from the checkpoint");
+
+        int undone = history.getUndoCount();
+        long t0 = System.nanoTime();
+        for (int i = 0; i < undone; i++) {
+            history.undo();
+        }
+        long t1 = System.nanoTime();
+        for (int i = 0; i < undone; i++) {
+            history.redo();
+        }
+        long t2 = System.nanoTime();
+        expect(s.equals(end), "timed undo and redo");
+
+        System.out.println("moves,deltas_per_move,ns_per_undo,ns_per_redo,compactions,memory_bytes");
+        System.out.printf("%d,%.1f,%.0f,%.0f,%d,%d%n", length,
+                history.getDeltaCount() / (double)undone,
+                (t1 - t0) / (double)undone, (t2 - t1) / (double)undone,
+                history.getCompactions(), history.getMemoryBytes());
+    }
+
+    // Undo the last moves one by one against the states seen, then redo
+    private static void check(GameState s, History history, GameState[] recent, int i) {
+        int depth = Math.min(CHECK_DEPTH, history.getUndoCount());
+        for (int d = 1; d <= depth; d++) {
+            history.undo();
+            GameState expected = recent[(i - d) % recent.length];
+            expect(s.equals(expected), "undo " + d + " at move " + i);
+        }
+        for (int d = depth - 1; d >= 0; d--) {
+            history.redo();
+            expect(s.equals(recent[(i - d) % recent.length]), "redo at move " + i);
+        }
+    }
+
+    private static void expect(boolean ok, String what) {
+        if (!ok) {
+            throw new AssertionError(what);
+        }
+    }
+
+    private static GameState start() {
+        GameState s = new GameState();
+        s.setResources(GameState.GOV, 40);
+        s.setResources(GameState.FARC, 10);
+        s.setResources(GameState.AUC, 5);
+        s.setResources(GameState.CARTELS, 10);
+        s.place(GameState.TROOPS, Spaces.BOGOTA, 6);
+        s.place(GameState.POLICE, Spaces.BOGOTA, 4);
+        s.place(GameState.FARC_UNDERGROUND, Spaces.META_WEST, 4);
+        s.place(GameState.AUC_UNDERGROUND, Spaces.ANTIOQUIA, 2);
+        s.place(GameState.CARTELS_UNDERGROUND, Spaces.PUTUMAYO, 2);
+        return s;
+    }
+}
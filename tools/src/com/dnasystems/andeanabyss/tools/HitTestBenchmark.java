@@ -0,0 +1,100 @@
+package com.dnasystems.andeanabyss.tools;
+
+import java.util.Random;
+
+import com.dnasystems.andeanabyss.SpatialGrid;
+
+/**
+ * Compares SpatialGrid.topmostAt with the linear back to front scan that
+ * GameBoard.onDown used before, for growing piece counts. Both must agree
+ * on every query; the time per query is printed for each.
+ *
+ * <pre>
+ * java com.dnasystems.andeanabyss.tools.HitTestBenchmark [queries]</pre>
+ */
+public class HitTestBenchmark {
+
+    private static final float BOARD_W = 2048;
+    private static final float BOARD_H = 2048 + 1116;
+
+    public static void main(String[] args) {
+        int queries = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        System.out.println("pieces,linear_ns,grid_ns,speedup");
+        for (int pieces : new int[] { 70, 250, 500, 1000, 2000 }) {
+            run(pieces, queries);
+        }
+    }
+
+    private static void run(int pieces, int queries) {
+        Random rnd = new Random(pieces);
+        float[] rects = new float[pieces * 4];
+        SpatialGrid grid = new SpatialGrid(BOARD_W, BOARD_H, 128);
+        for (int i = 0; i < pieces; i++) {
+            // Piece sizes of the cubes, cylinders and discs
+            float w = 30 + rnd.nextInt(21);
+            float h = 39 + rnd.nextInt(13);
+            float x = rnd.nextFloat() * (BOARD_W - w);
+            float y = rnd.nextFloat() * (BOARD_H - h);
+            rects[i*4] = x;
+            rects[i*4 + 1] = y;
+            rects[i*4 + 2] = w;
+            rects[i*4 + 3] = h;
+            grid.insert(i, x, y, w, h);
+        }
+        float[] points = new float[queries * 2];
+        for (int i = 0; i < queries; i++) {
+            if (i % 2 == 0) {
+                // Half the touches land on a piece
+                int p = rnd.nextInt(pieces);
+                points[i*2] = rects[p*4] + rnd.nextFloat() * rects[p*4 + 2];
+                points[i*2 + 1] = rects[p*4 + 1] + rnd.nextFloat() * rects[p*4 + 3];
+            } else {
+                points[i*2] = rnd.nextFloat() * BOARD_W;
+                points[i*2 + 1] = rnd.nextFloat() * BOARD_H;
+            }
+        }
+
+        for (int i = 0; i < queries; i++) {
+            int a = linear(rects, pieces, points[i*2], points[i*2 + 1]);
+            int b = grid.topmostAt(points[i*2], points[i*2 + 1]);
+            if (a != b) {
+                throw new AssertionError("mismatch at query " + i + ": " + a + " != " + b);
+            }
+        }
+
+        long sink = 0;
+        long linearNs = Long.MAX_VALUE;
+        long gridNs = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            long t0 = System.nanoTime();
+            for (int i = 0; i < queries; i++) {
+                sink += linear(rects, pieces, points[i*2], points[i*2 + 1]);
+            }
+            long t1 = System.nanoTime();
+            for (int i = 0; i < queries; i++) {
+                sink += grid.topmostAt(points[i*2], points[i*2 + 1]);
+            }
+            long t2 = System.nanoTime();
+            linearNs = Math.min(linearNs, t1 - t0);
+            gridNs = Math.min(gridNs, t2 - t1);
+        }
+        double l = linearNs / (double)queries;
+        double g = gridNs / (double)queries;
+        System.out.printf("%d,%.1f,%.1f,%.1f%n", pieces, l, g, l / g);
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    // Same test as Object2D.getAt, topmost (last) piece first
+    private static int linear(float[] rects, int pieces, float x, float y) {
+        for (int i = pieces - 1; i >= 0; i--) {
+            int r = i * 4;
+            if (x > rects[r] && x < rects[r] + rects[r + 2]
+                    && y > rects[r + 1] && y < rects[r + 1] + rects[r + 3]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,111 @@
+package com.dnasystems.andeanabyss.tools;
+
+import com.dnasystems.andeanabyss.InputGate;
+import com.dnasystems.andeanabyss.InputQueue;
+import com.dnasystems.andeanabyss.OnInput;
+
+/**
+ * Queues drags through an InputQueue and drains them into an InputGate in
+ * front of a board that, like GameBoard, changes the game only when a
+ * held piece is dropped. Checks that with the gate closed, as it is while
+ * the bot searches, every drop is cancelled and the game stays unchanged
+ * while picking up, moving and zooming still reach the board, and that
+ * drops are played again once the gate opens.
+ *
+ * <pre>
+ * java com.dnasystems.andeanabyss.tools.InputGateCheck [drags]</pre>
+ */
+public class InputGateCheck {
+
+    public static void main(String[] args) {
+        int drags = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+
+        InputQueue queue = new InputQueue(256);
+        Board board = new Board();
+        InputGate gate = new InputGate();
+        gate.setTarget(board);
+        for (int d = 0; d < drags; d++) {
+            boolean closed = d % 2 == 0;
+            gate.setClosed(closed);
+            int moves = board.mMoves;
+            int zooms = board.mZooms;
+            int drops = board.mDrops;
+            int cancels = board.mCancels;
+            queue.offer(InputQueue.DOWN, 0, 10, 10);
+            queue.offer(InputQueue.MOVE, 0, 5, 5);
+            queue.offerZoom(1.1f, 10, 10);
+            queue.offer(InputQueue.MOVE, 0, 5, 5);
+            queue.offer(InputQueue.UP, 0, 20, 20);
+            queue.drain(gate);
+            check(!board.mHeld, "piece still held after drag " + d);
+            check(board.mMoves == moves + 2 && board.mZooms == zooms + 1,
+                    "moves or zoom lost in drag " + d);
+            if (closed) {
+                check(board.mDrops == drops && board.mCancels == cancels + 1,
+                        "drop during the search not cancelled in drag " + d);
+            } else {
+                check(board.mDrops == drops + 1 && board.mCancels == cancels,
+                        "drop not played in drag " + d);
+            }
+        }
+        check(board.mDrops == drags / 2, board.mDrops + " drops played");
+        System.out.println("drags,drops,cancels");
+        System.out.println(drags + "," + board.mDrops + "," + board.mCancels);
+    }
+
+    private static void check(boolean ok, String message) {
+        if (!ok) {
+            throw new AssertionError(message);
+        }
+    }
+
+    // Holds a piece from down to up; only a drop moves it in the game
+    private static final class Board implements OnInput {
+        boolean mHeld;
+        int mMoves;
+        int mZooms;
+        int mDrops;
+        int mCancels;
+
+        @Override
+        public boolean onDown(int id, float x, float y) {
+            mHeld = true;
+            return false;
+        }
+
+        @Override
+        public boolean onMove(int id, float dx, float dy) {
+            mMoves++;
+            return true;
+        }
+
+        @Override
+        public boolean onZoom(float scalefactor, float focusX, float focusY) {
+            mZooms++;
+            return true;
+        }
+
+        @Override
+        public boolean onFling(int id, float vx, float vy) {
+            return false;
+        }
+
+        @Override
+        public boolean onUp(int id, float x, float y) {
+            if (mHeld) {
+                mDrops++;
+            }
+            mHeld = false;
+            return true;
+        }
+
+        @Override
+        public boolean onCancel(int id) {
+            if (mHeld) {
+                mCancels++;
+            }
+            mHeld = false;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.dnasystems.andeanabyss.tools;
+
+import com.dnasystems.andeanabyss.InputQueue;
+import com.dnasystems.andeanabyss.OnInput;
+
+/**
+ * First checks that a full queue, as a stalled GL thread leaves it, still
+ * takes every down, up and cancel and loses no move delta. Then pushes
+ * drags through an InputQueue from one thread while another drains it,
+ * like the UI and GL threads do, and checks that every move delta arrives
+ * exactly once and in order with the downs and ups. Prints the events per
+ * second, the handler calls left after merging and how often a down or up
+ * found even the slots kept for them full as CSV.
+ *
+ * <pre>
+ * java com.dnasystems.andeanabyss.tools.InputQueueBenchmark [drags] [moves per drag] [capacity]</pre>
+ */
+public class InputQueueBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        final int drags = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        final int length = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int capacity = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+
+        checkFull(capacity);
+
+        final InputQueue queue = new InputQueue(capacity);
+        final Sink sink = new Sink();
+        final long events = (long)drags * (length + 2);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int d = 0; d < drags; d++) {
+                    offer(queue, InputQueue.DOWN, d, 0, 0);
+                    for (int m = 0; m < length; m++) {
+                        offer(queue, InputQueue.MOVE, d, 1, 2);
+                    }
+                    offer(queue, InputQueue.UP, d, 0, 0);
+                }
+            }
+        }, "producer");
+
+        long t0 = System.nanoTime();
+        producer.start();
+        while (sink.mUps < drags) {
+            if (queue.isEmpty()) {
+                Thread.yield();
+            }
+            queue.drain(sink);
+        }
+        long nanos = System.nanoTime() - t0;
+        producer.join();
+
+        if (sink.mDx != (long)drags * length || sink.mDy != 2L * drags * length
+                || sink.mError != null) {
+            throw new AssertionError(sink.mError != null ? sink.mError
+                    : "lost moves: dx " + sink.mDx + " dy " + sink.mDy);
+        }
+        System.out.println("events,events_per_sec,calls,calls_per_event,full");
+        System.out.printf("%d,%.0f,%d,%.3f,%d%n", events, events * 1e9 / nanos, sink.mCalls,
+                sink.mCalls / (double)events, queue.getDropped());
+    }
+
+    // Drags many times longer than the queue with nothing drained until
+    // they end, every other one cancelled
+    private static void checkFull(int capacity) {
+        InputQueue queue = new InputQueue(capacity);
+        Sink sink = new Sink();
+        int drags = 100;
+        int length = 4 * capacity;
+        for (int d = 0; d < drags; d++) {
+            boolean ok = queue.offer(InputQueue.DOWN, d, 0, 0);
+            for (int m = 0; m < length; m++) {
+                queue.offer(InputQueue.MOVE, d, 1, 2);
+                if (m == length / 2) {
+                    queue.offerZoom(1.01f, 0, 0);
+                }
+            }
+            ok &= queue.offer(d % 2 == 0 ? InputQueue.UP : InputQueue.CANCEL, d, 0, 0);
+            if (!ok) {
+                throw new AssertionError("down or up of drag " + d + " dropped");
+            }
+            queue.drain(sink);
+        }
+        if (sink.mUps + sink.mCancels != drags || sink.mDx != (long)drags * length
+                || sink.mDy != 2L * drags * length || sink.mError != null) {
+            throw new AssertionError(sink.mError != null ? sink.mError
+                    : "full queue lost events: " + sink.mUps + " ups, " + sink.mCancels
+                    + " cancels, dx " + sink.mDx);
+        }
+    }
+
+    // Spin on a dropped down or up, the real UI thread loses it instead
+    private static void offer(InputQueue queue, int kind, int id, float x, float y) {
+        while (!queue.offer(kind, id, x, y)) {
+            Thread.yield();
+        }
+    }
+
+    // Counts what the GL thread would see
+    private static class Sink implements OnInput {
+        long mDx;
+        long mDy;
+        long mCalls;
+        int mUps;
+        int mCancels;
+        int mDown = -1;
+        String mError;
+
+        @Override
+        public boolean onDown(int id, float x, float y) {
+            mCalls++;
+            if (id != mUps + mCancels) {
+                mError = "down " + id + " out of order";
+            }
+            mDown = id;
+            return false;
+        }
+
+        @Override
+        public boolean onMove(int id, float dx, float dy) {
+            mCalls++;
+            if (id != mDown) {
+                mError = "move of " + id + " outside its drag";
+            }
+            mDx += (long)dx;
+            mDy += (long)dy;
+            return true;
+        }
+
+        @Override
+        public boolean onUp(int id, float x, float y) {
+            mCalls++;
+            if (id != mDown) {
+                mError = "up " + id + " without down";
+            }
+            mUps++;
+            return true;
+        }
+
+        @Override
+        public boolean onZoom(float scalefactor, float focusX, float focusY) {
+            mCalls++;
+            return true;
+        }
+
+        @Override
+        public boolean onFling(int id, float vx, float vy) {
+            mCalls++;
+            return true;
+        }
+
+        @Override
+        public boolean onCancel(int id) {
+            mCalls++;
+            if (id != mDown) {
+                mError = "cancel " + id + " without down";
+            }
+            mCancels++;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.dnasystems.andeanabyss.tools;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Splits the board textures into square ETC1 tiles with a mip pyramid for
+ * MapTiles. The board is made of PKM images stacked top to bottom, each
+ * given with the number of rows it contributes:
+ *
+ * <pre>
+ * java com.dnasystems.andeanabyss.tools.MapTiler [-tile 256] [-levels 4]
+ *         [-png dir] out.tiles map.pkm:2048 map2.pkm:1116</pre>
+ *
+ * Level 0 tiles copy the ETC1 blocks of the source unchanged; every further
+ * level is a 2x2 box filtered copy of the one below, encoded again. Tiles at
+ * the right and bottom edge are padded by repeating the last pixel.
+ *
+ * File layout, all big endian:
+ *
+ * <pre>
+ * int   magic 'MTL1'
+ * short tile size, short board width, short board height, byte levels
+ * per level: short width, short height, short cols, short rows
+ * per tile, level by level and row by row: int offset, int length
+ * tile data, each tile a complete PKM image (16 byte header + ETC1 blocks)</pre>
+ */
+public class MapTiler {
+
+    public static final int MAGIC = 0x4d544c31; // "MTL1"
+    static final int PKM_HEADER_SIZE = 16;
+
+    public static void main(String[] args) throws IOException {
+        int tile = 256;
+        int levels = 4;
+        File pngDir = null;
+        int i = 0;
+        for (; i < args.length && args[i].startsWith("-"); i++) {
+            if (args[i].equals("-tile")) {
+                tile = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-levels")) {
+                levels = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-png")) {
+                pngDir = new File(args[++i]);
+            } else {
+                usage();
+            }
+        }
+        if (args.length - i < 2) {
+            usage();
+        }
+        File out = new File(args[i++]);
+
+        // Load the sources, keeping the ETC1 blocks for level 0
+        int width = 0;
+        int height = 0;
+        int count = args.length - i;
+        byte[][] blocks = new byte[count][];
+        int[] blockW = new int[count];
+        int[] rows = new int[count];
+        for (int s = 0; s < count; s++) {
+            String arg = args[i + s];
+            int colon = arg.lastIndexOf(':');
+            byte[] pkm = readFile(new File(colon > 0 ? arg.substring(0, colon) : arg));
+            int w = readShort(pkm, 8);
+            int h = readShort(pkm, 10);
+            rows[s] = colon > 0 ? Integer.parseInt(arg.substring(colon + 1)) : readShort(pkm, 14);
+            if (!new String(pkm, 0, 6, "US-ASCII").equals("PKM 10") || rows[s] % 4 != 0
+                    || rows[s] > h || (width != 0 && width != readShort(pkm, 12))) {
+                throw new IOException("Unsupported source " + arg);
+            }
+            width = readShort(pkm, 12);
+            blockW[s] = w / 4;
+            blocks[s] = pkm;
+            height += rows[s];
+        }
+        if (tile % 4 != 0 || Integer.bitCount(tile) != 1) {
+            throw new IllegalArgumentException("Tile size must be a power of two");
+        }
+
+        int[] image = new int[width * height];
+        int[] px = new int[16];
+        int y0 = 0;
+        for (int s = 0; s < count; s++) {
+            for (int by = 0; by < rows[s] / 4; by++) {
+                for (int bx = 0; bx < width / 4; bx++) {
+                    Etc1.decodeBlock(blocks[s], PKM_HEADER_SIZE + (by * blockW[s] + bx) * 8, px);
+                    for (int p = 0; p < 16; p++) {
+                        image[(y0 + by * 4 + p / 4) * width + bx * 4 + p % 4] = px[p];
+                    }
+                }
+            }
+            y0 += rows[s];
+        }
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        DataOutputStream idx = new DataOutputStream(index);
+        idx.writeInt(MAGIC);
+        idx.writeShort(tile);
+        idx.writeShort(width);
+        idx.writeShort(height);
+        idx.writeByte(levels);
+        int[] levelW = new int[levels];
+        int[] levelH = new int[levels];
+        int w = width;
+        int h = height;
+        for (int l = 0; l < levels; l++) {
+            levelW[l] = w;
+            levelH[l] = h;
+            idx.writeShort(w);
+            idx.writeShort(h);
+            idx.writeShort((w + tile - 1) / tile);
+            idx.writeShort((h + tile - 1) / tile);
+            w = Math.max(1, (w + 1) / 2);
+            h = Math.max(1, (h + 1) / 2);
+        }
+        int tiles = 0;
+        for (int l = 0; l < levels; l++) {
+            tiles += ((levelW[l] + tile - 1) / tile) * ((levelH[l] + tile - 1) / tile);
+        }
+        int headerSize = index.size() + tiles * 8;
+
+        int[] level = image;
+        byte[] tileData = new byte[PKM_HEADER_SIZE + tile * tile / 2];
+        for (int l = 0; l < levels; l++) {
+            int lw = levelW[l];
+            int lh = levelH[l];
+            if (l > 0) {
+                level = downsample(level, levelW[l - 1], levelH[l - 1], lw, lh);
+            }
+            if (pngDir != null) {
+                writePng(level, lw, lh, new File(pngDir, "level" + l + ".png"));
+            }
+            for (int ty = 0; ty < (lh + tile - 1) / tile; ty++) {
+                for (int tx = 0; tx < (lw + tile - 1) / tile; tx++) {
+                    writePkmHeader(tileData, tile, tile);
+                    for (int by = 0; by < tile / 4; by++) {
+                        for (int bx = 0; bx < tile / 4; bx++) {
+                            int x = tx * tile + bx * 4;
+                            int y = ty * tile + by * 4;
+                            int dst = PKM_HEADER_SIZE + (by * tile / 4 + bx) * 8;
+                            if (l == 0 && x + 4 <= lw && y + 4 <= lh) {
+                                copySourceBlock(blocks, rows, blockW, x, y, tileData, dst);
+                            } else {
+                                for (int p = 0; p < 16; p++) {
+                                    int sx = Math.min(x + p % 4, lw - 1);
+                                    int sy = Math.min(y + p / 4, lh - 1);
+                                    px[p] = level[sy * lw + sx];
+                                }
+                                Etc1.encodeBlock(px, tileData, dst);
+                            }
+                        }
+                    }
+                    idx.writeInt(headerSize + data.size());
+                    idx.writeInt(tileData.length);
+                    data.write(tileData);
+                }
+            }
+            System.out.printf("level %d: %dx%d, %dx%d tiles%n", l, lw, lh,
+                    (lw + tile - 1) / tile, (lh + tile - 1) / tile);
+        }
+        idx.flush();
+
+        FileOutputStream os = new FileOutputStream(out);
+        try {
+            index.writeTo(os);
+            data.writeTo(os);
+        } finally {
+            os.close();
+        }
+        System.out.println(out + ": " + tiles + " tiles, " + (headerSize + data.size()) + " bytes");
+    }
+
+    private static void usage() {
+        System.err.println("usage: MapTiler [-tile size] [-levels n] [-png dir]"
+                + " out.tiles image.pkm[:rows]...");
+        System.exit(2);
+    }
+
+    private static void copySourceBlock(byte[][] blocks, int[] rows, int[] blockW,
+            int x, int y, byte[] dst, int offset) {
+        int s = 0;
+        while (y >= rows[s]) {
+            y -= rows[s];
+            s++;
+        }
+        int src = PKM_HEADER_SIZE + ((y / 4) * blockW[s] + x / 4) * 8;
+        System.arraycopy(blocks[s], src, dst, offset, 8);
+    }
+
+    private static int[] downsample(int[] src, int sw, int sh, int dw, int dh) {
+        int[] dst = new int[dw * dh];
+        for (int y = 0; y < dh; y++) {
+            for (int x = 0; x < dw; x++) {
+                int r = 0;
+                int g = 0;
+                int b = 0;
+                for (int j = 0; j < 4; j++) {
+                    int sx = Math.min(x * 2 + (j & 1), sw - 1);
+                    int sy = Math.min(y * 2 + (j >> 1), sh - 1);
+                    int p = src[sy * sw + sx];
+                    r += (p >> 16) & 0xff;
+                    g += (p >> 8) & 0xff;
+                    b += p & 0xff;
+                }
+                dst[y * dw + x] = ((r + 2) / 4) << 16 | ((g + 2) / 4) << 8 | ((b + 2) / 4);
+            }
+        }
+        return dst;
+    }
+
+    static void writePkmHeader(byte[] out, int w, int h) {
+        byte[] magic = { 'P', 'K', 'M', ' ', '1', '0' };
+        System.arraycopy(magic, 0, out, 0, 6);
+        // format 0 = ETC1_RGB_NO_MIPMAPS, then extended and original size
+        out[6] = 0;
+        out[7] = 0;
+        writeShort(out, 8, w);
+        writeShort(out, 10, h);
+        writeShort(out, 12, w);
+        writeShort(out, 14, h);
+    }
+
+    private static void writePng(int[] image, int w, int h, File file) throws IOException {
+        file.getParentFile().mkdirs();
+        BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        img.setRGB(0, 0, w, h, image, 0, w);
+        ImageIO.write(img, "png", file);
+    }
+
+    static int readShort(byte[] b, int offset) {
+        return (b[offset] & 0xff) << 8 | (b[offset + 1] & 0xff);
+    }
+
+    static void writeShort(byte[] b, int offset, int v) {
+        b[offset] = (byte)(v >> 8);
+        b[offset + 1] = (byte)v;
+    }
+
+    static byte[] readFile(File f) throws IOException {
+        byte[] data = new byte[(int)f.length()];
+        InputStream in = new FileInputStream(f);
+        try {
+            int n = 0;
+            while (n < data.length) {
+                int r = in.read(data, n, data.length - n);
+                if (r < 0) {
+                    throw new IOException("Short read " + f);
+                }
+                n += r;
+            }
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+}
@@ -0,0 +1,89 @@
+package com.dnasystems.andeanabyss.tools;
+
+import java.util.Random;
+
+import com.dnasystems.andeanabyss.game.GameState;
+import com.dnasystems.andeanabyss.game.Mcts;
+import com.dnasystems.andeanabyss.game.Move;
+import com.dnasystems.andeanabyss.game.Rules;
+import com.dnasystems.andeanabyss.game.Spaces;
+import com.dnasystems.andeanabyss.game.TranspositionTable;
+
+/**
+ * Runs the Mcts bot from a mid game position with 1 to N search threads
+ * and prints the playouts per second and the speedup over one thread as
+ * CSV, plus the move each search picked. The scaling is measured without a
+ * transposition table. Given table entries, the thread counts are run a
+ * second time sharing a table of that size, and its hits, hit rate and
+ * overwrites of other states are printed too; the speedup of those rows
+ * is still over one thread without the table. Table hits are leaves whose
+ * state had earlier rollouts, they are not counted as playouts.
+ *
+ * <pre>
+ * java com.dnasystems.andeanabyss.tools.MctsBenchmark [max threads] [ms per search] [table entries]</pre>
+ */
+public class MctsBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0])
+                : Runtime.getRuntime().availableProcessors();
+        long budget = (args.length > 1 ? Long.parseLong(args[1]) : 2000) * 1000000L;
+        int entries = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+
+        GameState root = position();
+        System.out.println("threads,table_entries,playouts,playouts_per_sec,speedup,"
+                + "table_hits,table_hit_rate,table_overwrites,move");
+        // Warm up the JIT before the measured searches
+        Mcts warmup = new Mcts(1, Mcts.DEFAULT_NODES);
+        warmup.search(root, GameState.GOV, budget);
+        warmup.shutdown();
+        double single = run(root, 1, budget, null, 0);
+        for (int threads = 2; threads <= maxThreads; threads++) {
+            run(root, threads, budget, null, single);
+        }
+        if (entries > 0) {
+            TranspositionTable table = new TranspositionTable(entries);
+            for (int threads = 1; threads <= maxThreads; threads++) {
+                table.clear();
+                run(root, threads, budget, table, single);
+            }
+        }
+    }
+
+    // One search, prints its row and returns its playouts per second
+    private static double run(GameState root, int threads, long budget,
+            TranspositionTable table, double single) throws InterruptedException {
+        Mcts bot = new Mcts(threads, Mcts.DEFAULT_NODES);
+        bot.setTable(table);
+        int move = bot.search(root, GameState.GOV, budget);
+        double rate = bot.getLastPlayoutsPerSecond();
+        System.out.printf("%d,%d,%d,%.0f,%.2f,%d,%.3f,%d,\"%s\"%n", threads,
+                table != null ? table.size() : 0, bot.getLastPlayouts(), rate,
+                rate / (single > 0 ? single : rate), bot.getLastTableHits(),
+                table != null ? table.getHitRate() : 0,
+                table != null ? table.getOverwrites() : 0, Move.toString(move));
+        bot.shutdown();
+        return rate;
+    }
+
+    // A few dozen random moves into a game
+    private static GameState position() {
+        GameState s = new GameState();
+        s.setResources(GameState.GOV, 40);
+        s.setResources(GameState.FARC, 10);
+        s.setResources(GameState.AUC, 5);
+        s.setResources(GameState.CARTELS, 10);
+        s.place(GameState.TROOPS, Spaces.BOGOTA, 6);
+        s.place(GameState.POLICE, Spaces.BOGOTA, 4);
+        s.place(GameState.FARC_UNDERGROUND, Spaces.META_WEST, 4);
+        s.place(GameState.AUC_UNDERGROUND, Spaces.ANTIOQUIA, 2);
+        s.place(GameState.CARTELS_UNDERGROUND, Spaces.PUTUMAYO, 2);
+        Random rnd = new Random(7);
+        int[] moves = new int[Rules.MAX_MOVES];
+        for (int i = 0; i < 40; i++) {
+            int n = Rules.generate(s, i % GameState.FACTIONS, moves);
+            Rules.apply(s, moves[rnd.nextInt(n)], rnd);
+        }
+        return s;
+    }
+}
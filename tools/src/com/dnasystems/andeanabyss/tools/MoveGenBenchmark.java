@@ -0,0 +1,102 @@
+package com.dnasystems.andeanabyss.tools;
+
+import java.util.Random;
+
+import com.dnasystems.andeanabyss.game.GameState;
+import com.dnasystems.andeanabyss.game.Rules;
+import com.dnasystems.andeanabyss.game.Spaces;
+import com.dnasystems.andeanabyss.game.Zobrist;
+
+/**
+ * Measures Rules.generate on the states of random games. The factions
+ * take turns playing a random legal move; piece totals and the incremental
+ * hash are checked after every move. Prints per faction the states visited, the average number
+ * of legal moves and generated moves per second as CSV.
+ *
+ * <pre>
+ * java com.dnasystems.andeanabyss.tools.MoveGenBenchmark [games] [moves per game]</pre>
+ */
+public class MoveGenBenchmark {
+
+    private static final String[] FACTION_NAME = {"gov", "farc", "auc", "cartels"};
+
+    public static void main(String[] args) {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int length = args.length > 1 ? Integer.parseInt(args[1]) : 400;
+
+        // Record the states first so the timed loop only generates
+        GameState[] states = new GameState[games * length];
+        int[] moves = new int[Rules.MAX_MOVES];
+        Random rnd = new Random(1);
+        int n = 0;
+        for (int g = 0; g < games; g++) {
+            GameState s = start();
+            for (int i = 0; i < length; i++) {
+                int f = i % GameState.FACTIONS;
+                states[n++] = new GameState(s);
+                int count = Rules.generate(s, f, moves);
+                Rules.apply(s, moves[rnd.nextInt(count)], rnd);
+                check(s);
+            }
+        }
+
+        System.out.println("faction,states,moves_per_state,ns_per_generate,moves_per_sec");
+        for (int f = 0; f < GameState.FACTIONS; f++) {
+            long best = Long.MAX_VALUE;
+            long total = 0;
+            int visited = 0;
+            for (int round = 0; round < 5; round++) {
+                total = 0;
+                visited = 0;
+                long t0 = System.nanoTime();
+                for (int i = f; i < n; i += GameState.FACTIONS) {
+                    total += Rules.generate(states[i], f, moves);
+                    visited++;
+                }
+                best = Math.min(best, System.nanoTime() - t0);
+            }
+            System.out.printf("%s,%d,%.1f,%.0f,%.0f%n", FACTION_NAME[f], visited,
+                    total / (double)visited, best / (double)visited, total * 1e9 / best);
+        }
+    }
+
+    // Some resources and a few pieces per faction so every Operation comes up
+    static GameState start() {
+        GameState s = new GameState();
+        s.setResources(GameState.GOV, 40);
+        s.setResources(GameState.FARC, 10);
+        s.setResources(GameState.AUC, 5);
+        s.setResources(GameState.CARTELS, 10);
+        s.place(GameState.TROOPS, Spaces.BOGOTA, 6);
+        s.place(GameState.POLICE, Spaces.BOGOTA, 4);
+        s.place(GameState.GOV_BASE, Spaces.SANTANDER, 1);
+        s.place(GameState.FARC_UNDERGROUND, Spaces.META_WEST, 4);
+        s.place(GameState.FARC_BASE, Spaces.GUAVIARE, 1);
+        s.place(GameState.AUC_UNDERGROUND, Spaces.ANTIOQUIA, 2);
+        s.place(GameState.CARTELS_UNDERGROUND, Spaces.PUTUMAYO, 2);
+        s.place(GameState.CARTELS_BASE, Spaces.PUTUMAYO, 1);
+        return s;
+    }
+
+    private static void check(GameState s) {
+        for (int t = 0; t < GameState.PIECE_TYPES; t++) {
+            if (GameState.isGuerrilla(t) && t % 3 == 1) {
+                continue;
+            }
+            int total = s.available(t);
+            for (int sp = 0; sp < Spaces.COUNT; sp++) {
+                total += s.count(sp, t);
+                if (GameState.isGuerrilla(t)) {
+                    total += s.count(sp, t + 1);
+                }
+            }
+            if (total != GameState.FORCE_POOL[t]) {
+                throw new AssertionError("type " + t + ": " + total + " pieces");
+            }
+        }
+        if (s.hash() != Zobrist.hash(s)) {
+            throw new AssertionError("incremental hash " + Long.toHexString(s.hash())
+                    + " != " + Long.toHexString(Zobrist.hash(s)));
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.dnasystems.andeanabyss.tools;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import com.dnasystems.andeanabyss.PayloadCache;
+
+/**
+ * Checks the PayloadCache the TextureManager restores textures from: the
+ * budget holds, the least recently used payload goes first, a payload
+ * larger than the budget is refused and replacing a key frees the old
+ * payload. Then worker threads fill and read it the way the AssetLoader
+ * does and the hit rate and cost per access are printed as CSV.
+ *
+ * <pre>
+ * java com.dnasystems.andeanabyss.tools.PayloadCacheCheck [threads] [ops] [keys]</pre>
+ */
+public class PayloadCacheCheck {
+
+    private static final int KB = 1024;
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+        final int ops = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+        final int keys = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+
+        PayloadCache cache = new PayloadCache(100 * KB);
+        cache.put("page0", payload(40 * KB));
+        cache.put("tile0", payload(40 * KB));
+        // Used again, so tile0 is the least recently used now
+        check(cache.get("page0") != null, "page0 missing");
+        cache.put("tile1", payload(40 * KB));
+        check(cache.get("tile0") == null, "tile0 should have been evicted");
+        check(cache.get("page0") != null && cache.get("tile1") != null, "page0 or tile1 evicted");
+        check(cache.getBytes() == 80 * KB, "bytes " + cache.getBytes());
+        check(!cache.put("huge", payload(101 * KB)), "payload over budget kept");
+        cache.put("page0", payload(10 * KB));
+        check(cache.getBytes() == 50 * KB && cache.size() == 2, "replacing leaked bytes");
+        // The data is read through a view, the cached position stays put
+        PayloadCache.Payload p = cache.get("page0");
+        p.getData().position(100);
+        check(p.getData().position() == 0 && p.getBytes() == 10 * KB, "payload data moved");
+        cache.trim(0);
+        check(cache.getBytes() == 0 && cache.size() == 0, "trim(0) left " + cache.getBytes());
+
+        // Workers look payloads up and decode the misses, like the page and
+        // tile jobs; the budget holds about half of the keys
+        final PayloadCache shared = new PayloadCache(keys / 2 * 16 * KB);
+        Thread[] workers = new Thread[threads];
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            final int seed = t;
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random rnd = new Random(seed);
+                    for (int i = 0; i < ops; i++) {
+                        // Skewed, the low keys are wanted most
+                        int k = (int)(keys * Math.pow(rnd.nextDouble(), 3));
+                        String key = "asset" + k;
+                        if (shared.get(key) == null) {
+                            shared.put(key, payload(4 * KB + k % 4 * 8 * KB));
+                        }
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread w : workers) {
+            w.join();
+        }
+        long nanos = System.nanoTime() - start;
+        check(shared.getBytes() <= shared.getBudget(), "over budget: " + shared.getBytes());
+        int gets = shared.getHits() + shared.getMisses();
+        check(gets == threads * ops, "lost gets: " + gets);
+
+        System.out.println("threads,ops,keys,budget_kb,hit_rate,evictions,cached_kb,ns_per_op");
+        System.out.println(threads + "," + ops + "," + keys + "," + shared.getBudget() / KB + ","
+                + (float)shared.getHits() / gets + "," + shared.getEvictions() + ","
+                + shared.getBytes() / KB + "," + nanos / (threads * (long)ops));
+    }
+
+    private static PayloadCache.Payload payload(int bytes) {
+        return new PayloadCache.Payload(bytes / 2, 1, 0x1908, 0x8033, ByteBuffer.allocate(bytes));
+    }
+
+    private static void check(boolean ok, String message) {
+        if (!ok) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.dnasystems.andeanabyss.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+
+import com.dnasystems.andeanabyss.PkmFile;
+
+/**
+ * Runs the PkmFile header parser and mapping against PKM images and map tile
+ * files on a plain JVM. For every image the parsed header is printed and the
+ * mapped data is compared byte for byte with a plain read of the file;
+ * .tiles files are checked tile by tile.
+ *
+ * <pre>
+ * java com.dnasystems.andeanabyss.tools.PkmCheck art/map.pkm art/map2.pkm
+ *         assets/maptiles/board.tiles</pre>
+ */
+public class PkmCheck {
+
+    public static void main(String[] args) throws IOException {
+        int errors = 0;
+        for (String arg : args) {
+            File file = new File(arg);
+            byte[] bytes = MapTiler.readFile(file);
+            MappedByteBuffer mapped = PkmFile.map(file);
+            if (arg.endsWith(".tiles")) {
+                errors += checkTiles(file, mapped, bytes);
+            } else {
+                errors += check(arg, mapped, 0, bytes);
+            }
+        }
+        if (errors > 0) {
+            System.err.println(errors + " errors");
+            System.exit(1);
+        }
+        System.out.println("ok");
+    }
+
+    private static int checkTiles(File file, ByteBuffer mapped, byte[] bytes) throws IOException {
+        ByteBuffer index = mapped.duplicate().order(ByteOrder.BIG_ENDIAN);
+        if (index.getInt() != MapTiler.MAGIC) {
+            System.err.println(file + ": bad magic");
+            return 1;
+        }
+        int tileSize = index.getShort();
+        index.getShort();
+        index.getShort();
+        int levels = index.get();
+        int tiles = 0;
+        for (int l = 0; l < levels; l++) {
+            index.getShort();
+            index.getShort();
+            tiles += index.getShort() * index.getShort();
+        }
+        int errors = 0;
+        for (int t = 0; t < tiles; t++) {
+            int offset = index.getInt();
+            int length = index.getInt();
+            errors += check(file + "#" + t, mapped, offset, bytes);
+            if (length != PkmFile.HEADER_SIZE + PkmFile.dataSize(tileSize, tileSize)) {
+                System.err.println(file + "#" + t + ": length " + length);
+                errors++;
+            }
+        }
+        System.out.println(file + ": " + tiles + " tiles of " + tileSize);
+        return errors;
+    }
+
+    private static int check(String name, ByteBuffer mapped, int offset, byte[] bytes) {
+        PkmFile pkm;
+        try {
+            pkm = PkmFile.parse(mapped, offset);
+        } catch (IOException e) {
+            System.err.println(name + ": " + e.getMessage());
+            return 1;
+        }
+        ByteBuffer data = pkm.data;
+        if (!data.isDirect() || data.position() != 0
+                || data.remaining() != PkmFile.dataSize(pkm.width, pkm.height)) {
+            System.err.println(name + ": data is not a mapped view");
+            return 1;
+        }
+        for (int i = 0; i < data.remaining(); i++) {
+            if (data.get(i) != bytes[offset + PkmFile.HEADER_SIZE + i]) {
+                System.err.println(name + ": data differs at " + i);
+                return 1;
+            }
+        }
+        if (offset == 0) {
+            System.out.println(name + ": " + pkm.width + "x" + pkm.height + " (" + pkm.originalWidth
+                    + "x" + pkm.originalHeight + "), " + data.remaining() + " bytes");
+        }
+        return 0;
+    }
+}
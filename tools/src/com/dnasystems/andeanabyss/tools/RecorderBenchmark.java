@@ -0,0 +1,166 @@
+package com.dnasystems.andeanabyss.tools;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import com.dnasystems.andeanabyss.CommandBuffer;
+import com.dnasystems.andeanabyss.FrameRecorder;
+import com.dnasystems.andeanabyss.FrameSnapshot;
+import com.dnasystems.andeanabyss.PieceStore;
+
+/**
+ * Records the pieces of random FrameSnapshots into CommandBuffers the way
+ * GameBoard.draw() does and checks the commands: every visible object
+ * exactly once, the sorted layer ordered by texture, the active object
+ * last, and the worker thread recording the same vertices as an inline
+ * recorder. Then times a frame whose GL side work takes the given
+ * microseconds, recorded inline and recorded on the worker alongside it,
+ * and prints both as CSV.
+ *
+ * <pre>
+ * java com.dnasystems.andeanabyss.tools.RecorderBenchmark [frames] [objects] [gl us]</pre>
+ */
+public class RecorderBenchmark {
+
+    private static final float BOARD_W = 2048;
+    private static final float BOARD_H = 2048 + 1116;
+    private static final int TEXTURES = 3;
+
+    public static void main(String[] args) {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int objects = args.length > 1 ? Integer.parseInt(args[1]) : 160;
+        long glNanos = (args.length > 2 ? Long.parseLong(args[2]) : 200) * 1000;
+
+        Random rnd = new Random(1);
+        // An image of its own per object with the object index in u, so a
+        // quad can be traced back
+        PieceStore pieces = new PieceStore(objects);
+        float[] texCoords = new float[8];
+        for (int i = 0; i < objects; i++) {
+            for (int c = 0; c < 8; c += 2) {
+                texCoords[c] = i;
+            }
+            pieces.add(pieces.addImage("image" + i, 1 + rnd.nextInt(TEXTURES), texCoords, 30, 47));
+        }
+        FrameRecorder inline = new FrameRecorder(pieces, 1, false);
+        FrameRecorder worker = new FrameRecorder(pieces, 1, true);
+        FrameSnapshot[] snapshots = new FrameSnapshot[64];
+        for (int s = 0; s < snapshots.length; s++) {
+            snapshots[s] = randomSnapshot(rnd, objects);
+        }
+
+        for (FrameSnapshot f : snapshots) {
+            CommandBuffer a = inline.record(f);
+            check(pieces, f, a, inline.getDrawnCount());
+            float[] expected = Arrays.copyOf(a.getVertices(),
+                    a.getQuadCount() * CommandBuffer.FLOATS_PER_SPRITE);
+            worker.start(f);
+            CommandBuffer b = worker.finish();
+            float[] actual = Arrays.copyOf(b.getVertices(),
+                    b.getQuadCount() * CommandBuffer.FLOATS_PER_SPRITE);
+            if (!Arrays.equals(expected, actual)) {
+                throw new AssertionError("worker recorded other vertices");
+            }
+        }
+
+        long sink = 0;
+        long serial = Long.MAX_VALUE;
+        long overlapped = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            long t0 = System.nanoTime();
+            for (int i = 0; i < frames; i++) {
+                FrameSnapshot f = snapshots[i & 63];
+                inline.start(f);
+                sink += glWork(glNanos);
+                sink += inline.finish().getCommandCount();
+            }
+            long t1 = System.nanoTime();
+            for (int i = 0; i < frames; i++) {
+                FrameSnapshot f = snapshots[i & 63];
+                worker.start(f);
+                sink += glWork(glNanos);
+                sink += worker.finish().getCommandCount();
+            }
+            long t2 = System.nanoTime();
+            serial = Math.min(serial, t1 - t0);
+            overlapped = Math.min(overlapped, t2 - t1);
+        }
+        worker.quit();
+
+        long t0 = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            sink += inline.record(snapshots[i & 63]).getQuadCount();
+        }
+        long record = System.nanoTime() - t0;
+
+        System.out.println("objects,cpus,record_us,inline_frame_us,worker_frame_us,speedup,sink");
+        System.out.printf("%d,%d,%.2f,%.2f,%.2f,%.2f,%d%n", objects,
+                Runtime.getRuntime().availableProcessors(), record / 1e3 / frames,
+                serial / 1e3 / frames, overlapped / 1e3 / frames,
+                serial / (double)overlapped, sink & 1);
+    }
+
+    private static FrameSnapshot randomSnapshot(Random rnd, int objects) {
+        FrameSnapshot f = new FrameSnapshot(objects);
+        f.mZoom = 0.3f + rnd.nextFloat() * 0.7f;
+        f.mWidth = 1280;
+        f.mHeight = 800;
+        f.mPosX = -rnd.nextFloat() * (BOARD_W * f.mZoom - f.mWidth);
+        f.mPosY = -rnd.nextFloat() * (BOARD_H * f.mZoom - f.mHeight);
+        f.mActive = rnd.nextBoolean() ? rnd.nextInt(objects) : -1;
+        for (int i = 0; i < objects; i++) {
+            f.mX[i] = rnd.nextFloat() * BOARD_W;
+            f.mY[i] = rnd.nextFloat() * BOARD_H;
+            f.mImage[i] = i;
+        }
+        return f;
+    }
+
+    private static void check(PieceStore pieces, FrameSnapshot f, CommandBuffer b, int drawn) {
+        float x0 = -f.mPosX / f.mZoom;
+        float y0 = -f.mPosY / f.mZoom;
+        float x1 = (f.mWidth - f.mPosX) / f.mZoom;
+        float y1 = (f.mHeight - f.mPosY) / f.mZoom;
+        int[] seen = new int[f.mX.length];
+        float[] v = b.getVertices();
+        int lastTexture = 0;
+        for (int c = 0; c < b.getCommandCount(); c++) {
+            boolean activeLayer = b.getLayer(c) == 1;
+            if (!activeLayer && b.getTexture(c) < lastTexture) {
+                throw new AssertionError("sorted layer out of order at command " + c);
+            }
+            lastTexture = b.getTexture(c);
+            for (int q = b.getFirst(c); q < b.getFirst(c) + b.getQuadCount(c); q++) {
+                int i = (int)v[q * CommandBuffer.FLOATS_PER_SPRITE + 3];
+                seen[i]++;
+                if (pieces.getTexture(f.mImage[i]) != b.getTexture(c) || -v[q * CommandBuffer.FLOATS_PER_SPRITE] != f.mX[i]) {
+                    throw new AssertionError("object " + i + " recorded wrong");
+                }
+                if (activeLayer != (i == f.mActive)) {
+                    throw new AssertionError("object " + i + " in the wrong layer");
+                }
+            }
+        }
+        int visible = 0;
+        for (int i = 0; i < f.mX.length; i++) {
+            boolean in = f.mX[i] < x1 && f.mX[i] + 30 > x0 && f.mY[i] < y1 && f.mY[i] + 47 > y0;
+            if (seen[i] != (in ? 1 : 0)) {
+                throw new AssertionError("object " + i + " recorded " + seen[i] + " times");
+            }
+            visible += seen[i];
+        }
+        if (visible != drawn || visible != b.getQuadCount()) {
+            throw new AssertionError(visible + " visible, " + drawn + " counted drawn");
+        }
+    }
+
+    // Stands in for the map tiles the GL thread draws meanwhile
+    private static long glWork(long nanos) {
+        long end = System.nanoTime() + nanos;
+        long n = 0;
+        while (System.nanoTime() < end) {
+            n++;
+        }
+        return n;
+    }
+}
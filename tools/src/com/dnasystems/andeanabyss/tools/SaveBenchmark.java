@@ -0,0 +1,148 @@
+package com.dnasystems.andeanabyss.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.dnasystems.andeanabyss.game.CardDeck;
+import com.dnasystems.andeanabyss.game.GameState;
+import com.dnasystems.andeanabyss.game.Rules;
+import com.dnasystems.andeanabyss.game.SaveFile;
+import com.dnasystems.andeanabyss.game.Spaces;
+
+/**
+ * Writes and reads back the states, the faction to move and the deck of a
+ * random game with SaveFile, checks every round trip, that damaged files
+ * are refused and that files of versions 1 and 2, without the deck and
+ * the faction to move, still load, and prints the file
+ * size and the median and worst write and load times in microseconds as
+ * CSV.
+ *
+ * <pre>
+ * java com.dnasystems.andeanabyss.tools.SaveBenchmark [states] [directory]</pre>
+ */
+public class SaveBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        File dir = new File(args.length > 1 ? args[1] : System.getProperty("java.io.tmpdir"));
+        File file = new File(dir, "SaveBenchmark.sav");
+
+        SaveFile save = new SaveFile();
+        GameState s = start();
+        GameState loaded = new GameState();
+        CardDeck deck = new CardDeck(new Random(2));
+        CardDeck loadedDeck = new CardDeck(new Random(3));
+        int[] moves = new int[Rules.MAX_MOVES];
+        Random rnd = new Random(1);
+        long[] writes = new long[count];
+        long[] reads = new long[count];
+        for (int i = 0; i < count; i++) {
+            int n = Rules.generate(s, i % GameState.FACTIONS, moves);
+            Rules.apply(s, moves[rnd.nextInt(n)], rnd);
+            if (i % GameState.FACTIONS == 0) {
+                deck.flip();
+            }
+            int toMove = (i + 1) % GameState.FACTIONS;
+            long t0 = System.nanoTime();
+            save.write(s, toMove, deck, file);
+            long t1 = System.nanoTime();
+            int loadedToMove = save.read(file, loaded, loadedDeck);
+            long t2 = System.nanoTime();
+            writes[i] = t1 - t0;
+            reads[i] = t2 - t1;
+            if (!loaded.equals(s) || loaded.hash() != s.hash()) {
+                throw new AssertionError("round trip " + i + " changed the state");
+            }
+            if (loadedToMove != toMove) {
+                throw new AssertionError("round trip " + i + " changed the faction to move");
+            }
+            if (loadedDeck.hash() != deck.hash() || loadedDeck.current() != deck.current()
+                    || loadedDeck.getPosition() != deck.getPosition()) {
+                throw new AssertionError("round trip " + i + " changed the deck");
+            }
+        }
+        checkDamaged(save, file, 100);
+        save.write(s, GameState.FARC, deck, file);
+        checkDamaged(save, file, SaveFile.SIZE - 30);
+        save.write(s, GameState.FARC, deck, file);
+        // Not a faction
+        checkDamaged(save, file, SaveFile.SIZE - 1);
+        checkOldVersion(save, s, deck, file, 1, SaveFile.SIZE - CardDeck.CARDS - 2 - 8 - 1);
+        checkOldVersion(save, s, deck, file, 2, SaveFile.SIZE - 1);
+        file.delete();
+
+        Arrays.sort(writes);
+        Arrays.sort(reads);
+        System.out.println("states,bytes,write_us_p50,write_us_max,load_us_p50,load_us_max");
+        System.out.printf("%d,%d,%.1f,%.1f,%.1f,%.1f%n", count, SaveFile.SIZE,
+                writes[count / 2] / 1e3, writes[count - 1] / 1e3,
+                reads[count / 2] / 1e3, reads[count - 1] / 1e3);
+    }
+
+    // Flip one byte of the file, in the state or in the deck, the load
+    // must fail and leave state and deck alone
+    private static void checkDamaged(SaveFile save, File file, int offset) throws IOException {
+        GameState s = new GameState();
+        CardDeck deck = new CardDeck(new Random(4));
+        long deckHash = deck.hash();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(offset);
+            int b = raf.read();
+            raf.seek(offset);
+            raf.write(b ^ 0x40);
+        } finally {
+            raf.close();
+        }
+        try {
+            save.read(file, s, deck);
+            throw new AssertionError("damaged file loaded, byte " + offset);
+        } catch (IOException expected) {
+            if (!s.equals(new GameState()) || deck.hash() != deckHash) {
+                throw new AssertionError("failed load changed the game");
+            }
+        }
+    }
+
+    // A file of an earlier version, cut to its length: the state loads,
+    // the deck saved from version 2 on, Government moves before version 3
+    private static void checkOldVersion(SaveFile save, GameState s, CardDeck deck, File file,
+            int version, int length) throws IOException {
+        save.write(s, GameState.CARTELS, deck, file);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(4);
+            raf.write(version);
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+        GameState loaded = new GameState();
+        CardDeck loadedDeck = new CardDeck(new Random(5));
+        long deckHash = version >= 2 ? deck.hash() : loadedDeck.hash();
+        int toMove = save.read(file, loaded, loadedDeck);
+        if (!loaded.equals(s) || loadedDeck.hash() != deckHash || toMove != GameState.GOV) {
+            throw new AssertionError("version " + version + " file loaded wrong");
+        }
+    }
+
+    private static GameState start() {
+        GameState s = new GameState();
+        s.setResources(GameState.GOV, 40);
+        s.setResources(GameState.FARC, 10);
+        s.setResources(GameState.AUC, 5);
+        s.setResources(GameState.CARTELS, 10);
+        s.place(GameState.TROOPS, Spaces.BOGOTA, 6);
+        s.place(GameState.POLICE, Spaces.BOGOTA, 4);
+        s.place(GameState.FARC_UNDERGROUND, Spaces.META_WEST, 4);
+        s.place(GameState.AUC_UNDERGROUND, Spaces.ANTIOQUIA, 2);
+        s.place(GameState.CARTELS_UNDERGROUND, Spaces.PUTUMAYO, 2);
+        s.setShipment(0, Spaces.PUTUMAYO, GameState.CARTELS);
+        s.setSabotage(Spaces.NEIVA_PASTO, true);
+        s.setEventInPlay(3, true);
+        return s;
+    }
+}
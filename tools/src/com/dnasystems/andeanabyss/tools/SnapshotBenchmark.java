@@ -0,0 +1,83 @@
+package com.dnasystems.andeanabyss.tools;
+
+import com.dnasystems.andeanabyss.FrameSnapshot;
+import com.dnasystems.andeanabyss.SnapshotBuffer;
+
+/**
+ * Publishes FrameSnapshots from one thread while another acquires them,
+ * like the simulation and render sides do. Every snapshot is filled with
+ * its own number, so a reader that sees two numbers in one frame caught a
+ * torn frame. Prints publishes and acquires per second, the frames the
+ * reader skipped and the torn frames, which must be 0, as CSV.
+ *
+ * <pre>
+ * java com.dnasystems.andeanabyss.tools.SnapshotBenchmark [ms] [objects]</pre>
+ */
+public class SnapshotBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        long millis = args.length > 0 ? Long.parseLong(args[0]) : 2000;
+        int objects = args.length > 1 ? Integer.parseInt(args[1]) : 160;
+
+        final SnapshotBuffer buffer = new SnapshotBuffer(objects);
+        final long deadline = System.nanoTime() + millis * 1000000L;
+        final long[] published = new long[1];
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long n = 0;
+                while (System.nanoTime() < deadline) {
+                    n++;
+                    FrameSnapshot f = buffer.back();
+                    f.mPosX = n;
+                    f.mPosY = n;
+                    f.mZoom = n;
+                    for (int i = 0; i < f.mX.length; i++) {
+                        f.mX[i] = n;
+                        f.mY[i] = n;
+                    }
+                    buffer.publish();
+                }
+                published[0] = n;
+            }
+        }, "writer");
+
+        long t0 = System.nanoTime();
+        writer.start();
+        long acquires = 0;
+        long fresh = 0;
+        long torn = 0;
+        long last = 0;
+        while (System.nanoTime() < deadline) {
+            FrameSnapshot f = buffer.acquire();
+            acquires++;
+            long seq = f.mSequence;
+            if (seq < last) {
+                throw new AssertionError("snapshot " + seq + " after " + last);
+            }
+            if (seq != last) {
+                fresh++;
+                last = seq;
+            }
+            // Floats hold the numbers exactly up to 2^24
+            float n = f.mPosX;
+            boolean whole = f.mPosY == n && f.mZoom == n && (seq == 0 || n == (float)seq);
+            for (int i = 0; i < f.mX.length && whole; i++) {
+                whole = f.mX[i] == n && f.mY[i] == n;
+            }
+            if (!whole) {
+                torn++;
+            }
+            Thread.yield();
+        }
+        writer.join();
+        double seconds = (System.nanoTime() - t0) / 1e9;
+
+        System.out.println("objects,publishes_per_sec,acquires_per_sec,skipped,torn");
+        System.out.printf("%d,%.0f,%.0f,%d,%d%n", objects, published[0] / seconds,
+                acquires / seconds, last - fresh, torn);
+        if (torn > 0) {
+            throw new AssertionError(torn + " torn frames");
+        }
+    }
+}